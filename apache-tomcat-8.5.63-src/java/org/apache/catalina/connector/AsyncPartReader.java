@@ -0,0 +1,595 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.http.Part;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.MultipartParser;
+import org.apache.tomcat.util.http.Parameters;
+import org.apache.tomcat.util.http.Parameters.FailReason;
+import org.apache.tomcat.util.http.fileupload.ParameterParser;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Reads the parts of a multipart request using non-blocking I/O. This is an
+ * alternative to {@link Request#getParts()} for applications that do not
+ * want to block a container thread while a large request body is received.
+ * <p>
+ * The request must be in asynchronous mode. The same multipart configuration,
+ * upload location and limits are used as for {@link Request#getParts()}.
+ * Parts that exceed the file size threshold are written directly from the
+ * read buffer to a temporary file using a {@link FileChannel} and each part is
+ * passed to the {@link Listener} as soon as it is complete. Form fields are
+ * also added to the request parameters. Once all parts have been read they
+ * are also available from {@link Request#getParts()} and the temporary files
+ * are deleted when the request is recycled. While the parts are being read,
+ * {@link Request#getParts()} throws an {@link IllegalStateException}.
+ * <p>
+ * Parts without a form-data Content-Disposition with a name are ignored.
+ */
+public class AsyncPartReader implements ReadListener, MultipartParser.Handler {
+
+    private static final StringManager sm = StringManager.getManager(AsyncPartReader.class);
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+
+    /**
+     * Start reading the parts of a multipart request. This method returns
+     * immediately and the listener is notified as parts are read.
+     *
+     * @param request  The request which must be in asynchronous mode
+     * @param listener The listener to notify as parts are read
+     *
+     * @throws IOException           If the upload location is not valid
+     * @throws ServletException      If the request is not a multipart request
+     * @throws IllegalStateException If the request is not in asynchronous
+     *                                   mode, the request has no multipart
+     *                                   configuration, the request is too
+     *                                   large or the parts of the request have
+     *                                   already been read
+     */
+    public static void start(ServletRequest request, Listener listener)
+            throws IOException, ServletException {
+
+        ServletRequest unwrapped = request;
+        while (unwrapped instanceof ServletRequestWrapper) {
+            unwrapped = ((ServletRequestWrapper) unwrapped).getRequest();
+        }
+        Request req;
+        if (unwrapped instanceof RequestFacade) {
+            req = ((RequestFacade) unwrapped).request;
+        } else if (unwrapped instanceof Request) {
+            req = (Request) unwrapped;
+        } else {
+            throw new IllegalArgumentException(sm.getString("asyncPartReader.notTomcatRequest"));
+        }
+        if (req == null) {
+            throw new IllegalStateException(sm.getString("requestFacade.nullRequest"));
+        }
+
+        if (req.parts != null || req.partsParseException != null) {
+            throw new IllegalStateException(sm.getString("asyncPartReader.partsRead"));
+        }
+        if (!req.isAsyncStarted()) {
+            throw new IllegalStateException(sm.getString("asyncPartReader.notAsync"));
+        }
+
+        MultipartConfigElement mce = req.getMultipartConfigElement();
+        if (mce == null) {
+            throw new IllegalStateException(sm.getString("coyoteRequest.noMultipartConfig"));
+        }
+
+        Parameters parameters = req.getCoyoteRequest().getParameters();
+        parameters.setLimit(req.getConnector().getMaxParameterCount());
+
+        String contentType = req.getContentType();
+        if (contentType == null ||
+                !contentType.toLowerCase(Locale.ENGLISH).startsWith("multipart/")) {
+            parameters.setParseFailedReason(FailReason.INVALID_CONTENT_TYPE);
+            throw new ServletException(sm.getString("asyncPartReader.invalidContentType",
+                    contentType));
+        }
+        ParameterParser parser = new ParameterParser();
+        parser.setLowerCaseNames(true);
+        String boundary = parser.parse(contentType, new char[] {';', ','}).get("boundary");
+        if (boundary == null || boundary.length() == 0) {
+            parameters.setParseFailedReason(FailReason.INVALID_CONTENT_TYPE);
+            throw new ServletException(sm.getString("asyncPartReader.noBoundary"));
+        }
+
+        long maxRequestSize = mce.getMaxRequestSize();
+        long contentLength = req.getContentLengthLong();
+        if (maxRequestSize > -1 && contentLength > maxRequestSize) {
+            parameters.setParseFailedReason(FailReason.POST_TOO_LARGE);
+            req.checkSwallowInput();
+            throw new IllegalStateException(sm.getString("asyncPartReader.requestTooLarge",
+                    Long.valueOf(maxRequestSize)));
+        }
+
+        File location = req.getUploadLocation(mce);
+        if (!location.isDirectory()) {
+            parameters.setParseFailedReason(FailReason.MULTIPART_CONFIG_INVALID);
+            throw new IOException(sm.getString("coyoteRequest.uploadLocationInvalid", location));
+        }
+
+        Charset headerCharset = null;
+        String encoding = req.getCharacterEncoding();
+        if (encoding != null) {
+            headerCharset = B2CConverter.getCharset(encoding);
+        }
+
+        AsyncPartReader reader = new AsyncPartReader(req, mce, location.getCanonicalFile(),
+                boundary, headerCharset, listener);
+        ServletInputStream inputStream = req.getInputStream();
+        // The container may call the ReadListener (on another thread) as soon
+        // as it is set so everything it depends on must be in place first
+        req.partsParseException = new IllegalStateException(
+                sm.getString("asyncPartReader.inProgress"));
+        req.getAsyncContext().addListener(reader.new AbortListener());
+        try {
+            inputStream.setReadListener(reader);
+        } catch (RuntimeException e) {
+            // Nothing will be read so the AbortListener must not report a
+            // failure for this reader
+            reader.finished = true;
+            req.partsParseException = null;
+            throw e;
+        }
+    }
+
+
+    private final Request request;
+    private final Parameters parameters;
+    private final Listener listener;
+    private final MultipartParser parser;
+    private final File location;
+    private final long maxFileSize;
+    private final long maxRequestSize;
+    private final int fileSizeThreshold;
+    private final int maxPostSize;
+    private final Charset charset;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int limit = 0;
+    private long received = 0;
+    private int postSize = 0;
+
+    private final List<Part> parts = new ArrayList<>();
+    private SpooledPart currentPart = null;
+    private boolean finished = false;
+
+
+    private AsyncPartReader(Request request, MultipartConfigElement mce, File location,
+            String boundary, Charset headerCharset, Listener listener) {
+        this.request = request;
+        this.parameters = request.getCoyoteRequest().getParameters();
+        this.listener = listener;
+        this.parser = new MultipartParser(boundary, headerCharset, this);
+        this.location = location;
+        this.maxFileSize = mce.getMaxFileSize();
+        this.maxRequestSize = mce.getMaxRequestSize();
+        this.fileSizeThreshold = mce.getFileSizeThreshold();
+        this.maxPostSize = request.getConnector().getMaxPostSize();
+        this.charset = request.getCharset();
+    }
+
+
+    // ------------------------------------------------------- ReadListener
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        ServletInputStream inputStream = request.getInputStream();
+        while (!finished && inputStream.isReady()) {
+            int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                break;
+            }
+            received += read;
+            if (maxRequestSize > -1 && received > maxRequestSize) {
+                parameters.setParseFailedReason(FailReason.POST_TOO_LARGE);
+                throw new IllegalStateException(sm.getString(
+                        "asyncPartReader.requestTooLarge", Long.valueOf(maxRequestSize)));
+            }
+            limit += read;
+            int consumed = parser.parse(buffer, 0, limit);
+            limit -= consumed;
+            if (limit > 0 && consumed > 0) {
+                // Only a partial delimiter or incomplete headers remain
+                System.arraycopy(buffer, consumed, buffer, 0, limit);
+            }
+        }
+    }
+
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (!parser.isComplete()) {
+            parameters.setParseFailedReason(FailReason.REQUEST_BODY_INCOMPLETE);
+            throw new IOException(sm.getString("asyncPartReader.incomplete"));
+        }
+        finished = true;
+        request.parts = parts;
+        request.partsParseException = null;
+        listener.onAllParts();
+    }
+
+
+    @Override
+    public void onError(Throwable t) {
+        if (finished) {
+            return;
+        }
+        abort(t);
+        listener.onError(t);
+    }
+
+
+    /*
+     * Make the parts read so far available for clean-up when the request is
+     * recycled and record the failure.
+     */
+    private void abort(Throwable t) {
+        finished = true;
+        if (currentPart != null) {
+            currentPart.delete();
+            currentPart = null;
+        }
+        parameters.setParseFailedReason(FailReason.UNKNOWN);
+        request.parts = parts;
+        if (t instanceof IOException || t instanceof IllegalStateException) {
+            request.partsParseException = (Exception) t;
+        } else {
+            request.partsParseException = new IOException(t);
+        }
+    }
+
+
+    // -------------------------------------------- MultipartParser.Handler
+
+    @Override
+    public void startPart(MimeHeaders headers) throws IOException {
+        String name = null;
+        String fileName = null;
+        String cd = headers.getHeader("Content-Disposition");
+        if (cd != null) {
+            String cdl = cd.toLowerCase(Locale.ENGLISH);
+            if (cdl.startsWith("form-data")) {
+                ParameterParser paramParser = new ParameterParser();
+                paramParser.setLowerCaseNames(true);
+                Map<String,String> params = paramParser.parse(cd, ';');
+                name = params.get("name");
+                if (name != null) {
+                    name = name.trim();
+                }
+                if (params.containsKey("filename")) {
+                    fileName = params.get("filename");
+                    if (fileName == null) {
+                        fileName = "";
+                    } else if (fileName.indexOf('\\') > -1) {
+                        // RFC 6266 quoted-string
+                        fileName = HttpParser.unquote(fileName.trim());
+                    } else {
+                        fileName = fileName.trim();
+                    }
+                }
+            }
+        }
+        if (name == null) {
+            // Not a form field or file. The body will be ignored.
+            currentPart = null;
+        } else {
+            currentPart = new SpooledPart(name, fileName, headers, location);
+        }
+    }
+
+
+    @Override
+    public void partData(byte[] buf, int off, int len) throws IOException {
+        if (currentPart == null) {
+            return;
+        }
+        if (maxFileSize > -1 && currentPart.size + len > maxFileSize) {
+            parameters.setParseFailedReason(FailReason.POST_TOO_LARGE);
+            throw new IllegalStateException(sm.getString("asyncPartReader.fileTooLarge",
+                    currentPart.name, Long.valueOf(maxFileSize)));
+        }
+        currentPart.write(buf, off, len, fileSizeThreshold);
+    }
+
+
+    @Override
+    public void endPart() throws IOException {
+        SpooledPart part = currentPart;
+        if (part == null) {
+            return;
+        }
+        currentPart = null;
+        part.close();
+        parts.add(part);
+
+        if (part.fileName == null) {
+            // Form field. Treat it as a parameter, as getParts() does.
+            String value = part.getString(charset);
+            if (maxPostSize >= 0) {
+                postSize += part.name.getBytes(charset).length + part.size + 2;
+                if (postSize > maxPostSize) {
+                    parameters.setParseFailedReason(FailReason.POST_TOO_LARGE);
+                    throw new IllegalStateException(sm.getString(
+                            "coyoteRequest.maxPostSizeExceeded"));
+                }
+            }
+            parameters.addParameter(part.name, value);
+        }
+
+        listener.onPart(part);
+    }
+
+
+    private class AbortListener implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            if (!finished) {
+                abort(new IOException(sm.getString("asyncPartReader.incomplete")));
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            // NO-OP. onComplete() will follow.
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            // NO-OP. onComplete() will follow.
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // NO-OP
+        }
+    }
+
+
+    /**
+     * Receives notification of the parts read by an {@link AsyncPartReader}.
+     * All methods are called on a container thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a part has been read completely.
+         *
+         * @param part The part
+         *
+         * @throws IOException If the application fails to process the part.
+         *                     Reading will stop and {@link #onError(Throwable)}
+         *                     will be called.
+         */
+        void onPart(Part part) throws IOException;
+
+        /**
+         * Called when all the parts have been read.
+         *
+         * @throws IOException If the application fails to process the parts
+         */
+        void onAllParts() throws IOException;
+
+        /**
+         * Called if reading the parts fails. No further notifications will be
+         * made.
+         *
+         * @param t The cause of the failure
+         */
+        void onError(Throwable t);
+    }
+
+
+    /*
+     * A part that is held in memory until it exceeds the file size threshold
+     * and is then written to a temporary file.
+     */
+    private static final class SpooledPart implements Part {
+
+        private final String name;
+        private final String fileName;
+        private final MimeHeaders headers;
+        private final File location;
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private byte[] data = null;
+        private File file = null;
+        private boolean temporary = false;
+        private FileChannel channel = null;
+        private long size = 0;
+
+        private SpooledPart(String name, String fileName, MimeHeaders headers, File location) {
+            this.name = name;
+            this.fileName = fileName;
+            this.headers = headers;
+            this.location = location;
+        }
+
+        private void write(byte[] buf, int off, int len, int threshold) throws IOException {
+            size += len;
+            if (channel == null && size <= threshold) {
+                memory.write(buf, off, len);
+                return;
+            }
+            if (channel == null) {
+                file = File.createTempFile("upload_", ".tmp", location);
+                temporary = true;
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+                writeFully(ByteBuffer.wrap(memory.toByteArray()));
+                memory = null;
+            }
+            writeFully(ByteBuffer.wrap(buf, off, len));
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+
+        private void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            } else if (memory != null) {
+                data = memory.toByteArray();
+                memory = null;
+            }
+        }
+
+        private String getString(Charset charset) throws IOException {
+            if (file != null) {
+                return new String(Files.readAllBytes(file.toPath()), charset);
+            }
+            return new String(data, charset);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (file != null) {
+                return Files.newInputStream(file.toPath());
+            }
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public String getContentType() {
+            return headers.getHeader("Content-Type");
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getSubmittedFileName() {
+            return fileName;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public void write(String fileName) throws IOException {
+            File target = new File(fileName);
+            if (!target.isAbsolute()) {
+                target = new File(location, fileName);
+            }
+            if (file == null) {
+                Files.write(target.toPath(), data);
+            } else {
+                try {
+                    Files.move(file.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ioe) {
+                    Files.copy(file.toPath(), target.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Files.delete(file.toPath());
+                }
+                file = target;
+                temporary = false;
+            }
+        }
+
+        @Override
+        public void delete() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignore) {
+                    // Ignore
+                }
+                channel = null;
+            }
+            if (file != null && temporary) {
+                if (!file.delete() && file.exists()) {
+                    file.deleteOnExit();
+                }
+                file = null;
+                temporary = false;
+                data = new byte[0];
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.getHeader(name);
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name) {
+            LinkedHashSet<String> values = new LinkedHashSet<>();
+            Enumeration<String> e = headers.values(name);
+            while (e.hasMoreElements()) {
+                values.add(e.nextElement());
+            }
+            return values;
+        }
+
+        @Override
+        public Collection<String> getHeaderNames() {
+            LinkedHashSet<String> names = new LinkedHashSet<>();
+            Enumeration<String> e = headers.names();
+            while (e.hasMoreElements()) {
+                names.add(e.nextElement());
+            }
+            return names;
+        }
+    }
+}
@@ -218,6 +218,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should parameters be recorded when they are parsed and only decoded
+     * when they are accessed? False by default.
+     */
+    private boolean lazyParameterDecoding = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -289,6 +295,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     private Charset uriCharset = StandardCharsets.UTF_8;
 
+    /**
+     * Does the URI charset decode US-ASCII bytes to the same characters? True
+     * for the default charsets.
+     */
+    private boolean uriCharsetAsciiSuperset = true;
+
 
     /**
      * The behavior when an encoded solidus (slash) is submitted.
@@ -509,6 +521,28 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * @return {@code true} if request parameters are decoded when they are
+     *         accessed rather than when they are parsed
+     */
+    public boolean getLazyParameterDecoding() {
+        return lazyParameterDecoding;
+    }
+
+
+    /**
+     * Configure whether request parameters are decoded when they are accessed
+     * rather than when they are parsed. Parsing always validates the
+     * parameters and enforces the maximum parameter count so the parse
+     * failures reported are the same with either setting.
+     *
+     * @param lazyParameterDecoding The new setting
+     */
+    public void setLazyParameterDecoding(boolean lazyParameterDecoding) {
+        this.lazyParameterDecoding = lazyParameterDecoding;
+    }
+
+
     /**
      * @return the maximum size of a POST which will be automatically
      * parsed by the container.
@@ -829,6 +863,10 @@ public class Connector extends LifecycleMBeanBase  {
         return uriCharset;
     }
 
+    boolean isURICharsetAsciiSuperset() {
+        return uriCharsetAsciiSuperset;
+    }
+
     /**
      * Set the URI encoding to be used for the URI.
      *
@@ -837,10 +875,12 @@ public class Connector extends LifecycleMBeanBase  {
     public void setURIEncoding(String URIEncoding) {
         try {
              Charset charset = B2CConverter.getCharset(URIEncoding);
-             if (!CharsetUtil.isAsciiSuperset(charset)) {
+             boolean asciiSuperset = CharsetUtil.isAsciiSuperset(charset);
+             if (!asciiSuperset) {
                  log.error(sm.getString("coyoteConnector.notAsciiSuperset", URIEncoding));
              }
              uriCharset = charset;
+             uriCharsetAsciiSuperset = asciiSuperset;
         } catch (UnsupportedEncodingException e) {
             log.error(sm.getString("coyoteConnector.invalidEncoding", URIEncoding, uriCharset.name()), e);
         }
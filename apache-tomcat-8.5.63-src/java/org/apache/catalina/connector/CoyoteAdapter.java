@@ -46,7 +46,10 @@ import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.EncodedSolidusHandling;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.buf.UDecoder;
 import org.apache.tomcat.util.http.ServerCookie;
 import org.apache.tomcat.util.http.ServerCookies;
 import org.apache.tomcat.util.net.SSLSupport;
@@ -82,6 +85,15 @@ public class CoyoteAdapter implements Adapter {
         Boolean.parseBoolean(System.getProperty("org.apache.catalina.connector.CoyoteAdapter.ALLOW_BACKSLASH", "false"));
 
 
+    /*
+     * Results of decodeAndNormalize()
+     */
+    private static final int DECODE_FAILED = -2;
+    private static final int NOT_NORMALIZED = -1;
+    private static final int NORMALIZED_ASCII = 0;
+    private static final int NORMALIZED = 1;
+
+
     private static final ThreadLocal<String> THREAD_NAME =
             new ThreadLocal<String>() {
 
@@ -642,22 +654,29 @@ public class CoyoteAdapter implements Adapter {
             // Parse (and strip out) the path parameters
             parsePathParameters(req, request);
 
-            // URI decoding
-            // %xx decoding of the URL
+            // URI decoding and normalization
+            // %xx decoding of the URL and normalization in a single pass
+            int normalized;
             try {
-                req.getURLDecoder().convert(decodedURI.getByteChunk(), connector.getEncodedSolidusHandlingInternal());
+                normalized = decodeAndNormalize(decodedURI.getByteChunk(), req.getURLDecoder(),
+                        connector.getEncodedSolidusHandlingInternal());
             } catch (IOException ioe) {
+                normalized = DECODE_FAILED;
                 response.sendError(400, "Invalid URI: " + ioe.getMessage());
             }
-            // Normalization
-            if (normalize(req.decodedURI())) {
+            if (normalized == NORMALIZED_ASCII && connector.isURICharsetAsciiSuperset()) {
+                // Character decoding
+                // US-ASCII bytes map directly to chars so no further checks
+                // are required
+                convertMB(decodedURI);
+            } else if (normalized == NORMALIZED_ASCII || normalized == NORMALIZED) {
                 // Character decoding
                 convertURI(decodedURI, request);
                 // Check that the URI is still normalized
                 if (!checkNormalize(req.decodedURI())) {
                     response.sendError(400, "Invalid URI");
                 }
-            } else {
+            } else if (normalized == NOT_NORMALIZED) {
                 response.sendError(400, "Invalid URI");
             }
         } else {
@@ -1251,6 +1270,156 @@ public class CoyoteAdapter implements Adapter {
     }
 
 
+    /**
+     * %xx decodes the URI and normalizes "\", "//", "/./" and "/../" in a
+     * single pass over the bytes, in place. The result is the same as
+     * {@link UDecoder#convert(ByteChunk, EncodedSolidusHandling)} followed by
+     * {@link #normalize(MessageBytes)} but a URI that requires no changes is
+     * only read once and never copied.
+     *
+     * @param uriBC                  URI to be decoded and normalized
+     * @param decoder                Decoder used to report invalid %xx
+     *                                   sequences
+     * @param encodedSolidusHandling How %2f sequences should be handled
+     *
+     * @return {@link #NOT_NORMALIZED} if normalizing this URI would require
+     *         going above the root, or if the URI contains a null byte,
+     *         {@link #NORMALIZED_ASCII} if no byte outside US-ASCII was
+     *         written to the result, otherwise {@link #NORMALIZED}
+     *
+     * @throws IOException Invalid %xx URL encoding or a rejected %2f sequence
+     */
+    private static int decodeAndNormalize(ByteChunk uriBC, UDecoder decoder,
+            EncodedSolidusHandling encodedSolidusHandling) throws IOException {
+
+        final byte[] b = uriBC.getBytes();
+        final int start = uriBC.getStart();
+        final int end = uriBC.getEnd();
+
+        // An empty URL is not acceptable
+        if (start == end) {
+            return NOT_NORMALIZED;
+        }
+
+        boolean ascii = true;
+        int in = start;
+        int out = start;
+
+        while (in < end) {
+            byte c = b[in];
+            if (c == (byte) '%') {
+                int decoded = -1;
+                if (in + 2 < end) {
+                    decoded = HexUtils.getDec(b[in + 1]) << 4 | HexUtils.getDec(b[in + 2]);
+                }
+                if (decoded < 0 || decoded == '/' &&
+                        encodedSolidusHandling == EncodedSolidusHandling.REJECT) {
+                    // Let the decoder report the error exactly as it would for
+                    // the original URI
+                    ByteChunk invalid = new ByteChunk();
+                    invalid.setBytes(b, in, end - in);
+                    decoder.convert(invalid, encodedSolidusHandling);
+                    return NOT_NORMALIZED;
+                }
+                if (decoded == '/' &&
+                        encodedSolidusHandling == EncodedSolidusHandling.PASS_THROUGH) {
+                    // The URL must start with '/'
+                    if (out == start) {
+                        return NOT_NORMALIZED;
+                    }
+                    // Not a path separator
+                    b[out++] = b[in++];
+                    b[out++] = b[in++];
+                    b[out++] = b[in++];
+                    continue;
+                }
+                c = (byte) decoded;
+                in += 3;
+            } else {
+                in++;
+            }
+
+            if (c == (byte) '\\') {
+                if (ALLOW_BACKSLASH) {
+                    c = (byte) '/';
+                } else {
+                    return NOT_NORMALIZED;
+                }
+            } else if (c == (byte) 0) {
+                return NOT_NORMALIZED;
+            }
+
+            if (out == start) {
+                // The URL must start with '/'
+                if (c != (byte) '/') {
+                    return NOT_NORMALIZED;
+                }
+                b[out++] = c;
+            } else if (c == (byte) '/') {
+                if (b[out - 1] == (byte) '/') {
+                    // Replace "//" with "/"
+                    continue;
+                }
+                int dotSegmentEnd = removeDotSegment(b, start, out);
+                if (dotSegmentEnd == NOT_NORMALIZED) {
+                    return NOT_NORMALIZED;
+                } else if (dotSegmentEnd == out) {
+                    b[out++] = c;
+                } else {
+                    // Removed "/./" or "/../"; the output ends with '/'
+                    out = dotSegmentEnd;
+                }
+            } else {
+                if (c < 0) {
+                    ascii = false;
+                }
+                b[out++] = c;
+            }
+        }
+
+        // A URI ending with "/." or "/.." is treated as if it ended with an
+        // extra "/"
+        int dotSegmentEnd = removeDotSegment(b, start, out);
+        if (dotSegmentEnd == NOT_NORMALIZED) {
+            return NOT_NORMALIZED;
+        }
+        uriBC.setEnd(dotSegmentEnd);
+
+        return ascii ? NORMALIZED_ASCII : NORMALIZED;
+    }
+
+
+    /*
+     * If the normalized bytes from start to end end with the segment "." or
+     * "..", as if it were followed by '/', returns the new end after removing
+     * that segment (and the preceding segment for ".."). The bytes before the
+     * new end end with '/'. Otherwise returns end, or NOT_NORMALIZED if
+     * removing ".." would require going above the root.
+     */
+    private static int removeDotSegment(byte[] b, int start, int end) {
+        if (b[end - 1] != (byte) '.') {
+            return end;
+        }
+        if (end - start >= 2 && b[end - 2] == (byte) '/') {
+            // "/./"
+            return end - 1;
+        }
+        if (end - start >= 3 && b[end - 2] == (byte) '.' && b[end - 3] == (byte) '/') {
+            // "/../"
+            // Prevent from going outside our context
+            if (end - 3 == start) {
+                return NOT_NORMALIZED;
+            }
+            int pos = end - 4;
+            while (b[pos] != (byte) '/') {
+                pos--;
+            }
+            return pos + 1;
+        }
+        return end;
+    }
+
+
     /**
      * Check that the URI is normalized following character decoding. This
      * method checks for "\", 0, "//", "/./" and "/../".
@@ -1031,7 +1031,7 @@ public class Request implements HttpServletRequest {
     }
 
 
-    private Charset getCharset() {
+    Charset getCharset() {
         Charset charset = null;
         try {
             charset = coyoteRequest.getCharset();
@@ -2875,6 +2875,58 @@ public class Request implements HttpServletRequest {
         return parts;
     }
 
+    /**
+     * @return the multipart configuration for this request, or {@code null}
+     *         if the target servlet has none and casual multipart parsing is
+     *         not allowed
+     */
+    MultipartConfigElement getMultipartConfigElement() {
+        MultipartConfigElement mce = getWrapper().getMultipartConfigElement();
+        if (mce == null && getContext().getAllowCasualMultipartParsing()) {
+            mce = new MultipartConfigElement(null, connector.getMaxPostSize(),
+                    connector.getMaxPostSize(), connector.getMaxPostSize());
+        }
+        return mce;
+    }
+
+
+    /**
+     * Determine the location for files uploaded with this request, creating
+     * it if it does not exist and the Context is configured to do so.
+     *
+     * @param mce The multipart configuration for this request
+     *
+     * @return the upload location which may not be a valid directory
+     */
+    File getUploadLocation(MultipartConfigElement mce) {
+        Context context = getContext();
+        File location;
+        String locationStr = mce.getLocation();
+        if (locationStr == null || locationStr.length() == 0) {
+            location = ((File) context.getServletContext().getAttribute(
+                    ServletContext.TEMPDIR));
+        } else {
+            // If relative, it is relative to TEMPDIR
+            location = new File(locationStr);
+            if (!location.isAbsolute()) {
+                location = new File(
+                        (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR),
+                        locationStr).getAbsoluteFile();
+            }
+        }
+
+        if (!location.exists() && context.getCreateUploadTargets()) {
+            log.warn(sm.getString("coyoteRequest.uploadCreate",
+                    location.getAbsolutePath(), getMappingData().wrapper.getName()));
+            if (!location.mkdirs()) {
+                log.warn(sm.getString("coyoteRequest.uploadCreateFail",
+                        location.getAbsolutePath()));
+            }
+        }
+        return location;
+    }
+
+
     private void parseParts(boolean explicit) {
 
         // Return immediately if the parts have already been parsed
@@ -2882,22 +2934,16 @@ public class Request implements HttpServletRequest {
             return;
         }
 
-        Context context = getContext();
-        MultipartConfigElement mce = getWrapper().getMultipartConfigElement();
+        MultipartConfigElement mce = getMultipartConfigElement();
 
         if (mce == null) {
-            if(context.getAllowCasualMultipartParsing()) {
-                mce = new MultipartConfigElement(null, connector.getMaxPostSize(),
-                        connector.getMaxPostSize(), connector.getMaxPostSize());
+            if (explicit) {
+                partsParseException = new IllegalStateException(
+                        sm.getString("coyoteRequest.noMultipartConfig"));
+                return;
             } else {
-                if (explicit) {
-                    partsParseException = new IllegalStateException(
-                            sm.getString("coyoteRequest.noMultipartConfig"));
-                    return;
-                } else {
-                    parts = Collections.emptyList();
-                    return;
-                }
+                parts = Collections.emptyList();
+                return;
             }
         }
 
@@ -2906,29 +2952,7 @@ public class Request implements HttpServletRequest {
 
         boolean success = false;
         try {
-            File location;
-            String locationStr = mce.getLocation();
-            if (locationStr == null || locationStr.length() == 0) {
-                location = ((File) context.getServletContext().getAttribute(
-                        ServletContext.TEMPDIR));
-            } else {
-                // If relative, it is relative to TEMPDIR
-                location = new File(locationStr);
-                if (!location.isAbsolute()) {
-                    location = new File(
-                            (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR),
-                            locationStr).getAbsoluteFile();
-                }
-            }
-
-            if (!location.exists() && context.getCreateUploadTargets()) {
-                log.warn(sm.getString("coyoteRequest.uploadCreate",
-                        location.getAbsolutePath(), getMappingData().wrapper.getName()));
-                if (!location.mkdirs()) {
-                    log.warn(sm.getString("coyoteRequest.uploadCreateFail",
-                            location.getAbsolutePath()));
-                }
-            }
+            File location = getUploadLocation(mce);
 
             if (!location.isDirectory()) {
                 parameters.setParseFailedReason(FailReason.MULTIPART_CONFIG_INVALID);
@@ -3257,8 +3281,9 @@ public class Request implements HttpServletRequest {
         Parameters parameters = coyoteRequest.getParameters();
         boolean success = false;
         try {
-            // Set this every time in case limit has been changed via JMX
+            // Set these every time in case they have been changed via JMX
             parameters.setLimit(getConnector().getMaxParameterCount());
+            parameters.setLazy(getConnector().getLazyParameterDecoding());
 
             // getCharacterEncoding() may have been overridden to search for
             // hidden form field containing request encoding
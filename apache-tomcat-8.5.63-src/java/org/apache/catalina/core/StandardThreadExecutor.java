@@ -24,14 +24,22 @@ import org.apache.catalina.Executor;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.util.LifecycleMBeanBase;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.ExecutionStatistics;
 import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 public class StandardThreadExecutor extends LifecycleMBeanBase
         implements Executor, ResizableExecutor {
 
+    private static final Log log = LogFactory.getLog(StandardThreadExecutor.class);
+    private static final StringManager sm = StringManager.getManager(StandardThreadExecutor.class);
+
     // ---------------------------------------------- Properties
     /**
      * Default thread priority
@@ -91,6 +99,29 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     protected long threadRenewalDelay =
         org.apache.tomcat.util.threads.Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Should task queue wait and service times be recorded?
+     */
+    protected boolean statisticsEnabled = false;
+
+    /**
+     * The target queue delay in milliseconds for adaptive sizing of the core
+     * pool. Zero or negative disables adaptive sizing.
+     */
+    protected long targetQueueDelay = -1;
+
+    /**
+     * Run each task on a new virtual thread instead of using the pool? If
+     * enabled, the pool size settings are ignored.
+     */
+    protected boolean useVirtualThreads = false;
+
+    /**
+     * The executor used in place of the thread pool when virtual threads are
+     * enabled and supported
+     */
+    protected VirtualThreadExecutor virtualThreadExecutor = null;
+
     private TaskQueue taskqueue = null;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
@@ -116,10 +147,22 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     @Override
     protected void startInternal() throws LifecycleException {
 
+        if (useVirtualThreads) {
+            if (VirtualThreadExecutor.isSupported()) {
+                virtualThreadExecutor = new VirtualThreadExecutor(namePrefix);
+                setState(LifecycleState.STARTING);
+                return;
+            }
+            log.warn(sm.getString("standardThreadExecutor.virtualThreadsNotSupported", getName()));
+        }
+
         taskqueue = new TaskQueue(maxQueueSize);
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         executor.setThreadRenewalDelay(threadRenewalDelay);
+        executor.setAdaptiveMinPoolSize(minSpareThreads);
+        executor.setStatisticsEnabled(statisticsEnabled);
+        executor.setTargetQueueDelay(targetQueueDelay);
         if (prestartminSpareThreads) {
             executor.prestartAllCoreThreads();
         }
@@ -142,6 +185,10 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         setState(LifecycleState.STOPPING);
         if ( executor != null ) executor.shutdownNow();
         executor = null;
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            virtualThreadExecutor = null;
+        }
         taskqueue = null;
     }
 
@@ -154,7 +201,11 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
 
     @Override
     public void execute(Runnable command, long timeout, TimeUnit unit) {
-        if ( executor != null ) {
+        VirtualThreadExecutor virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            // Never queued so there is nothing to time out
+            virtualThreadExecutor.execute(command);
+        } else if ( executor != null ) {
             executor.execute(command,timeout,unit);
         } else {
             throw new IllegalStateException("StandardThreadExecutor not started.");
@@ -164,7 +215,10 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
 
     @Override
     public void execute(Runnable command) {
-        if ( executor != null ) {
+        VirtualThreadExecutor virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.execute(command);
+        } else if ( executor != null ) {
             try {
                 executor.execute(command);
             } catch (RejectedExecutionException rx) {
@@ -211,6 +265,42 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return name;
     }
 
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        this.statisticsEnabled = statisticsEnabled;
+        if (executor != null) {
+            executor.setStatisticsEnabled(statisticsEnabled);
+        }
+    }
+
+    public long getTargetQueueDelay() {
+        return targetQueueDelay;
+    }
+
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        this.targetQueueDelay = targetQueueDelay;
+        ThreadPoolExecutor executor = this.executor;
+        if (executor != null) {
+            executor.setTargetQueueDelay(targetQueueDelay);
+            if (targetQueueDelay <= 0) {
+                // Restore the configured size
+                executor.setStatisticsEnabled(statisticsEnabled);
+                executor.setCorePoolSize(minSpareThreads);
+            }
+        }
+    }
+
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     public boolean isPrestartminSpareThreads() {
 
         return prestartminSpareThreads;
@@ -244,6 +334,7 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     public void setMinSpareThreads(int minSpareThreads) {
         this.minSpareThreads = minSpareThreads;
         if (executor != null) {
+            executor.setAdaptiveMinPoolSize(minSpareThreads);
             executor.setCorePoolSize(minSpareThreads);
         }
     }
@@ -278,10 +369,18 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     // Statistics from the thread pool
     @Override
     public int getActiveCount() {
+        VirtualThreadExecutor virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor.getActiveCount();
+        }
         return (executor != null) ? executor.getActiveCount() : 0;
     }
 
     public long getCompletedTaskCount() {
+        VirtualThreadExecutor virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor.getCompletedTaskCount();
+        }
         return (executor != null) ? executor.getCompletedTaskCount() : 0;
     }
 
@@ -295,6 +394,11 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
 
     @Override
     public int getPoolSize() {
+        VirtualThreadExecutor virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            // One thread per running task
+            return virtualThreadExecutor.getActiveCount();
+        }
         return (executor != null) ? executor.getPoolSize() : 0;
     }
 
@@ -302,6 +406,54 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return (executor != null) ? executor.getQueue().size() : -1;
     }
 
+    /**
+     * @return The moving average of the time tasks wait in the queue in
+     *         milliseconds or -1 if statistics are not being collected
+     */
+    public double getQueueWaitTimeAverage() {
+        ExecutionStatistics statistics = getStatistics();
+        return (statistics != null) ? statistics.getQueueWaitAverage() : -1;
+    }
+
+    /**
+     * @return The moving average of the time taken to run tasks in
+     *         milliseconds or -1 if statistics are not being collected
+     */
+    public double getServiceTimeAverage() {
+        ExecutionStatistics statistics = getStatistics();
+        return (statistics != null) ? statistics.getServiceTimeAverage() : -1;
+    }
+
+    /**
+     * @return The histogram of queue wait times or <code>null</code> if
+     *         statistics are not being collected. See
+     *         {@link ExecutionStatistics} for the bucket boundaries.
+     */
+    public long[] getQueueWaitHistogram() {
+        ExecutionStatistics statistics = getStatistics();
+        return (statistics != null) ? statistics.getQueueWaitHistogram() : null;
+    }
+
+    /**
+     * @return The exclusive upper bound, in microseconds, of each bucket of
+     *         the queue wait time histogram
+     */
+    public long[] getQueueWaitHistogramBounds() {
+        return ExecutionStatistics.getHistogramBounds();
+    }
+
+    public void resetStatistics() {
+        ExecutionStatistics statistics = getStatistics();
+        if (statistics != null) {
+            statistics.reset();
+        }
+    }
+
+    private ExecutionStatistics getStatistics() {
+        ThreadPoolExecutor executor = this.executor;
+        return (executor != null) ? executor.getStatistics() : null;
+    }
+
 
     @Override
     public boolean resizePool(int corePoolSize, int maximumPoolSize) {
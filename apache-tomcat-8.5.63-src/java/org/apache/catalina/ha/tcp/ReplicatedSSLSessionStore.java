@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.tcp;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Engine;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.ha.ClusterListener;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SSLSessionStore;
+import org.apache.tomcat.util.net.openssl.OpenSSLSessionContext;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An {@link SSLSessionStore} that shares TLS session ticket keys between all
+ * the nodes of a cluster so that a session ticket issued by any node can be
+ * used to resume the session on any other node.
+ * <p>
+ * When the cluster starts, this listener generates a set of keys and installs
+ * itself as the session store for every {@link SSLHostConfig} of every
+ * connector in the {@link Service} of the cluster. The keys are then exchanged
+ * with the other members of the cluster. Whenever two sets of keys are
+ * compared, the oldest set wins so a node joining an existing cluster adopts
+ * the keys already in use and all nodes converge on the same keys.
+ * <p>
+ * Session ticket keys can only be set for the OpenSSL based implementations.
+ * JSSE provides no means to set the ticket keys or to populate the server
+ * session cache so JSSE based SSL contexts continue to use local session state.
+ * <p>
+ * Since the keys are sent over the cluster channel, an encrypting interceptor
+ * should be configured if the cluster network is not trusted.
+ */
+public class ReplicatedSSLSessionStore extends ClusterListener
+        implements SSLSessionStore, LifecycleListener {
+
+    private static final Log log = LogFactory.getLog(ReplicatedSSLSessionStore.class);
+    private static final StringManager sm = StringManager.getManager(ReplicatedSSLSessionStore.class);
+
+    /**
+     * The size of a single session ticket key as expected by OpenSSL: a 16 byte
+     * key name, a 16 byte HMAC secret and a 16 byte AES key.
+     */
+    private static final int TICKET_KEY_SIZE = 48;
+
+    private final Map<SSLSessionContext,SSLHostConfig> sessionContexts = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile TicketKeys ticketKeys = null;
+    private volatile long keyUpdateCount = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return the number of times the keys used by this node have been
+     *         replaced by keys received from another node
+     */
+    public long getKeyUpdateCount() {
+        return keyUpdateCount;
+    }
+
+
+    /**
+     * @return the number of sessions resumed across all the registered
+     *         session contexts or -1 if none of them provide statistics
+     */
+    public long getHitCount() {
+        long result = -1;
+        for (SSLSessionContext sessionContext : sessionContexts.keySet()) {
+            if (sessionContext instanceof OpenSSLSessionContext) {
+                result = Math.max(result, 0) +
+                        ((OpenSSLSessionContext) sessionContext).stats().hits();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return the number of failed attempts to resume a session across all the
+     *         registered session contexts or -1 if none of them provide
+     *         statistics
+     */
+    public long getMissCount() {
+        long result = -1;
+        for (SSLSessionContext sessionContext : sessionContexts.keySet()) {
+            if (sessionContext instanceof OpenSSLSessionContext) {
+                result = Math.max(result, 0) +
+                        ((OpenSSLSessionContext) sessionContext).stats().misses();
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public void setCluster(CatalinaCluster cluster) {
+        CatalinaCluster oldCluster = getCluster();
+        if (oldCluster instanceof Lifecycle) {
+            ((Lifecycle) oldCluster).removeLifecycleListener(this);
+        }
+        super.setCluster(cluster);
+        if (cluster instanceof Lifecycle) {
+            ((Lifecycle) cluster).addLifecycleListener(this);
+        }
+    }
+
+
+    // --------------------------------------------------------- SSLSessionStore
+
+    @Override
+    public void register(SSLHostConfig sslHostConfig, SSLSessionContext sessionContext) {
+        if (!(sessionContext instanceof OpenSSLSessionContext)) {
+            log.warn(sm.getString("replicatedSSLSessionStore.notSupported",
+                    sslHostConfig.getHostName(), sessionContext.getClass().getName()));
+            return;
+        }
+        sessionContexts.put(sessionContext, sslHostConfig);
+        TicketKeys ticketKeys = this.ticketKeys;
+        if (ticketKeys != null) {
+            ((OpenSSLSessionContext) sessionContext).setTicketKeys(ticketKeys.keys);
+        }
+    }
+
+
+    @Override
+    public void unregister(SSLSessionContext sessionContext) {
+        sessionContexts.remove(sessionContext);
+    }
+
+
+    // ------------------------------------------------------- LifecycleListener
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            start();
+        } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            stop();
+        } else if (SimpleTcpCluster.AFTER_MEMBERREGISTER_EVENT.equals(event.getType())) {
+            // Make sure the new member knows about the keys in use here
+            TicketKeys ticketKeys = this.ticketKeys;
+            if (ticketKeys != null && event.getData() instanceof Member) {
+                send(ticketKeys, false, (Member) event.getData());
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------- ClusterListener
+
+    @Override
+    public boolean accept(ClusterMessage msg) {
+        return msg instanceof SSLSessionTicketKeyMessage;
+    }
+
+
+    @Override
+    public void messageReceived(ClusterMessage msg) {
+        if (!(msg instanceof SSLSessionTicketKeyMessage)) {
+            return;
+        }
+        SSLSessionTicketKeyMessage keyMessage = (SSLSessionTicketKeyMessage) msg;
+        byte[] keys = keyMessage.getKeys();
+        if (keys == null || keys.length == 0 || keys.length % TICKET_KEY_SIZE != 0) {
+            log.warn(sm.getString("replicatedSSLSessionStore.invalidKeys", msg.getAddress()));
+            return;
+        }
+        TicketKeys received = new TicketKeys(keys, keyMessage.getCreated());
+        TicketKeys current = update(received);
+        if (!keyMessage.isReply() && current != null && current.isOlderThan(received)) {
+            // The sender is using newer keys than this node. Let it know.
+            send(current, true, msg.getAddress());
+        }
+    }
+
+
+    // --------------------------------------------------------- Private methods
+
+    private void start() {
+        byte[] keys = new byte[TICKET_KEY_SIZE];
+        random.nextBytes(keys);
+        update(new TicketKeys(keys, System.currentTimeMillis()));
+
+        Service service = getService();
+        if (service != null) {
+            for (Connector connector : service.findConnectors()) {
+                for (SSLHostConfig sslHostConfig : connector.findSslHostConfigs()) {
+                    sslHostConfig.setSessionStore(this);
+                }
+            }
+        }
+
+        CatalinaCluster cluster = getCluster();
+        if (cluster != null && cluster.hasMembers()) {
+            send(ticketKeys, false, null);
+        }
+    }
+
+
+    private void stop() {
+        Service service = getService();
+        if (service != null) {
+            for (Connector connector : service.findConnectors()) {
+                for (SSLHostConfig sslHostConfig : connector.findSslHostConfigs()) {
+                    if (sslHostConfig.getSessionStore() == this) {
+                        sslHostConfig.setSessionStore(null);
+                    }
+                }
+            }
+        }
+        sessionContexts.clear();
+        ticketKeys = null;
+    }
+
+
+    private Service getService() {
+        CatalinaCluster cluster = getCluster();
+        if (cluster == null) {
+            return null;
+        }
+        Container container = cluster.getContainer();
+        while (container != null && !(container instanceof Engine)) {
+            container = container.getParent();
+        }
+        if (container == null) {
+            return null;
+        }
+        return ((Engine) container).getService();
+    }
+
+
+    /*
+     * Replace the current keys if the candidate keys are older and returns the
+     * keys that are in use once the update has been considered.
+     */
+    private synchronized TicketKeys update(TicketKeys candidate) {
+        TicketKeys current = ticketKeys;
+        if (current != null && !candidate.isOlderThan(current)) {
+            return current;
+        }
+        ticketKeys = candidate;
+        for (SSLSessionContext sessionContext : sessionContexts.keySet()) {
+            ((OpenSSLSessionContext) sessionContext).setTicketKeys(candidate.keys);
+        }
+        if (current != null) {
+            keyUpdateCount++;
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("replicatedSSLSessionStore.keysUpdated",
+                        Long.valueOf(candidate.created)));
+            }
+        }
+        return candidate;
+    }
+
+
+    private void send(TicketKeys ticketKeys, boolean reply, Member dest) {
+        CatalinaCluster cluster = getCluster();
+        if (cluster == null) {
+            return;
+        }
+        SSLSessionTicketKeyMessage msg =
+                new SSLSessionTicketKeyMessage(ticketKeys.keys, ticketKeys.created, reply);
+        if (dest == null) {
+            cluster.send(msg);
+        } else {
+            cluster.send(msg, dest);
+        }
+    }
+
+
+    private static final class TicketKeys {
+
+        private final byte[] keys;
+        private final long created;
+
+        private TicketKeys(byte[] keys, long created) {
+            this.keys = keys;
+            this.created = created;
+        }
+
+        /*
+         * Older keys win. Ties are broken by comparing the keys so that every
+         * node reaches the same decision.
+         */
+        private boolean isOlderThan(TicketKeys other) {
+            if (created != other.created) {
+                return created < other.created;
+            }
+            int len = Math.min(keys.length, other.keys.length);
+            for (int i = 0; i < len; i++) {
+                int a = keys[i] & 0xFF;
+                int b = other.keys[i] & 0xFF;
+                if (a != b) {
+                    return a < b;
+                }
+            }
+            return keys.length < other.keys.length;
+        }
+    }
+}
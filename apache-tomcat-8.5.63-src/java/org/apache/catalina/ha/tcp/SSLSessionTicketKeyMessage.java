@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.tcp;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+
+/**
+ * Carries the TLS session ticket keys used by a cluster node to the other
+ * nodes in the cluster.
+ */
+public class SSLSessionTicketKeyMessage extends ClusterMessageBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] keys;
+    private final long created;
+    private final boolean reply;
+
+
+    /**
+     * @param keys      The session ticket keys
+     * @param created   The time, in milliseconds since the epoch, at which the
+     *                  keys were generated
+     * @param reply     <code>true</code> if this message is a response to a
+     *                  message received from another node
+     */
+    public SSLSessionTicketKeyMessage(byte[] keys, long created, boolean reply) {
+        this.keys = keys;
+        this.created = created;
+        this.reply = reply;
+        setTimestamp(System.currentTimeMillis());
+    }
+
+
+    public byte[] getKeys() {
+        return keys;
+    }
+
+
+    public long getCreated() {
+        return created;
+    }
+
+
+    public boolean isReply() {
+        return reply;
+    }
+
+
+    @Override
+    public String getUniqueId() {
+        return "SSL-SESSION-TICKET-KEYS#" + created + "#" + getTimestamp();
+    }
+}
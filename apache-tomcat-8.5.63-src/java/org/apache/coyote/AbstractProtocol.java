@@ -250,12 +250,41 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         endpoint.setMaxThreads(maxThreads);
     }
 
+    public boolean getUseVirtualThreads() { return endpoint.getUseVirtualThreads(); }
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        endpoint.setUseVirtualThreads(useVirtualThreads);
+    }
+
     public int getMaxConnections() { return endpoint.getMaxConnections(); }
     public void setMaxConnections(int maxConnections) {
         endpoint.setMaxConnections(maxConnections);
     }
 
 
+    public int getReservedConnections() { return endpoint.getReservedConnections(); }
+    public void setReservedConnections(int reservedConnections) {
+        endpoint.setReservedConnections(reservedConnections);
+    }
+
+
+    public String getPriorityAddresses() { return endpoint.getPriorityAddresses(); }
+    public void setPriorityAddresses(String priorityAddresses) {
+        endpoint.setPriorityAddresses(priorityAddresses);
+    }
+
+
+    public String getPriorityRequests() { return endpoint.getPriorityRequests(); }
+    public void setPriorityRequests(String priorityRequests) {
+        endpoint.setPriorityRequests(priorityRequests);
+    }
+
+
+    public long getShedQueueDelay() { return endpoint.getShedQueueDelay(); }
+    public void setShedQueueDelay(long shedQueueDelay) {
+        endpoint.setShedQueueDelay(shedQueueDelay);
+    }
+
+
     public int getMinSpareThreads() { return endpoint.getMinSpareThreads(); }
     public void setMinSpareThreads(int minSpareThreads) {
         endpoint.setMinSpareThreads(minSpareThreads);
@@ -955,6 +984,10 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                     // processor. Continue to poll for the next request.
                     connections.remove(socket);
                     release(processor);
+                    // Nothing else can be using the socket buffers at this
+                    // point so, if pooled, return them while the connection
+                    // is idle.
+                    wrapper.releaseBuffers();
                     wrapper.registerReadInterest();
                 } else if (state == SocketState.SENDFILE) {
                     // Sendfile in progress. If it fails, the socket will be
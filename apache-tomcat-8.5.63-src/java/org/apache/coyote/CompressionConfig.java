@@ -18,17 +18,28 @@ package org.apache.coyote;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.ResponseUtil;
 import org.apache.tomcat.util.http.parser.AcceptEncoding;
@@ -47,6 +58,60 @@ public class CompressionConfig {
     private String[] compressibleMimeTypes = null;
     private int compressionMinSize = 2048;
     private boolean noCompressionStrongETag = true;
+    private int compressionDeflateLevel = Deflater.DEFAULT_COMPRESSION;
+    private String compressionDeflateLevels = null;
+    private volatile MimeTypeLevel[] mimeTypeLevels = new MimeTypeLevel[0];
+    private int compressionCpuThreshold = -1;
+    private int compressionQueueThreshold = -1;
+    private int compressionOverloadDeflateLevel = Deflater.BEST_SPEED;
+    private boolean requestDecompression = false;
+    private String decompressibleMimeType = "application/json,application/xml,text/plain,text/xml";
+    private String[] decompressibleMimeTypes = null;
+    private long maxDecompressedSize = 10 * 1024 * 1024;
+
+    /*
+     * Sampling the CPU load is relatively expensive so the load is sampled at
+     * most once per LOAD_SAMPLE_INTERVAL and the result shared by all the
+     * responses considered for compression in the meantime.
+     */
+    private static final long LOAD_SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private volatile long nextLoadSample = System.nanoTime();
+    private volatile boolean overloaded = false;
+
+    private static final int DEFLATER_POOL_SIZE = 128;
+    private static final int ZLIB_DEFAULT_LEVEL = 6;
+    private final SynchronizedStack<Deflater> deflaterPool =
+            new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, DEFLATER_POOL_SIZE);
+    private final SynchronizedStack<Inflater> zlibInflaterPool =
+            new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, DEFLATER_POOL_SIZE);
+    private final SynchronizedStack<Inflater> rawInflaterPool =
+            new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, DEFLATER_POOL_SIZE);
+
+    private final AtomicLong compressedCount = new AtomicLong();
+    private final AtomicLong compressionSkippedCount = new AtomicLong();
+    private final AtomicLong compressionBytesIn = new AtomicLong();
+    private final AtomicLong compressionBytesOut = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+
+    private static final OperatingSystemMXBean osMXBean =
+            ManagementFactory.getOperatingSystemMXBean();
+    private static final Method getSystemCpuLoad;
+
+    static {
+        // The CPU load is only available via the com.sun.management
+        // extension. Fall back to the system load average if it is not
+        // available.
+        Method m = null;
+        try {
+            Class<?> clazz = Class.forName("com.sun.management.OperatingSystemMXBean");
+            if (clazz.isInstance(osMXBean)) {
+                m = clazz.getMethod("getSystemCpuLoad");
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+        }
+        getSystemCpuLoad = m;
+    }
 
 
     /**
@@ -212,6 +277,429 @@ public class CompressionConfig {
     }
 
 
+    public int getCompressionDeflateLevel() {
+        return compressionDeflateLevel;
+    }
+
+
+    /**
+     * Set the deflate compression level to use for responses that do not
+     * match an entry in {@link #setCompressionDeflateLevels(String)}.
+     *
+     * @param compressionDeflateLevel The compression level from 1 (fastest)
+     *                                to 9 (best compression) or -1 to use
+     *                                the zlib default
+     */
+    public void setCompressionDeflateLevel(int compressionDeflateLevel) {
+        validateLevel(compressionDeflateLevel, -1);
+        this.compressionDeflateLevel = compressionDeflateLevel;
+    }
+
+
+    public String getCompressionDeflateLevels() {
+        return compressionDeflateLevels;
+    }
+
+
+    /**
+     * Set the deflate compression levels to use for specific MIME types.
+     *
+     * @param compressionDeflateLevels A comma separated list of
+     *                                 <code>mime-type=level</code> entries.
+     *                                 The first entry whose MIME type is a
+     *                                 prefix of the content type of the
+     *                                 response is used.
+     */
+    public void setCompressionDeflateLevels(String compressionDeflateLevels) {
+        List<MimeTypeLevel> values = new ArrayList<>();
+        if (compressionDeflateLevels != null) {
+            StringTokenizer tokens = new StringTokenizer(compressionDeflateLevels, ",");
+            while (tokens.hasMoreTokens()) {
+                String token = tokens.nextToken().trim();
+                if (token.length() == 0) {
+                    continue;
+                }
+                int pos = token.indexOf('=');
+                int level;
+                try {
+                    level = pos < 1 ? Integer.MIN_VALUE :
+                            Integer.parseInt(token.substring(pos + 1).trim());
+                } catch (NumberFormatException e) {
+                    level = Integer.MIN_VALUE;
+                }
+                if (level == Integer.MIN_VALUE) {
+                    throw new IllegalArgumentException(
+                            sm.getString("compressionConfig.invalidDeflateLevels", token));
+                }
+                validateLevel(level, -1);
+                values.add(new MimeTypeLevel(token.substring(0, pos).trim(), level));
+            }
+        }
+        this.mimeTypeLevels = values.toArray(new MimeTypeLevel[0]);
+        this.compressionDeflateLevels = compressionDeflateLevels;
+    }
+
+
+    public int getCompressionCpuThreshold() {
+        return compressionCpuThreshold;
+    }
+
+
+    /**
+     * Set the CPU utilization above which compression is reduced to
+     * {@link #setCompressionOverloadDeflateLevel(int)}.
+     *
+     * @param compressionCpuThreshold The CPU utilization as a percentage or
+     *                                -1 to disable the check
+     */
+    public void setCompressionCpuThreshold(int compressionCpuThreshold) {
+        this.compressionCpuThreshold = compressionCpuThreshold;
+    }
+
+
+    public int getCompressionQueueThreshold() {
+        return compressionQueueThreshold;
+    }
+
+
+    /**
+     * Set the number of tasks waiting for a worker thread above which
+     * compression is reduced to
+     * {@link #setCompressionOverloadDeflateLevel(int)}.
+     *
+     * @param compressionQueueThreshold The number of queued tasks or -1 to
+     *                                  disable the check
+     */
+    public void setCompressionQueueThreshold(int compressionQueueThreshold) {
+        this.compressionQueueThreshold = compressionQueueThreshold;
+    }
+
+
+    public int getCompressionOverloadDeflateLevel() {
+        return compressionOverloadDeflateLevel;
+    }
+
+
+    /**
+     * Set the deflate compression level to use while the CPU or queue
+     * threshold is exceeded.
+     *
+     * @param compressionOverloadDeflateLevel The maximum compression level
+     *                                        from 1 to 9 or 0 to not
+     *                                        compress responses at all
+     */
+    public void setCompressionOverloadDeflateLevel(int compressionOverloadDeflateLevel) {
+        validateLevel(compressionOverloadDeflateLevel, 0);
+        this.compressionOverloadDeflateLevel = compressionOverloadDeflateLevel;
+    }
+
+
+    public boolean getRequestDecompression() {
+        return requestDecompression;
+    }
+
+
+    /**
+     * Set whether request bodies sent with a gzip or deflate content coding
+     * are decompressed before they are passed to the application.
+     *
+     * @param requestDecompression {@code true} to decompress request bodies
+     */
+    public void setRequestDecompression(boolean requestDecompression) {
+        this.requestDecompression = requestDecompression;
+    }
+
+
+    public String getDecompressibleMimeType() {
+        return decompressibleMimeType;
+    }
+
+
+    public void setDecompressibleMimeType(String valueS) {
+        decompressibleMimeType = valueS;
+        decompressibleMimeTypes = null;
+    }
+
+
+    public String[] getDecompressibleMimeTypes() {
+        String[] result = decompressibleMimeTypes;
+        if (result != null) {
+            return result;
+        }
+        List<String> values = new ArrayList<>();
+        StringTokenizer tokens = new StringTokenizer(decompressibleMimeType, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if (token.length() > 0) {
+                values.add(token);
+            }
+        }
+        result = values.toArray(new String[0]);
+        decompressibleMimeTypes = result;
+        return result;
+    }
+
+
+    public long getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+
+    /**
+     * Set the maximum size of a decompressed request body.
+     *
+     * @param maxDecompressedSize The maximum size in bytes or -1 for no limit
+     */
+    public void setMaxDecompressedSize(long maxDecompressedSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+
+    /**
+     * Determines if the body of the given request should be decompressed.
+     * Only request bodies with a single gzip or deflate content coding and a
+     * decompressible content type are decompressed. Other request bodies are
+     * passed to the application unchanged.
+     *
+     * @param request The request to consider
+     *
+     * @return The content coding to decode, {@code gzip} or {@code deflate},
+     *         or {@code null} if the request body should not be decompressed
+     */
+    public String getRequestDecompressionEncoding(Request request) {
+        if (!requestDecompression) {
+            return null;
+        }
+        MimeHeaders headers = request.getMimeHeaders();
+        if (headers.getValue("content-encoding") == null) {
+            return null;
+        }
+        List<String> tokens = new ArrayList<>();
+        try {
+            if (!TokenList.parseTokenList(headers.values("content-encoding"), tokens)) {
+                return null;
+            }
+        } catch (IOException e) {
+            // Because we are using StringReader, any exception here is a
+            // Tomcat bug.
+            log.warn(sm.getString("compressionConfig.requestContentEncodingParseFail"), e);
+            return null;
+        }
+        if (tokens.size() != 1) {
+            return null;
+        }
+        String encoding = tokens.get(0);
+        if (encoding.equals("x-gzip")) {
+            encoding = "gzip";
+        } else if (!encoding.equals("gzip") && !encoding.equals("deflate")) {
+            return null;
+        }
+        if (!startsWithStringArray(getDecompressibleMimeTypes(), request.getContentType())) {
+            return null;
+        }
+        return encoding;
+    }
+
+
+    /**
+     * @return the number of responses that have been compressed
+     */
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+
+    /**
+     * @return the number of responses that would have been compressed but
+     *         were not because the CPU or queue threshold was exceeded
+     */
+    public long getCompressionSkippedCount() {
+        return compressionSkippedCount.get();
+    }
+
+
+    /**
+     * @return the number of uncompressed bytes written to the compression
+     *         filters
+     */
+    public long getCompressionBytesIn() {
+        return compressionBytesIn.get();
+    }
+
+
+    /**
+     * @return the number of compressed bytes produced by the compression
+     *         filters, including the gzip header and trailer
+     */
+    public long getCompressionBytesOut() {
+        return compressionBytesOut.get();
+    }
+
+
+    /**
+     * @return the ratio of compressed to uncompressed bytes or 1 if nothing
+     *         has been compressed
+     */
+    public double getCompressionRatio() {
+        long in = compressionBytesIn.get();
+        if (in == 0) {
+            return 1;
+        }
+        return (double) compressionBytesOut.get() / in;
+    }
+
+
+    /**
+     * @return the total time in milliseconds spent compressing response
+     *         bodies
+     */
+    public long getCompressionTime() {
+        return TimeUnit.NANOSECONDS.toMillis(compressionTime.get());
+    }
+
+
+    public void resetCompressionStatistics() {
+        compressedCount.set(0);
+        compressionSkippedCount.set(0);
+        compressionBytesIn.set(0);
+        compressionBytesOut.set(0);
+        compressionTime.set(0);
+    }
+
+
+    /**
+     * Record the statistics for a compressed response.
+     *
+     * @param bytesIn  The number of uncompressed bytes
+     * @param bytesOut The number of compressed bytes
+     * @param time     The time spent compressing in nanoseconds
+     */
+    public void compressed(long bytesIn, long bytesOut, long time) {
+        compressedCount.incrementAndGet();
+        compressionBytesIn.addAndGet(bytesIn);
+        compressionBytesOut.addAndGet(bytesOut);
+        compressionTime.addAndGet(time);
+    }
+
+
+    /**
+     * Obtain the deflate compression level to use for a response, taking
+     * account of the content type of the response and of the current load.
+     *
+     * @param contentType The content type of the response
+     *
+     * @return The compression level to use
+     */
+    public int getDeflateLevel(String contentType) {
+        int level = compressionDeflateLevel;
+        if (contentType != null) {
+            for (MimeTypeLevel mimeTypeLevel : mimeTypeLevels) {
+                if (contentType.startsWith(mimeTypeLevel.mimeType)) {
+                    level = mimeTypeLevel.level;
+                    break;
+                }
+            }
+        }
+        if (overloaded) {
+            // The response has already been marked as compressed so it has to
+            // be compressed even if the overload level is zero
+            int overloadLevel = Math.max(compressionOverloadDeflateLevel, Deflater.BEST_SPEED);
+            int effectiveLevel = level == Deflater.DEFAULT_COMPRESSION ? ZLIB_DEFAULT_LEVEL : level;
+            if (effectiveLevel > overloadLevel) {
+                level = overloadLevel;
+            }
+        }
+        return level;
+    }
+
+
+    /**
+     * Obtain a {@link Deflater} configured for gzip (i.e. with no zlib header
+     * or checksum) from the pool, creating one if necessary.
+     *
+     * @param level The compression level
+     *
+     * @return The Deflater which should be returned to the pool with
+     *         {@link #releaseDeflater(Deflater)} once the response is complete
+     */
+    public Deflater borrowDeflater(int level) {
+        Deflater deflater = deflaterPool.pop();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.setLevel(level);
+        }
+        return deflater;
+    }
+
+
+    /**
+     * Reset a {@link Deflater} and return it to the pool. The Deflater is
+     * closed if the pool is full.
+     *
+     * @param deflater The Deflater to return to the pool
+     */
+    public void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!deflaterPool.push(deflater)) {
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * Obtain an {@link Inflater} from the pool, creating one if necessary.
+     *
+     * @param nowrap {@code true} for an Inflater that reads raw deflate data,
+     *               {@code false} for one that reads the zlib format
+     *
+     * @return The Inflater which should be returned to the pool with
+     *         {@link #releaseInflater(Inflater, boolean)} once the request
+     *         body has been read
+     */
+    public Inflater borrowInflater(boolean nowrap) {
+        Inflater inflater = (nowrap ? rawInflaterPool : zlibInflaterPool).pop();
+        if (inflater == null) {
+            inflater = new Inflater(nowrap);
+        }
+        return inflater;
+    }
+
+
+    /**
+     * Reset an {@link Inflater} and return it to the pool. The Inflater is
+     * closed if the pool is full.
+     *
+     * @param inflater The Inflater to return to the pool
+     * @param nowrap   The format the Inflater was created for
+     */
+    public void releaseInflater(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!(nowrap ? rawInflaterPool : zlibInflaterPool).push(inflater)) {
+            inflater.end();
+        }
+    }
+
+
+    /**
+     * Close all the pooled {@link Deflater}s and {@link Inflater}s, releasing
+     * their native memory.
+     */
+    public void destroy() {
+        Deflater deflater;
+        while ((deflater = deflaterPool.pop()) != null) {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = zlibInflaterPool.pop()) != null) {
+            inflater.end();
+        }
+        while ((inflater = rawInflaterPool.pop()) != null) {
+            inflater.end();
+        }
+    }
+
+
     /**
      * Determines if compression should be enabled for the given response and if
      * it is, sets any necessary headers to mark it as such.
@@ -223,6 +711,24 @@ public class CompressionConfig {
      *         otherwise {@code false}
      */
     public boolean useCompression(Request request, Response response) {
+        return useCompression(request, response, null);
+    }
+
+
+    /**
+     * Determines if compression should be enabled for the given response and if
+     * it is, sets any necessary headers to mark it as such.
+     *
+     * @param request  The request that triggered the response
+     * @param response The response to consider compressing
+     * @param executor The executor used to process requests which is used to
+     *                 check the number of queued tasks against the queue
+     *                 threshold
+     *
+     * @return {@code true} if compression was enabled for the given response,
+     *         otherwise {@code false}
+     */
+    public boolean useCompression(Request request, Response response, Executor executor) {
         // Check if compression is enabled
         if (compressionLevel == 0) {
             return false;
@@ -320,6 +826,13 @@ public class CompressionConfig {
             }
         }
 
+        // Check if the server is too busy to compress
+        updateLoad(executor);
+        if (overloaded && compressionOverloadDeflateLevel == 0) {
+            compressionSkippedCount.incrementAndGet();
+            return false;
+        }
+
         // All checks have passed. Compression is enabled.
 
         // Compressed content length is unknown so mark it as such.
@@ -331,6 +844,58 @@ public class CompressionConfig {
     }
 
 
+    private void updateLoad(Executor executor) {
+        if (compressionCpuThreshold < 0 && compressionQueueThreshold < 0) {
+            overloaded = false;
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - nextLoadSample < 0) {
+            return;
+        }
+        // Not synchronized. The occasional duplicate sample is harmless.
+        nextLoadSample = now + LOAD_SAMPLE_INTERVAL;
+        boolean result = false;
+        if (compressionQueueThreshold >= 0 && executor instanceof ThreadPoolExecutor) {
+            result = ((ThreadPoolExecutor) executor).getQueue().size() > compressionQueueThreshold;
+        }
+        if (!result && compressionCpuThreshold >= 0) {
+            result = getCpuLoad() > compressionCpuThreshold;
+        }
+        overloaded = result;
+    }
+
+
+    private static int getCpuLoad() {
+        double load = -1;
+        if (getSystemCpuLoad != null) {
+            try {
+                load = ((Double) getSystemCpuLoad.invoke(osMXBean)).doubleValue();
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+            }
+        }
+        if (load < 0) {
+            double average = osMXBean.getSystemLoadAverage();
+            if (average >= 0) {
+                load = average / osMXBean.getAvailableProcessors();
+            }
+        }
+        if (load < 0) {
+            return -1;
+        }
+        return (int) Math.min(100, load * 100);
+    }
+
+
+    private static void validateLevel(int level, int min) {
+        if (level < min || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    sm.getString("compressionConfig.invalidDeflateLevel", Integer.toString(level)));
+        }
+    }
+
+
     /**
      * Checks if any entry in the string array starts with the specified value
      *
@@ -348,4 +913,16 @@ public class CompressionConfig {
         }
         return false;
     }
+
+
+    private static class MimeTypeLevel {
+
+        private final String mimeType;
+        private final int level;
+
+        public MimeTypeLevel(String mimeType, int level) {
+            this.mimeType = mimeType;
+            this.level = level;
+        }
+    }
 }
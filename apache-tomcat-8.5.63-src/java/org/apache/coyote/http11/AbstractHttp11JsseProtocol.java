@@ -54,4 +54,16 @@ public abstract class AbstractHttp11JsseProtocol<S>
     public void setSniParseLimit(int sniParseLimit) {
         getEndpoint().setSniParseLimit(sniParseLimit);
     }
+
+
+    public int getHandshakeThreads() { return getEndpoint().getHandshakeThreads(); }
+    public void setHandshakeThreads(int handshakeThreads) {
+        getEndpoint().setHandshakeThreads(handshakeThreads);
+    }
+
+
+    public int getMaxHandshakeQueueSize() { return getEndpoint().getMaxHandshakeQueueSize(); }
+    public void setMaxHandshakeQueueSize(int maxHandshakeQueueSize) {
+        getEndpoint().setMaxHandshakeQueueSize(maxHandshakeQueueSize);
+    }
 }
@@ -25,6 +25,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
@@ -44,6 +45,7 @@ import org.apache.coyote.http11.upgrade.UpgradeProcessorExternal;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.coyote.http2.Http2Protocol;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.http.HeaderBytes;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.modeler.Util;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -104,6 +106,8 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
             }
         }
 
+        compressionConfig.destroy();
+
         super.destroy();
     }
 
@@ -140,6 +144,89 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    private PipelineFlushPolicy pipelineFlushPolicy = PipelineFlushPolicy.IMMEDIATE;
+    /**
+     * @return the policy used to flush responses to pipelined requests
+     */
+    public String getPipelineFlushPolicy() {
+        return pipelineFlushPolicy.toString();
+    }
+    /**
+     * Set the policy used to flush responses when the next, pipelined request
+     * has already been received.
+     *
+     * @param pipelineFlushPolicy {@code immediate} to flush every response
+     *                            as soon as it is complete or
+     *                            {@code coalesce} to defer the flush while
+     *                            pipelined requests remain
+     */
+    public void setPipelineFlushPolicy(String pipelineFlushPolicy) {
+        this.pipelineFlushPolicy = PipelineFlushPolicy.fromString(pipelineFlushPolicy);
+    }
+    public PipelineFlushPolicy getPipelineFlushPolicyInternal() {
+        return pipelineFlushPolicy;
+    }
+
+
+    private int maxPipelineCoalesceSize = 64 * 1024;
+    /**
+     * @return the maximum number of bytes of complete responses for which the
+     *         flush may be deferred
+     */
+    public int getMaxPipelineCoalesceSize() { return maxPipelineCoalesceSize; }
+    public void setMaxPipelineCoalesceSize(int maxPipelineCoalesceSize) {
+        this.maxPipelineCoalesceSize = maxPipelineCoalesceSize;
+    }
+
+
+    private int maxPipelineCoalesceTime = 10;
+    /**
+     * @return the maximum time in milliseconds for which the flush of a
+     *         complete response may be deferred
+     */
+    public int getMaxPipelineCoalesceTime() { return maxPipelineCoalesceTime; }
+    public void setMaxPipelineCoalesceTime(int maxPipelineCoalesceTime) {
+        this.maxPipelineCoalesceTime = maxPipelineCoalesceTime;
+    }
+
+
+    private final AtomicLong coalescedResponseCount = new AtomicLong();
+    /**
+     * @return the number of responses for which the flush was deferred so
+     *         that they could be written with the responses to subsequent
+     *         pipelined requests
+     */
+    public long getCoalescedResponseCount() {
+        return coalescedResponseCount.get();
+    }
+
+
+    private final AtomicLong coalescedFlushCount = new AtomicLong();
+    /**
+     * @return the number of flushes that wrote more than one complete
+     *         response to pipelined requests
+     */
+    public long getCoalescedFlushCount() {
+        return coalescedFlushCount.get();
+    }
+
+
+    public void resetPipelineStatistics() {
+        coalescedResponseCount.set(0);
+        coalescedFlushCount.set(0);
+    }
+
+
+    void responseCoalesced() {
+        coalescedResponseCount.incrementAndGet();
+    }
+
+
+    void coalescedResponsesFlushed() {
+        coalescedFlushCount.incrementAndGet();
+    }
+
+
     private boolean useKeepAliveResponseHeader = true;
     public boolean getUseKeepAliveResponseHeader() {
         return useKeepAliveResponseHeader;
@@ -383,8 +470,100 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    public int getCompressionDeflateLevel() {
+        return compressionConfig.getCompressionDeflateLevel();
+    }
+    public void setCompressionDeflateLevel(int compressionDeflateLevel) {
+        compressionConfig.setCompressionDeflateLevel(compressionDeflateLevel);
+    }
+
+
+    public String getCompressionDeflateLevels() {
+        return compressionConfig.getCompressionDeflateLevels();
+    }
+    public void setCompressionDeflateLevels(String compressionDeflateLevels) {
+        compressionConfig.setCompressionDeflateLevels(compressionDeflateLevels);
+    }
+
+
+    public int getCompressionCpuThreshold() {
+        return compressionConfig.getCompressionCpuThreshold();
+    }
+    public void setCompressionCpuThreshold(int compressionCpuThreshold) {
+        compressionConfig.setCompressionCpuThreshold(compressionCpuThreshold);
+    }
+
+
+    public int getCompressionQueueThreshold() {
+        return compressionConfig.getCompressionQueueThreshold();
+    }
+    public void setCompressionQueueThreshold(int compressionQueueThreshold) {
+        compressionConfig.setCompressionQueueThreshold(compressionQueueThreshold);
+    }
+
+
+    public int getCompressionOverloadDeflateLevel() {
+        return compressionConfig.getCompressionOverloadDeflateLevel();
+    }
+    public void setCompressionOverloadDeflateLevel(int compressionOverloadDeflateLevel) {
+        compressionConfig.setCompressionOverloadDeflateLevel(compressionOverloadDeflateLevel);
+    }
+
+
+    public boolean getRequestDecompression() {
+        return compressionConfig.getRequestDecompression();
+    }
+    public void setRequestDecompression(boolean requestDecompression) {
+        compressionConfig.setRequestDecompression(requestDecompression);
+    }
+
+
+    public String getDecompressibleMimeType() {
+        return compressionConfig.getDecompressibleMimeType();
+    }
+    public void setDecompressibleMimeType(String valueS) {
+        compressionConfig.setDecompressibleMimeType(valueS);
+    }
+
+
+    public long getMaxDecompressedSize() {
+        return compressionConfig.getMaxDecompressedSize();
+    }
+    public void setMaxDecompressedSize(long maxDecompressedSize) {
+        compressionConfig.setMaxDecompressedSize(maxDecompressedSize);
+    }
+
+
+    public long getCompressedCount() {
+        return compressionConfig.getCompressedCount();
+    }
+    public long getCompressionSkippedCount() {
+        return compressionConfig.getCompressionSkippedCount();
+    }
+    public long getCompressionBytesIn() {
+        return compressionConfig.getCompressionBytesIn();
+    }
+    public long getCompressionBytesOut() {
+        return compressionConfig.getCompressionBytesOut();
+    }
+    public double getCompressionRatio() {
+        return compressionConfig.getCompressionRatio();
+    }
+    public long getCompressionTime() {
+        return compressionConfig.getCompressionTime();
+    }
+    public void resetCompressionStatistics() {
+        compressionConfig.resetCompressionStatistics();
+    }
+
+
     public boolean useCompression(Request request, Response response) {
-        return compressionConfig.useCompression(request, response);
+        return compressionConfig.useCompression(request, response, getExecutor());
+    }
+
+
+    CompressionConfig getCompressionConfig() {
+        return compressionConfig;
     }
 
 
@@ -408,6 +587,8 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
      */
     public void setServer(String server) {
         this.server = server;
+        // Constant for all responses so avoid encoding it for each one
+        HeaderBytes.register(server);
     }
 
 
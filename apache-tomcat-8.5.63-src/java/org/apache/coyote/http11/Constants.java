@@ -165,6 +165,18 @@ public final class Constants {
     public static final int BUFFERED_FILTER = 3;
 
 
+    /**
+     * GZIP content decoding filter (input)
+     */
+    public static final int GZIP_INPUT_FILTER = 4;
+
+
+    /**
+     * Deflate content decoding filter (input)
+     */
+    public static final int DEFLATE_INPUT_FILTER = 5;
+
+
     /**
      * HTTP/1.0.
      */
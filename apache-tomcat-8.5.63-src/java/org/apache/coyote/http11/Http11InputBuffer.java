@@ -54,6 +54,37 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private static final byte[] CLIENT_PREFACE_START =
             "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
 
+    /*
+     * The common protocol values as big-endian words so the whole protocol can
+     * be matched with a single comparison.
+     */
+    private static final long HTTP_11_WORD = getWord(
+            Constants.HTTP_11.getBytes(StandardCharsets.ISO_8859_1), 0);
+    private static final long HTTP_10_WORD = getWord(
+            "HTTP/1.0".getBytes(StandardCharsets.ISO_8859_1), 0);
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /*
+     * Maps each byte that is a valid token character to its lower case form.
+     * Zero is not a token character so zero marks an invalid byte. This allows
+     * header names to be validated and converted with a single lookup per byte.
+     */
+    private static final byte[] TOKEN_LOWER_CASE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            if (HttpParser.isToken((byte) i)) {
+                if (i >= Constants.A && i <= Constants.Z) {
+                    TOKEN_LOWER_CASE[i] = (byte) (i - Constants.LC_OFFSET);
+                } else {
+                    TOKEN_LOWER_CASE[i] = (byte) i;
+                }
+            }
+        }
+    }
+
     /**
      * Associated Coyote request.
      */
@@ -99,6 +130,12 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private SocketWrapperBase<?> wrapper;
 
 
+    /**
+     * Called before the request body is read from the socket.
+     */
+    private Runnable beforeBodyRead = null;
+
+
     /**
      * Underlying input buffer.
      */
@@ -139,6 +176,14 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private final HeaderParseData headerData = new HeaderParseData();
     private final HttpParser httpParser;
 
+    /*
+     * Bytes that may appear in the path and the query string of the request
+     * target without further checks. Delimiters are never included. These
+     * depend on the relaxed characters configured for the HttpParser.
+     */
+    private final boolean[] pathChars = new boolean[256];
+    private final boolean[] queryChars = new boolean[256];
+
     /**
      * Maximum allowed size of the HTTP request line plus headers plus any
      * leading blank lines.
@@ -163,6 +208,16 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
         this.rejectIllegalHeader = rejectIllegalHeader;
         this.httpParser = httpParser;
 
+        for (int i = 0; i < 256; i++) {
+            byte b = (byte) i;
+            if (httpParser.isNotRequestTargetRelaxed(b) || b == Constants.SP ||
+                    b == Constants.HT || b == Constants.CR || b == Constants.LF) {
+                continue;
+            }
+            pathChars[i] = b != Constants.QUESTION;
+            queryChars[i] = httpParser.isQueryRelaxed(b);
+        }
+
         filterLibrary = new InputFilter[0];
         activeFilters = new InputFilter[0];
         lastActiveFilter = -1;
@@ -409,6 +464,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             // Reading the method name
             // Method name is a token
             //
+            skipMethod();
             boolean space = false;
             while (!space) {
                 // Read new bytes if needed
@@ -458,6 +514,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             //
             // Reading the URI
             //
+            skipRequestTarget();
             boolean space = false;
             while (!space) {
                 // Read new bytes if needed
@@ -553,6 +610,19 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             // Reading the protocol
             // Protocol is always "HTTP/" DIGIT "." DIGIT
             //
+            if (byteBuffer.position() == parsingRequestLineStart &&
+                    byteBuffer.limit() - parsingRequestLineStart >= 10) {
+                // Fast path for a complete, common protocol
+                long word = byteBuffer.getLong(parsingRequestLineStart);
+                if ((word == HTTP_11_WORD || word == HTTP_10_WORD) &&
+                        byteBuffer.get(parsingRequestLineStart + 8) == Constants.CR &&
+                        byteBuffer.get(parsingRequestLineStart + 9) == Constants.LF) {
+                    end = parsingRequestLineStart + 8;
+                    byteBuffer.position(parsingRequestLineStart + 10);
+                    chr = Constants.LF;
+                    parsingRequestLineEol = true;
+                }
+            }
             while (!parsingRequestLineEol) {
                 // Read new bytes if needed
                 if (byteBuffer.position() >= byteBuffer.limit()) {
@@ -593,6 +663,15 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    /**
+     * Has the start of another request already been read? Only valid once the
+     * current request has been ended.
+     */
+    boolean hasPipelinedData() {
+        return byteBuffer.hasRemaining();
+    }
+
+
     /**
      * Parse the HTTP headers.
      */
@@ -739,6 +818,11 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    void setBeforeBodyRead(Runnable beforeBodyRead) {
+        this.beforeBodyRead = beforeBodyRead;
+    }
+
+
     void init(SocketWrapperBase<?> socketWrapper) {
 
         wrapper = socketWrapper;
@@ -857,6 +941,10 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
         // Header name is always US-ASCII
         //
 
+        if (headerParsePos == HeaderParsePosition.HEADER_NAME) {
+            skipHeaderName();
+        }
+
         while (headerParsePos == HeaderParsePosition.HEADER_NAME) {
 
             // Read new bytes if needed
@@ -928,6 +1016,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             if (headerParsePos == HeaderParsePosition.HEADER_VALUE) {
 
                 // Reading bytes until the end of the line
+                skipHeaderValue();
                 boolean eol = false;
                 while (!eol) {
 
@@ -1002,6 +1091,145 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    /*
+     * The skipXxx() methods below are fast paths for the parsing state
+     * machines. Each consumes the run of bytes that is already in the buffer
+     * and that the state machine would accept without changing state, using
+     * table lookups and (where no per-byte transformation is required) eight
+     * bytes at a time. The state machine then continues from the first byte
+     * that needs further consideration so partial reads, delimiters and errors
+     * are always handled - and reported - by the state machine.
+     */
+
+    private void skipMethod() {
+        byte[] buf = byteBuffer.array();
+        int pos = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        while (pos < limit && TOKEN_LOWER_CASE[buf[pos] & 0xFF] != 0) {
+            pos++;
+        }
+        byteBuffer.position(pos);
+    }
+
+
+    private void skipRequestTarget() {
+        if (chr == Constants.CR) {
+            // The state machine needs to validate the next byte
+            return;
+        }
+        byte[] buf = byteBuffer.array();
+        int start = byteBuffer.position();
+        int pos = start;
+        int limit = byteBuffer.limit();
+        boolean[] allowed = parsingRequestLineQPos == -1 ? pathChars : queryChars;
+        while (pos < limit) {
+            byte b = buf[pos];
+            if (!allowed[b & 0xFF]) {
+                if (b == Constants.QUESTION && parsingRequestLineQPos == -1) {
+                    parsingRequestLineQPos = pos;
+                    allowed = queryChars;
+                } else {
+                    break;
+                }
+            }
+            pos++;
+        }
+        if (pos > start) {
+            chr = buf[pos - 1];
+            byteBuffer.position(pos);
+        }
+    }
+
+
+    private void skipHeaderName() {
+        byte[] buf = byteBuffer.array();
+        int pos = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        while (pos < limit) {
+            byte b = buf[pos];
+            byte lower = TOKEN_LOWER_CASE[b & 0xFF];
+            if (lower == 0) {
+                break;
+            }
+            if (lower != b) {
+                buf[pos] = lower;
+            }
+            pos++;
+        }
+        byteBuffer.position(pos);
+    }
+
+
+    private void skipHeaderValue() {
+        if (chr == Constants.CR) {
+            // The state machine needs to validate the next byte
+            return;
+        }
+        int start = byteBuffer.position();
+        int limit = byteBuffer.limit();
+        int pos = start;
+        // Everything other than a control character (which includes CR, LF
+        // and HT) is copied as is.
+        while (pos + 8 <= limit) {
+            long controls = findControls(byteBuffer.getLong(pos));
+            if (controls != 0) {
+                pos += Long.numberOfLeadingZeros(controls) >>> 3;
+                break;
+            }
+            pos += 8;
+        }
+        byte[] buf = byteBuffer.array();
+        while (pos < limit && !HttpParser.isControl(buf[pos])) {
+            pos++;
+        }
+        int len = pos - start;
+        if (len == 0) {
+            return;
+        }
+        // Trailing spaces are not significant
+        int significant = pos;
+        while (significant > start && buf[significant - 1] == Constants.SP) {
+            significant--;
+        }
+        if (significant > start) {
+            headerData.lastSignificantChar = headerData.realPos + significant - start;
+        }
+        chr = buf[pos - 1];
+        if (headerData.realPos != start) {
+            // Continuation of a multi-line header
+            System.arraycopy(buf, start, buf, headerData.realPos, len);
+        }
+        headerData.realPos += len;
+        byteBuffer.position(pos);
+    }
+
+
+    /*
+     * Flags, by setting the high bit, each byte of the big-endian word that is
+     * a control character (0-31 or 127). The calculation is exact for every
+     * byte, i.e. it never carries into a neighbouring byte, so the first
+     * control character in the word is given by the number of leading zeros.
+     */
+    private static long findControls(long word) {
+        long low = word & LOW_BITS;
+        // High bit set for bytes >= 32 (or >= 128)
+        long notBelowSpace = (low + 0x6060606060606060L) | word;
+        // High bit set for bytes other than 127
+        long del = word ^ LOW_BITS;
+        long notDel = ((del & LOW_BITS) + LOW_BITS) | del;
+        return ~(notBelowSpace & notDel) & HIGH_BITS;
+    }
+
+
+    private static long getWord(byte[] b, int off) {
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word = (word << 8) | (b[off + i] & 0xFF);
+        }
+        return word;
+    }
+
+
     private HeaderParseStatus skipLine() throws IOException {
         headerParsePos = HeaderParsePosition.HEADER_SKIPLINE;
         boolean eol = false;
@@ -1151,6 +1379,9 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             if (byteBuffer.position() >= byteBuffer.limit()) {
                 // The application is reading the HTTP request body which is
                 // always a blocking operation.
+                if (beforeBodyRead != null) {
+                    beforeBodyRead.run();
+                }
                 if (!fill(true))
                     return -1;
             }
@@ -1168,6 +1399,9 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
             if (byteBuffer.position() >= byteBuffer.limit()) {
                 // The application is reading the HTTP request body which is
                 // always a blocking operation.
+                if (beforeBodyRead != null) {
+                    beforeBodyRead.run();
+                }
                 if (!fill(true))
                     return -1;
             }
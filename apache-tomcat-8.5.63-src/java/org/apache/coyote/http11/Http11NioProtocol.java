@@ -52,6 +52,30 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)getEndpoint()).getPollerThreadCount();
     }
 
+    public void setReusePort(boolean reusePort) {
+        ((NioEndpoint)getEndpoint()).setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ((NioEndpoint)getEndpoint()).getReusePort();
+    }
+
+    public void setUseSocketBufferPool(boolean useSocketBufferPool) {
+        ((NioEndpoint)getEndpoint()).setUseSocketBufferPool(useSocketBufferPool);
+    }
+
+    public boolean getUseSocketBufferPool() {
+        return ((NioEndpoint)getEndpoint()).getUseSocketBufferPool();
+    }
+
+    public void setSocketBufferPoolMaxSize(long socketBufferPoolMaxSize) {
+        ((NioEndpoint)getEndpoint()).setSocketBufferPoolMaxSize(socketBufferPoolMaxSize);
+    }
+
+    public long getSocketBufferPoolMaxSize() {
+        return ((NioEndpoint)getEndpoint()).getSocketBufferPoolMaxSize();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)getEndpoint()).setSelectorTimeout(timeout);
     }
@@ -23,6 +23,7 @@ import org.apache.coyote.ActionCode;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.HeaderBytes;
 import org.apache.tomcat.util.http.HttpMessages;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.res.StringManager;
@@ -102,6 +103,20 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     protected long byteCount = 0;
 
 
+    /**
+     * Header bytes written to client for the current request
+     */
+    protected long headerByteCount = 0;
+
+
+    /**
+     * Should the flush that normally completes the response be skipped
+     * because the response will be flushed with the responses to subsequent
+     * pipelined requests?
+     */
+    private boolean deferFlush = false;
+
+
     @Deprecated
     private boolean sendReasonPhrase = false;
 
@@ -275,6 +290,30 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
 
     // --------------------------------------------------------- Public Methods
 
+    void setDeferFlush(boolean deferFlush) {
+        this.deferFlush = deferFlush;
+    }
+
+
+    /**
+     * @return the total number of header and body bytes written for the
+     *         current response
+     */
+    long getResponseBytes() {
+        return headerByteCount + byteCount;
+    }
+
+
+    /**
+     * Flush any responses for which the flush was previously deferred.
+     *
+     * @throws IOException If an I/O error occurs while writing to the client
+     */
+    void flushDeferred() throws IOException {
+        socketWrapper.flush(true);
+    }
+
+
     /**
      * Reset the header buffer if an error occurs during the writing of the
      * headers so the error response can be written.
@@ -313,6 +352,8 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         ackSent = false;
         responseFinished = false;
         byteCount = 0;
+        headerByteCount = 0;
+        deferFlush = false;
     }
 
 
@@ -349,6 +390,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         response.setCommitted(true);
 
         if (headerBuffer.position() > 0) {
+            headerByteCount += headerBuffer.position();
             // Sending the response header buffer
             headerBuffer.flip();
             try {
@@ -440,6 +482,14 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @param mb data to be written
      */
     private void write(MessageBytes mb) {
+        if (mb.getType() == MessageBytes.T_STR) {
+            byte[] bytes = HeaderBytes.get(mb.getString());
+            if (bytes != null) {
+                // Pre-encoded constant that does not need filtering
+                write(bytes);
+                return;
+            }
+        }
         if (mb.getType() != MessageBytes.T_BYTES) {
             mb.toBytes();
             ByteChunk bc = mb.getByteChunk();
@@ -646,7 +696,9 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
 
         @Override
         public void end() throws IOException {
-            socketWrapper.flush(true);
+            if (!deferFlush) {
+                socketWrapper.flush(true);
+            }
         }
 
         @Override
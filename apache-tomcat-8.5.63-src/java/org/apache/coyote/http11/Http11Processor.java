@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletResponse;
@@ -38,6 +39,8 @@ import org.apache.coyote.UpgradeToken;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflateInputFilter;
+import org.apache.coyote.http11.filters.GzipInputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
@@ -58,6 +61,7 @@ import org.apache.tomcat.util.http.parser.TokenList;
 import org.apache.tomcat.util.log.UserDataHelper;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
+import org.apache.tomcat.util.net.AdmissionControl;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SendfileDataBase;
 import org.apache.tomcat.util.net.SendfileKeepAliveState;
@@ -180,6 +184,16 @@ public class Http11Processor extends AbstractProcessor {
     protected SendfileDataBase sendfileData = null;
 
 
+    /**
+     * The number of complete responses to pipelined requests that have not
+     * yet been flushed, the number of bytes in those responses and the time
+     * (in nanoseconds) at which the first of them was completed.
+     */
+    private int deferredResponses = 0;
+    private long deferredBytes = 0;
+    private long deferredStart = 0;
+
+
     @SuppressWarnings("deprecation")
     public Http11Processor(AbstractHttp11Protocol<?> protocol, AbstractEndpoint<?> endpoint) {
         super(endpoint);
@@ -191,6 +205,16 @@ public class Http11Processor extends AbstractProcessor {
         inputBuffer = new Http11InputBuffer(request, protocol.getMaxHttpHeaderSize(),
                 protocol.getRejectIllegalHeader(), httpParser);
         request.setInputBuffer(inputBuffer);
+        // Reading the request body may block for an unknown time so flush any
+        // deferred responses first
+        inputBuffer.setBeforeBodyRead(new Runnable() {
+            @Override
+            public void run() {
+                if (deferredResponses > 0) {
+                    flushDeferredResponses();
+                }
+            }
+        });
 
         outputBuffer = new Http11OutputBuffer(response, protocol.getMaxHttpHeaderSize(),
                 protocol.getSendReasonPhrase());
@@ -214,8 +238,11 @@ public class Http11Processor extends AbstractProcessor {
         inputBuffer.addFilter(new BufferedInputFilter());
 
         // Create and add the gzip filters.
-        //inputBuffer.addFilter(new GzipInputFilter());
-        outputBuffer.addFilter(new GzipOutputFilter());
+        inputBuffer.addFilter(new GzipInputFilter(protocol.getCompressionConfig()));
+        outputBuffer.addFilter(new GzipOutputFilter(protocol.getCompressionConfig()));
+
+        // Create and add the deflate filter
+        inputBuffer.addFilter(new DeflateInputFilter(protocol.getCompressionConfig()));
 
         pluggableFilterIndex = inputBuffer.getFilters().length;
     }
@@ -602,6 +629,12 @@ public class Http11Processor extends AbstractProcessor {
                 }
             }
 
+            if (getErrorState().isIoAllowed() && !admitRequest()) {
+                // 503 - Service unavailable
+                response.setStatus(503);
+                setErrorState(ErrorState.CLOSE_CLEAN, null);
+            }
+
             if (maxKeepAliveRequests == 1) {
                 keepAlive = false;
             } else if (maxKeepAliveRequests > 0 &&
@@ -609,6 +642,12 @@ public class Http11Processor extends AbstractProcessor {
                 keepAlive = false;
             }
 
+            // Don't hold complete responses while the application processes
+            // this request once the coalescing time limit has been reached
+            if (deferredResponses > 0 && isDeferredFlushDue()) {
+                flushDeferredResponses();
+            }
+
             // Process the request in the adapter
             if (getErrorState().isIoAllowed()) {
                 try {
@@ -653,7 +692,7 @@ public class Http11Processor extends AbstractProcessor {
                 // If this is an async request then the request ends when it has
                 // been completed. The AsyncContext is responsible for calling
                 // endRequest() in that case.
-                endRequest();
+                endRequest(true);
             }
             rp.setStage(org.apache.coyote.Constants.STAGE_ENDOUTPUT);
 
@@ -685,6 +724,10 @@ public class Http11Processor extends AbstractProcessor {
             sendfileState = processSendfile(socketWrapper);
         }
 
+        if (deferredResponses > 0) {
+            flushDeferredResponses();
+        }
+
         rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
         if (getErrorState().isError() || (endpoint.isPaused() && !isAsync())) {
@@ -822,6 +865,20 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    /*
+     * Applies the endpoint's admission control once the request line and
+     * headers are known.
+     */
+    private boolean admitRequest() {
+        AdmissionControl admissionControl = endpoint.getAdmissionControl();
+        if (!admissionControl.isShedding()) {
+            return true;
+        }
+        return admissionControl.admitRequest(socketWrapper.getRemoteAddr(),
+                request.serverName().toString(), request.requestURI().toString());
+    }
+
+
     /**
      * After reading the request headers, we have to setup the request filters.
      */
@@ -1046,6 +1103,24 @@ public class Http11Processor extends AbstractProcessor {
             contentDelimitation = true;
         }
 
+        // Decompress the request body if required. This has to be after the
+        // filters that delimit the body have been configured as they use the
+        // content length of the compressed body.
+        if (getErrorState().isIoAllowed()) {
+            String encoding = protocol.getCompressionConfig().getRequestDecompressionEncoding(request);
+            if (encoding != null) {
+                if (encoding.equals("gzip")) {
+                    inputBuffer.addActiveFilter(inputFilters[Constants.GZIP_INPUT_FILTER]);
+                } else {
+                    inputBuffer.addActiveFilter(inputFilters[Constants.DEFLATE_INPUT_FILTER]);
+                }
+                // The decompressed length is not known
+                headers.removeHeader("content-encoding");
+                headers.removeHeader("content-length");
+                request.setContentLength(-1);
+            }
+        }
+
         if (!getErrorState().isIoAllowed()) {
             getAdapter().log(request, response, 0);
         }
@@ -1155,8 +1230,7 @@ public class Http11Processor extends AbstractProcessor {
         // Add date header unless application has already set one (e.g. in a
         // Caching Filter)
         if (headers.getValue("Date") == null) {
-            headers.addValue("Date").setString(
-                    FastHttpDateFormat.getCurrentDate());
+            FastHttpDateFormat.setCurrentDate(headers.addValue("Date"));
         }
 
         // FIXME: Add transfer encoding header
@@ -1327,7 +1401,7 @@ public class Http11Processor extends AbstractProcessor {
         if (!keepAlive || endpoint.isPaused()) {
             return SocketState.CLOSED;
         } else {
-            endRequest();
+            endRequest(false);
             inputBuffer.nextRequest();
             outputBuffer.nextRequest();
             if (socketWrapper.isReadPending()) {
@@ -1349,8 +1423,12 @@ public class Http11Processor extends AbstractProcessor {
      * No more input will be passed to the application. Remaining input will be
      * swallowed or the connection dropped depending on the error and
      * expectation status.
+     *
+     * The flush of the response may only be deferred if the caller will
+     * continue to process any pipelined requests and then ensure that all
+     * deferred responses are flushed.
      */
-    private void endRequest() {
+    private void endRequest(boolean mayDeferFlush) {
         if (getErrorState().isError()) {
             // If we know we are closing the connection, don't drain
             // input. This way uploading a 100GB file doesn't tie up the
@@ -1382,6 +1460,7 @@ public class Http11Processor extends AbstractProcessor {
         if (getErrorState().isIoAllowed()) {
             try {
                 action(ActionCode.COMMIT, null);
+                outputBuffer.setDeferFlush(mayDeferFlush && deferFlush());
                 outputBuffer.end();
             } catch (IOException e) {
                 setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
@@ -1394,6 +1473,54 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    /*
+     * Determine if the flush of the current, complete response should be
+     * deferred because the next request has already been received. If not,
+     * the flush of the current response also flushes any responses that were
+     * previously deferred.
+     */
+    private boolean deferFlush() {
+        if (protocol.getPipelineFlushPolicyInternal() == PipelineFlushPolicy.COALESCE &&
+                keepAlive && !getErrorState().isError() && upgradeToken == null &&
+                sendfileData == null && !endpoint.isPaused() && inputBuffer.hasPipelinedData()) {
+            if (deferredResponses == 0) {
+                deferredStart = System.nanoTime();
+            }
+            long bytes = deferredBytes + outputBuffer.getResponseBytes();
+            if (bytes <= protocol.getMaxPipelineCoalesceSize() && !isDeferredFlushDue()) {
+                deferredResponses++;
+                deferredBytes = bytes;
+                protocol.responseCoalesced();
+                return true;
+            }
+        }
+        if (deferredResponses > 0) {
+            protocol.coalescedResponsesFlushed();
+            deferredResponses = 0;
+            deferredBytes = 0;
+        }
+        return false;
+    }
+
+
+    private boolean isDeferredFlushDue() {
+        return System.nanoTime() - deferredStart >
+                TimeUnit.MILLISECONDS.toNanos(protocol.getMaxPipelineCoalesceTime());
+    }
+
+
+    private void flushDeferredResponses() {
+        protocol.coalescedResponsesFlushed();
+        deferredResponses = 0;
+        deferredBytes = 0;
+        try {
+            outputBuffer.flushDeferred();
+        } catch (IOException e) {
+            setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
+        }
+    }
+
+
     @Override
     protected final void finishResponse() throws IOException {
         outputBuffer.end();
@@ -1581,6 +1708,8 @@ public class Http11Processor extends AbstractProcessor {
         upgradeToken = null;
         socketWrapper = null;
         sendfileData = null;
+        deferredResponses = 0;
+        deferredBytes = 0;
     }
 
 
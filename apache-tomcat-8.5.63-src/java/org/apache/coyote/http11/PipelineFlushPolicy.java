@@ -0,0 +1,66 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Defines when the response to a request received on an HTTP/1.1 keep-alive
+ * connection is flushed to the client when the next, pipelined request has
+ * already been received.
+ */
+public enum PipelineFlushPolicy {
+
+    /**
+     * Each response is flushed as soon as it is complete.
+     */
+    IMMEDIATE("immediate"),
+
+    /**
+     * The flush of a complete response is deferred while further pipelined
+     * requests have already been received so that the responses can be
+     * written together. The responses are flushed once no pipelined requests
+     * remain or when the configured size or time limit is reached.
+     */
+    COALESCE("coalesce");
+
+
+    private static final StringManager sm = StringManager.getManager(PipelineFlushPolicy.class);
+
+    public static PipelineFlushPolicy fromString(String value) {
+        for (PipelineFlushPolicy policy : values()) {
+            if (policy.toString().equalsIgnoreCase(value)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException(sm.getString("pipelineFlushPolicy.invalid", value));
+    }
+
+
+    private final String configValue;
+
+
+    private PipelineFlushPolicy(String configValue) {
+        this.configValue = configValue;
+    }
+
+
+    @Override
+    public String toString() {
+        return configValue;
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.coyote.CompressionConfig;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.InputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.ApplicationBufferHandler;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Input filter that decompresses a request body sent with
+ * <code>Content-Encoding: deflate</code>. Both the zlib format defined for the
+ * deflate coding and the raw deflate format sent by some clients are accepted.
+ * <p>
+ * The body is decompressed as it is read so it is never buffered in full. The
+ * total size of the decompressed body may be limited to protect against
+ * compression bombs.
+ */
+public class DeflateInputFilter implements InputFilter, ApplicationBufferHandler {
+
+    private static final StringManager sm = StringManager.getManager(
+            DeflateInputFilter.class.getPackage().getName());
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    protected static final String ENCODING_NAME = "deflate";
+    protected static final ByteChunk ENCODING = new ByteChunk();
+
+    protected static final int STATE_HEADER = 0;
+    protected static final int STATE_DATA = 1;
+    protected static final int STATE_TRAILER = 2;
+    protected static final int STATE_END = 3;
+
+    /**
+     * Returned by {@link #readByte()} when the end of the request body has
+     * been reached.
+     */
+    protected static final int EOF = -1;
+
+    /**
+     * Returned by {@link #readByte()} when no data is currently available
+     * (non-blocking reads only).
+     */
+    protected static final int NO_DATA = -2;
+
+    private static final int OUTPUT_SIZE = 8 * 1024;
+
+
+    // ----------------------------------------------------- Static Initializer
+
+
+    static {
+        ENCODING.setBytes(ENCODING_NAME.getBytes(StandardCharsets.ISO_8859_1),
+                0, ENCODING_NAME.length());
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    /**
+     * Next buffer in the pipeline.
+     */
+    protected InputBuffer buffer;
+
+
+    /**
+     * Compressed data read from the next buffer in the pipeline.
+     */
+    protected ByteBuffer readChunk;
+
+
+    /**
+     * The Inflater used for the current compressed stream.
+     */
+    protected Inflater inflater;
+
+
+    /**
+     * Current position in the compressed stream.
+     */
+    protected int state = STATE_HEADER;
+
+
+    private final CompressionConfig compressionConfig;
+    private final long maxDecompressedSize;
+    private Inflater zlibInflater;
+    private Inflater rawInflater;
+    private byte[] output;
+    private ByteBuffer outputChunk;
+    private byte[] inputCopy;
+    private boolean headerStarted = false;
+    private long decompressed = 0;
+    private boolean outputPending = false;
+    private boolean finished = false;
+    private boolean error = false;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param maxDecompressedSize The maximum size of the decompressed request
+     *                            body in bytes or -1 for no limit
+     */
+    public DeflateInputFilter(long maxDecompressedSize) {
+        this.compressionConfig = null;
+        this.maxDecompressedSize = maxDecompressedSize;
+    }
+
+
+    /**
+     * @param compressionConfig Compression configuration that provides the
+     *                          maximum decompressed size and the Inflater
+     *                          pool
+     */
+    public DeflateInputFilter(CompressionConfig compressionConfig) {
+        this.compressionConfig = compressionConfig;
+        this.maxDecompressedSize = compressionConfig.getMaxDecompressedSize();
+    }
+
+
+    // ---------------------------------------------------- InputBuffer Methods
+
+    /**
+     * @deprecated Unused. Will be removed in Tomcat 9. Use
+     *             {@link #doRead(ApplicationBufferHandler)}
+     */
+    @Deprecated
+    @Override
+    public int doRead(ByteChunk chunk) throws IOException {
+        int result = inflate();
+        if (result > 0) {
+            chunk.setBytes(output, 0, result);
+        } else {
+            chunk.recycle();
+        }
+        return result;
+    }
+
+
+    @Override
+    public int doRead(ApplicationBufferHandler handler) throws IOException {
+        int result = inflate();
+        if (result > 0) {
+            outputChunk.position(0).limit(result);
+            handler.setByteBuffer(outputChunk);
+        } else if (handler.getByteBuffer() != null) {
+            handler.getByteBuffer().position(0).limit(0);
+        }
+        return result;
+    }
+
+
+    // ---------------------------------------------------- InputFilter Methods
+
+
+    @Override
+    public void setRequest(Request request) {
+        // NO-OP
+    }
+
+
+    /**
+     * Swallows the rest of the compressed body without decompressing it.
+     */
+    @Override
+    public long end() throws IOException {
+        if (readChunk != null) {
+            readChunk.position(readChunk.limit());
+        }
+        if (buffer instanceof InputFilter) {
+            return ((InputFilter) buffer).end();
+        }
+        return 0;
+    }
+
+
+    /**
+     * Amount of bytes still available in a buffer.
+     */
+    @Override
+    public int available() {
+        int available = 0;
+        if (readChunk != null) {
+            available = readChunk.remaining();
+        }
+        if (available == 0 && state == STATE_DATA &&
+                (!inflater.needsInput() || outputPending)) {
+            // There is compressed data that has not yet been decompressed or
+            // the Inflater may hold decompressed data that did not fit in the
+            // last read
+            available = 1;
+        }
+        if (available == 0) {
+            // No data buffered here. Try the next filter in the chain.
+            return buffer.available();
+        } else {
+            return available;
+        }
+    }
+
+
+    /**
+     * Set the next buffer in the filter pipeline.
+     */
+    @Override
+    public void setBuffer(InputBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * Make the filter ready to process the next request.
+     */
+    @Override
+    public void recycle() {
+        readChunk = null;
+        inflater = null;
+        // Don't leave the native resources of the Inflaters to finalization
+        releaseInflater(zlibInflater, false);
+        zlibInflater = null;
+        releaseInflater(rawInflater, true);
+        rawInflater = null;
+        decompressed = 0;
+        outputPending = false;
+        finished = false;
+        error = false;
+        startMember();
+    }
+
+
+    /**
+     * Return the name of the associated encoding; Here, the value is
+     * "deflate".
+     */
+    @Override
+    public ByteChunk getEncodingName() {
+        return ENCODING;
+    }
+
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    /**
+     * Read the header of the compressed stream and select the Inflater to
+     * use. The deflate coding is meant to use the zlib format but some clients
+     * send raw deflate data so the format is detected from the first byte.
+     *
+     * @return {@code 1} once the header has been read, {@link #EOF} or
+     *         {@link #NO_DATA}
+     *
+     * @throws IOException If the header could not be read
+     */
+    protected int readHeader() throws IOException {
+        int b = readByte();
+        if (b < 0) {
+            return b;
+        }
+        // Leave the byte for the Inflater
+        readChunk.position(readChunk.position() - 1);
+        // A zlib header starts with a CM of 8 (deflate) and a CINFO (window
+        // size) of at most 7. A raw deflate stream that starts with a stored
+        // block will not match as the padding bits are zero.
+        inflater = getInflater((b & 0x0f) != 8 || (b >> 4) > 7);
+        return 1;
+    }
+
+
+    /**
+     * Read the trailer of the compressed stream. The zlib format trailer is
+     * validated by the Inflater.
+     *
+     * @return {@code 1} once the trailer has been read, {@link #EOF} or
+     *         {@link #NO_DATA}
+     *
+     * @throws IOException If the trailer could not be read or is invalid
+     */
+    protected int readTrailer() throws IOException {
+        return 1;
+    }
+
+
+    /**
+     * Called for each block of decompressed data.
+     *
+     * @param b   The buffer containing the decompressed data
+     * @param len The number of decompressed bytes, starting at offset zero
+     */
+    protected void inflated(byte[] b, int len) {
+        // NO-OP
+    }
+
+
+    /**
+     * @return {@code true} if further compressed streams may follow the end
+     *         of the current stream, {@code false} if any further data is
+     *         ignored
+     */
+    protected boolean isMultiMember() {
+        return false;
+    }
+
+
+    /**
+     * Prepare to read the start of a new compressed stream.
+     */
+    protected void startMember() {
+        state = STATE_HEADER;
+        headerStarted = false;
+    }
+
+
+    protected Inflater getInflater(boolean nowrap) {
+        Inflater result = nowrap ? rawInflater : zlibInflater;
+        if (result == null) {
+            if (compressionConfig == null) {
+                result = new Inflater(nowrap);
+            } else {
+                result = compressionConfig.borrowInflater(nowrap);
+            }
+            if (nowrap) {
+                rawInflater = result;
+            } else {
+                zlibInflater = result;
+            }
+        } else {
+            result.reset();
+        }
+        return result;
+    }
+
+
+    /**
+     * Read a single byte of compressed data.
+     *
+     * @return The byte, {@link #EOF} or {@link #NO_DATA}
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    protected int readByte() throws IOException {
+        int result = fill();
+        if (result < 0) {
+            return result;
+        }
+        return readChunk.get() & 0xFF;
+    }
+
+
+    protected void throwIOException(String msg) throws IOException {
+        error = true;
+        throw new IOException(msg);
+    }
+
+
+    protected void throwEOFException(String msg) throws IOException {
+        error = true;
+        throw new EOFException(msg);
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+
+    private void releaseInflater(Inflater inflater, boolean nowrap) {
+        if (inflater != null) {
+            if (compressionConfig == null) {
+                inflater.end();
+            } else {
+                compressionConfig.releaseInflater(inflater, nowrap);
+            }
+        }
+    }
+
+
+    private int inflate() throws IOException {
+        if (error) {
+            throw new IOException(sm.getString("deflateInputFilter.error"));
+        }
+        while (!finished) {
+            switch (state) {
+            case STATE_HEADER: {
+                if (!headerStarted) {
+                    // The end of the body at the start of a stream is
+                    // the normal end of the body
+                    int result = fill();
+                    if (result == EOF) {
+                        finished = true;
+                        break;
+                    } else if (result == NO_DATA) {
+                        return 0;
+                    }
+                    headerStarted = true;
+                }
+                int result = readHeader();
+                if (result == EOF) {
+                    throwEOFException(sm.getString("deflateInputFilter.eos"));
+                } else if (result == NO_DATA) {
+                    return 0;
+                }
+                if (output == null) {
+                    output = new byte[OUTPUT_SIZE];
+                    outputChunk = ByteBuffer.wrap(output);
+                }
+                state = STATE_DATA;
+                break;
+            }
+            case STATE_DATA: {
+                if (inflater.finished()) {
+                    // Return any data after the end of the compressed stream
+                    readChunk.position(readChunk.limit() - inflater.getRemaining());
+                    state = STATE_TRAILER;
+                    break;
+                }
+                if (inflater.needsInput()) {
+                    int result = fill();
+                    if (result == EOF) {
+                        throwEOFException(sm.getString("deflateInputFilter.eos"));
+                    } else if (result == NO_DATA) {
+                        return 0;
+                    }
+                    setInput();
+                }
+                int result = 0;
+                try {
+                    result = inflater.inflate(output, 0, output.length);
+                } catch (DataFormatException e) {
+                    throwIOException(sm.getString("deflateInputFilter.invalid", e.getMessage()));
+                }
+                outputPending = result == output.length;
+                if (result > 0) {
+                    decompressed += result;
+                    if (maxDecompressedSize > -1 && decompressed > maxDecompressedSize) {
+                        throwIOException(sm.getString("deflateInputFilter.maxDecompressedSize",
+                                Long.toString(maxDecompressedSize)));
+                    }
+                    inflated(output, result);
+                    return result;
+                }
+                if (inflater.needsDictionary()) {
+                    throwIOException(sm.getString("deflateInputFilter.dictionary"));
+                }
+                break;
+            }
+            case STATE_TRAILER: {
+                int result = readTrailer();
+                if (result == EOF) {
+                    throwEOFException(sm.getString("deflateInputFilter.eos"));
+                } else if (result == NO_DATA) {
+                    return 0;
+                }
+                state = STATE_END;
+                break;
+            }
+            case STATE_END: {
+                if (isMultiMember()) {
+                    startMember();
+                    break;
+                }
+                // Ignore anything after the end of the compressed stream
+                int result = fill();
+                if (result == EOF) {
+                    finished = true;
+                } else if (result == NO_DATA) {
+                    return 0;
+                } else {
+                    readChunk.position(readChunk.limit());
+                }
+                break;
+            }
+            }
+        }
+        return -1;
+    }
+
+
+    private int fill() throws IOException {
+        if (readChunk != null && readChunk.hasRemaining()) {
+            return readChunk.remaining();
+        }
+        int nRead = buffer.doRead(this);
+        if (nRead < 0) {
+            return EOF;
+        }
+        if (readChunk == null || !readChunk.hasRemaining()) {
+            return NO_DATA;
+        }
+        return readChunk.remaining();
+    }
+
+
+    private void setInput() {
+        int len = readChunk.remaining();
+        if (readChunk.hasArray()) {
+            inflater.setInput(readChunk.array(),
+                    readChunk.arrayOffset() + readChunk.position(), len);
+            readChunk.position(readChunk.limit());
+        } else {
+            if (inputCopy == null || inputCopy.length < len) {
+                inputCopy = new byte[Math.max(len, OUTPUT_SIZE)];
+            }
+            readChunk.get(inputCopy, 0, len);
+            inflater.setInput(inputCopy, 0, len);
+        }
+    }
+
+
+    // ------------------------------------ ApplicationBufferHandler Methods
+
+
+    @Override
+    public void setByteBuffer(ByteBuffer buffer) {
+        readChunk = buffer;
+    }
+
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return readChunk;
+    }
+
+
+    @Override
+    public void expand(int size) {
+        // no-op
+    }
+}
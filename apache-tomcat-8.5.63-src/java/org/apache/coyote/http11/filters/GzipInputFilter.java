@@ -0,0 +1,245 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.coyote.CompressionConfig;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Input filter that decompresses a request body sent with
+ * <code>Content-Encoding: gzip</code>. The gzip header and trailer (RFC 1952)
+ * are parsed incrementally so that non-blocking reads are supported and
+ * concatenated gzip members are accepted.
+ */
+public class GzipInputFilter extends DeflateInputFilter {
+
+    private static final StringManager sm = StringManager.getManager(
+            GzipInputFilter.class.getPackage().getName());
+
+
+    // -------------------------------------------------------------- Constants
+
+
+    protected static final String ENCODING_NAME = "gzip";
+    protected static final ByteChunk ENCODING = new ByteChunk();
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int FRESERVED = 0xE0;
+
+    private static final int HEADER_FIXED = 0;
+    private static final int HEADER_EXTRA_LENGTH = 1;
+    private static final int HEADER_EXTRA = 2;
+    private static final int HEADER_NAME = 3;
+    private static final int HEADER_COMMENT = 4;
+    private static final int HEADER_CRC = 5;
+
+    private static final int HEADER_FIXED_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+
+
+    // ----------------------------------------------------- Static Initializer
+
+
+    static {
+        ENCODING.setBytes(ENCODING_NAME.getBytes(StandardCharsets.ISO_8859_1),
+                0, ENCODING_NAME.length());
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+
+    private final CRC32 crc = new CRC32();
+    private int headerState;
+    private int headerPos;
+    private int flags;
+    private int extraLength;
+    private int trailerPos;
+    private long trailer;
+
+
+    // ----------------------------------------------------------- Constructors
+
+
+    /**
+     * @param maxDecompressedSize The maximum size of the decompressed request
+     *                            body in bytes or -1 for no limit
+     */
+    public GzipInputFilter(long maxDecompressedSize) {
+        super(maxDecompressedSize);
+    }
+
+
+    /**
+     * @param compressionConfig Compression configuration that provides the
+     *                          maximum decompressed size and the Inflater
+     *                          pool
+     */
+    public GzipInputFilter(CompressionConfig compressionConfig) {
+        super(compressionConfig);
+    }
+
+
+    // ---------------------------------------------------- InputFilter Methods
+
+
+    /**
+     * Return the name of the associated encoding; Here, the value is
+     * "gzip".
+     */
+    @Override
+    public ByteChunk getEncodingName() {
+        return ENCODING;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+
+    @Override
+    protected int readHeader() throws IOException {
+        while (true) {
+            int b;
+            switch (headerState) {
+            case HEADER_FIXED:
+                b = readByte();
+                if (b < 0) {
+                    return b;
+                }
+                if (headerPos == 0 && b != 0x1f || headerPos == 1 && b != 0x8b ||
+                        headerPos == 2 && b != Deflater.DEFLATED ||
+                        headerPos == 3 && (b & FRESERVED) != 0) {
+                    throwIOException(sm.getString("gzipInputFilter.invalidHeader"));
+                }
+                if (headerPos == 3) {
+                    flags = b;
+                }
+                // Modification time, extra flags and OS are ignored
+                if (++headerPos == HEADER_FIXED_SIZE) {
+                    headerPos = 0;
+                    headerState = HEADER_EXTRA_LENGTH;
+                }
+                break;
+            case HEADER_EXTRA_LENGTH:
+                if ((flags & FEXTRA) == 0) {
+                    headerState = HEADER_NAME;
+                    break;
+                }
+                b = readByte();
+                if (b < 0) {
+                    return b;
+                }
+                extraLength |= b << (8 * headerPos);
+                if (++headerPos == 2) {
+                    headerPos = 0;
+                    headerState = HEADER_EXTRA;
+                }
+                break;
+            case HEADER_EXTRA:
+                if (extraLength == 0) {
+                    headerState = HEADER_NAME;
+                    break;
+                }
+                b = readByte();
+                if (b < 0) {
+                    return b;
+                }
+                extraLength--;
+                break;
+            case HEADER_NAME:
+            case HEADER_COMMENT:
+                // Both are zero terminated
+                if ((flags & (headerState == HEADER_NAME ? FNAME : FCOMMENT)) != 0) {
+                    b = readByte();
+                    if (b < 0) {
+                        return b;
+                    }
+                    if (b != 0) {
+                        break;
+                    }
+                }
+                headerState++;
+                break;
+            case HEADER_CRC:
+                if ((flags & FHCRC) != 0 && headerPos < 2) {
+                    // Header CRC is not validated
+                    b = readByte();
+                    if (b < 0) {
+                        return b;
+                    }
+                    headerPos++;
+                    break;
+                }
+                inflater = getInflater(true);
+                crc.reset();
+                return 1;
+            }
+        }
+    }
+
+
+    @Override
+    protected int readTrailer() throws IOException {
+        while (trailerPos < TRAILER_SIZE) {
+            int b = readByte();
+            if (b < 0) {
+                return b;
+            }
+            trailer |= (long) b << (8 * trailerPos);
+            trailerPos++;
+        }
+        // CRC-32 and size modulo 2^32 of the uncompressed data
+        if ((trailer & 0xFFFFFFFFL) != crc.getValue() ||
+                (trailer >>> 32) != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+            throwIOException(sm.getString("gzipInputFilter.invalidTrailer"));
+        }
+        return 1;
+    }
+
+
+    @Override
+    protected void inflated(byte[] b, int len) {
+        crc.update(b, 0, len);
+    }
+
+
+    @Override
+    protected boolean isMultiMember() {
+        return true;
+    }
+
+
+    @Override
+    protected void startMember() {
+        super.startMember();
+        headerState = HEADER_FIXED;
+        headerPos = 0;
+        flags = 0;
+        extraLength = 0;
+        trailerPos = 0;
+        trailer = 0;
+    }
+}
@@ -19,8 +19,11 @@ package org.apache.coyote.http11.filters;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
+import org.apache.coyote.CompressionConfig;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.coyote.http11.OutputFilter;
@@ -49,7 +52,28 @@ public class GzipOutputFilter implements OutputFilter {
     /**
      * Compression output stream.
      */
-    protected GZIPOutputStream compressionStream = null;
+    protected DeflaterOutputStream compressionStream = null;
+
+
+    /**
+     * Compression configuration that provides the compression level, the
+     * Deflater pool and collects the compression statistics. May be
+     * {@code null} in which case the default level is used and Deflaters are
+     * not pooled.
+     */
+    protected final CompressionConfig compressionConfig;
+
+
+    /**
+     * The Deflater used by the current compression stream.
+     */
+    protected Deflater deflater = null;
+
+
+    /**
+     * The response being compressed.
+     */
+    protected Response response = null;
 
 
     /**
@@ -58,6 +82,18 @@ public class GzipOutputFilter implements OutputFilter {
     protected final OutputStream fakeOutputStream = new FakeOutputStream();
 
 
+    // ----------------------------------------------------------- Constructors
+
+    public GzipOutputFilter() {
+        this(null);
+    }
+
+
+    public GzipOutputFilter(CompressionConfig compressionConfig) {
+        this.compressionConfig = compressionConfig;
+    }
+
+
     // --------------------------------------------------- OutputBuffer Methods
 
     /**
@@ -68,7 +104,7 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteChunk chunk) throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = createCompressionStream();
         }
         compressionStream.write(chunk.getBytes(), chunk.getStart(),
                                 chunk.getLength());
@@ -79,7 +115,7 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = createCompressionStream();
         }
         int len = chunk.remaining();
         if (chunk.hasArray()) {
@@ -125,7 +161,7 @@ public class GzipOutputFilter implements OutputFilter {
 
     @Override
     public void setResponse(Response response) {
-        // NOOP: No need for parameters from response in this filter
+        this.response = response;
     }
 
 
@@ -138,10 +174,16 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public void end() throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = createCompressionStream();
         }
         compressionStream.finish();
         compressionStream.close();
+        if (compressionConfig != null && compressionStream instanceof GzipStream) {
+            compressionConfig.compressed(deflater.getBytesRead(),
+                    deflater.getBytesWritten() + GzipStream.HEADER_SIZE + GzipStream.TRAILER_SIZE,
+                    ((GzipStream) compressionStream).getDeflateTime());
+        }
+        releaseDeflater();
         buffer.end();
     }
 
@@ -153,6 +195,153 @@ public class GzipOutputFilter implements OutputFilter {
     public void recycle() {
         // Set compression stream to null
         compressionStream = null;
+        // The Deflater will still be held here if the response was not
+        // completed normally
+        releaseDeflater();
+        response = null;
+    }
+
+
+    protected DeflaterOutputStream createCompressionStream() throws IOException {
+        int level;
+        if (compressionConfig == null) {
+            level = Deflater.DEFAULT_COMPRESSION;
+            deflater = new Deflater(level, true);
+        } else {
+            level = compressionConfig.getDeflateLevel(
+                    response == null ? null : response.getContentType());
+            deflater = compressionConfig.borrowDeflater(level);
+        }
+        return new GzipStream(fakeOutputStream, deflater);
+    }
+
+
+    private void releaseDeflater() {
+        if (deflater != null) {
+            if (compressionConfig == null) {
+                deflater.end();
+            } else {
+                compressionConfig.releaseDeflater(deflater);
+            }
+            deflater = null;
+        }
+    }
+
+
+    // -------------------------------------------------- GzipStream Inner Class
+
+    /**
+     * Writes the gzip format (RFC 1952) using a supplied {@link Deflater} so
+     * that Deflaters, and their native resources, can be reused rather than
+     * allocated for every response as {@link java.util.zip.GZIPOutputStream}
+     * does. The output is the same as that of GZIPOutputStream with sync
+     * flush enabled.
+     */
+    protected static class GzipStream extends DeflaterOutputStream {
+
+        private static final int HEADER_SIZE = 10;
+        private static final int TRAILER_SIZE = 8;
+        private static final byte[] HEADER = new byte[] {
+                (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+        private final CRC32 crc = new CRC32();
+        private long deflateTime = 0;
+
+        public GzipStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, 512, true);
+            out.write(HEADER);
+        }
+
+
+        /**
+         * @return the time spent deflating in nanoseconds
+         */
+        public long getDeflateTime() {
+            return deflateTime;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+
+        /*
+         * flush(), deflate() and finish() re-implement the DeflaterOutputStream
+         * versions so that only the calls to the Deflater are timed. Writes to
+         * the underlying stream may block on the network and must not be
+         * included in the deflate time.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (!def.finished()) {
+                int len;
+                while ((len = deflate(Deflater.SYNC_FLUSH)) > 0) {
+                    out.write(buf, 0, len);
+                    if (len < buf.length) {
+                        break;
+                    }
+                }
+            }
+            out.flush();
+        }
+
+
+        @Override
+        protected void deflate() throws IOException {
+            int len = deflate(Deflater.NO_FLUSH);
+            if (len > 0) {
+                out.write(buf, 0, len);
+            }
+        }
+
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            def.finish();
+            while (!def.finished()) {
+                int len = deflate(Deflater.NO_FLUSH);
+                if (def.finished() && len <= buf.length - TRAILER_SIZE) {
+                    // Append the trailer to the final block
+                    writeTrailer(buf, len);
+                    out.write(buf, 0, len + TRAILER_SIZE);
+                    return;
+                }
+                if (len > 0) {
+                    out.write(buf, 0, len);
+                }
+            }
+            byte[] trailer = new byte[TRAILER_SIZE];
+            writeTrailer(trailer, 0);
+            out.write(trailer);
+        }
+
+
+        private int deflate(int flush) {
+            long start = System.nanoTime();
+            int len = def.deflate(buf, 0, buf.length, flush);
+            deflateTime += System.nanoTime() - start;
+            return len;
+        }
+
+
+        private void writeTrailer(byte[] b, int off) {
+            writeInt((int) crc.getValue(), b, off);
+            writeInt(def.getTotalIn(), b, off + 4);
+        }
+
+
+        private static void writeInt(int i, byte[] b, int off) {
+            b[off] = (byte) i;
+            b[off + 1] = (byte) (i >> 8);
+            b[off + 2] = (byte) (i >> 16);
+            b[off + 3] = (byte) (i >> 24);
+        }
     }
 
 
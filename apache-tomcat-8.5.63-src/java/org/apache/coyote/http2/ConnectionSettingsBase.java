@@ -44,6 +44,7 @@ public abstract class ConnectionSettingsBase<T extends Throwable> {
     protected static final int DEFAULT_INITIAL_WINDOW_SIZE = (1 << 16) - 1;
     protected static final int DEFAULT_MAX_FRAME_SIZE = MIN_MAX_FRAME_SIZE;
     protected static final long DEFAULT_MAX_HEADER_LIST_SIZE = 1 << 15;
+    protected static final boolean DEFAULT_NO_RFC7540_PRIORITIES = false;
 
     protected Map<Setting,Long> current = new ConcurrentHashMap<>();
     protected Map<Setting,Long> pending = new ConcurrentHashMap<>();
@@ -58,6 +59,7 @@ public abstract class ConnectionSettingsBase<T extends Throwable> {
         current.put(Setting.INITIAL_WINDOW_SIZE,    Long.valueOf(DEFAULT_INITIAL_WINDOW_SIZE));
         current.put(Setting.MAX_FRAME_SIZE,         Long.valueOf(DEFAULT_MAX_FRAME_SIZE));
         current.put(Setting.MAX_HEADER_LIST_SIZE,   Long.valueOf(DEFAULT_MAX_HEADER_LIST_SIZE));
+        current.put(Setting.NO_RFC7540_PRIORITIES,  Long.valueOf(DEFAULT_NO_RFC7540_PRIORITIES ? 1 : 0));
     }
 
 
@@ -86,6 +88,9 @@ public abstract class ConnectionSettingsBase<T extends Throwable> {
         case MAX_HEADER_LIST_SIZE:
             // No further validation required
             break;
+        case NO_RFC7540_PRIORITIES:
+            validateNoRfc7540Priorities(value);
+            break;
         case UNKNOWN:
             // Unrecognised. Ignore it.
             log.warn(sm.getString("connectionSettings.unknown",
@@ -133,6 +138,11 @@ public abstract class ConnectionSettingsBase<T extends Throwable> {
     }
 
 
+    public boolean getNoRfc7540Priorities() {
+        return getMin(Setting.NO_RFC7540_PRIORITIES) != 0;
+    }
+
+
     private synchronized long getMin(Setting setting) {
         Long pendingValue = pending.get(setting);
         long currentValue = current.get(setting).longValue();
@@ -195,6 +205,15 @@ public abstract class ConnectionSettingsBase<T extends Throwable> {
     }
 
 
+    private void validateNoRfc7540Priorities(long noRfc7540Priorities) throws T {
+        if (noRfc7540Priorities > 1) {
+            String msg = sm.getString("connectionSettings.noRfc7540PrioritiesInvalid",
+                    connectionId, Long.toString(noRfc7540Priorities));
+            throwException(msg, Http2Error.PROTOCOL_ERROR);
+        }
+    }
+
+
     private void validateInitialWindowSize(long initialWindowSize) throws T {
         if (initialWindowSize > MAX_WINDOW_SIZE) {
             String msg = sm.getString("connectionSettings.windowSizeTooBig",
@@ -87,6 +87,11 @@ public class ConnectionSettingsLocal extends ConnectionSettingsBase<IllegalArgum
     }
 
 
+    synchronized boolean isSendInProgress() {
+        return sendInProgress;
+    }
+
+
     private void checkSend() {
         if (sendInProgress) {
             // Coding error. No need for i18n
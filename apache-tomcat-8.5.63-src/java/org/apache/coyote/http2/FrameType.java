@@ -30,6 +30,7 @@ public enum FrameType {
     GOAWAY        (7,    true, false, greaterOrEquals(8), false),
     WINDOW_UPDATE (8,    true,  true, equals(4),           true),
     CONTINUATION  (9,   false,  true, null,                true),
+    PRIORITY_UPDATE (16, true, false, greaterOrEquals(4),  true),
     UNKNOWN       (256,  true,  true, null,               false);
 
     private static final StringManager sm = StringManager.getManager(FrameType.class);
@@ -100,6 +101,8 @@ public enum FrameType {
             return WINDOW_UPDATE;
         case 9:
             return CONTINUATION;
+        case 16:
+            return PRIORITY_UPDATE;
         default:
             return UNKNOWN;
         }
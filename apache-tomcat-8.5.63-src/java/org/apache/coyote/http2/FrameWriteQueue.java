@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.tomcat.util.net.SocketWrapperBase;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Serialises the writing of frames to the socket of an HTTP/2 connection.
+ *
+ * Threads that need to write a frame add it to a lock-free queue. A single
+ * thread is then elected to obtain the socket, write every queued frame and
+ * flush once for each batch of frames while the other threads wait, without
+ * holding or contending for any monitor, for their frame to be written. This
+ * means that when many streams write at the same time only one thread at a
+ * time competes for the socket and the frames are combined into fewer, larger
+ * network writes.
+ *
+ * A thread that already holds the socket lock (the thread processing the
+ * socket for the connection and the thread sending a push promise) writes the
+ * queued frames directly since no other thread could obtain the socket until
+ * it releases the lock.
+ *
+ * Frames are written in the order they were added to the queue so the order
+ * of HPACK encoding is the same as the order of the frames on the wire.
+ */
+class FrameWriteQueue {
+
+    private static final StringManager sm = StringManager.getManager(FrameWriteQueue.class);
+
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final SocketWrapperBase<?> socketWrapper;
+
+    private final Queue<Frame> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set while a thread has been elected to write the queued frames.
+     */
+    private final AtomicBoolean writerElected = new AtomicBoolean();
+
+    /**
+     * The frames written since the last flush. Only accessed while holding
+     * the socket lock.
+     */
+    private final Frame[] batch = new Frame[MAX_BATCH_SIZE];
+
+
+    FrameWriteQueue(SocketWrapperBase<?> socketWrapper) {
+        this.socketWrapper = socketWrapper;
+    }
+
+
+    /**
+     * Write the given frame to the socket, returning once the frame has been
+     * written and flushed.
+     *
+     * @param frame The frame to write
+     *
+     * @throws IOException If an I/O error occurred while writing or flushing
+     *                     the frame
+     */
+    void write(Frame frame) throws IOException {
+        frame.waiter = Thread.currentThread();
+        queue.offer(frame);
+        if (Thread.holdsLock(socketWrapper)) {
+            drain();
+        } else {
+            boolean interrupted = false;
+            while (!frame.done) {
+                if (writerElected.compareAndSet(false, true)) {
+                    try {
+                        synchronized (socketWrapper) {
+                            drain();
+                        }
+                    } finally {
+                        writerElected.set(false);
+                        // A thread may have added a frame after the queue was
+                        // drained but before the election flag was cleared.
+                        // Wake it so it can take over.
+                        Frame next = queue.peek();
+                        if (next != null) {
+                            LockSupport.unpark(next.waiter);
+                        }
+                    }
+                } else {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        frame.rethrow();
+    }
+
+
+    /*
+     * Must be called while holding the socket lock.
+     */
+    private void drain() {
+        Frame frame = queue.poll();
+        int count = 0;
+        try {
+            while (frame != null) {
+                while (frame != null && count < MAX_BATCH_SIZE) {
+                    try {
+                        frame.write();
+                        batch[count++] = frame;
+                    } catch (IOException | RuntimeException e) {
+                        frame.complete(e);
+                    }
+                    if (count < MAX_BATCH_SIZE) {
+                        frame = queue.poll();
+                    }
+                }
+                if (count > 0) {
+                    IOException flushException = null;
+                    try {
+                        socketWrapper.flush(true);
+                    } catch (IOException ioe) {
+                        flushException = ioe;
+                    }
+                    completeBatch(count, flushException);
+                }
+                if (count == MAX_BATCH_SIZE) {
+                    frame = queue.poll();
+                }
+                count = 0;
+            }
+        } catch (Throwable t) {
+            // An unexpected exception or an error escaped while writing or
+            // flushing. Complete every frame that has not been completed so
+            // none of the waiting threads waits forever. The state of the
+            // connection is unknown so all of the writes have failed.
+            IOException failure = new IOException(sm.getString("frameWriteQueue.failed"), t);
+            completeBatch(count, failure);
+            if (frame != null && !frame.done) {
+                frame.complete(failure);
+            }
+            while ((frame = queue.poll()) != null) {
+                frame.complete(failure);
+            }
+            throw t;
+        }
+    }
+
+
+    private void completeBatch(int count, Exception exception) {
+        for (int i = 0; i < count; i++) {
+            batch[i].complete(exception);
+            batch[i] = null;
+        }
+    }
+
+
+    /**
+     * A frame, or a group of frames that must be written together, waiting
+     * to be written to the socket.
+     */
+    abstract static class Frame {
+
+        private volatile boolean done;
+        private volatile Thread waiter;
+        private Exception exception;
+
+        /**
+         * Write the frame to the socket using blocking writes. The socket will
+         * be flushed once the frame, and any other frames in the same batch,
+         * have been written. Called while holding the socket lock, not
+         * necessarily by the thread that queued the frame.
+         *
+         * @throws IOException If an I/O error occurs writing the frame
+         */
+        protected abstract void write() throws IOException;
+
+
+        private void complete(Exception exception) {
+            this.exception = exception;
+            done = true;
+            Thread waiter = this.waiter;
+            if (waiter != Thread.currentThread()) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+
+        private void rethrow() throws IOException {
+            if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception != null) {
+                throw (RuntimeException) exception;
+            }
+        }
+    }
+}
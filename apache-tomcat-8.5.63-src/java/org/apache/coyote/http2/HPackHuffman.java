@@ -41,6 +41,25 @@ public class HPackHuffman {
     private static final int HIGH_TERMINAL_BIT = (0b10000000) << 24;
     private static final int LOW_MASK = 0b0111111111111111;
 
+    /**
+     * State table for decoding four bits at a time, indexed by the current
+     * state shifted left four bits plus the next nibble. Each entry holds the
+     * next state, the decoded symbol (if any) and flags.
+     */
+    private static final int[] NIBBLE_TABLE;
+    private static final int NIBBLE_STATE_MASK = 0xFFFF;
+    private static final int NIBBLE_SYMBOL_SHIFT = 16;
+    private static final int NIBBLE_EMIT = 1 << 24;
+    private static final int NIBBLE_FAIL = 1 << 25;
+    private static final int NIBBLE_FLAGS = NIBBLE_EMIT | NIBBLE_FAIL;
+
+    /**
+     * The result of ending the string in a given state.
+     */
+    private static final byte[] NIBBLE_END = new byte[256 * 2 * 9];
+    private static final byte END_TOO_MUCH_PADDING = 1;
+    private static final byte END_NOT_EOS = 2;
+
 
     static {
 
@@ -360,6 +379,7 @@ public class HPackHuffman {
             pos++;
         }
         DECODING_TABLE = codingTree;
+        NIBBLE_TABLE = buildNibbleTable(NIBBLE_END);
     }
 
     /**
@@ -375,55 +395,173 @@ public class HPackHuffman {
      */
     public static void decode(ByteBuffer data, int length, StringBuilder target)
             throws HpackException {
+        char[] chars = new char[maxDecodedLength(length)];
+        int count = decode(data, length, chars);
+        target.append(chars, 0, count);
+    }
+
+
+    /**
+     * Decodes a huffman encoded string into the target array. There must be
+     * enough data left in the buffer for this method to succeed and the target
+     * must have room for at least {@link #maxDecodedLength(int)} characters.
+     * <p>
+     * The input is consumed four bits at a time using a pre-computed state
+     * table rather than walking the code tree one bit at a time.
+     *
+     * @param data   The byte buffer
+     * @param length The length of data from the buffer to decode
+     * @param target The target for the decompressed data
+     *
+     * @return The number of characters written to the target
+     *
+     * @throws HpackException If the Huffman encoded value in HPACK headers did
+     *                        not end with EOS padding
+     */
+    static int decode(ByteBuffer data, int length, char[] target) throws HpackException {
         assert data.remaining() >= length;
-        int treePos = 0;
-        boolean eosBits = true;
-        int eosBitCount = 0;
-        for (int i = 0; i < length; ++i) {
-            byte b = data.get();
-            int bitPos = 7;
-            while (bitPos >= 0) {
-                int val = DECODING_TABLE[treePos];
-                if (((1 << bitPos) & b) == 0) {
-                    //bit not set, we want the lower part of the tree
-                    if ((val & LOW_TERMINAL_BIT) == 0) {
-                        treePos = val & LOW_MASK;
-                        eosBits = false;
-                        eosBitCount = 0;
-                    } else {
-                        target.append((char) (val & LOW_MASK));
-                        treePos = 0;
-                        eosBits = true;
-                    }
-                } else {
-                    if (eosBits) {
-                        eosBitCount++;
-                    }
-                    //bit not set, we want the lower part of the tree
-                    if ((val & HIGH_TERMINAL_BIT) == 0) {
-                        treePos = (val >> 16) & LOW_MASK;
+        int state = 0;
+        int count = 0;
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int pos = data.arrayOffset() + data.position();
+            int end = pos + length;
+            while (pos < end) {
+                int b = array[pos++];
+                int entry = NIBBLE_TABLE[(state << 4) | ((b >> 4) & 0x0F)];
+                if ((entry & NIBBLE_FLAGS) != 0) {
+                    count = emit(entry, target, count);
+                }
+                entry = NIBBLE_TABLE[((entry & NIBBLE_STATE_MASK) << 4) | (b & 0x0F)];
+                if ((entry & NIBBLE_FLAGS) != 0) {
+                    count = emit(entry, target, count);
+                }
+                state = entry & NIBBLE_STATE_MASK;
+            }
+            data.position(data.position() + length);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                int b = data.get();
+                int entry = NIBBLE_TABLE[(state << 4) | ((b >> 4) & 0x0F)];
+                if ((entry & NIBBLE_FLAGS) != 0) {
+                    count = emit(entry, target, count);
+                }
+                entry = NIBBLE_TABLE[((entry & NIBBLE_STATE_MASK) << 4) | (b & 0x0F)];
+                if ((entry & NIBBLE_FLAGS) != 0) {
+                    count = emit(entry, target, count);
+                }
+                state = entry & NIBBLE_STATE_MASK;
+            }
+        }
+        switch (NIBBLE_END[state]) {
+            case END_TOO_MUCH_PADDING:
+                throw new HpackException(sm.getString(
+                        "hpackhuffman.stringLiteralTooMuchPadding"));
+            case END_NOT_EOS:
+                throw new HpackException(sm.getString(
+                        "hpackhuffman.huffmanEncodedHpackValueDidNotEndWithEOS"));
+            default:
+                return count;
+        }
+    }
+
+
+    /**
+     * Obtain the maximum number of characters a Huffman encoded string of the
+     * given length may decode to.
+     *
+     * @param length The length of the encoded string in bytes
+     *
+     * @return The maximum length of the decoded string
+     */
+    static int maxDecodedLength(int length) {
+        // The shortest code is 5 bits
+        return (length * 8) / 5;
+    }
+
+
+    private static int emit(int entry, char[] target, int count) throws HpackException {
+        if ((entry & NIBBLE_FAIL) != 0) {
+            // This must be the EOS symbol which MUST be treated as an error
+            throw new HpackException(sm.getString("hpackhuffman.stringLiteralEOS"));
+        }
+        target[count] = (char) ((entry >> NIBBLE_SYMBOL_SHIFT) & 0xFF);
+        return count + 1;
+    }
+
+
+    /*
+     * Walks the bit at a time decoding tree for each state and each possible
+     * nibble to build the four bits at a time state table. The state tracks
+     * the position in the tree along with the information required to
+     * validate the padding at the end of the string: whether all the bits
+     * since the last symbol were set and how many of them there were (capped
+     * at eight since anything over seven is an error).
+     */
+    private static int[] buildNibbleTable(byte[] end) {
+        int[] ids = new int[end.length];
+        Arrays.fill(ids, -1);
+        int[] keys = new int[ids.length];
+        int stateCount = 0;
+        // Root of the tree, all bits since the last symbol set, no bits read
+        int root = stateKey(0, true, 0);
+        ids[root] = stateCount;
+        keys[stateCount++] = root;
+        int[] table = new int[ids.length * 16];
+        for (int state = 0; state < stateCount; state++) {
+            for (int nibble = 0; nibble < 16; nibble++) {
+                int key = keys[state];
+                int entry = 0;
+                for (int bit = 3; bit >= 0 && (entry & NIBBLE_FAIL) == 0; bit--) {
+                    int treePos = key & 0xFF;
+                    boolean eosBits = (key & 0x100) != 0;
+                    int eosBitCount = key >> 9;
+                    int val = DECODING_TABLE[treePos];
+                    if ((nibble & (1 << bit)) == 0) {
+                        if ((val & LOW_TERMINAL_BIT) == 0) {
+                            key = stateKey(val & LOW_MASK, false, 0);
+                        } else {
+                            entry |= NIBBLE_EMIT | ((val & LOW_MASK) << NIBBLE_SYMBOL_SHIFT);
+                            key = stateKey(0, true, eosBitCount);
+                        }
                     } else {
-                        if (eosBitCount != 0) {
-                            // This must be the EOS symbol which MUST be treated
-                            // as an error
-                            throw new HpackException(sm.getString("hpackhuffman.stringLiteralEOS"));
+                        if (eosBits) {
+                            eosBitCount = Math.min(eosBitCount + 1, 8);
+                        }
+                        if ((val & HIGH_TERMINAL_BIT) == 0) {
+                            key = stateKey((val >> 16) & LOW_MASK, eosBits, eosBitCount);
+                        } else if (eosBitCount != 0) {
+                            entry |= NIBBLE_FAIL;
+                        } else {
+                            entry |= NIBBLE_EMIT | (((val >> 16) & LOW_MASK) << NIBBLE_SYMBOL_SHIFT);
+                            key = stateKey(0, true, eosBitCount);
                         }
-                        target.append((char) ((val >> 16) & LOW_MASK));
-                        treePos = 0;
-                        eosBits = true;
                     }
                 }
-                bitPos--;
+                if ((entry & NIBBLE_FAIL) == 0) {
+                    if (ids[key] == -1) {
+                        ids[key] = stateCount;
+                        keys[stateCount++] = key;
+                    }
+                    entry |= ids[key];
+                }
+                table[(state << 4) | nibble] = entry;
             }
         }
-        if (eosBitCount > 7) {
-            throw new HpackException(sm.getString(
-                    "hpackhuffman.stringLiteralTooMuchPadding"));
-        }
-        if (!eosBits) {
-            throw new HpackException(sm.getString(
-                    "hpackhuffman.huffmanEncodedHpackValueDidNotEndWithEOS"));
+        for (int state = 0; state < stateCount; state++) {
+            int key = keys[state];
+            if ((key >> 9) > 7) {
+                end[state] = END_TOO_MUCH_PADDING;
+            } else if ((key & 0x100) == 0) {
+                end[state] = END_NOT_EOS;
+            }
         }
+        return Arrays.copyOf(table, stateCount * 16);
+    }
+
+
+    private static int stateKey(int treePos, boolean eosBits, int eosBitCount) {
+        return treePos | (eosBits ? 0x100 : 0) | (eosBitCount << 9);
     }
 
 
@@ -29,6 +29,29 @@ public class HpackDecoder {
 
     private static final int DEFAULT_RING_BUFFER_SIZE = 10;
 
+    private static final int DEFAULT_STRING_BUFFER_SIZE = 128;
+
+    /**
+     * The names and values of the static table in an open addressing hash
+     * table so literals that match them can be mapped to the existing String
+     * rather than creating a new one.
+     */
+    private static final String[] KNOWN_STRINGS = new String[256];
+    private static final int KNOWN_STRINGS_MASK = KNOWN_STRINGS.length - 1;
+    private static final int KNOWN_STRINGS_MAX_LENGTH;
+
+    static {
+        int maxLength = 0;
+        for (int i = 1; i < Hpack.STATIC_TABLE.length; i++) {
+            Hpack.HeaderField field = Hpack.STATIC_TABLE[i];
+            maxLength = Math.max(maxLength, addKnownString(field.name));
+            if (field.value != null && field.value.length() > 0) {
+                maxLength = Math.max(maxLength, addKnownString(field.value));
+            }
+        }
+        KNOWN_STRINGS_MAX_LENGTH = maxLength;
+    }
+
     /**
      * The object that receives the headers that are emitted from this decoder
      */
@@ -72,6 +95,12 @@ public class HpackDecoder {
     private volatile boolean countedCookie;
     private volatile int headerSize = 0;
 
+    /**
+     * Scratch space string literals are decoded into before they are
+     * converted to Strings.
+     */
+    private char[] stringBuffer = new char[DEFAULT_STRING_BUFFER_SIZE];
+
     public HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
         this.maxMemorySizeSoft = maxMemorySize;
@@ -220,17 +249,75 @@ public class HpackDecoder {
         if (huffman) {
             return readHuffmanString(length, buffer);
         }
-        StringBuilder stringBuilder = new StringBuilder(length);
+        char[] chars = getStringBuffer(length);
         for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+            chars[i] = (char) buffer.get();
         }
-        return stringBuilder.toString();
+        return toString(chars, length);
     }
 
     private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        StringBuilder stringBuilder = new StringBuilder(length);
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        return stringBuilder.toString();
+        char[] chars = getStringBuffer(HPackHuffman.maxDecodedLength(length));
+        int count = HPackHuffman.decode(buffer, length, chars);
+        return toString(chars, count);
+    }
+
+    private char[] getStringBuffer(int size) {
+        if (stringBuffer.length < size) {
+            stringBuffer = new char[Math.max(size, stringBuffer.length * 2)];
+        }
+        return stringBuffer;
+    }
+
+    /*
+     * Converts the decoded characters to a String, returning the String from
+     * the static table if the characters match one of its names or values.
+     */
+    private static String toString(char[] chars, int length) {
+        if (length <= KNOWN_STRINGS_MAX_LENGTH) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int slot = spread(hash) & KNOWN_STRINGS_MASK;
+            String known;
+            while ((known = KNOWN_STRINGS[slot]) != null) {
+                if (matches(known, chars, length)) {
+                    return known;
+                }
+                slot = (slot + 1) & KNOWN_STRINGS_MASK;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean matches(String known, char[] chars, int length) {
+        if (known.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (known.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int addKnownString(String value) {
+        int slot = spread(value.hashCode()) & KNOWN_STRINGS_MASK;
+        String known;
+        while ((known = KNOWN_STRINGS[slot]) != null) {
+            if (known.equals(value)) {
+                return value.length();
+            }
+            slot = (slot + 1) & KNOWN_STRINGS_MASK;
+        }
+        KNOWN_STRINGS[slot] = value;
+        return value.length();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
     }
 
     private String handleIndexedHeaderName(int index) throws HpackException {
@@ -18,11 +18,9 @@ package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -79,7 +77,12 @@ public class HpackEncoder {
     private static final Map<String, TableEntry[]> ENCODING_STATIC_TABLE;
 
     private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<String, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
+    /**
+     * Index of the dynamic table by name and then by value. The encoder never
+     * adds an entry for a name and value that are already in the table so
+     * each name and value pair maps to a single entry.
+     */
+    private final Map<String, Map<String, TableEntry>> dynamicTable = new HashMap<>();
 
     static {
         Map<String, TableEntry[]> map = new HashMap<>();
@@ -245,11 +248,11 @@ public class HpackEncoder {
     private void addToDynamicTable(String headerName, String val) {
         int pos = entryPositionCounter++;
         DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
+        Map<String, TableEntry> existing = dynamicTable.get(headerName);
         if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+            dynamicTable.put(headerName, existing = new HashMap<>(4));
         }
-        existing.add(d);
+        existing.put(val, d);
         evictionQueue.add(d);
         currentTableSize += d.size;
         runEvictionIfRequired();
@@ -264,8 +267,8 @@ public class HpackEncoder {
     private void preventPositionRollover() {
         //if the position counter is about to roll over we iterate all the table entries
         //and set their position to their actual position
-        for (List<TableEntry> tableEntries : dynamicTable.values()) {
-            for (TableEntry t : tableEntries) {
+        for (Map<String, TableEntry> tableEntries : dynamicTable.values()) {
+            for (TableEntry t : tableEntries.values()) {
                 t.position = t.getPosition();
             }
         }
@@ -280,10 +283,12 @@ public class HpackEncoder {
                 return;
             }
             currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
+            Map<String, TableEntry> entries = dynamicTable.get(next.name);
+            if (entries.get(next.value) == next) {
+                entries.remove(next.value);
+                if (entries.isEmpty()) {
+                    dynamicTable.remove(next.name);
+                }
             }
         }
     }
@@ -297,12 +302,11 @@ public class HpackEncoder {
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
+        Map<String, TableEntry> dynamic = dynamicTable.get(headerName);
         if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
-                }
+            TableEntry st = dynamic.get(value);
+            if (st != null) {
+                return st;
             }
         }
         if (staticTable != null) {
@@ -41,6 +41,7 @@ public class Http2OutputBuffer implements HttpOutputBuffer {
      * @param filter    The filter to add to the start of the processing chain
      */
     public void addFilter(OutputFilter filter) {
+        filter.setResponse(coyoteResponse);
         filter.setBuffer(next);
         next = filter;
     }
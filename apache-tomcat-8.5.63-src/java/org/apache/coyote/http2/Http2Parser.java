@@ -25,6 +25,7 @@ import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
+import org.apache.tomcat.util.http.parser.Priority;
 import org.apache.tomcat.util.res.StringManager;
 
 class Http2Parser {
@@ -120,6 +121,9 @@ class Http2Parser {
         case CONTINUATION:
             readContinuationFrame(streamId, flags, payloadSize);
             break;
+        case PRIORITY_UPDATE:
+            readPriorityUpdateFrame(payloadSize);
+            break;
         case UNKNOWN:
             readUnknownFrame(streamId, frameType, flags, payloadSize);
         }
@@ -370,6 +374,33 @@ class Http2Parser {
     }
 
 
+    private void readPriorityUpdateFrame(int payloadSize) throws Http2Exception, IOException {
+        byte[] payload = new byte[payloadSize];
+        input.fill(true, payload);
+
+        int prioritizedStreamId = ByteUtil.get31Bits(payload, 0);
+
+        if (prioritizedStreamId == 0) {
+            throw new ConnectionException(
+                    sm.getString("http2Parser.processFramePriorityUpdate.streamZero"),
+                    Http2Error.PROTOCOL_ERROR);
+        }
+
+        String fieldValue = new String(payload, 4, payloadSize - 4, StandardCharsets.US_ASCII);
+        Priority p = Priority.parsePriority(fieldValue);
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("http2Parser.processFramePriorityUpdate.debug", connectionId,
+                    Integer.toString(prioritizedStreamId), fieldValue));
+        }
+
+        // A field value that fails to parse is ignored (RFC 9218, section 7.1)
+        if (p != null) {
+            output.priorityUpdate(prioritizedStreamId, p);
+        }
+    }
+
+
     private void readContinuationFrame(int streamId, int flags, int payloadSize)
             throws Http2Exception, IOException {
         if (headersCurrentStream == -1) {
@@ -513,7 +544,7 @@ class Http2Parser {
         // going to be thrown.
         hpackDecoder.getHeaderEmitter().validateHeaders();
 
-        output.headersEnd(streamId);
+        output.headersEnd(streamId, headersEndStream);
 
         if (headersEndStream) {
             output.receivedEndOfStream(streamId);
@@ -647,12 +678,15 @@ class Http2Parser {
         HeaderEmitter headersStart(int streamId, boolean headersEndStream)
                 throws Http2Exception, IOException;
         void headersContinue(int payloadSize, boolean endOfHeaders);
-        void headersEnd(int streamId) throws Http2Exception;
+        void headersEnd(int streamId, boolean endOfStream) throws Http2Exception;
 
         // Priority frames (also headers)
         void reprioritise(int streamId, int parentStreamId, boolean exclusive, int weight)
                 throws Http2Exception;
 
+        // Priority update frames (RFC 9218)
+        void priorityUpdate(int prioritizedStreamId, Priority p) throws Http2Exception;
+
         // Reset frames
         void reset(int streamId, long errorCode) throws Http2Exception;
 
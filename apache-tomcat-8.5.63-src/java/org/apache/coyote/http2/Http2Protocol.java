@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import javax.management.ObjectName;
@@ -69,6 +70,11 @@ public class Http2Protocol implements UpgradeProtocol {
     static final int DEFAULT_OVERHEAD_DATA_THRESHOLD = 1024;
     static final int DEFAULT_OVERHEAD_WINDOW_UPDATE_THRESHOLD = 1024;
 
+    // Receive window auto-tuning is disabled unless the maximum window size is
+    // larger than the initial window size
+    static final int DEFAULT_MAX_WINDOW_SIZE = ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE;
+    static final long DEFAULT_MAX_WINDOW_MEMORY = 64 * 1024 * 1024;
+
     private static final String HTTP_UPGRADE_NAME = "h2c";
     private static final String ALPN_NAME = "h2";
     private static final byte[] ALPN_IDENTIFIER = ALPN_NAME.getBytes(StandardCharsets.UTF_8);
@@ -84,9 +90,22 @@ public class Http2Protocol implements UpgradeProtocol {
 
     private long maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
     private int maxConcurrentStreamExecution = DEFAULT_MAX_CONCURRENT_STREAM_EXECUTION;
+    // Maximum number of streams per read of a connection that may be processed
+    // on the thread that read them. Zero disables inline processing.
+    private int maxInlineStreams = 0;
+    // Time, in milliseconds, after which any inline streams that have not
+    // started are passed to the executor
+    private long maxInlineTime = 10;
+    private final AtomicLong inlineStreamCount = new AtomicLong(0);
+    private final AtomicLong dispatchedStreamCount = new AtomicLong(0);
     // To advertise a different default to the client specify it here but DO NOT
     // change the default defined in ConnectionSettingsBase.
     private int initialWindowSize = ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE;
+    private int maxWindowSize = DEFAULT_MAX_WINDOW_SIZE;
+    private long maxWindowMemory = DEFAULT_MAX_WINDOW_MEMORY;
+    // Bytes by which auto-tuned windows currently exceed initialWindowSize,
+    // summed across all connections
+    private final AtomicLong windowMemory = new AtomicLong(0);
     // Limits
     private Set<String> allowedTrailerHeaders =
             Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
@@ -100,6 +119,7 @@ public class Http2Protocol implements UpgradeProtocol {
     private int overheadWindowUpdateThreshold = DEFAULT_OVERHEAD_WINDOW_UPDATE_THRESHOLD;
 
     private boolean initiatePingDisabled = false;
+    private boolean useRfc7540Priority = false;
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
     // Reference to HTTP/1.1 protocol that this instance is configured under
@@ -145,6 +165,7 @@ public class Http2Protocol implements UpgradeProtocol {
         result.setWriteTimeout(getWriteTimeout());
         result.setMaxConcurrentStreams(getMaxConcurrentStreams());
         result.setMaxConcurrentStreamExecution(getMaxConcurrentStreamExecution());
+        result.setMaxInlineStreams(getMaxInlineStreams());
         result.setInitialWindowSize(getInitialWindowSize());
         result.setAllowedTrailerHeaders(allowedTrailerHeaders);
         result.setMaxHeaderCount(getMaxHeaderCount());
@@ -152,6 +173,7 @@ public class Http2Protocol implements UpgradeProtocol {
         result.setMaxTrailerCount(getMaxTrailerCount());
         result.setMaxTrailerSize(getMaxTrailerSize());
         result.setInitiatePingDisabled(initiatePingDisabled);
+        result.setUseRfc7540Priority(useRfc7540Priority);
         return result;
     }
 
@@ -248,6 +270,54 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getMaxInlineStreams() {
+        return maxInlineStreams;
+    }
+
+
+    public void setMaxInlineStreams(int maxInlineStreams) {
+        this.maxInlineStreams = maxInlineStreams;
+    }
+
+
+    public long getMaxInlineTime() {
+        return maxInlineTime;
+    }
+
+
+    public void setMaxInlineTime(long maxInlineTime) {
+        this.maxInlineTime = maxInlineTime;
+    }
+
+
+    /**
+     * @return The number of new streams that have been processed on the thread
+     *         that read their headers
+     */
+    public long getInlineStreamCount() {
+        return inlineStreamCount.get();
+    }
+
+
+    void incrementInlineStreamCount() {
+        inlineStreamCount.incrementAndGet();
+    }
+
+
+    /**
+     * @return The number of new streams that have been passed to the executor
+     *         for processing
+     */
+    public long getDispatchedStreamCount() {
+        return dispatchedStreamCount.get();
+    }
+
+
+    void incrementDispatchedStreamCount() {
+        dispatchedStreamCount.incrementAndGet();
+    }
+
+
     public int getInitialWindowSize() {
         return initialWindowSize;
     }
@@ -258,6 +328,75 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+
+    public void setMaxWindowSize(int maxWindowSize) {
+        this.maxWindowSize = maxWindowSize;
+    }
+
+
+    public long getMaxWindowMemory() {
+        return maxWindowMemory;
+    }
+
+
+    public void setMaxWindowMemory(long maxWindowMemory) {
+        this.maxWindowMemory = maxWindowMemory;
+    }
+
+
+    /**
+     * Reserve memory for an increase in the size of the receive windows of a
+     * connection.
+     *
+     * @param increase The requested increase in bytes
+     *
+     * @return The increase, in bytes, that may be used. This will be less than
+     *         requested if the request would exceed {@link #getMaxWindowMemory()}
+     */
+    int reserveWindowMemory(int increase) {
+        while (true) {
+            long current = windowMemory.get();
+            long available = maxWindowMemory - current;
+            if (available <= 0) {
+                return 0;
+            }
+            int granted = (int) Math.min(increase, available);
+            if (windowMemory.compareAndSet(current, current + granted)) {
+                return granted;
+            }
+        }
+    }
+
+
+    /**
+     * Record memory that has to be used regardless of
+     * {@link #getMaxWindowMemory()}, such as stream input buffers that have
+     * grown to hold data the client was permitted to send. Charged memory
+     * reduces the memory that can be reserved for further increases in
+     * window size.
+     *
+     * @param charge The change in the memory used in bytes. Negative if
+     *               memory has been freed.
+     */
+    void chargeWindowMemory(long charge) {
+        windowMemory.addAndGet(charge);
+    }
+
+
+    void releaseWindowMemory(long reserved) {
+        windowMemory.addAndGet(-reserved);
+    }
+
+
+    boolean isWindowMemoryExhausted() {
+        return windowMemory.get() >= maxWindowMemory;
+    }
+
+
     public void setAllowedTrailerHeaders(String commaSeparatedHeaders) {
         // Jump through some hoops so we don't end up with an empty set while
         // doing updates.
@@ -372,6 +511,16 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public boolean getUseRfc7540Priority() {
+        return useRfc7540Priority;
+    }
+
+
+    public void setUseRfc7540Priority(boolean useRfc7540Priority) {
+        this.useRfc7540Priority = useRfc7540Priority;
+    }
+
+
     public void setCompression(String compression) {
         compressionConfig.setCompression(compression);
     }
@@ -423,8 +572,100 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getCompressionDeflateLevel() {
+        return compressionConfig.getCompressionDeflateLevel();
+    }
+    public void setCompressionDeflateLevel(int compressionDeflateLevel) {
+        compressionConfig.setCompressionDeflateLevel(compressionDeflateLevel);
+    }
+
+
+    public String getCompressionDeflateLevels() {
+        return compressionConfig.getCompressionDeflateLevels();
+    }
+    public void setCompressionDeflateLevels(String compressionDeflateLevels) {
+        compressionConfig.setCompressionDeflateLevels(compressionDeflateLevels);
+    }
+
+
+    public int getCompressionCpuThreshold() {
+        return compressionConfig.getCompressionCpuThreshold();
+    }
+    public void setCompressionCpuThreshold(int compressionCpuThreshold) {
+        compressionConfig.setCompressionCpuThreshold(compressionCpuThreshold);
+    }
+
+
+    public int getCompressionQueueThreshold() {
+        return compressionConfig.getCompressionQueueThreshold();
+    }
+    public void setCompressionQueueThreshold(int compressionQueueThreshold) {
+        compressionConfig.setCompressionQueueThreshold(compressionQueueThreshold);
+    }
+
+
+    public int getCompressionOverloadDeflateLevel() {
+        return compressionConfig.getCompressionOverloadDeflateLevel();
+    }
+    public void setCompressionOverloadDeflateLevel(int compressionOverloadDeflateLevel) {
+        compressionConfig.setCompressionOverloadDeflateLevel(compressionOverloadDeflateLevel);
+    }
+
+
+    public boolean getRequestDecompression() {
+        return compressionConfig.getRequestDecompression();
+    }
+    public void setRequestDecompression(boolean requestDecompression) {
+        compressionConfig.setRequestDecompression(requestDecompression);
+    }
+
+
+    public String getDecompressibleMimeType() {
+        return compressionConfig.getDecompressibleMimeType();
+    }
+    public void setDecompressibleMimeType(String valueS) {
+        compressionConfig.setDecompressibleMimeType(valueS);
+    }
+
+
+    public long getMaxDecompressedSize() {
+        return compressionConfig.getMaxDecompressedSize();
+    }
+    public void setMaxDecompressedSize(long maxDecompressedSize) {
+        compressionConfig.setMaxDecompressedSize(maxDecompressedSize);
+    }
+
+
+    public long getCompressedCount() {
+        return compressionConfig.getCompressedCount();
+    }
+    public long getCompressionSkippedCount() {
+        return compressionConfig.getCompressionSkippedCount();
+    }
+    public long getCompressionBytesIn() {
+        return compressionConfig.getCompressionBytesIn();
+    }
+    public long getCompressionBytesOut() {
+        return compressionConfig.getCompressionBytesOut();
+    }
+    public double getCompressionRatio() {
+        return compressionConfig.getCompressionRatio();
+    }
+    public long getCompressionTime() {
+        return compressionConfig.getCompressionTime();
+    }
+    public void resetCompressionStatistics() {
+        compressionConfig.resetCompressionStatistics();
+    }
+
+
     public boolean useCompression(Request request, Response response) {
-        return compressionConfig.useCompression(request, response);
+        return compressionConfig.useCompression(request, response, http11Protocol == null ? null : http11Protocol.getExecutor());
+    }
+
+
+    CompressionConfig getCompressionConfig() {
+        return compressionConfig;
     }
 
 
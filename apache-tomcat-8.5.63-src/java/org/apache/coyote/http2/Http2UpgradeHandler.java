@@ -20,9 +20,12 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
@@ -51,6 +54,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.codec.binary.Base64;
 import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.Priority;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SocketEvent;
@@ -96,6 +100,22 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private static final HeaderSink HEADER_SINK = new HeaderSink();
 
+    // Most urgent first, then non-incremental before incremental and finally
+    // stream ID order
+    private static final Comparator<Stream> URGENCY_ORDER = new Comparator<Stream>() {
+        @Override
+        public int compare(Stream s1, Stream s2) {
+            int result = Integer.compare(s1.getUrgency(), s2.getUrgency());
+            if (result == 0) {
+                result = Boolean.compare(s1.getIncremental(), s2.getIncremental());
+            }
+            if (result == 0) {
+                result = Integer.compare(s1.getIdAsInt(), s2.getIdAsInt());
+            }
+            return result;
+        }
+    };
+
     private final Object priorityTreeLock = new Object();
 
     private final String connectionId;
@@ -103,6 +123,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private final Http2Protocol protocol;
     private final Adapter adapter;
     private volatile SocketWrapperBase<?> socketWrapper;
+    private volatile FrameWriteQueue frameWriteQueue;
     private volatile SSLSupport sslSupport;
 
     private volatile Http2Parser parser;
@@ -136,9 +157,14 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private volatile int maxProcessedStreamId;
     private final AtomicInteger nextLocalStreamId = new AtomicInteger(2);
     private final PingManager pingManager = new PingManager();
+    private final WindowTuner windowTuner = new WindowTuner();
     private volatile int newStreamsSinceLastPrune = 0;
     private final ConcurrentMap<AbstractStream, BacklogTracker> backLogStreams = new ConcurrentHashMap<>();
     private long backLogSize = 0;
+    // If false, the connection flow control window is allocated using the
+    // RFC 9218 urgency and incremental parameters rather than the RFC 7540
+    // priority tree
+    private volatile boolean useRfc7540Priority = false;
     // The time at which the connection will timeout unless data arrives before
     // then. -1 means no timeout.
     private volatile long connectionTimeout = -1;
@@ -147,6 +173,10 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private int maxConcurrentStreamExecution = Http2Protocol.DEFAULT_MAX_CONCURRENT_STREAM_EXECUTION;
     private AtomicInteger streamConcurrency = null;
     private Queue<StreamRunnable> queuedRunnable = null;
+    // Streams to process on the current thread once it has finished reading.
+    // Only accessed by the thread reading from the connection.
+    private int maxInlineStreams = 0;
+    private InlineStreamRunner inlineStreams = null;
 
     // Limits
     private Set<String> allowedTrailerHeaders = Collections.emptySet();
@@ -160,6 +190,10 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private volatile int lastNonFinalDataPayload;
     private volatile int lastWindowUpdate;
 
+    // Receive flow control. The connection window may be increased by
+    // auto-tuning.
+    private volatile int connectionReceiveWindow;
+
 
     public Http2UpgradeHandler(Http2Protocol protocol, Adapter adapter, Request coyoteRequest) {
         super (STREAM_ID_ZERO);
@@ -169,9 +203,12 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
         lastNonFinalDataPayload = protocol.getOverheadDataThreshold() * 2;
         lastWindowUpdate = protocol.getOverheadWindowUpdateThreshold() * 2;
+        connectionReceiveWindow = Math.max(protocol.getInitialWindowSize(),
+                ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE);
 
         remoteSettings = new ConnectionSettingsRemote(connectionId);
         localSettings = new ConnectionSettingsLocal(connectionId);
+        localSettings.set(Setting.NO_RFC7540_PRIORITIES, 1);
 
         // Initial HTTP request becomes stream 1.
         if (coyoteRequest != null) {
@@ -269,10 +306,46 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private void processStreamOnContainerThread(Stream stream) {
         StreamProcessor streamProcessor = new StreamProcessor(this, stream, adapter, socketWrapper);
         streamProcessor.setSslSupport(sslSupport);
+        protocol.incrementDispatchedStreamCount();
         processStreamOnContainerThread(streamProcessor, SocketEvent.OPEN_READ);
     }
 
 
+    /*
+     * A stream that arrived with its headers and end of stream in a single
+     * read may be processed inline, subject to the per read limit and the
+     * limit on concurrent stream execution.
+     */
+    private void processStreamInline(Stream stream) {
+        if (inlineStreams != null && inlineStreams.size() >= maxInlineStreams ||
+                streamConcurrency != null && getStreamConcurrency() >= maxConcurrentStreamExecution) {
+            processStreamOnContainerThread(stream);
+            return;
+        }
+        if (streamConcurrency != null) {
+            increaseStreamConcurrency();
+        }
+        StreamProcessor streamProcessor = new StreamProcessor(this, stream, adapter, socketWrapper);
+        streamProcessor.setSslSupport(sslSupport);
+        if (inlineStreams == null) {
+            inlineStreams = new InlineStreamRunner(this);
+        }
+        inlineStreams.add(streamProcessor);
+    }
+
+
+    /*
+     * Called when a stream that was going to be processed inline has to be
+     * passed to the executor instead. It has already been included in the
+     * concurrency count.
+     */
+    void executeInlineStream(StreamProcessor streamProcessor) {
+        protocol.incrementDispatchedStreamCount();
+        socketWrapper.getEndpoint().getExecutor().execute(
+                new StreamRunnable(streamProcessor, SocketEvent.OPEN_READ));
+    }
+
+
     void processStreamOnContainerThread(StreamProcessor streamProcessor, SocketEvent event) {
         StreamRunnable streamRunnable = new StreamRunnable(streamProcessor, event);
         if (streamConcurrency == null) {
@@ -291,6 +364,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     @Override
     public void setSocketWrapper(SocketWrapperBase<?> wrapper) {
         this.socketWrapper = wrapper;
+        this.frameWriteQueue = new FrameWriteQueue(wrapper);
     }
 
 
@@ -368,6 +442,12 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     }
                     closeConnection(ce);
                     break;
+                } finally {
+                    if (inlineStreams != null) {
+                        // Process once this thread has released the socket
+                        socketWrapper.executeDeferred(inlineStreams);
+                        inlineStreams = null;
+                    }
                 }
 
                 if (connectionState.get() != ConnectionState.CLOSED) {
@@ -454,6 +534,16 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    void inputBufferMemoryChanged(int delta) {
+        windowTuner.bufferMemoryChanged(delta);
+    }
+
+
+    boolean isWindowMemoryExhausted() {
+        return protocol.isWindowMemoryExhausted();
+    }
+
+
     Http2Protocol getProtocol() {
         return protocol;
     }
@@ -548,10 +638,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         // Payload
         ByteUtil.setFourBytes(rstFrame, 9, se.getError().getCode());
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, rstFrame, 0, rstFrame.length);
-            socketWrapper.flush(true);
-        }
+        frameWriteQueue.write(new ByteArrayFrame(rstFrame));
     }
 
 
@@ -636,22 +723,26 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         byte[] payloadLength = new byte[3];
         ByteUtil.setThreeBytes(payloadLength, 0, len);
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, payloadLength, 0, payloadLength.length);
-            socketWrapper.write(true, GOAWAY, 0, GOAWAY.length);
-            socketWrapper.write(true, fixedPayload, 0, 8);
-            if (debugMsg != null) {
-                socketWrapper.write(true, debugMsg, 0, debugMsg.length);
-            }
-            socketWrapper.flush(true);
+        if (debugMsg == null) {
+            frameWriteQueue.write(new ByteArrayFrame(payloadLength, GOAWAY, fixedPayload));
+        } else {
+            frameWriteQueue.write(new ByteArrayFrame(payloadLength, GOAWAY, fixedPayload, debugMsg));
         }
     }
 
-    void writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
-            boolean endOfStream, int payloadSize) throws IOException {
-        // This ensures the Stream processing thread has control of the socket.
-        synchronized (socketWrapper) {
-            doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+    void writeHeaders(final Stream stream, final int pushedStreamId, final MimeHeaders mimeHeaders,
+            final boolean endOfStream, final int payloadSize) throws IOException {
+        // The headers are encoded when the frame is written so the HPACK
+        // encoding order matches the order of the frames on the wire.
+        try {
+            frameWriteQueue.write(new FrameWriteQueue.Frame() {
+                @Override
+                protected void write() throws IOException {
+                    doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
+                }
+            });
+        } catch (IOException ioe) {
+            handleAppInitiatedIOException(ioe);
         }
         stream.sentHeaders();
         if (endOfStream) {
@@ -661,8 +752,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
 
     /*
-     * Separate method to allow Http2AsyncUpgradeHandler to call this code
-     * without synchronizing on socketWrapper since it doesn't need to.
+     * Called by the frame write queue while holding the socket lock. The
+     * socket is flushed by the queue once the frames have been written.
      */
     protected void doWriteHeaders(Stream stream, int pushedStreamId,
             MimeHeaders mimeHeaders, boolean endOfStream, int payloadSize) throws IOException {
@@ -722,13 +813,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     log.debug(payload.limit() + " bytes");
                 }
                 ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    socketWrapper.write(true, payload);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
-                }
+                socketWrapper.write(true, header, 0, header.length);
+                socketWrapper.write(true, payload);
                 payload.clear();
             } else if (state == State.UNDERFLOW) {
                 payload = ByteBuffer.allocate(payload.capacity() * 2);
@@ -747,7 +833,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    void writeBody(Stream stream, ByteBuffer data, int len, boolean finished) throws IOException {
+    void writeBody(Stream stream, final ByteBuffer data, final int len, boolean finished)
+            throws IOException {
         if (log.isDebugEnabled()) {
             log.debug(sm.getString("upgradeHandler.writeBody", connectionId, stream.getIdAsString(),
                     Integer.toString(len)));
@@ -757,7 +844,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
         // Need to check this now since sending end of stream will change this.
         boolean writeable = stream.canWrite();
-        byte[] header = new byte[9];
+        final byte[] header = new byte[9];
         ByteUtil.setThreeBytes(header, 0, len);
         header[3] = FrameType.DATA.getIdByte();
         if (finished) {
@@ -769,17 +856,19 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         }
         if (writeable) {
             ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
-            synchronized (socketWrapper) {
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    int orgLimit = data.limit();
-                    data.limit(data.position() + len);
-                    socketWrapper.write(true, data);
-                    data.limit(orgLimit);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
-                }
+            try {
+                frameWriteQueue.write(new FrameWriteQueue.Frame() {
+                    @Override
+                    protected void write() throws IOException {
+                        socketWrapper.write(true, header, 0, header.length);
+                        int orgLimit = data.limit();
+                        data.limit(data.position() + len);
+                        socketWrapper.write(true, data);
+                        data.limit(orgLimit);
+                    }
+                });
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
             }
         }
     }
@@ -805,36 +894,77 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
      * Needs to know if this was application initiated since that affects the
      * error handling.
      */
-    void writeWindowUpdate(AbstractNonZeroStream stream, int increment, boolean applicationInitiated)
-            throws IOException {
-        synchronized (socketWrapper) {
-            // Build window update frame for stream 0
-            byte[] frame = new byte[13];
-            ByteUtil.setThreeBytes(frame, 0,  4);
-            frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
-            ByteUtil.set31Bits(frame, 9, increment);
-            socketWrapper.write(true, frame, 0, frame.length);
-            // No need to send update from closed stream
-            if  (stream instanceof Stream && ((Stream) stream).canWrite()) {
-                // Change stream Id and re-use
-                ByteUtil.set31Bits(frame, 5, stream.getIdAsInt());
-                try {
-                    socketWrapper.write(true, frame, 0, frame.length);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    if (applicationInitiated) {
-                        handleAppInitiatedIOException(ioe);
-                    } else {
-                        throw ioe;
+    void writeWindowUpdate(final AbstractNonZeroStream stream, int increment,
+            boolean applicationInitiated) throws IOException {
+        // The connection window is shared by all streams. Data held in the
+        // buffers of streams that the application is not reading counts
+        // against it so the connection update is never held back else the
+        // client could be left waiting for it.
+        final int connectionIncrement = increment;
+        final int streamIncrement;
+        // No need to send update from closed stream or once the client has
+        // finished sending data
+        if (stream instanceof Stream && ((Stream) stream).canWrite() &&
+                !((Stream) stream).isInputFinished()) {
+            streamIncrement = addWindowUpdate(((Stream) stream).getWindowUpdatePending(),
+                    increment, localSettings.getInitialWindowSize());
+        } else {
+            streamIncrement = 0;
+        }
+        if (connectionIncrement == 0 && streamIncrement == 0) {
+            return;
+        }
+        try {
+            frameWriteQueue.write(new FrameWriteQueue.Frame() {
+                @Override
+                protected void write() throws IOException {
+                    byte[] frame = new byte[13];
+                    ByteUtil.setThreeBytes(frame, 0,  4);
+                    frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
+                    if (connectionIncrement > 0) {
+                        // Stream 0
+                        ByteUtil.set31Bits(frame, 9, connectionIncrement);
+                        socketWrapper.write(true, frame, 0, frame.length);
+                    }
+                    if (streamIncrement > 0) {
+                        ByteUtil.set31Bits(frame, 5, stream.getIdAsInt());
+                        ByteUtil.set31Bits(frame, 9, streamIncrement);
+                        socketWrapper.write(true, frame, 0, frame.length);
                     }
                 }
+            });
+        } catch (IOException ioe) {
+            if (applicationInitiated) {
+                handleAppInitiatedIOException(ioe);
             } else {
-                socketWrapper.flush(true);
+                throw ioe;
             }
         }
     }
 
 
+    /*
+     * Adds the increment to the pending stream window update. If a quarter of
+     * the stream's window has been consumed by the application, the pending
+     * update is claimed and returned so it can be sent. Only the stream's own
+     * data counts against its window so, while less than a quarter is pending,
+     * at least three quarters of the window remain available to the client
+     * once the application has read the buffered data. Must not be used for
+     * the connection window since that is shared with other streams.
+     */
+    private static int addWindowUpdate(AtomicInteger pending, int increment, int window) {
+        int threshold = window / 4;
+        int total = pending.addAndGet(increment);
+        while (total >= threshold) {
+            if (pending.compareAndSet(total, 0)) {
+                return total;
+            }
+            total = pending.get();
+        }
+        return 0;
+    }
+
+
     private void processWrites() throws IOException {
         synchronized (socketWrapper) {
             if (socketWrapper.flush(false)) {
@@ -866,10 +996,12 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                             tracker = new BacklogTracker(reservation);
                             backLogStreams.put(stream, tracker);
                             backLogSize += reservation;
-                            // Add the parents as well
-                            AbstractStream parent = stream.getParentStream();
-                            while (parent != null && backLogStreams.putIfAbsent(parent, new BacklogTracker()) == null) {
-                                parent = parent.getParentStream();
+                            if (useRfc7540Priority) {
+                                // Add the parents as well
+                                AbstractStream parent = stream.getParentStream();
+                                while (parent != null && backLogStreams.putIfAbsent(parent, new BacklogTracker()) == null) {
+                                    parent = parent.getParentStream();
+                                }
                             }
                         } else {
                             if (tracker.getUnusedAllocation() > 0) {
@@ -993,9 +1125,13 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             backLogStreams.clear();
             backLogSize = 0;
         } else {
-            int leftToAllocate = increment;
-            while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
+            if (useRfc7540Priority) {
+                int leftToAllocate = increment;
+                while (leftToAllocate > 0) {
+                    leftToAllocate = allocate(this, leftToAllocate);
+                }
+            } else {
+                allocateByUrgency(increment);
             }
             for (Entry<AbstractStream,BacklogTracker> entry : backLogStreams.entrySet()) {
                 int allocation = entry.getValue().getUnusedAllocation();
@@ -1090,6 +1226,71 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    /*
+     * RFC 9218 allocation. Streams are served in order of urgency. Within an
+     * urgency level, non-incremental streams are allocated sequentially in
+     * stream ID order and any allocation that remains is then shared equally
+     * between the incremental streams.
+     */
+    private int allocateByUrgency(int allocation) {
+        List<Stream> recipients = new ArrayList<>(backLogStreams.size());
+        for (AbstractStream stream : backLogStreams.keySet()) {
+            if (stream instanceof Stream) {
+                recipients.add((Stream) stream);
+            }
+        }
+        Collections.sort(recipients, URGENCY_ORDER);
+
+        int leftToAllocate = allocation;
+        List<Stream> incremental = new ArrayList<>();
+        Iterator<Stream> iter = recipients.iterator();
+        Stream next = iter.hasNext() ? iter.next() : null;
+        while (leftToAllocate > 0 && next != null) {
+            int urgency = next.getUrgency();
+            while (next != null && next.getUrgency() == urgency) {
+                if (next.getIncremental()) {
+                    incremental.add(next);
+                } else if (leftToAllocate > 0) {
+                    leftToAllocate = allocate(next, backLogStreams.get(next), leftToAllocate);
+                }
+                next = iter.hasNext() ? iter.next() : null;
+            }
+
+            // Round-robin over the incremental streams
+            while (leftToAllocate > 0 && incremental.size() > 0) {
+                int share = leftToAllocate / incremental.size();
+                if (share == 0) {
+                    share = 1;
+                }
+                Iterator<Stream> incrementalIter = incremental.iterator();
+                int allocated = 0;
+                while (incrementalIter.hasNext() && allocated < leftToAllocate) {
+                    Stream recipient = incrementalIter.next();
+                    int remainder = allocate(recipient, backLogStreams.get(recipient), share);
+                    // Remove recipients that receive their full allocation
+                    if (remainder > 0) {
+                        incrementalIter.remove();
+                    }
+                    allocated += (share - remainder);
+                }
+                leftToAllocate -= allocated;
+            }
+            incremental.clear();
+        }
+
+        return leftToAllocate;
+    }
+
+
+    private int allocate(Stream stream, BacklogTracker tracker, int allocation) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
+                    stream.getIdAsString(), Integer.toString(allocation)));
+        }
+        return tracker.allocate(allocation);
+    }
+
+
     private Stream getStream(int streamId, boolean unknownIsError) throws ConnectionException {
         Integer key = Integer.valueOf(streamId);
         AbstractStream result = streams.get(key);
@@ -1158,6 +1359,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                 ((Stream) stream).receiveReset(Http2Error.CANCEL.getCode());
             }
         }
+        windowTuner.release();
         try {
             socketWrapper.close();
         } catch (IOException ioe) {
@@ -1418,6 +1620,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    public void setMaxInlineStreams(int maxInlineStreams) {
+        this.maxInlineStreams = maxInlineStreams;
+    }
+
+
     public void setInitialWindowSize(int initialWindowSize) {
         localSettings.set(Setting.INITIAL_WINDOW_SIZE, initialWindowSize);
     }
@@ -1473,6 +1680,12 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    public void setUseRfc7540Priority(boolean useRfc7540Priority) {
+        this.useRfc7540Priority = useRfc7540Priority;
+        localSettings.set(Setting.NO_RFC7540_PRIORITIES, useRfc7540Priority ? 0 : 1);
+    }
+
+
     // ----------------------------------------------- Http2Parser.Input methods
 
     @Override
@@ -1565,12 +1778,22 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             }
         }
 
+        try {
+            windowTuner.dataReceived(payloadSize);
+        } catch (IOException ioe) {
+            // Sending the ping failed. The connection will be closed when the
+            // next read or write fails.
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror", connectionId), ioe);
+            }
+        }
+
         AbstractNonZeroStream abstractNonZeroStream = getStreamMayBeClosed(streamId, true);
         if (abstractNonZeroStream instanceof Stream) {
             Stream stream = (Stream) abstractNonZeroStream;
             stream.checkState(FrameType.DATA);
             stream.receivedData(payloadSize);
-            return stream.getInputByteBuffer();
+            return stream.getInputByteBuffer(payloadSize);
         } else {
             abstractNonZeroStream.checkState(FrameType.DATA);
             return null;
@@ -1666,6 +1889,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
         increaseOverheadCount();
 
+        if (!useRfc7540Priority) {
+            // The priority tree is not used
+            return;
+        }
+
         AbstractNonZeroStream abstractNonZeroStream = getStreamMayBeClosed(streamId, false);
         if (abstractNonZeroStream == null) {
             abstractNonZeroStream = createRemoteStream(streamId);
@@ -1680,6 +1908,18 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    @Override
+    public void priorityUpdate(int prioritizedStreamId, Priority p) throws Http2Exception {
+        increaseOverheadCount();
+
+        // Updates for streams that are not open are ignored
+        Stream stream = getStream(prioritizedStreamId, false);
+        if (stream != null) {
+            stream.setPriority(p);
+        }
+    }
+
+
     @Override
     public void headersContinue(int payloadSize, boolean endOfHeaders) {
         // Generally, continuation frames don't impact the overhead count but if
@@ -1700,7 +1940,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
 
     @Override
-    public void headersEnd(int streamId) throws Http2Exception {
+    public void headersEnd(int streamId, boolean endOfStream) throws Http2Exception {
         AbstractNonZeroStream abstractNonZeroStream = getStreamMayBeClosed(streamId, connectionState.get().isNewStreamAllowed());
         if (abstractNonZeroStream instanceof Stream) {
             setMaxProcessedStream(streamId);
@@ -1719,7 +1959,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     // Valid new stream reduces the overhead count
                     reduceOverheadCount();
 
-                    processStreamOnContainerThread(stream);
+                    if (endOfStream && maxInlineStreams > 0) {
+                        processStreamInline(stream);
+                    } else {
+                        processStreamOnContainerThread(stream);
+                    }
                 }
             }
         }
@@ -1793,10 +2037,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                         "upgradeHandler.unexpectedAck", connectionId, getIdAsString()));
             }
         } else {
-            synchronized (socketWrapper) {
-                socketWrapper.write(true, SETTINGS_ACK, 0, SETTINGS_ACK.length);
-                socketWrapper.flush(true);
-            }
+            frameWriteQueue.write(new ByteArrayFrame(SETTINGS_ACK));
         }
     }
 
@@ -1906,16 +2147,21 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             long now = System.nanoTime();
             if (force || now - lastPingNanoTime > pingIntervalNano) {
                 lastPingNanoTime = now;
-                byte[] payload = new byte[8];
-                synchronized (socketWrapper) {
-                    int sentSequence = ++sequence;
-                    PingRecord pingRecord = new PingRecord(sentSequence, now);
-                    inflightPings.add(pingRecord);
-                    ByteUtil.set31Bits(payload, 4, sentSequence);
-                    socketWrapper.write(true, PING, 0, PING.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
-                }
+                final byte[] payload = new byte[8];
+                final long sentNanoTime = now;
+                frameWriteQueue.write(new FrameWriteQueue.Frame() {
+                    @Override
+                    protected void write() throws IOException {
+                        // The sequence is allocated while holding the socket
+                        // lock so the pings are sent in sequence order
+                        int sentSequence = ++sequence;
+                        PingRecord pingRecord = new PingRecord(sentSequence, sentNanoTime);
+                        inflightPings.add(pingRecord);
+                        ByteUtil.set31Bits(payload, 4, sentSequence);
+                        socketWrapper.write(true, PING, 0, PING.length);
+                        socketWrapper.write(true, payload, 0, payload.length);
+                    }
+                });
             }
         }
 
@@ -1932,6 +2178,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                 } else {
                     long roundTripTime = System.nanoTime() - pingRecord.getSentNanoTime();
                     roundTripTimes.add(Long.valueOf(roundTripTime));
+                    windowTuner.roundTripComplete(pingRecord.getSentNanoTime());
                     while (roundTripTimes.size() > 3) {
                         // Ignore the returned value as we just want to reduce
                         // the queue to 3 entries to use for the rolling average.
@@ -1945,11 +2192,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
             } else {
                 // Client originated ping. Echo it back.
-                synchronized (socketWrapper) {
-                    socketWrapper.write(true, PING_ACK, 0, PING_ACK.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
-                }
+                frameWriteQueue.write(new ByteArrayFrame(PING_ACK, payload));
             }
         }
 
@@ -1968,6 +2211,123 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    /*
+     * Auto-tunes the receive flow control windows from an estimate of the
+     * bandwidth-delay product (BDP). The estimate is the number of bytes of
+     * DATA received during the round trip of a PING. If that is close to the
+     * current window then the window is limiting throughput so both the
+     * connection window and the initial stream window are increased.
+     *
+     * The sample is started and completed on the thread processing incoming
+     * frames.
+     */
+    private class WindowTuner {
+
+        private long dataReceived = 0;
+        private boolean samplePending = false;
+        private long sampleStartNanoTime;
+        private long sampleStartDataReceived;
+        // Set when the last sample did not increase the window
+        private boolean sampleBackOff = false;
+        private long lastSampleNanoTime;
+        // Window memory reserved from the protocol
+        private long reserved = 0;
+        // Stream input buffer memory charged to the protocol
+        private final AtomicLong bufferMemory = new AtomicLong();
+        private volatile boolean released = false;
+
+        void dataReceived(int payloadSize) throws IOException {
+            dataReceived += payloadSize;
+            if (samplePending || pingManager.initiateDisabled ||
+                    connectionReceiveWindow >= protocol.getMaxWindowSize() ||
+                    protocol.isWindowMemoryExhausted() ||
+                    localSettings.isSendInProgress()) {
+                return;
+            }
+            long now = System.nanoTime();
+            // A connection that is not limited by its window is only sampled
+            // as often as the ping manager sends pings
+            if (sampleBackOff && now - lastSampleNanoTime < pingManager.pingIntervalNano) {
+                return;
+            }
+            samplePending = true;
+            sampleStartNanoTime = now;
+            sampleStartDataReceived = dataReceived;
+            pingManager.sendPing(true);
+        }
+
+        void roundTripComplete(long pingSentNanoTime) throws IOException {
+            // Ignore acknowledgements for pings sent before the sample started
+            if (!samplePending || pingSentNanoTime < sampleStartNanoTime) {
+                return;
+            }
+            samplePending = false;
+            sampleBackOff = !tune(dataReceived - sampleStartDataReceived);
+            lastSampleNanoTime = System.nanoTime();
+        }
+
+        private synchronized boolean tune(long sample) throws IOException {
+            int window = connectionReceiveWindow;
+            if (released || sample < window * 2L / 3 || localSettings.isSendInProgress()) {
+                return false;
+            }
+            long target = Math.min(sample * 2, protocol.getMaxWindowSize());
+            if (target <= window) {
+                return false;
+            }
+            int increase = protocol.reserveWindowMemory((int) (target - window));
+            if (increase == 0) {
+                return false;
+            }
+            reserved += increase;
+            int newWindow = window + increase;
+            connectionReceiveWindow = newWindow;
+
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("windowTuner.increase", connectionId,
+                        Long.toString(sample), Integer.toString(newWindow)));
+            }
+
+            // Open streams have their windows adjusted by the client when it
+            // processes the new initial window size
+            localSettings.set(Setting.INITIAL_WINDOW_SIZE, newWindow);
+            byte[] settings = localSettings.getSettingsFrameForPending();
+            byte[] windowUpdate = new byte[13];
+            ByteUtil.setThreeBytes(windowUpdate, 0,  4);
+            windowUpdate[3] = FrameType.WINDOW_UPDATE.getIdByte();
+            ByteUtil.set31Bits(windowUpdate, 9, increase);
+            frameWriteQueue.write(new ByteArrayFrame(settings, windowUpdate));
+            return true;
+        }
+
+        /*
+         * Stream input buffers that grow beyond the initial window size to
+         * hold the data permitted by a larger window are charged against the
+         * same limit as the windows. The memory is released when the buffers
+         * shrink, when the stream is recycled or, at the latest, when the
+         * connection closes. Called by stream threads so it does not lock the
+         * tuner.
+         */
+        void bufferMemoryChanged(int delta) {
+            if (released) {
+                return;
+            }
+            protocol.chargeWindowMemory(delta);
+            bufferMemory.addAndGet(delta);
+            if (released) {
+                // Raced with release()
+                protocol.releaseWindowMemory(bufferMemory.getAndSet(0));
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            protocol.releaseWindowMemory(reserved + bufferMemory.getAndSet(0));
+            reserved = 0;
+        }
+    }
+
+
     private static class PingRecord {
 
         private final int sequence;
@@ -1988,6 +2348,26 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    /*
+     * A frame that has been fully serialised to one or more byte arrays.
+     */
+    private class ByteArrayFrame extends FrameWriteQueue.Frame {
+
+        private final byte[][] parts;
+
+        ByteArrayFrame(byte[]... parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        protected void write() throws IOException {
+            for (byte[] part : parts) {
+                socketWrapper.write(true, part, 0, part.length);
+            }
+        }
+    }
+
+
     private enum ConnectionState {
 
         NEW(true),
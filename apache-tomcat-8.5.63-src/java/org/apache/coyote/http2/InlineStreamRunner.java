@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tomcat.util.net.SocketEvent;
+
+/**
+ * Processes new streams on the thread that read their headers, once that
+ * thread has finished reading from the connection and released the socket.
+ * This avoids the hand-off to the executor for small requests. If one of the
+ * streams has to block waiting for a flow control window update, the streams
+ * that have not yet started are handed to the executor so they are not delayed
+ * by the blocked stream. Other blocking (e.g. an application waiting for a
+ * database) can't be detected so the streams that have not started are also
+ * handed to the executor once the streams processed so far have taken longer
+ * than {@link Http2Protocol#getMaxInlineTime()}.
+ */
+class InlineStreamRunner implements Runnable {
+
+    private static final ThreadLocal<InlineStreamRunner> current = new ThreadLocal<>();
+
+    private final Http2UpgradeHandler handler;
+    private final Queue<StreamProcessor> processors = new ConcurrentLinkedQueue<>();
+    private int size = 0;
+
+
+    InlineStreamRunner(Http2UpgradeHandler handler) {
+        this.handler = handler;
+    }
+
+
+    /*
+     * Only called by the thread reading from the connection before this runner
+     * is started.
+     */
+    void add(StreamProcessor processor) {
+        processors.add(processor);
+        size++;
+    }
+
+
+    int size() {
+        return size;
+    }
+
+
+    @Override
+    public void run() {
+        current.set(this);
+        try {
+            long start = System.nanoTime();
+            long maxTime = TimeUnit.MILLISECONDS.toNanos(handler.getProtocol().getMaxInlineTime());
+            StreamProcessor processor;
+            while ((processor = processors.poll()) != null) {
+                if (System.nanoTime() - start > maxTime) {
+                    handler.executeInlineStream(processor);
+                    blocking();
+                    break;
+                }
+                handler.getProtocol().incrementInlineStreamCount();
+                processor.process(SocketEvent.OPEN_READ);
+            }
+        } finally {
+            current.remove();
+        }
+    }
+
+
+    /**
+     * Called when the current thread is about to block. If the thread is
+     * processing inline streams, the streams that have not yet started are
+     * handed to the executor.
+     */
+    static void blocking() {
+        InlineStreamRunner runner = current.get();
+        if (runner != null) {
+            StreamProcessor processor;
+            while ((processor = runner.processors.poll()) != null) {
+                runner.handler.executeInlineStream(processor);
+            }
+        }
+    }
+}
@@ -23,14 +23,19 @@ import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.CloseNowException;
+import org.apache.coyote.CompressionConfig;
 import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
+import org.apache.coyote.http11.InputFilter;
 import org.apache.coyote.http11.OutputFilter;
+import org.apache.coyote.http11.filters.DeflateInputFilter;
+import org.apache.coyote.http11.filters.GzipInputFilter;
 import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -38,6 +43,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.parser.Host;
+import org.apache.tomcat.util.http.parser.Priority;
 import org.apache.tomcat.util.net.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.WriteBuffer;
 import org.apache.tomcat.util.res.StringManager;
@@ -64,9 +70,22 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
     }
 
     private volatile long contentLengthReceived = 0;
+    // If the request body is decompressed, the content length is removed from
+    // the request as the decompressed length is unknown. The declared length
+    // is retained here so the received data can still be checked against it.
+    private volatile boolean requestBodyDecompressed = false;
+    private volatile InputFilter requestFilter = null;
+    private volatile long compressedContentLength = -1;
+
+    // RFC 9218 priority parameters. Only used when the connection is not
+    // using the RFC 7540 priority tree.
+    private volatile int urgency = Priority.DEFAULT_URGENCY;
+    private volatile boolean incremental = Priority.DEFAULT_INCREMENTAL;
 
     private final Http2UpgradeHandler handler;
     private final WindowAllocationManager allocationManager = new WindowAllocationManager(this);
+    // Stream window increments not yet sent to the client
+    private final AtomicInteger windowUpdatePending = new AtomicInteger(0);
 
     // State machine would be too much overhead
     private int headerState = HEADER_STATE_START;
@@ -410,6 +429,12 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
             if ("expect".equals(name) && "100-continue".equals(value)) {
                 coyoteRequest.setExpectation(true);
             }
+            if ("priority".equals(name) && headerState != HEADER_STATE_TRAILER) {
+                Priority p = Priority.parsePriority(value);
+                if (p != null) {
+                    setPriority(p);
+                }
+            }
             if (pseudoHeader) {
                 headerException = new StreamException(sm.getString(
                         "stream.header.unknownPseudoHeader", getConnectionId(), getIdAsString(),
@@ -452,10 +477,47 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         if (cookieHeader != null) {
             coyoteRequest.getMimeHeaders().addValue("cookie").setString(cookieHeader.toString());
         }
+        if (inputBuffer != null && headerState != HEADER_STATE_TRAILER) {
+            prepareRequestDecompression();
+        }
         return headerState == HEADER_STATE_REGULAR || headerState == HEADER_STATE_PSEUDO;
     }
 
 
+    private void prepareRequestDecompression() {
+        CompressionConfig compressionConfig = handler.getProtocol().getCompressionConfig();
+        String encoding = compressionConfig.getRequestDecompressionEncoding(coyoteRequest);
+        if (encoding == null) {
+            return;
+        }
+        long contentLength;
+        try {
+            contentLength = coyoteRequest.getContentLengthLong();
+        } catch (IllegalArgumentException e) {
+            // Leave the invalid header to be handled as it would be if the
+            // body was not decompressed
+            return;
+        }
+        InputFilter filter;
+        if (encoding.equals("gzip")) {
+            filter = new GzipInputFilter(compressionConfig);
+        } else {
+            filter = new DeflateInputFilter(compressionConfig);
+        }
+        filter.setBuffer(inputBuffer);
+        filter.setRequest(coyoteRequest);
+        coyoteRequest.setInputBuffer(filter);
+        requestFilter = filter;
+        compressedContentLength = contentLength;
+        requestBodyDecompressed = true;
+        // The decompressed length is not known
+        MimeHeaders headers = coyoteRequest.getMimeHeaders();
+        headers.removeHeader("content-encoding");
+        headers.removeHeader("content-length");
+        coyoteRequest.setContentLength(-1);
+    }
+
+
     void writeHeaders() throws IOException {
         boolean endOfStream = streamOutputBuffer.hasNoBody();
         handler.writeHeaders(this, 0, coyoteResponse.getMimeHeaders(), endOfStream, Constants.DEFAULT_HEADERS_FRAME_SIZE);
@@ -478,6 +540,31 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
     }
 
 
+    final AtomicInteger getWindowUpdatePending() {
+        return windowUpdatePending;
+    }
+
+
+    final int getUrgency() {
+        return urgency;
+    }
+
+
+    final boolean getIncremental() {
+        return incremental;
+    }
+
+
+    /*
+     * Absent parameters take their default values rather than retaining any
+     * previously set value (RFC 9218, section 7).
+     */
+    final void setPriority(Priority p) {
+        urgency = p.getUrgency();
+        incremental = p.getIncremental();
+    }
+
+
     final Request getCoyoteRequest() {
         return coyoteRequest;
     }
@@ -488,13 +575,13 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
     }
 
 
-    ByteBuffer getInputByteBuffer() {
+    ByteBuffer getInputByteBuffer(int required) {
         // Avoid NPE if Stream has been closed on Stream specific thread
         StreamInputBuffer inputBuffer = this.inputBuffer;
         if (inputBuffer == null) {
             return null;
         }
-        return inputBuffer.getInBuffer();
+        return inputBuffer.getInBuffer(required);
     }
 
 
@@ -527,7 +614,7 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         if (coyoteRequest == null) {
             return;
         }
-        long contentLengthHeader = coyoteRequest.getContentLengthLong();
+        long contentLengthHeader = getContentLengthHeader(coyoteRequest);
         if (contentLengthHeader > -1 && contentLengthReceived > contentLengthHeader) {
             throw new ConnectionException(sm.getString("stream.header.contentLength",
                     getConnectionId(), getIdAsString(), Long.valueOf(contentLengthHeader),
@@ -540,7 +627,7 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         if (isContentLengthInconsistent()) {
             throw new ConnectionException(sm.getString("stream.header.contentLength",
                     getConnectionId(), getIdAsString(),
-                    Long.valueOf(coyoteRequest.getContentLengthLong()),
+                    Long.valueOf(getContentLengthHeader(coyoteRequest)),
                     Long.valueOf(contentLengthReceived)), Http2Error.PROTOCOL_ERROR);
         }
         state.receivedEndOfStream();
@@ -551,7 +638,7 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
 
 
     final boolean isContentLengthInconsistent() {
-        long contentLengthHeader = coyoteRequest.getContentLengthLong();
+        long contentLengthHeader = getContentLengthHeader(coyoteRequest);
         if (contentLengthHeader > -1 && contentLengthReceived != contentLengthHeader) {
             return true;
         }
@@ -559,6 +646,14 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
     }
 
 
+    private long getContentLengthHeader(Request coyoteRequest) {
+        if (requestBodyDecompressed) {
+            return compressedContentLength;
+        }
+        return coyoteRequest.getContentLengthLong();
+    }
+
+
     final void sentHeaders() {
         state.sentStartOfHeaders();
     }
@@ -585,6 +680,28 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
     }
 
 
+    /**
+     * @return The filter decompressing the request body or {@code null} if
+     *         the request body is not being decompressed
+     */
+    final InputFilter getRequestFilter() {
+        return requestFilter;
+    }
+
+
+    /**
+     * Release the resources (i.e. the Inflater) held by the filter
+     * decompressing the request body, if any. Must only be called once the
+     * request body will no longer be read.
+     */
+    final void releaseRequestFilter() {
+        InputFilter filter = requestFilter;
+        if (filter != null) {
+            filter.recycle();
+        }
+    }
+
+
     final HttpOutputBuffer getOutputBuffer() {
         return http2OutputBuffer;
     }
@@ -654,6 +771,10 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         if (log.isDebugEnabled()) {
             log.debug(sm.getString("stream.recycle", getConnectionId(), getIdAsString()));
         }
+        StreamInputBuffer inputBuffer = this.inputBuffer;
+        if (inputBuffer != null) {
+            inputBuffer.releaseChargedMemory();
+        }
         handler.replaceStream(this, new RecycledStream(getConnectionId(), getIdentifier(), state));
     }
 
@@ -1009,6 +1130,12 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         private volatile ByteBuffer inBuffer;
         private volatile boolean readInterest;
         private boolean resetReceived = false;
+        // Memory used by the buffers beyond the initial window size. Guarded
+        // by this.
+        private int chargedMemory = 0;
+        // Set while the connection thread is writing to inBuffer. Guarded by
+        // this.
+        private boolean fillInProgress = false;
 
         /**
          * @deprecated Unused. Will be removed in Tomcat 9. Use
@@ -1022,62 +1149,87 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
 
             int written = -1;
 
-            // Ensure that only one thread accesses inBuffer at a time
-            synchronized (inBuffer) {
-                boolean canRead = false;
-                while (inBuffer.position() == 0 && (canRead = isActive() && !isInputFinished())) {
-                    // Need to block until some data is written
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug(sm.getString("stream.inputBuffer.empty"));
+            // The connection thread may replace inBuffer with a larger buffer.
+            // If that happens, start again with the new buffer.
+            ByteBuffer inBuffer;
+            boolean replaced;
+            do {
+                inBuffer = this.inBuffer;
+                replaced = false;
+                // Ensure that only one thread accesses inBuffer at a time
+                synchronized (inBuffer) {
+                    if (inBuffer != this.inBuffer) {
+                        replaced = true;
+                        continue;
+                    }
+                    boolean canRead = false;
+                    while (inBuffer.position() == 0 && (canRead = isActive() && !isInputFinished())) {
+                        // Need to block until some data is written
+                        try {
+                            if (log.isDebugEnabled()) {
+                                log.debug(sm.getString("stream.inputBuffer.empty"));
+                            }
+
+                            long readTimeout = handler.getProtocol().getStreamReadTimeout();
+                            if (readTimeout < 0) {
+                                inBuffer.wait();
+                            } else {
+                                inBuffer.wait(readTimeout);
+                            }
+
+                            if (inBuffer != this.inBuffer) {
+                                replaced = true;
+                                break;
+                            }
+
+                            if (resetReceived) {
+                                throw new IOException(sm.getString("stream.inputBuffer.reset"));
+                            }
+
+                            if (inBuffer.position() == 0) {
+                                String msg = sm.getString("stream.inputBuffer.readTimeout");
+                                StreamException se = new StreamException(
+                                        msg, Http2Error.ENHANCE_YOUR_CALM, getIdAsInt());
+                                // Trigger a reset once control returns to Tomcat
+                                coyoteResponse.setError();
+                                streamOutputBuffer.reset = se;
+                                throw new CloseNowException(msg, se);
+                            }
+                        } catch (InterruptedException e) {
+                            // Possible shutdown / rst or similar. Use an
+                            // IOException to signal to the client that further I/O
+                            // isn't possible for this Stream.
+                            throw new IOException(e);
                         }
+                    }
 
-                        long readTimeout = handler.getProtocol().getStreamReadTimeout();
-                        if (readTimeout < 0) {
-                            inBuffer.wait();
-                        } else {
-                            inBuffer.wait(readTimeout);
-                        }
+                    if (replaced) {
+                        continue;
+                    }
 
-                        if (resetReceived) {
-                            throw new IOException(sm.getString("stream.inputBuffer.reset"));
+                    if (inBuffer.position() > 0) {
+                        // Data is available in the inBuffer. Copy it to the
+                        // outBuffer.
+                        inBuffer.flip();
+                        written = inBuffer.remaining();
+                        if (log.isDebugEnabled()) {
+                            log.debug(sm.getString("stream.inputBuffer.copy",
+                                    Integer.toString(written)));
                         }
-
-                        if (inBuffer.position() == 0) {
-                            String msg = sm.getString("stream.inputBuffer.readTimeout");
-                            StreamException se = new StreamException(
-                                    msg, Http2Error.ENHANCE_YOUR_CALM, getIdAsInt());
-                            // Trigger a reset once control returns to Tomcat
-                            coyoteResponse.setError();
-                            streamOutputBuffer.reset = se;
-                            throw new CloseNowException(msg, se);
+                        if (outBuffer.length < written || outBuffer.length > inBuffer.capacity()) {
+                            outBuffer = new byte[inBuffer.capacity()];
                         }
-                    } catch (InterruptedException e) {
-                        // Possible shutdown / rst or similar. Use an
-                        // IOException to signal to the client that further I/O
-                        // isn't possible for this Stream.
-                        throw new IOException(e);
-                    }
-                }
-
-                if (inBuffer.position() > 0) {
-                    // Data is available in the inBuffer. Copy it to the
-                    // outBuffer.
-                    inBuffer.flip();
-                    written = inBuffer.remaining();
-                    if (log.isDebugEnabled()) {
-                        log.debug(sm.getString("stream.inputBuffer.copy",
-                                Integer.toString(written)));
+                        inBuffer.get(outBuffer, 0, written);
+                        inBuffer.clear();
+                        drained();
+                    } else if (!canRead) {
+                        return -1;
+                    } else {
+                        // Should never happen
+                        throw new IllegalStateException();
                     }
-                    inBuffer.get(outBuffer, 0, written);
-                    inBuffer.clear();
-                } else if (!canRead) {
-                    return -1;
-                } else {
-                    // Should never happen
-                    throw new IllegalStateException();
                 }
-            }
+            } while (replaced);
 
             chunk.setBytes(outBuffer, 0,  written);
 
@@ -1095,62 +1247,87 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
 
             int written = -1;
 
-            // Ensure that only one thread accesses inBuffer at a time
-            synchronized (inBuffer) {
-                boolean canRead = false;
-                while (inBuffer.position() == 0 && (canRead = isActive() && !isInputFinished())) {
-                    // Need to block until some data is written
-                    try {
-                        if (log.isDebugEnabled()) {
-                            log.debug(sm.getString("stream.inputBuffer.empty"));
+            // The connection thread may replace inBuffer with a larger buffer.
+            // If that happens, start again with the new buffer.
+            ByteBuffer inBuffer;
+            boolean replaced;
+            do {
+                inBuffer = this.inBuffer;
+                replaced = false;
+                // Ensure that only one thread accesses inBuffer at a time
+                synchronized (inBuffer) {
+                    if (inBuffer != this.inBuffer) {
+                        replaced = true;
+                        continue;
+                    }
+                    boolean canRead = false;
+                    while (inBuffer.position() == 0 && (canRead = isActive() && !isInputFinished())) {
+                        // Need to block until some data is written
+                        try {
+                            if (log.isDebugEnabled()) {
+                                log.debug(sm.getString("stream.inputBuffer.empty"));
+                            }
+
+                            long readTimeout = handler.getProtocol().getStreamReadTimeout();
+                            if (readTimeout < 0) {
+                                inBuffer.wait();
+                            } else {
+                                inBuffer.wait(readTimeout);
+                            }
+
+                            if (inBuffer != this.inBuffer) {
+                                replaced = true;
+                                break;
+                            }
+
+                            if (resetReceived) {
+                                throw new IOException(sm.getString("stream.inputBuffer.reset"));
+                            }
+
+                            if (inBuffer.position() == 0 && isActive() && !isInputFinished()) {
+                                String msg = sm.getString("stream.inputBuffer.readTimeout");
+                                StreamException se = new StreamException(
+                                        msg, Http2Error.ENHANCE_YOUR_CALM, getIdAsInt());
+                                // Trigger a reset once control returns to Tomcat
+                                coyoteResponse.setError();
+                                streamOutputBuffer.reset = se;
+                                throw new CloseNowException(msg, se);
+                            }
+                        } catch (InterruptedException e) {
+                            // Possible shutdown / rst or similar. Use an
+                            // IOException to signal to the client that further I/O
+                            // isn't possible for this Stream.
+                            throw new IOException(e);
                         }
+                    }
 
-                        long readTimeout = handler.getProtocol().getStreamReadTimeout();
-                        if (readTimeout < 0) {
-                            inBuffer.wait();
-                        } else {
-                            inBuffer.wait(readTimeout);
-                        }
+                    if (replaced) {
+                        continue;
+                    }
 
-                        if (resetReceived) {
-                            throw new IOException(sm.getString("stream.inputBuffer.reset"));
+                    if (inBuffer.position() > 0) {
+                        // Data is available in the inBuffer. Copy it to the
+                        // outBuffer.
+                        inBuffer.flip();
+                        written = inBuffer.remaining();
+                        if (log.isDebugEnabled()) {
+                            log.debug(sm.getString("stream.inputBuffer.copy",
+                                    Integer.toString(written)));
                         }
-
-                        if (inBuffer.position() == 0 && isActive() && !isInputFinished()) {
-                            String msg = sm.getString("stream.inputBuffer.readTimeout");
-                            StreamException se = new StreamException(
-                                    msg, Http2Error.ENHANCE_YOUR_CALM, getIdAsInt());
-                            // Trigger a reset once control returns to Tomcat
-                            coyoteResponse.setError();
-                            streamOutputBuffer.reset = se;
-                            throw new CloseNowException(msg, se);
+                        if (outBuffer.length < written || outBuffer.length > inBuffer.capacity()) {
+                            outBuffer = new byte[inBuffer.capacity()];
                         }
-                    } catch (InterruptedException e) {
-                        // Possible shutdown / rst or similar. Use an
-                        // IOException to signal to the client that further I/O
-                        // isn't possible for this Stream.
-                        throw new IOException(e);
-                    }
-                }
-
-                if (inBuffer.position() > 0) {
-                    // Data is available in the inBuffer. Copy it to the
-                    // outBuffer.
-                    inBuffer.flip();
-                    written = inBuffer.remaining();
-                    if (log.isDebugEnabled()) {
-                        log.debug(sm.getString("stream.inputBuffer.copy",
-                                Integer.toString(written)));
+                        inBuffer.get(outBuffer, 0, written);
+                        inBuffer.clear();
+                        drained();
+                    } else if (!canRead) {
+                        return -1;
+                    } else {
+                        // Should never happen
+                        throw new IllegalStateException();
                     }
-                    inBuffer.get(outBuffer, 0, written);
-                    inBuffer.clear();
-                } else if (!canRead) {
-                    return -1;
-                } else {
-                    // Should never happen
-                    throw new IllegalStateException();
                 }
-            }
+            } while (replaced);
 
             applicationBufferHandler.setByteBuffer(ByteBuffer.wrap(outBuffer, 0,  written));
 
@@ -1196,6 +1373,7 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
          * Called after placing some data in the inBuffer.
          */
         synchronized boolean onDataAvailable() {
+            fillInProgress = false;
             if (readInterest) {
                 if (log.isDebugEnabled()) {
                     log.debug(sm.getString("stream.inputBuffer.dispatch"));
@@ -1219,12 +1397,89 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
         }
 
 
-        public ByteBuffer getInBuffer() {
+        /*
+         * Only called by the thread processing the connection. If the window
+         * size has been increased by auto-tuning, the buffer grows on demand
+         * (up to the window size) rather than being allocated at the full
+         * window size for every stream. The old buffer is notified so any
+         * reader waiting on it switches to the new buffer.
+         */
+        public ByteBuffer getInBuffer(int required) {
             ensureBuffersExist();
+            synchronized (this) {
+                // The reading thread must not replace the buffer until the
+                // data has been written to it
+                fillInProgress = true;
+            }
+            ByteBuffer current = inBuffer;
+            if (current.remaining() < required) {
+                // The client must obey the window size so larger buffers are
+                // never required
+                int limit = handler.getLocalSettings().getInitialWindowSize();
+                if (current.capacity() < limit) {
+                    synchronized (current) {
+                        int size = Math.min(limit,
+                                Math.max(current.capacity() * 2, current.position() + required));
+                        ByteBuffer replacement = ByteBuffer.allocate(size);
+                        current.flip();
+                        replacement.put(current);
+                        synchronized (this) {
+                            inBuffer = replacement;
+                            updateChargedMemory();
+                        }
+                        current.notifyAll();
+                    }
+                }
+            }
             return inBuffer;
         }
 
 
+        /*
+         * Called by the reading thread, holding the lock on inBuffer, once the
+         * data in inBuffer has been copied to outBuffer. Buffers that have
+         * grown beyond the initial window size are only shrunk once the memory
+         * limit for windows has been reached as growing them again is
+         * expensive.
+         */
+        private void drained() {
+            synchronized (this) {
+                int size = handler.getProtocol().getInitialWindowSize();
+                if (inBuffer.capacity() > size && !fillInProgress &&
+                        handler.isWindowMemoryExhausted()) {
+                    // outBuffer is in use by the caller. It will be resized
+                    // by the next read.
+                    inBuffer = ByteBuffer.allocate(size);
+                }
+                updateChargedMemory();
+            }
+        }
+
+
+        /*
+         * Must be called while holding the lock on this.
+         */
+        private void updateChargedMemory() {
+            int size = handler.getProtocol().getInitialWindowSize();
+            int charge = Math.max(0, inBuffer.capacity() - size);
+            if (outBuffer != null) {
+                charge += Math.max(0, outBuffer.length - size);
+            }
+            if (charge != chargedMemory) {
+                handler.inputBufferMemoryChanged(charge - chargedMemory);
+                chargedMemory = charge;
+            }
+        }
+
+
+        synchronized void releaseChargedMemory() {
+            if (chargedMemory > 0) {
+                handler.inputBufferMemoryChanged(-chargedMemory);
+                chargedMemory = 0;
+            }
+        }
+
+
         protected synchronized void insertReplayedBody(ByteChunk body) {
             inBuffer = ByteBuffer.wrap(body.getBytes(),  body.getOffset(),  body.getLength());
         }
@@ -1234,8 +1489,9 @@ public class Stream extends AbstractNonZeroStream implements HeaderEmitter {
             if (inBuffer == null) {
                 // The client must obey Tomcat's window size when sending so
                 // this is the initial window size set by Tomcat that the client
-                // uses (i.e. the local setting is required here).
-                int size = handler.getLocalSettings().getInitialWindowSize();
+                // uses. If auto-tuning has increased the window, the buffer
+                // will grow as required.
+                int size = handler.getProtocol().getInitialWindowSize();
                 synchronized (this) {
                     if (inBuffer == null) {
                         inBuffer = ByteBuffer.allocate(size);
@@ -28,6 +28,7 @@ import org.apache.coyote.ErrorState;
 import org.apache.coyote.Request;
 import org.apache.coyote.RequestGroupInfo;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.InputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -142,7 +143,7 @@ class StreamProcessor extends AbstractProcessor {
         if (protocol != null && protocol.useCompression(coyoteRequest, coyoteResponse)) {
             // Enable compression. Headers will have been set. Need to configure
             // output filter at this point.
-            stream.addOutputFilter(new GzipOutputFilter());
+            stream.addOutputFilter(new GzipOutputFilter(protocol.getCompressionConfig()));
         }
 
         // Check to see if a response body is present
@@ -210,6 +211,12 @@ class StreamProcessor extends AbstractProcessor {
 
     @Override
     protected final int available(boolean doRead) {
+        // The decompressing filter may hold data that is no longer visible in
+        // the input buffer
+        InputFilter filter = stream.getRequestFilter();
+        if (filter != null) {
+            return filter.available();
+        }
         return stream.getInputBuffer().available();
     }
 
@@ -251,12 +258,20 @@ class StreamProcessor extends AbstractProcessor {
 
     @Override
     protected final boolean isReadyForRead() {
+        InputFilter filter = stream.getRequestFilter();
+        if (filter != null && filter.available() > 0) {
+            return true;
+        }
         return stream.getInputBuffer().isReadyForRead();
     }
 
 
     @Override
     protected final boolean isRequestBodyFullyRead() {
+        InputFilter filter = stream.getRequestFilter();
+        if (filter != null) {
+            return filter.isFinished();
+        }
         return stream.getInputBuffer().isRequestBodyFullyRead();
     }
 
@@ -346,6 +361,8 @@ class StreamProcessor extends AbstractProcessor {
         // is reused
         setSocketWrapper(null);
         setAdapter(null);
+
+        stream.releaseRequestFilter();
     }
 
 
@@ -138,6 +138,9 @@ class WindowAllocationManager {
 
 
     private void waitFor(int waitTarget, long timeout) throws InterruptedException {
+        // Don't hold up any other streams waiting to be processed on this thread
+        InlineStreamRunner.blocking();
+
         synchronized (stream) {
             if (waitingFor != NONE) {
                 throw new IllegalStateException(sm.getString("windowAllocationManager.waitFor.ise",
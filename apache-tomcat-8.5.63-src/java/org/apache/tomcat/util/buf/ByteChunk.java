@@ -605,6 +605,9 @@ public final class ByteChunk extends AbstractChunk {
         if (b == null || len != s.length()) {
             return false;
         }
+        if (Swar.ENABLED && len >= Swar.MIN_IGNORE_CASE_LENGTH) {
+            return Swar.equalsIgnoreCase(b, start, s, 0, len);
+        }
         int off = start;
         for (int i = 0; i < len; i++) {
             if (Ascii.toLower(b[off++]) != Ascii.toLower(s.charAt(i))) {
@@ -631,6 +634,10 @@ public final class ByteChunk extends AbstractChunk {
             return false;
         }
 
+        if (Swar.ENABLED && len >= Swar.MIN_LENGTH) {
+            return Swar.equals(b1, start, b2, off2, len);
+        }
+
         int off1 = start;
 
         while (len-- > 0) {
@@ -709,6 +716,9 @@ public final class ByteChunk extends AbstractChunk {
         if (b == null || len + pos > end - start) {
             return false;
         }
+        if (Swar.ENABLED && len >= Swar.MIN_IGNORE_CASE_LENGTH) {
+            return Swar.equalsIgnoreCase(b, start + pos, s, 0, len);
+        }
         int off = start + pos;
         for (int i = 0; i < len; i++) {
             if (Ascii.toLower(b[off++]) != Ascii.toLower(s.charAt(i))) {
@@ -755,6 +765,9 @@ public final class ByteChunk extends AbstractChunk {
      *         character is not found.
      */
     public static int indexOf(byte bytes[], int start, int end, char s) {
+        if (s < 128) {
+            return findByte(bytes, start, end, (byte) s);
+        }
         int offset = start;
 
         while (offset < end) {
@@ -780,6 +793,9 @@ public final class ByteChunk extends AbstractChunk {
      *         is not found.
      */
     public static int findByte(byte bytes[], int start, int end, byte b) {
+        if (Swar.ENABLED && end - start >= Swar.MIN_LENGTH) {
+            return Swar.findByte(bytes, start, end, b);
+        }
         int offset = start;
         while (offset < end) {
             if (bytes[offset] == b) {
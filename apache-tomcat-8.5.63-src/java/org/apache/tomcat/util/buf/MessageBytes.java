@@ -121,6 +121,24 @@ public final class MessageBytes implements Cloneable, Serializable {
         hasLongValue=false;
     }
 
+    /**
+     * Sets the content to the specified subarray of bytes and also provides
+     * the String equivalent of those bytes. This allows an existing String,
+     * such as an interned constant, to be used rather than creating a new
+     * String when {@link #toString()} is called. The caller is responsible for
+     * ensuring that the String is equivalent to the bytes.
+     *
+     * @param b the bytes
+     * @param off the start offset of the bytes
+     * @param len the length of the bytes
+     * @param s the String equivalent of the bytes
+     */
+    public void setBytes(byte[] b, int off, int len, String s) {
+        setBytes(b, off, len);
+        strValue = s;
+        hasStrValue = true;
+    }
+
     /**
      * Sets the content to be a char[]
      *
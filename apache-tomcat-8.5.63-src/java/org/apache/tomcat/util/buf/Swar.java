@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * SIMD within a register (SWAR) implementations of the byte search and
+ * comparison primitives used by {@link ByteChunk}. Eight bytes are read as a
+ * single little-endian long and processed with arithmetic rather than one
+ * byte at a time.
+ * <p>
+ * The longs are read via a heap {@link ByteBuffer}. From Java 9 onwards the
+ * JIT compiles such reads to a single unaligned load. On earlier JREs the read
+ * is assembled from individual bytes and is slower than the scalar loops so
+ * callers must only use these methods when {@link #ENABLED} is {@code true}
+ * and the input is at least {@link #MIN_LENGTH} (or for case insensitive
+ * comparisons {@link #MIN_IGNORE_CASE_LENGTH}) bytes long.
+ */
+final class Swar {
+
+    static final boolean ENABLED = JreCompat.isJre9Available() &&
+            !Boolean.getBoolean("org.apache.tomcat.util.buf.Swar.DISABLE");
+
+    /**
+     * Below this length the set up cost exceeds the benefit.
+     */
+    static final int MIN_LENGTH = 16;
+
+    /**
+     * Case insensitive comparisons with a String have to assemble the words
+     * for the String one char at a time. That only pays off for longer
+     * values, not for typical header names.
+     */
+    static final int MIN_IGNORE_CASE_LENGTH = 64;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private static final long UPPER_A = (0x80 - 'A') * ONES;
+    private static final long UPPER_Z = (0x80 - 'Z' - 1) * ONES;
+
+
+    private Swar() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Equivalent to {@link ByteChunk#findByte(byte[], int, int, byte)}.
+     */
+    static int findByte(byte[] bytes, int start, int end, byte b) {
+        ByteBuffer bb = wrap(bytes);
+        long pattern = (b & 0xffL) * ONES;
+        int offset = start;
+        for (int last = end - 8; offset <= last; offset += 8) {
+            long found = zeroBytes(bb.getLong(offset) ^ pattern);
+            if (found != 0) {
+                return offset + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        while (offset < end) {
+            if (bytes[offset] == b) {
+                return offset;
+            }
+            offset++;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Compare two byte ranges of the same length.
+     */
+    static boolean equals(byte[] b1, int off1, byte[] b2, int off2, int len) {
+        ByteBuffer bb1 = wrap(b1);
+        ByteBuffer bb2 = wrap(b2);
+        int i = 0;
+        for (int last = len - 8; i <= last; i += 8) {
+            if (bb1.getLong(off1 + i) != bb2.getLong(off2 + i)) {
+                return false;
+            }
+        }
+        while (i < len) {
+            if (b1[off1 + i] != b2[off2 + i]) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+
+    /**
+     * Compare a byte range with the same length range of a String in a case
+     * insensitive manner. The comparison is the same as comparing each byte
+     * and char with {@link Ascii#toLower(int)}, i.e. only the low eight bits
+     * of each char are considered.
+     */
+    static boolean equalsIgnoreCase(byte[] b, int off, String s, int sOff, int len) {
+        ByteBuffer bb = wrap(b);
+        int i = 0;
+        for (int last = len - 8; i <= last; i += 8) {
+            long x = bb.getLong(off + i);
+            long y = pack(s, sOff + i);
+            if (x != y && toLower(x) != toLower(y)) {
+                return false;
+            }
+        }
+        while (i < len) {
+            if (Ascii.toLower(b[off + i]) != Ascii.toLower(s.charAt(sOff + i))) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+
+    /**
+     * Convert the ASCII upper case letters in the eight bytes of the given
+     * word to lower case. All other bytes, including those with the high bit
+     * set, are unchanged. This is the same mapping as
+     * {@link Ascii#toLower(int)}.
+     */
+    static long toLower(long word) {
+        // Clear the high bits so the additions can't carry between bytes
+        long heptets = word & ~HIGHS;
+        // High bit set for bytes >= 'A' and for bytes > 'Z' respectively
+        long geA = heptets + UPPER_A;
+        long gtZ = heptets + UPPER_Z;
+        long upper = geA & ~gtZ & ~word & HIGHS;
+        // 0x80 >>> 2 is 0x20, the difference between upper and lower case
+        return word | (upper >>> 2);
+    }
+
+
+    /*
+     * Returns a word with the high bit set for the first byte of the given
+     * word that is zero. Bytes after the first zero byte may also have the
+     * high bit set.
+     */
+    private static long zeroBytes(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+
+
+    /*
+     * The low eight bits of the eight chars starting at pos as a little-endian
+     * word.
+     */
+    private static long pack(String s, int pos) {
+        return (s.charAt(pos) & 0xffL) |
+                (s.charAt(pos + 1) & 0xffL) << 8 |
+                (s.charAt(pos + 2) & 0xffL) << 16 |
+                (s.charAt(pos + 3) & 0xffL) << 24 |
+                (s.charAt(pos + 4) & 0xffL) << 32 |
+                (s.charAt(pos + 5) & 0xffL) << 40 |
+                (s.charAt(pos + 6) & 0xffL) << 48 |
+                (s.charAt(pos + 7) & 0xffL) << 56;
+    }
+}
@@ -91,6 +91,39 @@ public final class UDecoder {
     }
 
 
+    /**
+     * Checks that the bytes can be URL decoded without modifying the source.
+     * This method throws the same exceptions for the same input as
+     * {@link #convert(ByteChunk, boolean)} so it may be used to validate bytes
+     * that will only be decoded later, if at all.
+     *
+     * @param mb    The URL encoded bytes
+     * @param query {@code true} if this is a query string. For a query string
+     *                  "%2f" will be accepted
+     *
+     * @throws IOException Invalid %xx URL encoding
+     */
+    public void check(ByteChunk mb, boolean query) throws IOException {
+        byte buff[] = mb.getBytes();
+        int end = mb.getEnd();
+
+        for (int j = ByteChunk.findByte(buff, mb.getOffset(), end, (byte) '%');
+                j > -1; j = ByteChunk.findByte(buff, j + 3, end, (byte) '%')) {
+            if (j + 2 >= end) {
+                throw EXCEPTION_EOF;
+            }
+            byte b1 = buff[j + 1];
+            byte b2 = buff[j + 2];
+            if (!isHexDigit(b1) || !isHexDigit(b2)) {
+                throw EXCEPTION_NOT_HEX_DIGIT;
+            }
+            if (!query && x2c(b1, b2) == '/') {
+                throw EXCEPTION_SLASH;
+            }
+        }
+    }
+
+
     /**
      * URLDecode, will modify the source. Assumes source bytes are encoded using
      * a superset of US-ASCII as per RFC 7230.
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+/**
+ * A cache of re-usable objects. Objects are returned to the cache with
+ * {@link #push(Object)} once they have been recycled and obtained for re-use
+ * with {@link #pop()}. Implementations are expected to be thread safe.
+ *
+ * @param <T> The type of object managed by this cache
+ */
+public interface ObjectCache<T> {
+
+    /**
+     * Return an object to the cache.
+     *
+     * @param obj The object to cache
+     *
+     * @return {@code true} if the object was cached, {@code false} if the
+     *         cache was full and the object was discarded
+     */
+    boolean push(T obj);
+
+    /**
+     * Obtain an object from the cache.
+     *
+     * @return A cached object or {@code null} if the cache was empty
+     */
+    T pop();
+
+    /**
+     * Discard all objects currently held by the cache.
+     */
+    void clear();
+
+    /**
+     * @return The number of calls to {@link #pop()} that returned an object
+     */
+    long getHitCount();
+
+    /**
+     * @return The number of calls to {@link #pop()} that returned
+     *         {@code null}
+     */
+    long getMissCount();
+
+    /**
+     * @return The number of objects that were discarded by {@link #push(Object)}
+     *         because the cache was full
+     */
+    long getOverflowCount();
+}
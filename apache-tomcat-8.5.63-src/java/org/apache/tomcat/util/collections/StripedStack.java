@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicStampedReference;
+
+/**
+ * An {@link ObjectCache} intended for caches that are heavily used by many
+ * threads concurrently. Rather than a single monitor guarding a single array
+ * (see {@link SynchronizedStack}) objects are held in a number of stripes, each
+ * with its own monitor, and a thread only uses the stripe selected by its
+ * thread ID. Each stripe holds a small fixed size array of objects (a
+ * magazine). When a stripe's magazine is full it is moved, in a single
+ * lock-free operation, to a shared depot and replaced by an empty one. When a
+ * stripe's magazine is empty, a full magazine is obtained from the depot. This
+ * allows objects to flow between threads that mainly push (e.g. a Poller) and
+ * threads that mainly pop (e.g. worker threads) while keeping contention on
+ * any single monitor or memory location low.
+ * <p>
+ * Once the magazines have been created, this class creates no garbage other
+ * than during transfers to/from the depot.
+ *
+ * @param <T> The type of object managed by this cache
+ */
+public class StripedStack<T> implements ObjectCache<T> {
+
+    private static final int MAX_MAGAZINE_SIZE = 16;
+    private static final int MAX_STRIPES = 64;
+
+    private final Stripe[] stripes;
+    private final int mask;
+    private final int magazineSize;
+
+    /*
+     * Maximum number of full magazines in the depot or -1 for unlimited
+     */
+    private final int depotLimit;
+    private final AtomicInteger depotSize = new AtomicInteger(0);
+    private final Depot fullMagazines = new Depot();
+    private final Depot emptyMagazines = new Depot();
+
+
+    /**
+     * Create a cache with no limit on the number of objects it may hold.
+     */
+    public StripedStack() {
+        this(-1);
+    }
+
+
+    /**
+     * Create a cache.
+     *
+     * @param limit The approximate maximum number of objects the cache will
+     *              hold. Zero disables caching and -1 means unlimited.
+     */
+    public StripedStack(int limit) {
+        int count = 1;
+        int target = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+        while (count < target) {
+            count <<= 1;
+        }
+        stripes = new Stripe[count];
+        mask = count - 1;
+
+        if (limit == -1) {
+            magazineSize = MAX_MAGAZINE_SIZE;
+            depotLimit = -1;
+        } else if (limit == 0) {
+            magazineSize = 0;
+            depotLimit = 0;
+        } else {
+            magazineSize = Math.max(1, Math.min(MAX_MAGAZINE_SIZE, limit / count));
+            depotLimit = Math.max(0, (limit - (count * magazineSize)) / magazineSize);
+        }
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(new Magazine(magazineSize));
+        }
+    }
+
+
+    @Override
+    public boolean push(T obj) {
+        Stripe stripe = getStripe();
+        synchronized (stripe) {
+            Magazine magazine = stripe.magazine;
+            if (magazine.count < magazineSize) {
+                magazine.items[magazine.count++] = obj;
+                return true;
+            }
+            // Full (or caching disabled). Try to move the full magazine to the
+            // depot.
+            if (magazineSize > 0 && reserveDepotSlot()) {
+                fullMagazines.push(magazine);
+                magazine = emptyMagazines.pop();
+                if (magazine == null) {
+                    magazine = new Magazine(magazineSize);
+                }
+                magazine.items[magazine.count++] = obj;
+                stripe.magazine = magazine;
+                return true;
+            }
+            stripe.overflowCount++;
+            return false;
+        }
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T pop() {
+        Stripe stripe = getStripe();
+        synchronized (stripe) {
+            Magazine magazine = stripe.magazine;
+            if (magazine.count == 0) {
+                Magazine full = fullMagazines.pop();
+                if (full == null) {
+                    stripe.missCount++;
+                    return null;
+                }
+                depotSize.decrementAndGet();
+                emptyMagazines.push(magazine);
+                stripe.magazine = full;
+                magazine = full;
+            }
+            stripe.hitCount++;
+            int index = --magazine.count;
+            T result = (T) magazine.items[index];
+            magazine.items[index] = null;
+            return result;
+        }
+    }
+
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.magazine.clear();
+            }
+        }
+        Magazine magazine = fullMagazines.pop();
+        while (magazine != null) {
+            depotSize.decrementAndGet();
+            magazine.clear();
+            emptyMagazines.push(magazine);
+            magazine = fullMagazines.pop();
+        }
+    }
+
+
+    @Override
+    public long getHitCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.hitCount;
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public long getMissCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.missCount;
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public long getOverflowCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                result += stripe.overflowCount;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The number of full magazines currently held in the shared depot
+     */
+    public int getDepotSize() {
+        return depotSize.get();
+    }
+
+
+    private Stripe getStripe() {
+        return stripes[(int) Thread.currentThread().getId() & mask];
+    }
+
+
+    private boolean reserveDepotSlot() {
+        if (depotLimit == -1) {
+            depotSize.incrementAndGet();
+            return true;
+        }
+        int current;
+        do {
+            current = depotSize.get();
+            if (current >= depotLimit) {
+                return false;
+            }
+        } while (!depotSize.compareAndSet(current, current + 1));
+        return true;
+    }
+
+
+    private static final class Stripe {
+        private Magazine magazine;
+        private long hitCount = 0;
+        private long missCount = 0;
+        private long overflowCount = 0;
+
+        private Stripe(Magazine magazine) {
+            this.magazine = magazine;
+        }
+    }
+
+
+    private static final class Magazine {
+        private final Object[] items;
+        private int count = 0;
+        // Only used while the magazine is in a depot
+        private Magazine next;
+
+        private Magazine(int size) {
+            items = new Object[size];
+        }
+
+        private void clear() {
+            for (int i = 0; i < count; i++) {
+                items[i] = null;
+            }
+            count = 0;
+        }
+    }
+
+
+    /*
+     * Treiber stack of magazines. Magazines are re-used so the reference is
+     * stamped to avoid the ABA problem.
+     */
+    private static final class Depot {
+        private final AtomicStampedReference<Magazine> head = new AtomicStampedReference<>(null, 0);
+
+        private void push(Magazine magazine) {
+            int[] stamp = new int[1];
+            Magazine current;
+            do {
+                current = head.get(stamp);
+                magazine.next = current;
+            } while (!head.compareAndSet(current, magazine, stamp[0], stamp[0] + 1));
+        }
+
+        private Magazine pop() {
+            int[] stamp = new int[1];
+            Magazine current;
+            Magazine next;
+            do {
+                current = head.get(stamp);
+                if (current == null) {
+                    return null;
+                }
+                next = current.next;
+            } while (!head.compareAndSet(current, next, stamp[0], stamp[0] + 1));
+            current.next = null;
+            return current;
+        }
+    }
+}
@@ -25,7 +25,7 @@ package org.apache.tomcat.util.collections;
  *
  * @param <T> The type of object managed by this stack
  */
-public class SynchronizedStack<T> {
+public class SynchronizedStack<T> implements ObjectCache<T> {
 
     public static final int DEFAULT_SIZE = 128;
     private static final int DEFAULT_LIMIT = -1;
@@ -40,6 +40,10 @@ public class SynchronizedStack<T> {
 
     private Object[] stack;
 
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long overflowCount = 0;
+
 
     public SynchronizedStack() {
         this(DEFAULT_SIZE, DEFAULT_LIMIT);
@@ -56,6 +60,7 @@ public class SynchronizedStack<T> {
     }
 
 
+    @Override
     public synchronized boolean push(T obj) {
         index++;
         if (index == size) {
@@ -63,6 +68,7 @@ public class SynchronizedStack<T> {
                 expand();
             } else {
                 index--;
+                overflowCount++;
                 return false;
             }
         }
@@ -70,16 +76,20 @@ public class SynchronizedStack<T> {
         return true;
     }
 
+    @Override
     @SuppressWarnings("unchecked")
     public synchronized T pop() {
         if (index == -1) {
+            missCount++;
             return null;
         }
+        hitCount++;
         T result = (T) stack[index];
         stack[index--] = null;
         return result;
     }
 
+    @Override
     public synchronized void clear() {
         if (index > -1) {
             for (int i = 0; i < index + 1; i++) {
@@ -89,6 +99,21 @@ public class SynchronizedStack<T> {
         index = -1;
     }
 
+    @Override
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized long getOverflowCount() {
+        return overflowCount;
+    }
+
     private void expand() {
         int newSize = size * 2;
         if (limit != -1 && newSize > limit) {
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.List;
+
+/**
+ * A hashed timing wheel for tracking deadlines. Scheduling, re-scheduling and
+ * cancelling an entry are all O(1) and expiring entries only visits the slots
+ * for the ticks that have passed rather than every tracked entry. Entries with
+ * a deadline more than one revolution of the wheel away remain in their slot
+ * and are skipped until the wheel comes round to them again.
+ * <p>
+ * This class is <b>not</b> thread safe. It is intended to be used by a single
+ * thread such as a Poller.
+ *
+ * @param <T> The type of object associated with each entry
+ */
+public class TimeoutWheel<T> {
+
+    private final Entry<T>[] slots;
+    private final int mask;
+    private final long tickMillis;
+
+    /*
+     * The first tick that has not yet been fully processed by expire()
+     */
+    private long nextTick;
+
+    private int size = 0;
+
+
+    /**
+     * Create a new timing wheel.
+     *
+     * @param slotCount     The number of slots. Will be rounded up to the next
+     *                      power of two.
+     * @param tickMillis    The duration of each tick (and therefore the
+     *                      precision of the wheel) in milliseconds
+     * @param now           The current time in milliseconds
+     */
+    public TimeoutWheel(int slotCount, long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int n = 1;
+        while (n < slotCount) {
+            n <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        Entry<T>[] slots = (Entry<T>[]) new Entry<?>[n];
+        this.slots = slots;
+        mask = n - 1;
+        this.tickMillis = tickMillis;
+        nextTick = now / tickMillis;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Add the entry to the wheel with the given deadline or, if it is already
+     * in the wheel, move it to the slot for the new deadline.
+     *
+     * @param entry     The entry to schedule
+     * @param deadline  The time in milliseconds at which the entry expires
+     */
+    public void schedule(Entry<T> entry, long deadline) {
+        if (entry.slot != -1) {
+            if (entry.deadline == deadline) {
+                return;
+            }
+            unlink(entry);
+        }
+        long tick = deadline / tickMillis;
+        if (tick < nextTick) {
+            // Already due. Place it where the next call to expire() will look.
+            tick = nextTick;
+        }
+        int slot = (int) (tick & mask);
+        entry.deadline = deadline;
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = slots[slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[slot] = entry;
+        size++;
+    }
+
+
+    /**
+     * Remove the entry from the wheel. This is a NO-OP if the entry is not
+     * currently scheduled.
+     *
+     * @param entry The entry to remove
+     */
+    public void cancel(Entry<T> entry) {
+        if (entry.slot != -1) {
+            unlink(entry);
+        }
+    }
+
+
+    /**
+     * Remove all entries with a deadline before the given time from the wheel
+     * and add their values to the provided list.
+     *
+     * @param now       The current time in milliseconds
+     * @param expired   The list to which the values of expired entries are
+     *                  added
+     */
+    public void expire(long now, List<T> expired) {
+        long currentTick = now / tickMillis;
+        // Never visit a slot more than once per call
+        long firstTick = Math.max(nextTick, currentTick - mask);
+        for (long tick = firstTick; tick <= currentTick; tick++) {
+            Entry<T> entry = slots[(int) (tick & mask)];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.deadline < now) {
+                    unlink(entry);
+                    expired.add(entry.value);
+                }
+                entry = next;
+            }
+        }
+        // The slot for the current tick may receive entries that expire later
+        // in this tick so it needs to be examined again next time.
+        nextTick = currentTick;
+    }
+
+
+    /**
+     * Remove all entries from the wheel and add their values to the provided
+     * list.
+     *
+     * @param removed   The list to which the values of all entries are added
+     */
+    public void clear(List<T> removed) {
+        for (int i = 0; i < slots.length; i++) {
+            Entry<T> entry = slots[i];
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                unlink(entry);
+                removed.add(entry.value);
+                entry = next;
+            }
+        }
+    }
+
+
+    private void unlink(Entry<T> entry) {
+        if (entry.prev == null) {
+            slots[entry.slot] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+        size--;
+    }
+
+
+    /**
+     * A node in the wheel. The owner of the value is expected to create a
+     * single entry and re-use it for every (re-)scheduling so that scheduling
+     * does not create garbage.
+     *
+     * @param <T> The type of the associated value
+     */
+    public static final class Entry<T> {
+        private final T value;
+        private long deadline;
+        private int slot = -1;
+        private Entry<T> prev;
+        private Entry<T> next;
+
+        public Entry(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return slot != -1;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.compat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+class Jre21Compat extends Jre9Compat {
+
+    private static final Log log = LogFactory.getLog(Jre21Compat.class);
+    private static final StringManager sm = StringManager.getManager(Jre21Compat.class);
+
+    private static final Method ofVirtualMethod;
+    private static final Method nameMethod;
+    private static final Method factoryMethod;
+    private static final Method isVirtualMethod;
+
+    static {
+        Method m1 = null;
+        Method m2 = null;
+        Method m3 = null;
+        Method m4 = null;
+
+        try {
+            Class<?> threadBuilderClazz = Class.forName("java.lang.Thread$Builder");
+            m1 = Thread.class.getMethod("ofVirtual");
+            m2 = threadBuilderClazz.getMethod("name", String.class, long.class);
+            m3 = threadBuilderClazz.getMethod("factory");
+            m4 = Thread.class.getMethod("isVirtual");
+            // Virtual threads are a preview feature in Java 19 and 20 and
+            // ofVirtual() fails unless preview features are enabled
+            m1.invoke(null);
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException e) {
+            // Must be pre-Java 21
+            log.debug(sm.getString("jre21Compat.javaPre21"), e);
+            m1 = null;
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            // Should never happen
+            log.error(sm.getString("jre21Compat.unexpected"), e);
+            m1 = null;
+        }
+
+        ofVirtualMethod = m1;
+        nameMethod = m2;
+        factoryMethod = m3;
+        isVirtualMethod = m4;
+    }
+
+
+    static boolean isSupported() {
+        return ofVirtualMethod != null;
+    }
+
+
+    @Override
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = ofVirtualMethod.invoke(null);
+            builder = nameMethod.invoke(builder, namePrefix, Long.valueOf(0));
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+
+    @Override
+    public boolean isVirtual(Thread thread) {
+        try {
+            return ((Boolean) isVirtualMethod.invoke(thread)).booleanValue();
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+}
@@ -23,9 +23,12 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.util.Deque;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -57,6 +60,7 @@ class Jre9Compat extends Jre8Compat {
     private static final Method getModuleMethod;
     private static final Method isExportedMethod;
     private static final Method getNameMethod;
+    private static final SocketOption<Boolean> reusePortOption;
 
     static {
         Class<?> c1 = null;
@@ -76,6 +80,7 @@ class Jre9Compat extends Jre8Compat {
         Method m17 = null;
         Method m18 = null;
         Method m19 = null;
+        Object o20 = null;
 
         try {
             // Order is important for the error handling below.
@@ -108,6 +113,7 @@ class Jre9Compat extends Jre8Compat {
             Class<?> moduleClass = Class.forName("java.lang.Module");
             m18 = moduleClass.getMethod("isExported", String.class);
             m19 = moduleClass.getMethod("getName");
+            o20 = StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
 
         } catch (ClassNotFoundException e) {
             if (c1 == null) {
@@ -146,6 +152,10 @@ class Jre9Compat extends Jre8Compat {
         getModuleMethod = m17;
         isExportedMethod = m18;
         getNameMethod = m19;
+
+        @SuppressWarnings("unchecked")
+        SocketOption<Boolean> option = (SocketOption<Boolean>) o20;
+        reusePortOption = option;
     }
 
 
@@ -258,4 +268,20 @@ class Jre9Compat extends Jre8Compat {
             return "ERROR";
         }
     }
+
+
+    @Override
+    public boolean isReusePortSupported(NetworkChannel channel) {
+        return reusePortOption != null && channel.supportedOptions().contains(reusePortOption);
+    }
+
+
+    @Override
+    public void setReusePort(NetworkChannel channel, boolean reusePort) throws IOException {
+        if (reusePortOption == null) {
+            super.setReusePort(channel, reusePort);
+        } else {
+            channel.setOption(reusePortOption, Boolean.valueOf(reusePort));
+        }
+    }
 }
@@ -22,8 +22,10 @@ import java.lang.reflect.AccessibleObject;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.security.KeyStore.LoadStoreParameter;
 import java.util.Deque;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
 
 import javax.net.ssl.SSLEngine;
@@ -54,25 +56,35 @@ public class JreCompat {
      */
     private static final boolean jre8Available;
 
+    private static final boolean jre21Available;
+
 
     static {
         // This is Tomcat 8 with a minimum Java version of Java 7. The latest
         // Java version the optional features require is Java 9.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            jre21Available = true;
+            jre9Available = true;
+            jre8Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre21Available = false;
             jre9Available = true;
             jre8Available = true;
         }
         else if (Jre8Compat.isSupported()) {
             //jre8支持
             instance = new Jre8Compat();
+            jre21Available = false;
             //jre9不可用
             jre9Available = false;
             //jre8可用
             jre8Available = true;
         } else {
             instance = new JreCompat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
         }
@@ -156,6 +168,34 @@ public class JreCompat {
     }
 
 
+    /**
+     * Is the SO_REUSEPORT socket option available for the given channel?
+     *
+     * @param channel   The channel to test
+     *
+     * @return {@code true} if SO_REUSEPORT may be set on the channel,
+     *         otherwise {@code false}. Always {@code false} prior to Java 9.
+     */
+    public boolean isReusePortSupported(NetworkChannel channel) {
+        // SO_REUSEPORT was added in Java 9
+        return false;
+    }
+
+
+    /**
+     * Enable or disable the SO_REUSEPORT socket option for the given channel.
+     * This must be called before the channel is bound.
+     *
+     * @param channel   The channel to configure
+     * @param reusePort The new value for SO_REUSEPORT
+     *
+     * @throws IOException  If an I/O error occurs setting the option
+     */
+    public void setReusePort(NetworkChannel channel, boolean reusePort) throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+    }
+
+
     /**
      * 禁用url缓存
      * @throws IOException
@@ -272,4 +312,39 @@ public class JreCompat {
     public String getModuleName(Class<?> type) {
         return "NO_MODULE_JAVA_8";
     }
+
+
+    // Java 7 implementation of Java 21 methods
+
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
+    /**
+     * Create a thread factory that creates virtual threads.
+     *
+     * @param namePrefix    The prefix to use for the names of created
+     *                      threads. A counter, starting at zero, is appended.
+     *
+     * @return A factory for virtual threads
+     *
+     * @throws UnsupportedOperationException If the JRE does not support
+     *         virtual threads
+     */
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
+
+
+    /**
+     * Is the given thread a virtual thread?
+     *
+     * @param thread    The thread to test
+     *
+     * @return Always {@code false} prior to Java 21
+     */
+    public boolean isVirtual(Thread thread) {
+        return false;
+    }
 }
@@ -16,6 +16,7 @@
  */
 package org.apache.tomcat.util.http;
 
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.Date;
@@ -24,6 +25,8 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.tomcat.util.buf.MessageBytes;
+
 /**
  * Utility class to generate HTTP dates.
  *
@@ -71,15 +74,10 @@ public final class FastHttpDateFormat {
     }
 
     /**
-     * Instant on which the currentDate object was generated.
-     */
-    private static volatile long currentDateGenerated = 0L;
-
-
-    /**
-     * Current formatted date.
+     * Current formatted date. Replaced, rather than updated, once a second so
+     * readers always see a consistent value without locking.
      */
-    private static String currentDate = null;
+    private static volatile CurrentDate currentDate = new CurrentDate(System.currentTimeMillis());
 
 
     /**
@@ -102,12 +100,33 @@ public final class FastHttpDateFormat {
      * @return the HTTP date
      */
     public static final String getCurrentDate() {
+        return getCurrentDateHolder().value;
+    }
+
+
+    /**
+     * Set the given MessageBytes to the current date in HTTP format. The
+     * MessageBytes will use a shared, pre-encoded (ISO-8859-1) byte form of
+     * the date so no conversion is required when it is written. The bytes must
+     * not be modified.
+     *
+     * @param mb The MessageBytes to set
+     */
+    public static final void setCurrentDate(MessageBytes mb) {
+        CurrentDate date = getCurrentDateHolder();
+        mb.setBytes(date.bytes, 0, date.bytes.length, date.value);
+    }
+
+
+    private static CurrentDate getCurrentDateHolder() {
         long now = System.currentTimeMillis();
-        if ((now - currentDateGenerated) > 1000) {
-            currentDate = FORMAT_RFC5322.format(new Date(now));
-            currentDateGenerated = now;
+        CurrentDate date = currentDate;
+        if (now / 1000 != date.second) {
+            // Concurrent updates are harmless as they generate the same value
+            date = new CurrentDate(now);
+            currentDate = date;
         }
-        return currentDate;
+        return date;
     }
 
 
@@ -215,4 +234,15 @@ public final class FastHttpDateFormat {
     }
 
 
+    private static final class CurrentDate {
+        private final long second;
+        private final String value;
+        private final byte[] bytes;
+
+        CurrentDate(long now) {
+            second = now / 1000;
+            value = FORMAT_RFC5322.format(new Date(now));
+            bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
 }
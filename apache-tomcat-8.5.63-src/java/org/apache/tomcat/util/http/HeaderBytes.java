@@ -0,0 +1,132 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Registry of pre-encoded forms of constant header names and values such as
+ * the names of common response headers, the configured Server header and
+ * common content types. Connectors that write headers in byte form can use
+ * the registered bytes rather than encoding the String for every response.
+ * <p>
+ * Only values that consist of visible US-ASCII characters, SP and HT may be
+ * registered since those are the values for which the pre-encoded form is
+ * identical to the encoded and filtered form that would otherwise be written.
+ * The number of registered values is limited so the registry must only be
+ * used for values that are constant, not for values that vary per request.
+ */
+public final class HeaderBytes {
+
+    private static final int MAX_SIZE = 1000;
+
+    private static final Map<String,byte[]> VALUES = new ConcurrentHashMap<>();
+
+    static {
+        String[] names = { "Accept-Ranges", "Cache-Control", "Connection",
+                "Content-Disposition", "Content-Encoding", "Content-Language",
+                "Content-Length", "Content-Range", "Content-Type", "Date", "ETag",
+                "Expires", "Keep-Alive", "Last-Modified", "Location", "Pragma",
+                "Server", "Set-Cookie", "Transfer-Encoding", "Vary",
+                "WWW-Authenticate" };
+        for (String name : names) {
+            register(name);
+        }
+        String[] values = { "Accept-Encoding", "bytes", "chunked", "close",
+                "gzip", "keep-alive", "no-cache", "upgrade",
+                "application/javascript", "application/json",
+                "application/json;charset=UTF-8", "application/octet-stream",
+                "application/xml", "image/gif", "image/jpeg", "image/png",
+                "text/css", "text/html", "text/html;charset=ISO-8859-1",
+                "text/html;charset=UTF-8", "text/javascript", "text/plain",
+                "text/plain;charset=ISO-8859-1", "text/plain;charset=UTF-8",
+                "text/xml" };
+        for (String value : values) {
+            register(value);
+        }
+    }
+
+
+    private HeaderBytes() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * Register a constant header name or value.
+     *
+     * @param value The header name or value
+     *
+     * @return {@code true} if the value was registered (or was already
+     *         registered) or {@code false} if the value contains characters
+     *         that can't be pre-encoded or the registry is full
+     */
+    public static boolean register(String value) {
+        if (value == null) {
+            return false;
+        }
+        if (VALUES.containsKey(value)) {
+            return true;
+        }
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if ((c < 32 && c != 9) || c > 126) {
+                return false;
+            }
+        }
+        if (VALUES.size() >= MAX_SIZE) {
+            return false;
+        }
+        VALUES.put(value, value.getBytes(StandardCharsets.ISO_8859_1));
+        return true;
+    }
+
+
+    /**
+     * Obtain the pre-encoded form of a header name or value.
+     *
+     * @param value The header name or value
+     *
+     * @return the shared, pre-encoded bytes which must not be modified or
+     *         {@code null} if the value is not registered
+     */
+    public static byte[] get(String value) {
+        return value == null ? null : VALUES.get(value);
+    }
+
+
+    /**
+     * Set the given MessageBytes to the header name or value, using the
+     * shared, pre-encoded bytes if the value is registered.
+     *
+     * @param mb    The MessageBytes to set
+     * @param value The header name or value
+     */
+    public static void set(MessageBytes mb, String value) {
+        byte[] bytes = value == null ? null : VALUES.get(value);
+        if (bytes == null) {
+            mb.setString(value);
+        } else {
+            mb.setBytes(bytes, 0, bytes.length, value);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * Registry of well-known HTTP header names. Each well-known name has a small
+ * integer ID that {@link MimeHeaders} assigns to a header field when it is
+ * added so that look-ups for common headers are an array index rather than a
+ * scan of every field. The registry also provides a case-insensitive hash so
+ * that scans for other header names only need to compare the names of fields
+ * with the same hash.
+ * <p>
+ * The names are held in lower case and are interned so that a header field
+ * with a well-known name does not need to create a new String for that name.
+ */
+public final class HeaderNames {
+
+    /**
+     * The ID used for header names that are not well-known.
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * The hash used for header names that contain characters outside of the
+     * US-ASCII range. Case-insensitive comparison of such names is not
+     * consistent between String and byte based names so they can't be
+     * hashed.
+     */
+    public static final int NON_ASCII = -1;
+
+    private static final String[] NAMES = {
+        "accept",
+        "accept-charset",
+        "accept-encoding",
+        "accept-language",
+        "accept-ranges",
+        "authorization",
+        "cache-control",
+        "connection",
+        "content-disposition",
+        "content-encoding",
+        "content-language",
+        "content-length",
+        "content-location",
+        "content-range",
+        "content-type",
+        "cookie",
+        "date",
+        "etag",
+        "expect",
+        "expires",
+        "forwarded",
+        "host",
+        "http2-settings",
+        "if-match",
+        "if-modified-since",
+        "if-none-match",
+        "if-range",
+        "if-unmodified-since",
+        "keep-alive",
+        "last-modified",
+        "location",
+        "origin",
+        "pragma",
+        "proxy-authorization",
+        "range",
+        "referer",
+        "server",
+        "set-cookie",
+        "te",
+        "trailer",
+        "transfer-encoding",
+        "upgrade",
+        "user-agent",
+        "vary",
+        "via",
+        "www-authenticate",
+        "x-forwarded-for",
+        "x-forwarded-proto",
+        "x-requested-with"
+    };
+
+    private static final int[] HASHES = new int[NAMES.length];
+
+    /*
+     * Open addressing hash table of IDs (plus one so zero marks an empty slot)
+     * indexed by the case-insensitive hash.
+     */
+    private static final int[] TABLE;
+    private static final int TABLE_MASK;
+
+    /*
+     * Exact look-up for the forms of the names most likely to be used in code.
+     * String caches its hash code so for String constants this is cheaper than
+     * calculating the case-insensitive hash.
+     */
+    private static final Map<String,Integer> EXACT = new HashMap<>();
+
+    static {
+        int size = 1;
+        while (size < NAMES.length * 4) {
+            size <<= 1;
+        }
+        TABLE = new int[size];
+        TABLE_MASK = size - 1;
+        for (int id = 0; id < NAMES.length; id++) {
+            String name = NAMES[id].intern();
+            NAMES[id] = name;
+            int hash = hash(name);
+            HASHES[id] = hash;
+            int slot = hash & TABLE_MASK;
+            while (TABLE[slot] != 0) {
+                slot = (slot + 1) & TABLE_MASK;
+            }
+            TABLE[slot] = id + 1;
+
+            Integer value = Integer.valueOf(id);
+            EXACT.put(name, value);
+            EXACT.put(toTitleCase(name), value);
+        }
+    }
+
+
+    private HeaderNames() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * @return the number of well-known header names. IDs are in the range
+     *         zero to one less than this value.
+     */
+    public static int getCount() {
+        return NAMES.length;
+    }
+
+
+    /**
+     * Obtain the canonical (lower case, interned) form of a well-known header
+     * name.
+     *
+     * @param id The ID of the header name
+     *
+     * @return the name for the given ID
+     */
+    public static String getName(int id) {
+        return NAMES[id];
+    }
+
+
+    /**
+     * Obtain the ID for a header name.
+     *
+     * @param name The header name
+     *
+     * @return the ID or {@link #UNKNOWN} if the name is not well-known
+     */
+    public static int getId(String name) {
+        Integer id = EXACT.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        return getId(hash(name), name);
+    }
+
+
+    /**
+     * Obtain the ID for a header name for which the hash has already been
+     * calculated.
+     *
+     * @param hash The value returned by {@link #hash(String)} for the name
+     * @param name The header name
+     *
+     * @return the ID or {@link #UNKNOWN} if the name is not well-known
+     */
+    public static int getId(int hash, String name) {
+        if (hash == NON_ASCII) {
+            return UNKNOWN;
+        }
+        int slot = hash & TABLE_MASK;
+        int entry;
+        while ((entry = TABLE[slot]) != 0) {
+            int id = entry - 1;
+            if (HASHES[id] == hash && NAMES[id].equalsIgnoreCase(name)) {
+                return id;
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Obtain the ID for a header name in byte form for which the hash has
+     * already been calculated.
+     *
+     * @param hash  The value returned by {@link #hash(byte[], int, int)} for
+     *              the name
+     * @param b     The bytes
+     * @param start The start of the name
+     * @param len   The length of the name
+     *
+     * @return the ID or {@link #UNKNOWN} if the name is not well-known
+     */
+    public static int getId(int hash, byte[] b, int start, int len) {
+        if (hash == NON_ASCII) {
+            return UNKNOWN;
+        }
+        int slot = hash & TABLE_MASK;
+        int entry;
+        while ((entry = TABLE[slot]) != 0) {
+            int id = entry - 1;
+            if (HASHES[id] == hash && NAMES[id].length() == len) {
+                String name = NAMES[id];
+                int i = 0;
+                while (i < len && Ascii.toLower(b[start + i]) == name.charAt(i)) {
+                    i++;
+                }
+                if (i == len) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return UNKNOWN;
+    }
+
+
+    /**
+     * Determine if the given bytes are exactly the canonical form of the given
+     * well-known header name, i.e. they are already in lower case.
+     *
+     * @param id    The ID of the header name
+     * @param b     The bytes
+     * @param start The start of the name
+     * @param len   The length of the name
+     *
+     * @return {@code true} if the bytes match the canonical name
+     */
+    public static boolean isCanonical(int id, byte[] b, int start, int len) {
+        String name = NAMES[id];
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (b[start + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Calculate the case-insensitive hash of a header name.
+     *
+     * @param name The header name
+     *
+     * @return the hash or {@link #NON_ASCII} if the name contains characters
+     *         outside of the US-ASCII range
+     */
+    public static int hash(String name) {
+        int hash = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c > 127) {
+                return NON_ASCII;
+            }
+            hash = 31 * hash + Ascii.toLower(c);
+        }
+        return hash & Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * Calculate the case-insensitive hash of a header name in byte form.
+     *
+     * @param b     The bytes
+     * @param start The start of the name
+     * @param len   The length of the name
+     *
+     * @return the hash or {@link #NON_ASCII} if the name contains bytes
+     *         outside of the US-ASCII range
+     */
+    public static int hash(byte[] b, int start, int len) {
+        int hash = 0;
+        int end = start + len;
+        for (int i = start; i < end; i++) {
+            byte c = b[i];
+            if (c < 0) {
+                return NON_ASCII;
+            }
+            hash = 31 * hash + Ascii.toLower(c);
+        }
+        return hash & Integer.MAX_VALUE;
+    }
+
+
+    private static String toTitleCase(String name) {
+        char[] chars = name.toCharArray();
+        boolean start = true;
+        for (int i = 0; i < chars.length; i++) {
+            if (start) {
+                chars[i] = Character.toUpperCase(chars[i]);
+            }
+            start = chars[i] == '-';
+        }
+        return new String(chars);
+    }
+}
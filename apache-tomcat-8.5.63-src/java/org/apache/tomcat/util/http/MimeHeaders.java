@@ -19,6 +19,7 @@ package org.apache.tomcat.util.http;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -55,11 +56,11 @@ import org.apache.tomcat.util.res.StringManager;
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
-   Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
-   - scan "common" values ( length, cookies, etc ) during the parse
-   ( addHeader hook )
+   Well-known header names (see HeaderNames) are identified when the header
+   is added and the index of the first header with each well-known name is
+   tracked so look-ups of common headers do not need to scan the headers.
+   Other names are hashed when added so a scan only has to compare the names
+   of headers with the same hash.
 
 */
 
@@ -80,7 +81,6 @@ import org.apache.tomcat.util.res.StringManager;
  *  XXX one-buffer parsing - for http ( other protocols don't need that )
  *  XXX remove unused methods
  *  XXX External enumerations, with 0 GC.
- *  XXX use HeaderName ID
  *
  *
  * @author dac@eng.sun.com
@@ -113,11 +113,23 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * The index of the first header field for each well-known header name or
+     * -1 if there is no such field.
+     */
+    private final int[] knownIndex = new int[HeaderNames.getCount()];
+
+    /**
+     * Are there any header fields with names that can't be hashed? If so,
+     * look-ups revert to comparing the name of every header field.
+     */
+    private boolean nonAsciiNames = false;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
     public MimeHeaders() {
-        // NO-OP
+        Arrays.fill(knownIndex, -1);
     }
 
     /**
@@ -147,9 +159,13 @@ public class MimeHeaders {
      */
     public void clear() {
         for (int i = 0; i < count; i++) {
+            if (headers[i].id != HeaderNames.UNKNOWN) {
+                knownIndex[headers[i].id] = -1;
+            }
             headers[i].recycle();
         }
         count = 0;
+        nonAsciiNames = false;
     }
 
     /**
@@ -179,6 +195,7 @@ public class MimeHeaders {
             MimeHeaderField mhf = createHeader();
             mhf.getName().duplicate(source.getName(i));
             mhf.getValue().duplicate(source.getValue(i));
+            register(mhf, source.headers[i].id, source.headers[i].hash);
         }
     }
 
@@ -217,21 +234,64 @@ public class MimeHeaders {
      * @return the header index
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
-        for (int i = starting; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return i;
+        int id = getId(name);
+        return findHeader(name, id, getHash(name, id), starting);
+    }
+
+
+    private int findHeader(String name, int id, int hash, int starting) {
+        if (id != HeaderNames.UNKNOWN) {
+            int first = knownIndex[id];
+            if (first == -1 || first >= starting) {
+                return first;
+            }
+            for (int i = starting; i < count; i++) {
+                if (headers[i].id == id) {
+                    return i;
+                }
+            }
+        } else if (hash == HeaderNames.NON_ASCII) {
+            for (int i = starting; i < count; i++) {
+                if (headers[i].getName().equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+        } else {
+            for (int i = starting; i < count; i++) {
+                MimeHeaderField mhf = headers[i];
+                if (mhf.hash == hash && mhf.id == HeaderNames.UNKNOWN &&
+                        mhf.getName().equalsIgnoreCase(name)) {
+                    return i;
+                }
             }
         }
         return -1;
     }
 
+
+    /*
+     * The ID to use when looking up the given name. Well-known names are not
+     * used if there are headers with names that can't be hashed.
+     */
+    private int getId(String name) {
+        if (name == null || nonAsciiNames) {
+            return HeaderNames.UNKNOWN;
+        }
+        return HeaderNames.getId(name);
+    }
+
+
+    private int getHash(String name, int id) {
+        if (id != HeaderNames.UNKNOWN) {
+            // Not required
+            return 0;
+        }
+        if (name == null || nonAsciiNames) {
+            return HeaderNames.NON_ASCII;
+        }
+        return HeaderNames.hash(name);
+    }
+
     // -------------------- --------------------
 
     /**
@@ -288,6 +348,7 @@ public class MimeHeaders {
     public MessageBytes addValue( String name ) {
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        register(mh, name);
         return mh.getValue();
     }
 
@@ -302,10 +363,44 @@ public class MimeHeaders {
      */
     public MessageBytes addValue(byte b[], int startN, int len) {
         MimeHeaderField mhf=createHeader();
-        mhf.getName().setBytes(b, startN, len);
+        int hash = HeaderNames.hash(b, startN, len);
+        int id = HeaderNames.getId(hash, b, startN, len);
+        if (id != HeaderNames.UNKNOWN && HeaderNames.isCanonical(id, b, startN, len)) {
+            // Use the interned name rather than creating a new String
+            mhf.getName().setBytes(b, startN, len, HeaderNames.getName(id));
+        } else {
+            mhf.getName().setBytes(b, startN, len);
+        }
+        register(mhf, id, hash);
         return mhf.getValue();
     }
 
+
+    private void register(MimeHeaderField mhf, String name) {
+        if (name == null) {
+            register(mhf, HeaderNames.UNKNOWN, HeaderNames.NON_ASCII);
+        } else {
+            int id = HeaderNames.getId(name);
+            register(mhf, id, id == HeaderNames.UNKNOWN ? HeaderNames.hash(name) : 0);
+        }
+    }
+
+
+    /*
+     * Must be called for the most recently created header field.
+     */
+    private void register(MimeHeaderField mhf, int id, int hash) {
+        mhf.id = id;
+        mhf.hash = hash;
+        if (id != HeaderNames.UNKNOWN) {
+            if (knownIndex[id] == -1) {
+                knownIndex[id] = count - 1;
+            }
+        } else if (hash == HeaderNames.NON_ASCII) {
+            nonAsciiNames = true;
+        }
+    }
+
     /**
      * Allow "set" operations, which removes all current values
      * for this header.
@@ -313,18 +408,20 @@ public class MimeHeaders {
      * @return the message bytes container for the value
      */
     public MessageBytes setValue( String name ) {
-        for ( int i = 0; i < count; i++ ) {
-            if(headers[i].getName().equalsIgnoreCase(name)) {
-                for ( int j=i+1; j < count; j++ ) {
-                    if(headers[j].getName().equalsIgnoreCase(name)) {
-                        removeHeader(j--);
-                    }
-                }
-                return headers[i].getValue();
+        int id = getId(name);
+        int hash = getHash(name, id);
+        int i = findHeader(name, id, hash, 0);
+        if (i != -1) {
+            int j = i;
+            while ((j = findHeader(name, id, hash, j + 1)) != -1) {
+                // Removal swaps in the last header so check j again
+                removeHeader(j--);
             }
+            return headers[i].getValue();
         }
         MimeHeaderField mh = createHeader();
         mh.getName().setString(name);
+        register(mh, name);
         return mh.getValue();
     }
 
@@ -337,12 +434,8 @@ public class MimeHeaders {
      * @return the value
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i == -1 ? null : headers[i].getValue();
     }
 
     /**
@@ -354,17 +447,16 @@ public class MimeHeaders {
      * @throws IllegalArgumentException if the header has multiple values
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int id = getId(name);
+        int hash = getHash(name, id);
+        int i = findHeader(name, id, hash, 0);
+        if (i == -1) {
+            return null;
         }
-        return result;
+        if (findHeader(name, id, hash, i + 1) != -1) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -384,10 +476,11 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                removeHeader(i--);
-            }
+        int id = getId(name);
+        int hash = getHash(name, id);
+        int i = -1;
+        while ((i = findHeader(name, id, hash, i + 1)) != -1) {
+            removeHeader(i--);
         }
     }
 
@@ -397,11 +490,31 @@ public class MimeHeaders {
      */
     public void removeHeader(int idx) {
         MimeHeaderField mh = headers[idx];
+        int removedId = mh.id;
+        int movedId = headers[count - 1].id;
 
         mh.recycle();
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+
+        if (removedId != HeaderNames.UNKNOWN) {
+            updateKnownIndex(removedId);
+        }
+        if (movedId != HeaderNames.UNKNOWN && movedId != removedId) {
+            updateKnownIndex(movedId);
+        }
+    }
+
+
+    private void updateKnownIndex(int id) {
+        for (int i = 0; i < count; i++) {
+            if (headers[i].id == id) {
+                knownIndex[id] = i;
+                return;
+            }
+        }
+        knownIndex[id] = -1;
     }
 
 }
@@ -508,6 +621,12 @@ class MimeHeaderField {
     private final MessageBytes nameB = MessageBytes.newInstance();
     private final MessageBytes valueB = MessageBytes.newInstance();
 
+    /*
+     * The ID and hash of the name. Set by MimeHeaders when the name is set.
+     */
+    int id = HeaderNames.UNKNOWN;
+    int hash = HeaderNames.NON_ASCII;
+
     /**
      * Creates a new, uninitialized header field.
      */
@@ -518,6 +637,8 @@ class MimeHeaderField {
     public void recycle() {
         nameB.recycle();
         valueB.recycle();
+        id = HeaderNames.UNKNOWN;
+        hash = HeaderNames.NON_ASCII;
     }
 
     public MessageBytes getName() {
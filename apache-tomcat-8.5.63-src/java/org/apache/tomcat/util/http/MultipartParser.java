@@ -0,0 +1,307 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Push parser for multipart bodies as defined by RFC 2046. Unlike
+ * {@link org.apache.tomcat.util.http.fileupload.MultipartStream} this parser
+ * does not read from an InputStream. The caller passes whatever bytes it has
+ * available and the parser reports the parts found via a {@link Handler}. This
+ * makes the parser suitable for use with non-blocking I/O.
+ * <p>
+ * The body of each part is reported as ranges of the bytes passed to
+ * {@link #parse(byte[], int, int)} so no copies of the body are made by the
+ * parser. Bytes that may form the start of a boundary delimiter, or an
+ * incomplete set of part headers, are not consumed and must be passed to the
+ * parser again, followed by more data, on the next call.
+ * <p>
+ * This class is not thread safe.
+ */
+public class MultipartParser {
+
+    private static final StringManager sm = StringManager.getManager(MultipartParser.class);
+
+    /**
+     * The maximum size of the headers of a single part, including the
+     * terminating blank line. This is the same limit as is used by
+     * {@link org.apache.tomcat.util.http.fileupload.MultipartStream}.
+     */
+    public static final int MAX_HEADER_SIZE = 10240;
+
+    private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+
+    private enum State {
+        PREAMBLE,
+        DELIMITER_END,
+        HEADERS,
+        BODY,
+        EPILOGUE
+    }
+
+    private final byte[] delimiter;
+    private final Charset headerCharset;
+    private final Handler handler;
+
+    private State state = State.PREAMBLE;
+
+
+    /**
+     * Create a parser for a multipart body.
+     *
+     * @param boundary      The boundary parameter from the Content-Type header
+     *                          of the multipart body
+     * @param headerCharset The character set used to decode the headers of
+     *                          each part. If {@code null}, ISO-8859-1 is used
+     * @param handler       The handler to notify of the parts found
+     */
+    public MultipartParser(String boundary, Charset headerCharset, Handler handler) {
+        byte[] boundaryBytes = boundary.getBytes(StandardCharsets.ISO_8859_1);
+        delimiter = new byte[boundaryBytes.length + 4];
+        delimiter[0] = '\r';
+        delimiter[1] = '\n';
+        delimiter[2] = '-';
+        delimiter[3] = '-';
+        System.arraycopy(boundaryBytes, 0, delimiter, 4, boundaryBytes.length);
+        if (headerCharset == null) {
+            this.headerCharset = StandardCharsets.ISO_8859_1;
+        } else {
+            this.headerCharset = headerCharset;
+        }
+        this.handler = handler;
+    }
+
+
+    /**
+     * @return {@code true} if the close delimiter has been found. Any further
+     *         data is epilogue and will be ignored.
+     */
+    public boolean isComplete() {
+        return state == State.EPILOGUE;
+    }
+
+
+    /**
+     * Parse as much as possible of the given bytes.
+     *
+     * @param buf The buffer containing the bytes to parse
+     * @param off The offset of the first byte to parse
+     * @param len The number of bytes to parse
+     *
+     * @return The number of bytes consumed. Any remaining bytes must be passed
+     *         to the next call to this method, followed by the next bytes of
+     *         the multipart body.
+     *
+     * @throws IOException If the multipart body is invalid or the handler
+     *                     throws an IOException
+     */
+    public int parse(byte[] buf, int off, int len) throws IOException {
+        int pos = off;
+        int end = off + len;
+
+        while (true) {
+            switch (state) {
+                case PREAMBLE: {
+                    // The first delimiter need not be preceded by CRLF
+                    int match = indexOf(buf, pos, end, delimiter, 2);
+                    if (match == -1) {
+                        // Retain anything that might be the start of the
+                        // delimiter
+                        pos = Math.max(pos, end - (delimiter.length - 3));
+                        return pos - off;
+                    }
+                    pos = match + delimiter.length - 2;
+                    state = State.DELIMITER_END;
+                    break;
+                }
+                case DELIMITER_END: {
+                    if (end - pos < 2) {
+                        return pos - off;
+                    }
+                    if (buf[pos] == '\r' && buf[pos + 1] == '\n') {
+                        state = State.HEADERS;
+                    } else if (buf[pos] == '-' && buf[pos + 1] == '-') {
+                        state = State.EPILOGUE;
+                    } else {
+                        throw new IOException(sm.getString("multipartParser.invalidDelimiter"));
+                    }
+                    pos += 2;
+                    break;
+                }
+                case HEADERS: {
+                    int headerEnd;
+                    if (end - pos < 2) {
+                        return pos - off;
+                    } else if (buf[pos] == '\r' && buf[pos + 1] == '\n') {
+                        // No headers
+                        headerEnd = pos;
+                    } else {
+                        int match = indexOf(buf, pos, end, HEADER_END, 0);
+                        if (match == -1) {
+                            if (end - pos >= MAX_HEADER_SIZE) {
+                                throw new IOException(sm.getString("multipartParser.headersTooLarge",
+                                        Integer.toString(MAX_HEADER_SIZE)));
+                            }
+                            return pos - off;
+                        }
+                        headerEnd = match + 2;
+                    }
+                    if (headerEnd + 2 - pos > MAX_HEADER_SIZE) {
+                        throw new IOException(sm.getString("multipartParser.headersTooLarge",
+                                Integer.toString(MAX_HEADER_SIZE)));
+                    }
+                    MimeHeaders headers = parseHeaders(buf, pos, headerEnd);
+                    pos = headerEnd + 2;
+                    state = State.BODY;
+                    handler.startPart(headers);
+                    break;
+                }
+                case BODY: {
+                    int match = indexOf(buf, pos, end, delimiter, 0);
+                    if (match == -1) {
+                        // Retain anything that might be the start of the
+                        // delimiter
+                        int safe = end - (delimiter.length - 1);
+                        if (safe > pos) {
+                            handler.partData(buf, pos, safe - pos);
+                            pos = safe;
+                        }
+                        return pos - off;
+                    }
+                    if (match > pos) {
+                        handler.partData(buf, pos, match - pos);
+                    }
+                    pos = match + delimiter.length;
+                    state = State.DELIMITER_END;
+                    handler.endPart();
+                    break;
+                }
+                case EPILOGUE: {
+                    return len;
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Parses the header lines in the given range. The range includes the CRLF
+     * that terminates the last line but not the blank line that terminates
+     * the headers. Folded lines are unfolded and lines without a colon are
+     * ignored.
+     */
+    private MimeHeaders parseHeaders(byte[] buf, int start, int end) {
+        MimeHeaders headers = new MimeHeaders();
+        String name = null;
+        StringBuilder value = new StringBuilder();
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = indexOf(buf, pos, end, HEADER_END, 2);
+            if (lineEnd == -1) {
+                lineEnd = end;
+            }
+            String line = new String(buf, pos, lineEnd - pos, headerCharset);
+            pos = lineEnd + 2;
+            if (line.length() > 0 && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                if (name != null) {
+                    value.append(' ').append(line.trim());
+                }
+                continue;
+            }
+            if (name != null) {
+                headers.addValue(name).setString(value.toString());
+                name = null;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                name = line.substring(0, colon).trim();
+                value.setLength(0);
+                value.append(line.substring(colon + 1).trim());
+            }
+        }
+        if (name != null) {
+            headers.addValue(name).setString(value.toString());
+        }
+        return headers;
+    }
+
+
+    /*
+     * Returns the position of the first match of pattern, starting at
+     * patternStart, in the given range of buf or -1 if there is no match.
+     */
+    private static int indexOf(byte[] buf, int start, int end, byte[] pattern,
+            int patternStart) {
+        byte first = pattern[patternStart];
+        int last = end - (pattern.length - patternStart);
+        for (int i = start; i <= last; i++) {
+            if (buf[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (patternStart + j < pattern.length &&
+                    buf[i + j] == pattern[patternStart + j]) {
+                j++;
+            }
+            if (patternStart + j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Receives notification of the parts found by a {@link MultipartParser}.
+     */
+    public interface Handler {
+
+        /**
+         * Called when the headers of a part have been parsed.
+         *
+         * @param headers The headers of the part
+         *
+         * @throws IOException If the part cannot be processed
+         */
+        void startPart(MimeHeaders headers) throws IOException;
+
+        /**
+         * Called with the body of the current part. This may be called any
+         * number of times for a part. The bytes are only valid for the
+         * duration of the call.
+         *
+         * @param buf The buffer containing the bytes of the part
+         * @param off The offset of the first byte of the part in the buffer
+         * @param len The number of bytes
+         *
+         * @throws IOException If the part cannot be processed
+         */
+        void partData(byte[] buf, int off, int len) throws IOException;
+
+        /**
+         * Called when the end of the current part has been reached.
+         *
+         * @throws IOException If the part cannot be processed
+         */
+        void endPart() throws IOException;
+    }
+}
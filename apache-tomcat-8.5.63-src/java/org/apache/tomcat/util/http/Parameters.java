@@ -51,10 +51,22 @@ public final class Parameters {
     private static final StringManager sm =
         StringManager.getManager("org.apache.tomcat.util.http");
 
-    private final Map<String,ArrayList<String>> paramHashValues =
+    private final Map<String,ParameterValues> paramHashValues =
             new LinkedHashMap<>();
     private boolean didQueryParameters=false;
 
+    /*
+     * Lazy decoding. Parameters are recorded as offsets into the bytes they
+     * were found in. Names are decoded and indexed when parameters are first
+     * accessed and values are decoded when they are requested.
+     */
+    private boolean lazy = false;
+    private final ArrayList<byte[]> segmentBytes = new ArrayList<>();
+    private final ArrayList<Charset> segmentCharsets = new ArrayList<>();
+    private int[] entries = new int[ENTRY_SIZE * 16];
+    private int entryCount = 0;
+    private int indexedCount = 0;
+
     private MessageBytes queryMB;
 
     private UDecoder urlDec;
@@ -84,6 +96,29 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Configure lazy decoding of parameters. When enabled, processing the
+     * query string or a request body only validates the parameters and
+     * records where they were found. Names are decoded when the parameters are
+     * first accessed and values are decoded when they are requested. The
+     * parameter limit and the reasons for parse failures are determined when
+     * the parameters are processed, exactly as they are for eager decoding.
+     * <p>
+     * When lazy decoding is enabled, the bytes passed to
+     * {@link #processParameters(byte[], int, int)} are retained and must not
+     * be modified by the caller until this object is recycled.
+     *
+     * @param lazy {@code true} to decode parameters when they are accessed
+     *             rather than when they are processed
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     /**
      * @return The current encoding
      *
@@ -160,6 +195,10 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        segmentBytes.clear();
+        segmentCharsets.clear();
+        entryCount = 0;
+        indexedCount = 0;
         didQueryParameters = false;
         charset = DEFAULT_BODY_CHARSET;
         decodedQuery.recycle();
@@ -173,27 +212,35 @@ public final class Parameters {
 
     public String[] getParameterValues(String name) {
         handleQueryParameters();
+        indexParameters();
         // no "facade"
-        ArrayList<String> values = paramHashValues.get(name);
+        ParameterValues values = paramHashValues.get(name);
         if (values == null) {
             return null;
         }
-        return values.toArray(new String[0]);
+        decodeValues(values, values.pendingCount);
+        return values.decoded.toArray(new String[0]);
     }
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        indexParameters();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
-        ArrayList<String> values = paramHashValues.get(name);
+        indexParameters();
+        ParameterValues values = paramHashValues.get(name);
         if (values != null) {
-            if(values.size() == 0) {
-                return "";
+            if (values.decoded.size() == 0) {
+                // Only the first value is required
+                decodeValues(values, 1);
+                if (values.decoded.size() == 0) {
+                    return "";
+                }
             }
-            return values.get(0);
+            return values.decoded.get(0);
         } else {
             return null;
         }
@@ -233,6 +280,21 @@ public final class Parameters {
             return;
         }
 
+        countParameter();
+
+        // Keep the values in the order they were added
+        indexParameters();
+        ParameterValues values = paramHashValues.get(key);
+        if (values == null) {
+            values = new ParameterValues();
+            paramHashValues.put(key, values);
+        } else {
+            decodeValues(values, values.pendingCount);
+        }
+        values.decoded.add(value);
+    }
+
+    private void countParameter() throws IllegalStateException {
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -241,13 +303,6 @@ public final class Parameters {
             throw new IllegalStateException(sm.getString(
                     "parameters.maxCountFail", Integer.valueOf(limit)));
         }
-
-        ArrayList<String> values = paramHashValues.get(key);
-        if (values == null) {
-            values = new ArrayList<>(1);
-            paramHashValues.put(key, values);
-        }
-        values.add(value);
     }
 
     public void setURLDecoder( UDecoder u ) {
@@ -269,6 +324,17 @@ public final class Parameters {
     private static final Charset DEFAULT_BODY_CHARSET = StandardCharsets.ISO_8859_1;
     private static final Charset DEFAULT_URI_CHARSET = StandardCharsets.UTF_8;
 
+    // Layout of a recorded parameter in the entries array
+    private static final int ENTRY_SEGMENT = 0;
+    private static final int ENTRY_NAME_START = 1;
+    private static final int ENTRY_NAME_END = 2;
+    private static final int ENTRY_VALUE_START = 3;
+    private static final int ENTRY_VALUE_END = 4;
+    private static final int ENTRY_FLAGS = 5;
+    private static final int ENTRY_SIZE = 6;
+    private static final int FLAG_DECODE_NAME = 1;
+    private static final int FLAG_DECODE_VALUE = 2;
+
 
     public void processParameters( byte bytes[], int start, int len ) {
         processParameters(bytes, start, len, charset);
@@ -282,6 +348,7 @@ public final class Parameters {
         }
 
         int decodeFailCount = 0;
+        int segment = -1;
 
         int pos = start;
         int end = start + len;
@@ -414,27 +481,49 @@ public final class Parameters {
             }
 
             try {
-                String name;
-                String value;
-
-                if (decodeName) {
-                    urlDecode(tmpName);
-                }
-                tmpName.setCharset(charset);
-                name = tmpName.toString();
-
-                if (valueStart >= 0) {
+                String name = null;
+                String value = null;
+
+                if (lazy) {
+                    // Validate now so failures are reported exactly as they
+                    // are for eager decoding
+                    if (decodeName) {
+                        urlCheck(tmpName);
+                    }
                     if (decodeValue) {
-                        urlDecode(tmpValue);
+                        urlCheck(tmpValue);
                     }
-                    tmpValue.setCharset(charset);
-                    value = tmpValue.toString();
                 } else {
-                    value = "";
+                    if (decodeName) {
+                        urlDecode(tmpName);
+                    }
+                    tmpName.setCharset(charset);
+                    name = tmpName.toString();
+
+                    if (valueStart >= 0) {
+                        if (decodeValue) {
+                            urlDecode(tmpValue);
+                        }
+                        tmpValue.setCharset(charset);
+                        value = tmpValue.toString();
+                    } else {
+                        value = "";
+                    }
                 }
 
                 try {
-                    addParameter(name, value);
+                    if (lazy) {
+                        countParameter();
+                        if (segment == -1) {
+                            segment = segmentBytes.size();
+                            segmentBytes.add(bytes);
+                            segmentCharsets.add(charset);
+                        }
+                        addEntry(segment, nameStart, nameEnd, decodeName,
+                                valueStart, valueEnd, decodeValue);
+                    } else {
+                        addParameter(name, value);
+                    }
                 } catch (IllegalStateException ise) {
                     // Hitting limit stops processing further params but does
                     // not cause request to fail.
@@ -520,6 +609,99 @@ public final class Parameters {
         urlDec.convert(bc, true);
     }
 
+    private void urlCheck(ByteChunk bc)
+        throws IOException {
+        if( urlDec==null ) {
+            urlDec=new UDecoder();
+        }
+        urlDec.check(bc, true);
+    }
+
+
+    private void addEntry(int segment, int nameStart, int nameEnd,
+            boolean decodeName, int valueStart, int valueEnd,
+            boolean decodeValue) {
+        int pos = entryCount * ENTRY_SIZE;
+        if (pos + ENTRY_SIZE > entries.length) {
+            int[] newEntries = new int[entries.length * 2];
+            System.arraycopy(entries, 0, newEntries, 0, pos);
+            entries = newEntries;
+        }
+        entries[pos + ENTRY_SEGMENT] = segment;
+        entries[pos + ENTRY_NAME_START] = nameStart;
+        entries[pos + ENTRY_NAME_END] = nameEnd;
+        entries[pos + ENTRY_VALUE_START] = valueStart;
+        entries[pos + ENTRY_VALUE_END] = valueEnd;
+        entries[pos + ENTRY_FLAGS] = (decodeName ? FLAG_DECODE_NAME : 0) |
+                (decodeValue ? FLAG_DECODE_VALUE : 0);
+        entryCount++;
+    }
+
+
+    /*
+     * Decode the names of any parameters that have been recorded but not yet
+     * indexed. The values are left to be decoded when they are requested.
+     */
+    private void indexParameters() {
+        while (indexedCount < entryCount) {
+            int entry = indexedCount++;
+            int pos = entry * ENTRY_SIZE;
+            int nameStart = entries[pos + ENTRY_NAME_START];
+            tmpName.setBytes(segmentBytes.get(entries[pos + ENTRY_SEGMENT]),
+                    nameStart, entries[pos + ENTRY_NAME_END] - nameStart);
+            try {
+                if ((entries[pos + ENTRY_FLAGS] & FLAG_DECODE_NAME) != 0) {
+                    urlDecode(tmpName);
+                }
+            } catch (IOException e) {
+                // Can't happen, as the encoding was validated when the
+                // parameter was recorded
+                throw new IllegalStateException(e);
+            }
+            tmpName.setCharset(segmentCharsets.get(entries[pos + ENTRY_SEGMENT]));
+            String name = tmpName.toString();
+            tmpName.recycle();
+
+            ParameterValues values = paramHashValues.get(name);
+            if (values == null) {
+                values = new ParameterValues();
+                paramHashValues.put(name, values);
+            }
+            values.addPending(entry);
+        }
+    }
+
+
+    /*
+     * Decode up to count of the pending values, in order, for a parameter.
+     */
+    private void decodeValues(ParameterValues values, int count) {
+        int decoded = Math.min(count, values.pendingCount);
+        for (int i = 0; i < decoded; i++) {
+            int pos = values.pending[i] * ENTRY_SIZE;
+            int valueStart = entries[pos + ENTRY_VALUE_START];
+            if (valueStart < 0) {
+                values.decoded.add("");
+                continue;
+            }
+            tmpValue.setBytes(segmentBytes.get(entries[pos + ENTRY_SEGMENT]),
+                    valueStart, entries[pos + ENTRY_VALUE_END] - valueStart);
+            try {
+                if ((entries[pos + ENTRY_FLAGS] & FLAG_DECODE_VALUE) != 0) {
+                    urlDecode(tmpValue);
+                }
+            } catch (IOException e) {
+                // Can't happen, as the encoding was validated when the
+                // parameter was recorded
+                throw new IllegalStateException(e);
+            }
+            tmpValue.setCharset(segmentCharsets.get(entries[pos + ENTRY_SEGMENT]));
+            values.decoded.add(tmpValue.toString());
+            tmpValue.recycle();
+        }
+        values.removePending(decoded);
+    }
+
     /**
      * @param data      Parameter data
      * @param encoding  Encoding to use for encoded bytes
@@ -560,15 +742,46 @@ public final class Parameters {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
+        indexParameters();
+        for (Map.Entry<String, ParameterValues> e : paramHashValues.entrySet()) {
+            decodeValues(e.getValue(), e.getValue().pendingCount);
             sb.append(e.getKey()).append('=');
-            StringUtils.join(e.getValue(), ',', sb);
+            StringUtils.join(e.getValue().decoded, ',', sb);
             sb.append('\n');
         }
         return sb.toString();
     }
 
 
+    /*
+     * The values of a single parameter. Values that have been decoded always
+     * precede values that are still pending decoding.
+     */
+    private static final class ParameterValues {
+        private final ArrayList<String> decoded = new ArrayList<>(1);
+        private int[] pending = null;
+        private int pendingCount = 0;
+
+        private void addPending(int entry) {
+            if (pending == null) {
+                pending = new int[1];
+            } else if (pendingCount == pending.length) {
+                int[] newPending = new int[pending.length * 2];
+                System.arraycopy(pending, 0, newPending, 0, pendingCount);
+                pending = newPending;
+            }
+            pending[pendingCount++] = entry;
+        }
+
+        private void removePending(int count) {
+            if (count > 0) {
+                pendingCount -= count;
+                System.arraycopy(pending, count, pending, 0, pendingCount);
+            }
+        }
+    }
+
+
     public enum FailReason {
         CLIENT_DISCONNECT,
         MULTIPART_CONFIG_INVALID,
@@ -0,0 +1,331 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+/**
+ * HTTP priority parameters as defined by RFC 9218, parsed from the value of
+ * a {@code priority} header or a PRIORITY_UPDATE frame.
+ */
+public class Priority {
+
+    public static final int DEFAULT_URGENCY = 3;
+    public static final boolean DEFAULT_INCREMENTAL = false;
+
+    private static final int MAX_URGENCY = 7;
+
+    private int urgency = DEFAULT_URGENCY;
+    private boolean incremental = DEFAULT_INCREMENTAL;
+
+
+    public Priority() {
+        // Default priority
+    }
+
+
+    public int getUrgency() {
+        return urgency;
+    }
+
+
+    public void setUrgency(int urgency) {
+        this.urgency = urgency;
+    }
+
+
+    public boolean getIncremental() {
+        return incremental;
+    }
+
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+
+    /**
+     * Parses a priority field value. The value is a Structured Field
+     * Dictionary (RFC 8941). The {@code u} (urgency) member is used if it is an
+     * integer between 0 and 7 and the {@code i} (incremental) member is used if
+     * it is a boolean. Members with other keys, types or values and any
+     * parameters are ignored as required by RFC 9218.
+     *
+     * @param input The field value to parse
+     *
+     * @return The parsed priority or {@code null} if the value is not a valid
+     *         dictionary, in which case the default priority applies
+     */
+    public static Priority parsePriority(String input) {
+        Priority result = new Priority();
+        DictionaryParser parser = new DictionaryParser(input);
+        if (!parser.parse(result)) {
+            return null;
+        }
+        return result;
+    }
+
+
+    /*
+     * A minimal parser for Structured Field Dictionaries that validates the
+     * syntax of every member but only retains the members used for priority.
+     */
+    private static class DictionaryParser {
+
+        private static final int TYPE_INVALID = -1;
+        private static final int TYPE_INTEGER = 0;
+        private static final int TYPE_BOOLEAN = 1;
+        private static final int TYPE_OTHER = 2;
+
+        private final String input;
+        private final int length;
+        private int pos;
+
+        // Value of the last integer or boolean item read
+        private long value;
+
+        DictionaryParser(String input) {
+            this.input = input;
+            this.length = input.length();
+        }
+
+        boolean parse(Priority priority) {
+            skipSp();
+            if (pos == length) {
+                // Empty dictionary
+                return true;
+            }
+            while (true) {
+                String key = readKey();
+                if (key == null) {
+                    return false;
+                }
+                int type;
+                if (peek() == '=') {
+                    pos++;
+                    if (peek() == '(') {
+                        if (!skipInnerList()) {
+                            return false;
+                        }
+                        type = TYPE_OTHER;
+                    } else {
+                        type = readBareItem();
+                    }
+                } else {
+                    type = TYPE_BOOLEAN;
+                    value = 1;
+                }
+                // Parameters are read with readBareItem() which overwrites
+                // value so retain the member's value first
+                long memberValue = value;
+                if (type == TYPE_INVALID || !skipParameters()) {
+                    return false;
+                }
+                if ("u".equals(key)) {
+                    if (type == TYPE_INTEGER && memberValue >= 0 && memberValue <= MAX_URGENCY) {
+                        priority.setUrgency((int) memberValue);
+                    }
+                } else if ("i".equals(key)) {
+                    if (type == TYPE_BOOLEAN) {
+                        priority.setIncremental(memberValue == 1);
+                    }
+                }
+                skipOws();
+                if (pos == length) {
+                    return true;
+                }
+                if (input.charAt(pos++) != ',') {
+                    return false;
+                }
+                skipOws();
+                if (pos == length) {
+                    // Trailing comma
+                    return false;
+                }
+            }
+        }
+
+        private int peek() {
+            return pos < length ? input.charAt(pos) : -1;
+        }
+
+        private void skipSp() {
+            while (pos < length && input.charAt(pos) == ' ') {
+                pos++;
+            }
+        }
+
+        private void skipOws() {
+            while (pos < length && (input.charAt(pos) == ' ' || input.charAt(pos) == '\t')) {
+                pos++;
+            }
+        }
+
+        private String readKey() {
+            int start = pos;
+            int c = peek();
+            if (!(c >= 'a' && c <= 'z') && c != '*') {
+                return null;
+            }
+            pos++;
+            while (pos < length) {
+                c = input.charAt(pos);
+                if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || c == '-' ||
+                        c == '.' || c == '*') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            return input.substring(start, pos);
+        }
+
+        private int readBareItem() {
+            int c = peek();
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                return readNumber();
+            } else if (c == '"') {
+                return skipString() ? TYPE_OTHER : TYPE_INVALID;
+            } else if (c == '*' || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z')) {
+                pos++;
+                while (pos < length && (HttpParser.isToken(input.charAt(pos)) ||
+                        input.charAt(pos) == ':' || input.charAt(pos) == '/')) {
+                    pos++;
+                }
+                return TYPE_OTHER;
+            } else if (c == ':') {
+                pos++;
+                while (pos < length && isBase64(input.charAt(pos))) {
+                    pos++;
+                }
+                if (peek() != ':') {
+                    return TYPE_INVALID;
+                }
+                pos++;
+                return TYPE_OTHER;
+            } else if (c == '?') {
+                pos++;
+                c = peek();
+                if (c != '0' && c != '1') {
+                    return TYPE_INVALID;
+                }
+                pos++;
+                value = c - '0';
+                return TYPE_BOOLEAN;
+            }
+            return TYPE_INVALID;
+        }
+
+        private int readNumber() {
+            boolean negative = false;
+            if (peek() == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            long result = 0;
+            while (pos < length && input.charAt(pos) >= '0' && input.charAt(pos) <= '9') {
+                result = result * 10 + (input.charAt(pos++) - '0');
+                if (pos - start > 15) {
+                    return TYPE_INVALID;
+                }
+            }
+            if (pos == start) {
+                return TYPE_INVALID;
+            }
+            if (peek() == '.') {
+                // Decimal
+                if (pos - start > 12) {
+                    return TYPE_INVALID;
+                }
+                pos++;
+                int fractionStart = pos;
+                while (pos < length && input.charAt(pos) >= '0' && input.charAt(pos) <= '9') {
+                    pos++;
+                }
+                int fractionLength = pos - fractionStart;
+                if (fractionLength == 0 || fractionLength > 3) {
+                    return TYPE_INVALID;
+                }
+                return TYPE_OTHER;
+            }
+            value = negative ? -result : result;
+            return TYPE_INTEGER;
+        }
+
+        private boolean skipString() {
+            // Skip opening quote
+            pos++;
+            while (pos < length) {
+                char c = input.charAt(pos++);
+                if (c == '\\') {
+                    if (pos == length) {
+                        return false;
+                    }
+                    c = input.charAt(pos++);
+                    if (c != '"' && c != '\\') {
+                        return false;
+                    }
+                } else if (c == '"') {
+                    return true;
+                } else if (c < 0x20 || c > 0x7e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private boolean skipInnerList() {
+            // Skip opening parenthesis
+            pos++;
+            while (true) {
+                skipSp();
+                if (peek() == ')') {
+                    pos++;
+                    return true;
+                }
+                if (readBareItem() == TYPE_INVALID || !skipParameters()) {
+                    return false;
+                }
+                int c = peek();
+                if (c != ' ' && c != ')') {
+                    return false;
+                }
+            }
+        }
+
+        private boolean skipParameters() {
+            while (peek() == ';') {
+                pos++;
+                skipSp();
+                if (readKey() == null) {
+                    return false;
+                }
+                if (peek() == '=') {
+                    pos++;
+                    if (readBareItem() == TYPE_INVALID) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static boolean isBase64(char c) {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+                    c == '+' || c == '/' || c == '=';
+        }
+    }
+}
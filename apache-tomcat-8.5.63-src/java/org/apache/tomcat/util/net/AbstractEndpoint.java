@@ -40,6 +40,7 @@ import javax.management.ObjectName;
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.ObjectCache;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
@@ -49,6 +50,7 @@ import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 /**
  * @param <S> The type for the sockets managed by this endpoint.
@@ -199,7 +201,7 @@ public abstract class AbstractEndpoint<S> {
     /**
      * Cache for SocketProcessor objects
      */
-    protected SynchronizedStack<SocketProcessorBase<S>> processorCache;
+    protected ObjectCache<SocketProcessorBase<S>> processorCache;
 
     private ObjectName oname = null;
 
@@ -366,6 +368,7 @@ public abstract class AbstractEndpoint<S> {
      *                      released
      */
     protected void releaseSSLContext(SSLHostConfig sslHostConfig) {
+        sslHostConfig.unregisterSessionContexts();
         for (SSLHostConfigCertificate certificate : sslHostConfig.getCertificates(true)) {
             if (certificate.getSslContext() != null) {
                 SSLContext sslContext = certificate.getSslContext();
@@ -417,6 +420,61 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * The {@link ObjectCache} implementation used for the caches of re-usable
+     * objects (processors, poller events, channels) maintained by the
+     * endpoint. The class must provide a public constructor that accepts the
+     * maximum size of the cache as an int. If not set,
+     * {@link SynchronizedStack} is used.
+     */
+    private String objectCacheClassName = null;
+    public String getObjectCacheClassName() { return objectCacheClassName; }
+    public void setObjectCacheClassName(String objectCacheClassName) {
+        this.objectCacheClassName = objectCacheClassName;
+    }
+
+
+    /**
+     * Create a new cache for re-usable objects using the configured
+     * {@link ObjectCache} implementation.
+     *
+     * @param <T>   The type of object to cache
+     * @param limit The maximum number of objects to cache, -1 for unlimited
+     *
+     * @return The new cache
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> ObjectCache<T> createObjectCache(int limit) {
+        String className = getObjectCacheClassName();
+        if (className == null || SynchronizedStack.class.getName().equals(className)) {
+            return new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, limit);
+        }
+        try {
+            Class<?> clazz = Class.forName(className);
+            return (ObjectCache<T>) clazz.getConstructor(int.class).newInstance(Integer.valueOf(limit));
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException(
+                    sm.getString("endpoint.objectCache.invalid", className), e);
+        }
+    }
+
+
+    public long getProcessorCacheHitCount() {
+        ObjectCache<?> cache = processorCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getProcessorCacheMissCount() {
+        ObjectCache<?> cache = processorCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getProcessorCacheOverflowCount() {
+        ObjectCache<?> cache = processorCache;
+        return cache == null ? 0 : cache.getOverflowCount();
+    }
+
+
     /**
      * Has the user requested that send file be used where possible?
      */
@@ -506,6 +564,66 @@ public abstract class AbstractEndpoint<S> {
         return -1;
     }
 
+
+    /**
+     * Admission control applied to new connections and requests.
+     */
+    private final AdmissionControl admissionControl = new AdmissionControl();
+    public AdmissionControl getAdmissionControl() { return admissionControl; }
+
+    public String getPriorityAddresses() {
+        return admissionControl.getPriorityAddresses();
+    }
+    public void setPriorityAddresses(String priorityAddresses) {
+        admissionControl.setPriorityAddresses(priorityAddresses);
+    }
+
+    public String getPriorityRequests() {
+        return admissionControl.getPriorityRequests();
+    }
+    public void setPriorityRequests(String priorityRequests) {
+        admissionControl.setPriorityRequests(priorityRequests);
+    }
+
+    public int getReservedConnections() {
+        return admissionControl.getReservedConnections();
+    }
+    public void setReservedConnections(int reservedConnections) {
+        admissionControl.setReservedConnections(reservedConnections);
+    }
+
+    public long getShedQueueDelay() {
+        return admissionControl.getShedQueueDelay();
+    }
+    public void setShedQueueDelay(long shedQueueDelay) {
+        admissionControl.setShedQueueDelay(shedQueueDelay);
+    }
+
+    public double getQueueDelay() { return admissionControl.getQueueDelay(); }
+    public int getQueuedCount() { return admissionControl.getQueuedCount(); }
+    public long getPriorityConnectionCount() {
+        return admissionControl.getPriorityConnectionCount();
+    }
+    public long getShedConnectionCount() { return admissionControl.getShedConnectionCount(); }
+    public long getPriorityRequestCount() { return admissionControl.getPriorityRequestCount(); }
+    public long getShedRequestCount() { return admissionControl.getShedRequestCount(); }
+    public void resetAdmissionStatistics() { admissionControl.resetStatistics(); }
+
+
+    /**
+     * Determine whether a newly accepted connection should be processed given
+     * the current number of connections and any configured reservation for
+     * priority addresses.
+     *
+     * @param address The remote address of the connection, if known
+     *
+     * @return <code>true</code> if the connection should be processed or
+     *         <code>false</code> if it should be closed
+     */
+    protected boolean admitConnection(InetAddress address) {
+        return admissionControl.admitConnection(address, getConnectionCount(), getMaxConnections());
+    }
+
     /**
      * 协议处理器的执行器对象
      */
@@ -525,6 +643,17 @@ public abstract class AbstractEndpoint<S> {
     public Executor getExecutor() { return executor; }
 
 
+    /**
+     * Should the internal executor run each task on a new virtual thread
+     * rather than using a thread pool? Requires Java 21 or later. When
+     * enabled, maxThreads is ignored and maxConnections is the only limit on
+     * concurrency. Ignored if an external executor is configured.
+     */
+    private boolean useVirtualThreads = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) { this.useVirtualThreads = useVirtualThreads; }
+    public boolean getUseVirtualThreads() { return useVirtualThreads; }
+
+
     /**
      * Server socket port.
      */
@@ -898,6 +1027,8 @@ public abstract class AbstractEndpoint<S> {
         if (executor != null) {
             if (executor instanceof ThreadPoolExecutor) {
                 return ((ThreadPoolExecutor) executor).getPoolSize();
+            } else if (executor instanceof VirtualThreadExecutor) {
+                return ((VirtualThreadExecutor) executor).getActiveCount();
             } else if (executor instanceof ResizableExecutor) {
                 return ((ResizableExecutor) executor).getPoolSize();
             } else {
@@ -918,6 +1049,8 @@ public abstract class AbstractEndpoint<S> {
         if (executor != null) {
             if (executor instanceof ThreadPoolExecutor) {
                 return ((ThreadPoolExecutor) executor).getActiveCount();
+            } else if (executor instanceof VirtualThreadExecutor) {
+                return ((VirtualThreadExecutor) executor).getActiveCount();
             } else if (executor instanceof ResizableExecutor) {
                 return ((ResizableExecutor) executor).getActiveCount();
             } else {
@@ -939,6 +1072,13 @@ public abstract class AbstractEndpoint<S> {
 
     public void createExecutor() {
         internalExecutor = true;
+        if (getUseVirtualThreads()) {
+            if (VirtualThreadExecutor.isSupported()) {
+                executor = new VirtualThreadExecutor(getName() + "-virt-");
+                return;
+            }
+            getLog().warn(sm.getString("endpoint.virtualThreads.notSupported", getName()));
+        }
         TaskQueue taskqueue = new TaskQueue();
         TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
@@ -966,6 +1106,20 @@ public abstract class AbstractEndpoint<S> {
                 }
                 TaskQueue queue = (TaskQueue) tpe.getQueue();
                 queue.setParent(null);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+                vte.shutdown();
+                long timeout = getExecutorTerminationTimeoutMillis();
+                if (timeout > 0) {
+                    try {
+                        vte.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    if (!vte.isTerminated()) {
+                        getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                    }
+                }
             }
         }
     }
@@ -1113,6 +1267,7 @@ public abstract class AbstractEndpoint<S> {
      */
     public boolean processSocket(SocketWrapperBase<S> socketWrapper,
             SocketEvent event, boolean dispatch) {
+        boolean queued = false;
         try {
             if (socketWrapper == null) {
                 return false;
@@ -1123,14 +1278,22 @@ public abstract class AbstractEndpoint<S> {
             } else {
                 sc.reset(socketWrapper, event);
             }
-            Executor executor = getExecutor();
+            Executor executor = getProcessorExecutor(socketWrapper);
             if (dispatch && executor != null) {
+                if (admissionControl.isTrackingQueueDelay()) {
+                    sc.setQueuedTime(System.nanoTime());
+                    admissionControl.queued();
+                    queued = true;
+                }
                 executor.execute(sc);
             } else {
                 sc.run();
             }
         } catch (RejectedExecutionException ree) {
-            getLog().warn(sm.getString("endpoint.executor.fail", socketWrapper) , ree);
+            if (queued) {
+                admissionControl.abandoned();
+            }
+            logRejectedSocket(socketWrapper, ree);
             return false;
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
@@ -1147,6 +1310,33 @@ public abstract class AbstractEndpoint<S> {
             SocketWrapperBase<S> socketWrapper, SocketEvent event);
 
 
+    /**
+     * Log the rejection of a socket by the executor it was dispatched to. The
+     * caller will close the socket.
+     *
+     * @param socketWrapper The socket that was rejected
+     * @param ree           The exception thrown by the executor
+     */
+    protected void logRejectedSocket(SocketWrapperBase<S> socketWrapper,
+            RejectedExecutionException ree) {
+        getLog().warn(sm.getString("endpoint.executor.fail", socketWrapper) , ree);
+    }
+
+
+    /**
+     * Obtain the executor that should be used to process the next event for
+     * the given socket when that processing is dispatched to a container
+     * thread. By default this is the worker executor for every socket.
+     *
+     * @param socketWrapper The socket for which an event is to be processed
+     *
+     * @return The executor to use
+     */
+    protected Executor getProcessorExecutor(SocketWrapperBase<S> socketWrapper) {
+        return getExecutor();
+    }
+
+
     // ------------------------------------------------------- Lifecycle methods
 
     /*
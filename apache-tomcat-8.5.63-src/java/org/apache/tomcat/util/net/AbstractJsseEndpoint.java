@@ -24,6 +24,13 @@ import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLParameters;
@@ -31,6 +38,7 @@ import javax.net.ssl.SSLParameters;
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.openssl.OpenSSLImplementation;
 import org.apache.tomcat.util.net.openssl.ciphers.Cipher;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
 
@@ -42,6 +50,26 @@ public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
 
     private SSLImplementation sslImplementation = null;
 
+    /**
+     * The number of threads dedicated to TLS handshakes. If zero or less,
+     * handshakes are performed by the worker threads.
+     */
+    private int handshakeThreads = 0;
+
+    /**
+     * The maximum number of connections that may be waiting for a handshake
+     * thread. Connections that arrive when the queue is full are closed.
+     */
+    private int maxHandshakeQueueSize = 1000;
+
+    private volatile ThreadPoolExecutor handshakeExecutor = null;
+
+    private final AtomicLong handshakeCount = new AtomicLong();
+    private final AtomicLong handshakeFailureCount = new AtomicLong();
+    private final AtomicLong handshakeRejectedCount = new AtomicLong();
+    private final AtomicLong handshakeTime = new AtomicLong();
+    private volatile long maxHandshakeTime = 0;
+
     public String getSslImplementationName() {
         return sslImplementationName;
     }
@@ -71,6 +99,224 @@ public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
     }
 
 
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+
+    public void setHandshakeThreads(int handshakeThreads) {
+        this.handshakeThreads = handshakeThreads;
+    }
+
+
+    public int getMaxHandshakeQueueSize() {
+        return maxHandshakeQueueSize;
+    }
+
+
+    public void setMaxHandshakeQueueSize(int maxHandshakeQueueSize) {
+        this.maxHandshakeQueueSize = maxHandshakeQueueSize;
+    }
+
+
+    /**
+     * @return the number of TLS handshakes that have completed successfully
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+
+    /**
+     * @return the number of TLS handshakes that have failed
+     */
+    public long getHandshakeFailureCount() {
+        return handshakeFailureCount.get();
+    }
+
+
+    /**
+     * @return the number of connections that were closed because the
+     *         handshake queue was full
+     */
+    public long getHandshakeRejectedCount() {
+        return handshakeRejectedCount.get();
+    }
+
+
+    /**
+     * @return the total time, in milliseconds, spent completing successful
+     *         TLS handshakes, measured from the first handshake attempt to the
+     *         point where the handshake completes
+     */
+    public long getHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(handshakeTime.get());
+    }
+
+
+    /**
+     * @return the longest time, in milliseconds, taken to complete a TLS
+     *         handshake
+     */
+    public long getMaxHandshakeTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHandshakeTime);
+    }
+
+
+    /**
+     * @return the number of connections waiting for a handshake thread or -1
+     *         if dedicated handshake threads are not in use
+     */
+    public int getHandshakeQueueSize() {
+        ThreadPoolExecutor executor = handshakeExecutor;
+        if (executor == null) {
+            return -1;
+        }
+        return executor.getQueue().size();
+    }
+
+
+    /**
+     * @return the number of handshake threads currently performing a handshake
+     *         or -1 if dedicated handshake threads are not in use
+     */
+    public int getHandshakeActiveCount() {
+        ThreadPoolExecutor executor = handshakeExecutor;
+        if (executor == null) {
+            return -1;
+        }
+        return executor.getActiveCount();
+    }
+
+
+    /**
+     * @return the executor used for TLS handshakes or <code>null</code> if
+     *         handshakes are performed by the worker threads
+     */
+    public Executor getHandshakeExecutor() {
+        return handshakeExecutor;
+    }
+
+
+    public void resetHandshakeStatistics() {
+        handshakeCount.set(0);
+        handshakeFailureCount.set(0);
+        handshakeRejectedCount.set(0);
+        handshakeTime.set(0);
+        maxHandshakeTime = 0;
+    }
+
+
+    /**
+     * Record the successful completion of a TLS handshake.
+     *
+     * @param startTime The value of {@link System#nanoTime()} when the
+     *                  handshake started
+     */
+    protected void handshakeCompleted(long startTime) {
+        long time = System.nanoTime() - startTime;
+        handshakeCount.incrementAndGet();
+        handshakeTime.addAndGet(time);
+        // Racy but a lost update only affects a statistic
+        if (time > maxHandshakeTime) {
+            maxHandshakeTime = time;
+        }
+    }
+
+
+    /**
+     * Record the failure of a TLS handshake.
+     */
+    protected void handshakeFailed() {
+        handshakeFailureCount.incrementAndGet();
+    }
+
+
+    /**
+     * Create the executor used for TLS handshakes if TLS is enabled and
+     * dedicated handshake threads have been configured. The executor has a
+     * fixed number of threads and a bounded queue so a flood of new TLS
+     * connections can neither occupy all the worker threads nor queue without
+     * limit.
+     */
+    protected void createHandshakeExecutor() {
+        if (!isSSLEnabled() || handshakeThreads <= 0) {
+            return;
+        }
+        TaskThreadFactory tf = new TaskThreadFactory(
+                getName() + "-handshake-", getDaemon(), getThreadPriority());
+        int queueSize = maxHandshakeQueueSize > 0 ? maxHandshakeQueueSize : Integer.MAX_VALUE;
+        handshakeExecutor = new ThreadPoolExecutor(handshakeThreads, handshakeThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize), tf,
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        handshakeRejectedCount.incrementAndGet();
+                        throw new HandshakeQueueFullException();
+                    }
+                });
+    }
+
+
+    protected void shutdownHandshakeExecutor() {
+        ThreadPoolExecutor executor = handshakeExecutor;
+        if (executor != null) {
+            handshakeExecutor = null;
+            executor.shutdownNow();
+            long timeout = getExecutorTerminationTimeoutMillis();
+            if (timeout > 0) {
+                try {
+                    executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                if (!executor.isTerminated()) {
+                    getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sockets that have not yet completed the TLS handshake are processed by
+     * the dedicated handshake executor, if one is configured.
+     */
+    @Override
+    protected Executor getProcessorExecutor(SocketWrapperBase<S> socketWrapper) {
+        Executor executor = handshakeExecutor;
+        if (executor != null && !isHandshakeComplete(socketWrapper)) {
+            return executor;
+        }
+        return super.getProcessorExecutor(socketWrapper);
+    }
+
+
+    protected abstract boolean isHandshakeComplete(SocketWrapperBase<S> socketWrapper);
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Rejections caused by a full handshake queue are expected under load (they
+     * are how the queue limit is enforced) and are already counted so they are
+     * only logged at debug level.
+     */
+    @Override
+    protected void logRejectedSocket(SocketWrapperBase<S> socketWrapper,
+            RejectedExecutionException ree) {
+        if (ree instanceof HandshakeQueueFullException) {
+            if (getLog().isDebugEnabled()) {
+                getLog().debug(sm.getString("endpoint.handshake.rejected", socketWrapper));
+            }
+        } else {
+            super.logRejectedSocket(socketWrapper, ree);
+        }
+    }
+
+
     protected void initialiseSsl() throws Exception {
         if (isSSLEnabled()) {
             sslImplementation = SSLImplementation.getInstance(getSslImplementationName());
@@ -91,6 +337,8 @@ public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
 
     @Override
     protected void createSSLContext(SSLHostConfig sslHostConfig) throws IllegalArgumentException {
+        // Any existing contexts are being replaced
+        sslHostConfig.unregisterSessionContexts();
         boolean firstCertificate = true;
         for (SSLHostConfigCertificate certificate : sslHostConfig.getCertificates(true)) {
             SSLUtil sslUtil = sslImplementation.getSSLUtil(certificate);
@@ -109,6 +357,7 @@ public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
 
             certificate.setSslContext(sslContext);
         }
+        sslHostConfig.registerSessionContexts();
     }
 
 
@@ -270,4 +519,23 @@ public abstract class AbstractJsseEndpoint<S> extends AbstractEndpoint<S> {
         }
         return null;
     }
+
+
+    private static class HandshakeQueueFullException extends RejectedExecutionException {
+
+        private static final long serialVersionUID = 1L;
+
+        public HandshakeQueueFullException() {
+            super(sm.getString("endpoint.handshake.queueFull"));
+        }
+
+        /*
+         * Thrown once per rejected connection during a handshake flood. The
+         * stack trace is never used so don't pay for it.
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
 }
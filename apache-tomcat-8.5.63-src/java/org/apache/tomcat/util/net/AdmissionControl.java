@@ -0,0 +1,471 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Admission control for an endpoint. This sits in front of the connection
+ * limit enforced by the {@link org.apache.tomcat.util.threads.LimitLatch} and
+ * allows an endpoint under load to keep serving priority traffic, such as load
+ * balancer health checks, rather than simply refusing all new work.
+ * <p>
+ * Two mechanisms are provided:
+ * <ul>
+ * <li>Reserved connections. Once the number of connections reaches
+ *     <code>maxConnections - reservedConnections</code> only connections from
+ *     a priority address are accepted. Other connections are closed
+ *     immediately after they are accepted rather than left waiting in the
+ *     accept queue.</li>
+ * <li>Request shedding. The time sockets spend waiting for a container thread
+ *     after they have been dispatched is tracked. While the minimum wait over
+ *     the last interval exceeds the shedding threshold, i.e. there is a
+ *     standing queue rather than a short burst, requests that are neither from
+ *     a priority address nor for a priority host and/or path are rejected with
+ *     a 503 response before they are passed to the container.</li>
+ * </ul>
+ * Priority addresses are configured as a comma separated list of IPv4 and/or
+ * IPv6 addresses in CIDR notation. Priority requests are configured as a comma
+ * separated list of entries of the form <code>host</code>,
+ * <code>host/path-prefix</code> or <code>/path-prefix</code>.
+ */
+public class AdmissionControl {
+
+    private static final StringManager sm = StringManager.getManager(AdmissionControl.class);
+
+    /*
+     * The weight given to each new queue delay sample in the reported average.
+     */
+    private static final double ALPHA = 0.1;
+
+    /*
+     * The interval over which the minimum queue delay is measured.
+     */
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private volatile String priorityAddresses = null;
+    private volatile Cidr[] priorityCidrs = new Cidr[0];
+    private volatile String priorityRequests = null;
+    private volatile RequestPattern[] priorityPatterns = new RequestPattern[0];
+    private volatile int reservedConnections = 0;
+    private volatile long shedQueueDelay = -1;
+    private volatile long shedQueueDelayNanos = -1;
+
+    private volatile double queueDelay = 0;
+    private volatile long intervalStart = System.nanoTime();
+    private volatile long intervalMinDelay = Long.MAX_VALUE;
+    private volatile long lastMinDelay = 0;
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicLong priorityConnectionCount = new AtomicLong();
+    private final AtomicLong shedConnectionCount = new AtomicLong();
+    private final AtomicLong priorityRequestCount = new AtomicLong();
+    private final AtomicLong shedRequestCount = new AtomicLong();
+
+
+    // ------------------------------------------------------------- Properties
+
+    public String getPriorityAddresses() {
+        return priorityAddresses;
+    }
+
+
+    /**
+     * Set the addresses from which connections and requests are always
+     * admitted.
+     *
+     * @param priorityAddresses A comma separated list of addresses in CIDR
+     *                          notation
+     *
+     * @throws IllegalArgumentException if any of the entries is not a valid
+     *         IP address or CIDR netmask
+     */
+    public void setPriorityAddresses(String priorityAddresses) {
+        List<Cidr> cidrs = new ArrayList<>();
+        if (priorityAddresses != null) {
+            for (String entry : priorityAddresses.split(",")) {
+                entry = entry.trim();
+                if (entry.length() > 0) {
+                    cidrs.add(new Cidr(entry));
+                }
+            }
+        }
+        this.priorityCidrs = cidrs.toArray(new Cidr[0]);
+        this.priorityAddresses = priorityAddresses;
+    }
+
+
+    public String getPriorityRequests() {
+        return priorityRequests;
+    }
+
+
+    /**
+     * Set the requests that are always admitted.
+     *
+     * @param priorityRequests A comma separated list of entries of the form
+     *                         <code>host</code>, <code>host/path-prefix</code>
+     *                         or <code>/path-prefix</code>
+     */
+    public void setPriorityRequests(String priorityRequests) {
+        List<RequestPattern> patterns = new ArrayList<>();
+        if (priorityRequests != null) {
+            for (String entry : priorityRequests.split(",")) {
+                entry = entry.trim();
+                if (entry.length() > 0) {
+                    patterns.add(new RequestPattern(entry));
+                }
+            }
+        }
+        this.priorityPatterns = patterns.toArray(new RequestPattern[0]);
+        this.priorityRequests = priorityRequests;
+    }
+
+
+    public int getReservedConnections() {
+        return reservedConnections;
+    }
+
+
+    /**
+     * Set the number of connections, out of <code>maxConnections</code>, that
+     * are reserved for priority addresses.
+     *
+     * @param reservedConnections The number of reserved connections. Zero or
+     *                            less disables the reservation.
+     */
+    public void setReservedConnections(int reservedConnections) {
+        this.reservedConnections = reservedConnections;
+    }
+
+
+    public long getShedQueueDelay() {
+        return shedQueueDelay;
+    }
+
+
+    /**
+     * Set the time, in milliseconds, that dispatched sockets may consistently
+     * wait for a container thread before requests that do not have priority
+     * are rejected.
+     *
+     * @param shedQueueDelay The threshold in milliseconds. Zero or less
+     *                       disables request shedding.
+     */
+    public void setShedQueueDelay(long shedQueueDelay) {
+        this.shedQueueDelay = shedQueueDelay;
+        this.shedQueueDelayNanos = shedQueueDelay > 0 ?
+                TimeUnit.MILLISECONDS.toNanos(shedQueueDelay) : -1;
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+    /**
+     * @return the average time, in milliseconds, that dispatched sockets wait
+     *         for a container thread. Only tracked when request shedding is
+     *         enabled.
+     */
+    public double getQueueDelay() {
+        return queueDelay / 1000000.0;
+    }
+
+
+    /**
+     * @return the number of dispatched sockets waiting for a container thread.
+     *         Only tracked when request shedding is enabled.
+     */
+    public int getQueuedCount() {
+        return queuedCount.get();
+    }
+
+
+    /**
+     * @return the number of connections from priority addresses that were
+     *         accepted using the reserved connections
+     */
+    public long getPriorityConnectionCount() {
+        return priorityConnectionCount.get();
+    }
+
+
+    /**
+     * @return the number of connections that were closed because only the
+     *         reserved connections were available
+     */
+    public long getShedConnectionCount() {
+        return shedConnectionCount.get();
+    }
+
+
+    /**
+     * @return the number of priority requests that were admitted while
+     *         requests were being shed
+     */
+    public long getPriorityRequestCount() {
+        return priorityRequestCount.get();
+    }
+
+
+    /**
+     * @return the number of requests rejected with a 503 response
+     */
+    public long getShedRequestCount() {
+        return shedRequestCount.get();
+    }
+
+
+    public void resetStatistics() {
+        priorityConnectionCount.set(0);
+        shedConnectionCount.set(0);
+        priorityRequestCount.set(0);
+        shedRequestCount.set(0);
+    }
+
+
+    // ----------------------------------------------------------------- Logic
+
+    /**
+     * @return <code>true</code> if the time sockets spend waiting for a
+     *         container thread needs to be tracked
+     */
+    public boolean isTrackingQueueDelay() {
+        return shedQueueDelayNanos > 0;
+    }
+
+
+    /**
+     * @return <code>true</code> if requests that do not have priority are
+     *         currently being rejected
+     */
+    public boolean isShedding() {
+        long threshold = shedQueueDelayNanos;
+        if (threshold <= 0 || lastMinDelay <= threshold) {
+            return false;
+        }
+        // Without recent samples there is no evidence of a queue
+        return System.nanoTime() - intervalStart < 2 * INTERVAL;
+    }
+
+
+    /**
+     * Record that a socket has been dispatched to a container thread.
+     */
+    public void queued() {
+        queuedCount.incrementAndGet();
+    }
+
+
+    /**
+     * Record that a dispatched socket has started processing on a container
+     * thread.
+     *
+     * @param delay The time, in nanoseconds, that the socket waited
+     */
+    public void dequeued(long delay) {
+        queuedCount.decrementAndGet();
+        // The updates below are racy but a lost update only affects the
+        // accuracy of the statistics
+        queueDelay += (delay - queueDelay) * ALPHA;
+        long now = System.nanoTime();
+        if (now - intervalStart > INTERVAL) {
+            long min = intervalMinDelay;
+            // Include the new sample so that a socket that did not have to wait
+            // ends shedding straight away after an idle period
+            lastMinDelay = (min == Long.MAX_VALUE) ? 0 : Math.min(min, delay);
+            intervalMinDelay = delay;
+            intervalStart = now;
+        } else if (delay < intervalMinDelay) {
+            intervalMinDelay = delay;
+        }
+    }
+
+
+    /**
+     * Record that a dispatched socket was not processed, e.g. because the
+     * executor rejected it.
+     */
+    public void abandoned() {
+        queuedCount.decrementAndGet();
+    }
+
+
+    /**
+     * Determine whether a newly accepted connection should be processed.
+     *
+     * @param address           The remote address of the connection, if known
+     * @param connectionCount   The current number of connections, including
+     *                          the new one
+     * @param maxConnections    The maximum number of connections
+     *
+     * @return <code>true</code> if the connection should be processed or
+     *         <code>false</code> if it should be closed
+     */
+    public boolean admitConnection(InetAddress address, long connectionCount, int maxConnections) {
+        int reserved = reservedConnections;
+        if (reserved <= 0 || maxConnections <= 0 || connectionCount <= maxConnections - reserved) {
+            return true;
+        }
+        if (isPriorityAddress(address)) {
+            priorityConnectionCount.incrementAndGet();
+            return true;
+        }
+        shedConnectionCount.incrementAndGet();
+        return false;
+    }
+
+
+    /**
+     * Determine whether a request should be passed to the container while
+     * requests are being shed (see {@link #isShedding()}).
+     *
+     * @param remoteAddress The remote IP address of the request
+     * @param host          The host the request is for
+     * @param path          The undecoded request URI
+     *
+     * @return <code>true</code> if the request should be processed or
+     *         <code>false</code> if it should be rejected
+     */
+    public boolean admitRequest(String remoteAddress, String host, String path) {
+        if (isPriorityRequest(host, path) || isPriorityAddress(remoteAddress)) {
+            priorityRequestCount.incrementAndGet();
+            return true;
+        }
+        shedRequestCount.incrementAndGet();
+        return false;
+    }
+
+
+    private boolean isPriorityAddress(String address) {
+        if (address == null || priorityCidrs.length == 0) {
+            return false;
+        }
+        try {
+            // Only ever called with IP addresses so no look-up is performed
+            return isPriorityAddress(InetAddress.getByName(address));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+
+    private boolean isPriorityAddress(InetAddress address) {
+        if (address == null) {
+            return false;
+        }
+        for (Cidr cidr : priorityCidrs) {
+            if (cidr.matches(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private boolean isPriorityRequest(String host, String path) {
+        for (RequestPattern pattern : priorityPatterns) {
+            if (pattern.matches(host, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static class Cidr {
+
+        private final byte[] network;
+        private final int prefix;
+
+        Cidr(String spec) {
+            int slash = spec.indexOf('/');
+            String address = slash == -1 ? spec : spec.substring(0, slash);
+            try {
+                network = InetAddress.getByName(address).getAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(
+                        sm.getString("admissionControl.invalidAddress", spec), e);
+            }
+            if (slash == -1) {
+                prefix = network.length * 8;
+            } else {
+                try {
+                    prefix = Integer.parseInt(spec.substring(slash + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(
+                            sm.getString("admissionControl.invalidAddress", spec), e);
+                }
+                if (prefix < 0 || prefix > network.length * 8) {
+                    throw new IllegalArgumentException(
+                            sm.getString("admissionControl.invalidAddress", spec));
+                }
+            }
+        }
+
+        boolean matches(InetAddress address) {
+            byte[] candidate = address.getAddress();
+            if (candidate.length != network.length) {
+                return false;
+            }
+            int bytes = prefix / 8;
+            for (int i = 0; i < bytes; i++) {
+                if (candidate[i] != network[i]) {
+                    return false;
+                }
+            }
+            int bits = prefix % 8;
+            if (bits == 0) {
+                return true;
+            }
+            int mask = (0xFF << (8 - bits)) & 0xFF;
+            return (candidate[bytes] & mask) == (network[bytes] & mask);
+        }
+    }
+
+
+    private static class RequestPattern {
+
+        private final String host;
+        private final String path;
+
+        RequestPattern(String spec) {
+            int slash = spec.indexOf('/');
+            if (slash == -1) {
+                host = spec.toLowerCase(Locale.ENGLISH);
+                path = null;
+            } else {
+                host = slash == 0 ? null : spec.substring(0, slash).toLowerCase(Locale.ENGLISH);
+                path = spec.substring(slash);
+            }
+        }
+
+        boolean matches(String host, String path) {
+            if (this.host != null && (host == null || !this.host.equalsIgnoreCase(host))) {
+                return false;
+            }
+            return this.path == null || (path != null && path.startsWith(this.path));
+        }
+    }
+}
@@ -56,7 +56,6 @@ import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.jni.Status;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
-import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.openssl.OpenSSLContext;
@@ -399,6 +398,8 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
 
     @Override
     protected void createSSLContext(SSLHostConfig sslHostConfig) throws Exception {
+        // Any existing contexts are being replaced
+        sslHostConfig.unregisterSessionContexts();
         OpenSSLContext sslContext = null;
         Set<SSLHostConfigCertificate> certificates = sslHostConfig.getCertificates(true);
         for (SSLHostConfigCertificate certificate : certificates) {
@@ -426,6 +427,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             // TODO: Can this limitation be removed?
             throw new Exception(sm.getString("endpoint.apr.tooManyCertFiles"));
         }
+        sslHostConfig.registerSessionContexts();
     }
 
 
@@ -461,8 +463,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getProcessorCache());
+            processorCache = createObjectCache(socketProperties.getProcessorCache());
 
             // Create worker collection
             if (getExecutor() == null) {
@@ -19,6 +19,7 @@ package org.apache.tomcat.util.net;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
@@ -43,7 +44,7 @@ import javax.net.ssl.SSLEngine;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
-import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.collections.ObjectCache;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
 
@@ -81,7 +82,7 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
-    private SynchronizedStack<Nio2Channel> nioChannels;
+    private ObjectCache<Nio2Channel> nioChannels;
 
 
     public Nio2Endpoint() {
@@ -97,6 +98,21 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         this.socketProperties = socketProperties;
     }
 
+    public long getBufferPoolHitCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getBufferPoolMissCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getBufferPoolOverflowCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getOverflowCount();
+    }
+
     /**
      * Is deferAccept supported?
      */
@@ -169,15 +185,14 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getProcessorCache());
-            nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getBufferPool());
+            processorCache = createObjectCache(socketProperties.getProcessorCache());
+            nioChannels = createObjectCache(socketProperties.getBufferPool());
 
             // Create worker collection
             if ( getExecutor() == null ) {
                 createExecutor();
             }
+            createHandshakeExecutor();
 
             initializeConnectionLatch();
             startAcceptorThreads();
@@ -214,6 +229,7 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     }
                 }
             });
+            shutdownHandshakeExecutor();
             nioChannels.clear();
             processorCache.clear();
         }
@@ -410,9 +426,10 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     if (running && !paused) {
                         // setSocketOptions() will hand the socket off to
                         // an appropriate processor if successful
-                        if (!setSocketOptions(socket)) {
+                        if (!admitConnection(getRemoteAddress(socket)) ||
+                                !setSocketOptions(socket)) {
                             closeSocket(socket);
-                       }
+                        }
                     } else {
                         closeSocket(socket);
                     }
@@ -425,6 +442,19 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         }
 
 
+        private InetAddress getRemoteAddress(AsynchronousSocketChannel socket) {
+            try {
+                SocketAddress address = socket.getRemoteAddress();
+                if (address instanceof InetSocketAddress) {
+                    return ((InetSocketAddress) address).getAddress();
+                }
+            } catch (IOException ioe) {
+                // Ignore
+            }
+            return null;
+        }
+
+
         private void closeSocket(AsynchronousSocketChannel socket) {
             countDownConnection();
             try {
@@ -1562,6 +1592,13 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
     }
 
 
+    @Override
+    protected boolean isHandshakeComplete(SocketWrapperBase<Nio2Channel> socketWrapper) {
+        Nio2Channel socket = socketWrapper.getSocket();
+        return socket == null || socket.isHandshakeComplete();
+    }
+
+
     // ---------------------------------------------- SocketProcessor Inner Class
     /**
      * This class is the equivalent of the Worker, but will simply use in an
@@ -1578,6 +1615,7 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
             boolean launch = false;
             try {
                 int handshake = -1;
+                boolean handshaking = false;
 
                 try {
                     if (socketWrapper.getSocket().isHandshakeComplete()) {
@@ -1588,8 +1626,10 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                             event == SocketEvent.ERROR) {
                         // Unable to complete the TLS handshake. Treat it as
                         // if the handshake failed.
+                        handshaking = true;
                         handshake = -1;
                     } else {
+                        handshaking = true;
                         handshake = socketWrapper.getSocket().handshake();
                         // The handshake process reads/writes from/to the
                         // socket. status may therefore be OPEN_WRITE once
@@ -1606,6 +1646,15 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                         log.debug(sm.getString("endpoint.err.handshake"), x);
                     }
                 }
+                if (handshaking && handshake == 0 && getHandshakeExecutor() != null) {
+                    // This is a handshake thread. Hand the connection back to
+                    // the worker threads to process the first request.
+                    if (processSocket(socketWrapper, event, true)) {
+                        return;
+                    }
+                    handshaking = false;
+                    handshake = -1;
+                }
                 if (handshake == 0) {
                     SocketState state = SocketState.OPEN;
                     // Process the request from this socket
@@ -1626,6 +1675,9 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                         launch = true;
                     }
                 } else if (handshake == -1 ) {
+                    if (handshaking) {
+                        handshakeFailed();
+                    }
                     getHandler().process(socketWrapper, SocketEvent.CONNECT_FAIL);
                     socketWrapper.close();
                     if (running && !paused) {
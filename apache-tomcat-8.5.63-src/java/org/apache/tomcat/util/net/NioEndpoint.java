@@ -35,8 +35,10 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -49,8 +51,10 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.ObjectCache;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
-import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.collections.TimeoutWheel;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
 
@@ -78,6 +82,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
 
     public static final int OP_REGISTER = 0x100; //register interest op
+    private static final int OP_TIMEOUT = 0x200; //re-calculate timeout op
+
+    private static final int TIMEOUT_WHEEL_SLOTS = 512;
 
     // ----------------------------------------------------------------- Fields
 
@@ -91,6 +98,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private volatile ServerSocketChannel serverSock = null;
 
+    /**
+     * Server socket channels, one per acceptor, bound to the same address with
+     * SO_REUSEPORT. <code>null</code> unless {@link #getReusePort()} is enabled
+     * and supported, in which case the first entry is {@link #serverSock}.
+     */
+    private volatile ServerSocketChannel[] reusePortServerSocks = null;
+    private final AtomicInteger acceptorCounter = new AtomicInteger(0);
+
     /**
      * 停止计数器  初始计数值为轮训器的数量 默认为2
      */
@@ -99,12 +114,20 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     /**
      * Cache for poller events
      */
-    private SynchronizedStack<PollerEvent> eventCache;
+    private ObjectCache<PollerEvent> eventCache;
 
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
-    private SynchronizedStack<NioChannel> nioChannels;
+    private ObjectCache<NioChannel> nioChannels;
+
+    /**
+     * Pools for the application socket buffers. Only used if
+     * {@link #getUseSocketBufferPool()} is <code>true</code>. If the read and
+     * write buffers are the same size, a single pool is used for both.
+     */
+    private volatile SocketBufferPool readBufferPool = null;
+    private volatile SocketBufferPool writeBufferPool = null;
 
 
     // ------------------------------------------------------------- Properties
@@ -143,6 +166,25 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void setPollerThreadPriority(int pollerThreadPriority) { this.pollerThreadPriority = pollerThreadPriority; }
     public int getPollerThreadPriority() { return pollerThreadPriority; }
 
+    /**
+     * Should the application socket buffers be obtained from a shared pool
+     * when required and returned to it while the connection is idle between
+     * requests rather than each connection holding its own buffers for its
+     * entire life?
+     */
+    private boolean useSocketBufferPool = false;
+    public void setUseSocketBufferPool(boolean useSocketBufferPool) { this.useSocketBufferPool = useSocketBufferPool; }
+    public boolean getUseSocketBufferPool() { return useSocketBufferPool; }
+
+    /**
+     * The maximum number of bytes to allocate for each socket buffer pool.
+     * Once this limit is reached, buffers are allocated per connection as if
+     * the pool was not in use. -1 means unlimited.
+     */
+    private long socketBufferPoolMaxSize = 64 * 1024 * 1024;
+    public void setSocketBufferPoolMaxSize(long socketBufferPoolMaxSize) { this.socketBufferPoolMaxSize = socketBufferPoolMaxSize; }
+    public long getSocketBufferPoolMaxSize() { return socketBufferPoolMaxSize; }
+
     /**
      * 轮训器线程数量  2个
      */
@@ -150,6 +192,16 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Bind one server socket per acceptor thread using SO_REUSEPORT so that the
+     * kernel distributes incoming connections across the acceptors. Requires
+     * Java 9 or later and platform support. If the acceptor thread count has
+     * not been raised above one, one acceptor per available processor is used.
+     */
+    private boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout) { this.selectorTimeout = timeout;}
     public long getSelectorTimeout() { return this.selectorTimeout; }
@@ -160,13 +212,26 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     private Poller[] pollers = null;
     private AtomicInteger pollerRotater = new AtomicInteger(0);
     /**
-     * Return an available poller in true round robin fashion.
+     * Return the poller currently managing the fewest sockets. Pollers are
+     * examined starting from a round robin position so that pollers with equal
+     * load are still used in turn.
      *
-     * @return The next poller in sequence
+     * @return The least loaded poller
      */
     public Poller getPoller0() {
-        int idx = Math.abs(pollerRotater.incrementAndGet()) % pollers.length;
-        return pollers[idx];
+        Poller[] pollers = this.pollers;
+        int start = (pollerRotater.incrementAndGet() & Integer.MAX_VALUE) % pollers.length;
+        Poller result = pollers[start];
+        int min = result.getSocketCount();
+        for (int i = 1; i < pollers.length && min > 0; i++) {
+            Poller poller = pollers[(start + i) % pollers.length];
+            int count = poller.getSocketCount();
+            if (count < min) {
+                result = poller;
+                min = count;
+            }
+        }
+        return result;
     }
 
 
@@ -174,6 +239,75 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         this.selectorPool = selectorPool;
     }
 
+    public long getEventCacheHitCount() {
+        ObjectCache<?> cache = eventCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getEventCacheMissCount() {
+        ObjectCache<?> cache = eventCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getEventCacheOverflowCount() {
+        ObjectCache<?> cache = eventCache;
+        return cache == null ? 0 : cache.getOverflowCount();
+    }
+
+    public long getBufferPoolHitCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    public long getBufferPoolMissCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    public long getBufferPoolOverflowCount() {
+        ObjectCache<?> cache = nioChannels;
+        return cache == null ? 0 : cache.getOverflowCount();
+    }
+
+    public long getSocketBufferPoolAllocatedSize() {
+        SocketBufferPool readPool = readBufferPool;
+        SocketBufferPool writePool = writeBufferPool;
+        long result = 0;
+        if (readPool != null) {
+            result += readPool.getAllocatedSize();
+        }
+        if (writePool != null && writePool != readPool) {
+            result += writePool.getAllocatedSize();
+        }
+        return result;
+    }
+
+    public int getSocketBufferPoolBorrowedCount() {
+        SocketBufferPool readPool = readBufferPool;
+        SocketBufferPool writePool = writeBufferPool;
+        int result = 0;
+        if (readPool != null) {
+            result += readPool.getBorrowedCount();
+        }
+        if (writePool != null && writePool != readPool) {
+            result += writePool.getBorrowedCount();
+        }
+        return result;
+    }
+
+    public long getSocketBufferPoolExhaustedCount() {
+        SocketBufferPool readPool = readBufferPool;
+        SocketBufferPool writePool = writeBufferPool;
+        long result = 0;
+        if (readPool != null) {
+            result += readPool.getExhaustedCount();
+        }
+        if (writePool != null && writePool != readPool) {
+            result += writePool.getExhaustedCount();
+        }
+        return result;
+    }
+
     public void setSocketProperties(SocketProperties socketProperties) {
         this.socketProperties = socketProperties;
     }
@@ -220,6 +354,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     @Override
     public void bind() throws Exception {
 
+        boolean useReusePort = false;
         if (!getUseInheritedChannel()) {//不适用继承的channel方法
             //打开一个服务器通道
             serverSock = ServerSocketChannel.open();
@@ -227,6 +362,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             socketProperties.setProperties(serverSock.socket());
             InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
 
+            if (getReusePort()) {
+                if (JreCompat.getInstance().isReusePortSupported(serverSock)) {
+                    JreCompat.getInstance().setReusePort(serverSock, true);
+                    useReusePort = true;
+                } else {
+                    log.warn(sm.getString("endpoint.nio.reusePortNotSupported", getName()));
+                }
+            }
+
             //设置serverSocketChannel绑定的端口号
             serverSock.socket().bind(addr,getAcceptCount());
         } else {
@@ -248,6 +392,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             // FIXME: Doesn't seem to work that well with multiple accept threads
             acceptorThreadCount = 1;
         }
+        if (useReusePort) {
+            if (acceptorThreadCount == 1) {
+                acceptorThreadCount = Runtime.getRuntime().availableProcessors();
+            }
+            bindReusePortServerSockets();
+        }
         if (pollerThreadCount <= 0) {
             //minimum one poller thread
             pollerThreadCount = 1;
@@ -263,6 +413,39 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * Open and bind the additional SO_REUSEPORT server sockets so that each
+     * acceptor has a listening socket of its own.
+     */
+    private void bindReusePortServerSockets() throws IOException {
+        // Use the address actually bound so this works for an ephemeral port
+        InetSocketAddress addr = (InetSocketAddress) serverSock.getLocalAddress();
+        ServerSocketChannel[] socks = new ServerSocketChannel[acceptorThreadCount];
+        socks[0] = serverSock;
+        try {
+            for (int i = 1; i < socks.length; i++) {
+                socks[i] = ServerSocketChannel.open();
+                socketProperties.setProperties(socks[i].socket());
+                JreCompat.getInstance().setReusePort(socks[i], true);
+                socks[i].socket().bind(addr, getAcceptCount());
+                socks[i].configureBlocking(true);
+            }
+        } catch (IOException ioe) {
+            for (int i = 1; i < socks.length; i++) {
+                if (socks[i] != null) {
+                    try {
+                        socks[i].close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+            throw ioe;
+        }
+        reusePortServerSocks = socks;
+    }
+
+
     /**
      * Start the NIO endpoint, creating acceptor, poller threads.
      */
@@ -273,17 +456,29 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getProcessorCache());
-            eventCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                            socketProperties.getEventCache());
-            nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getBufferPool());
+            processorCache = createObjectCache(socketProperties.getProcessorCache());
+            eventCache = createObjectCache(socketProperties.getEventCache());
+            nioChannels = createObjectCache(socketProperties.getBufferPool());
+
+            if (useSocketBufferPool) {
+                readBufferPool = new SocketBufferPool(socketProperties.getAppReadBufSize(),
+                        socketProperties.getDirectBuffer(), socketBufferPoolMaxSize);
+                if (socketProperties.getAppWriteBufSize() == socketProperties.getAppReadBufSize()) {
+                    writeBufferPool = readBufferPool;
+                } else {
+                    writeBufferPool = new SocketBufferPool(socketProperties.getAppWriteBufSize(),
+                            socketProperties.getDirectBuffer(), socketBufferPoolMaxSize);
+                }
+            } else {
+                readBufferPool = null;
+                writeBufferPool = null;
+            }
 
             // Create worker collection
             if (getExecutor() == null) {
                 createExecutor();
             }
+            createHandshakeExecutor();
 
             initializeConnectionLatch();
 
@@ -297,6 +492,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 pollerThread.start();
             }
 
+            acceptorCounter.set(0);
             startAcceptorThreads();
         }
     }
@@ -326,6 +522,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             } catch (InterruptedException e) {
                 log.warn(sm.getString("endpoint.nio.stopLatchAwaitInterrupted"), e);
             }
+            shutdownHandshakeExecutor();
             shutdownExecutor();
             eventCache.clear();
             nioChannels.clear();
@@ -364,6 +561,18 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
     @Override
     protected void doCloseServerSocket() throws IOException {
+        ServerSocketChannel[] socks = reusePortServerSocks;
+        reusePortServerSocks = null;
+        if (socks != null) {
+            // The first entry is serverSock which is closed below
+            for (int i = 1; i < socks.length; i++) {
+                try {
+                    socks[i].close();
+                } catch (IOException ioe) {
+                    log.warn(sm.getString("endpoint.serverSocket.closeFailed", getName()), ioe);
+                }
+            }
+        }
         if (!getUseInheritedChannel() && serverSock != null) {
             // Close server socket
             serverSock.socket().close();
@@ -391,7 +600,25 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
-        return new Acceptor();
+        return new Acceptor(acceptorCounter.getAndIncrement());
+    }
+
+
+    /**
+     * Obtain the server socket the given acceptor should accept connections
+     * from.
+     *
+     * @param acceptorIndex The index of the acceptor
+     *
+     * @return The acceptor's own server socket if SO_REUSEPORT is in use,
+     *         otherwise the single shared server socket
+     */
+    protected ServerSocketChannel getServerSocket(int acceptorIndex) {
+        ServerSocketChannel[] socks = reusePortServerSocks;
+        if (socks == null) {
+            return serverSock;
+        }
+        return socks[acceptorIndex % socks.length];
     }
 
 
@@ -422,10 +649,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
             NioChannel channel = nioChannels.pop();
             if (channel == null) {
-                SocketBufferHandler bufhandler = new SocketBufferHandler(
-                        socketProperties.getAppReadBufSize(),
-                        socketProperties.getAppWriteBufSize(),
-                        socketProperties.getDirectBuffer());
+                SocketBufferHandler bufhandler;
+                if (readBufferPool != null) {
+                    bufhandler = new SocketBufferHandler(readBufferPool, writeBufferPool);
+                } else {
+                    bufhandler = new SocketBufferHandler(
+                            socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize(),
+                            socketProperties.getDirectBuffer());
+                }
                 if (isSSLEnabled()) {
                     channel = new SecureNioChannel(socket, bufhandler, selectorPool, this);
                 } else {
@@ -469,6 +701,16 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final int index;
+
+        public Acceptor() {
+            this(0);
+        }
+
+        public Acceptor(int index) {
+            this.index = index;
+        }
+
         @Override
         public void run() {
 
@@ -500,7 +742,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept();
+                        socket = getServerSocket(index).accept();
                     } catch (IOException ioe) {
                         // We didn't get a socket
                         countDownConnection();
@@ -520,7 +762,8 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     if (running && !paused) {
                         // setSocketOptions() will hand the socket off to
                         // an appropriate processor if successful
-                        if (!setSocketOptions(socket)) {
+                        if (!admitConnection(socket.socket().getInetAddress()) ||
+                                !setSocketOptions(socket)) {
                             closeSocket(socket);
                         }
                     } else {
@@ -575,6 +818,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     log.debug("Socket: [" + socket + "] closed");
                 }
                 if (running && !paused) {
+                    if (readBufferPool != null) {
+                        // Don't hold pooled buffers while in the cache
+                        socket.getBufHandler().reset();
+                    }
                     if (!nioChannels.push(socket)) {
                         socket.free();
                     }
@@ -613,10 +860,13 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         @Override
         public void run() {
-            if (interestOps == OP_REGISTER) {
+            if (interestOps == OP_TIMEOUT) {
+                socketWrapper.getPoller().scheduleTimeout(socketWrapper);
+            } else if (interestOps == OP_REGISTER) {
                 try {
                     socket.getIOChannel().register(
                             socket.getPoller().getSelector(), SelectionKey.OP_READ, socketWrapper);
+                    socket.getPoller().scheduleTimeout(socketWrapper);
                 } catch (Exception x) {
                     log.error(sm.getString("endpoint.nio.registerFail"), x);
                 }
@@ -630,7 +880,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         // since it won't have been counted down when the socket
                         // closed.
                         socket.socketWrapper.getEndpoint().countDownConnection();
+                        socket.getPoller().socketCount.decrementAndGet();
                         ((NioSocketWrapper) socket.socketWrapper).closed = true;
+                        socket.getPoller().scheduleTimeout((NioSocketWrapper) socket.socketWrapper);
                     } else {
                         final NioSocketWrapper socketWrapper = (NioSocketWrapper) key.attachment();
                         if (socketWrapper != null) {
@@ -638,6 +890,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             int ops = key.interestOps() | interestOps;
                             socketWrapper.interestOps(ops);
                             key.interestOps(ops);
+                            socket.getPoller().scheduleTimeout(socketWrapper);
                         } else {
                             socket.getPoller().cancelledKey(key);
                         }
@@ -673,12 +926,29 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         private volatile int keyCount = 0;
 
+        /**
+         * Read and write deadlines of the sockets registered with this poller.
+         * Only accessed by the poller thread.
+         */
+        private final TimeoutWheel<NioSocketWrapper> timeouts;
+        private final List<NioSocketWrapper> expired = new ArrayList<>();
+
+        /**
+         * Number of sockets registered with this poller and not yet closed.
+         * Used to direct new connections to the least loaded poller.
+         */
+        private final AtomicInteger socketCount = new AtomicInteger(0);
+
         public Poller() throws IOException {
             this.selector = Selector.open();
+            this.timeouts = new TimeoutWheel<>(TIMEOUT_WHEEL_SLOTS,
+                    Math.max(1, socketProperties.getTimeoutInterval()), System.currentTimeMillis());
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public int getSocketCount() { return socketCount.get(); }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -755,15 +1025,18 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
          * @param socket    The newly created socket
          */
         public void register(final NioChannel socket) {
+            socketCount.incrementAndGet();
             socket.setPoller(this);
             NioSocketWrapper ka = new NioSocketWrapper(socket, NioEndpoint.this);
             socket.setSocketWrapper(ka);
-            ka.setPoller(this);
             ka.setReadTimeout(getSocketProperties().getSoTimeout());
             ka.setWriteTimeout(getSocketProperties().getSoTimeout());
             ka.setKeepAliveLeft(NioEndpoint.this.getMaxKeepAliveRequests());
             ka.setReadTimeout(getConnectionTimeout());
             ka.setWriteTimeout(getConnectionTimeout());
+            // Set the poller once the initial timeouts have been set since
+            // the registration event will schedule the timeout
+            ka.setPoller(this);
             PollerEvent r = eventCache.pop();
             ka.interestOps(SelectionKey.OP_READ);//this is what OP_REGISTER turns into.
             if ( r==null) r = new PollerEvent(socket,ka,OP_REGISTER);
@@ -818,7 +1091,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 }
                 if (ka != null) {
                     countDownConnection();
+                    socketCount.decrementAndGet();
                     ka.closed = true;
+                    // This may be called by any thread so the timeout is
+                    // removed by the poller thread
+                    rescheduleTimeout(ka);
                 }
             } catch (Throwable e) {
                 ExceptionUtils.handleThrowable(e);
@@ -1011,6 +1288,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                                 log.debug("Connection is keep alive, registering back for OP_READ");
                             }
                             reg(sk, socketWrapper, SelectionKey.OP_READ);
+                            scheduleTimeout(socketWrapper);
                             break;
                         }
                         }
@@ -1024,6 +1302,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         add(socketWrapper.getSocket(),SelectionKey.OP_WRITE);
                     } else {
                         reg(sk,socketWrapper,SelectionKey.OP_WRITE);
+                        scheduleTimeout(socketWrapper);
                     }
                     return SendfileState.PENDING;
                 }
@@ -1052,6 +1331,41 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             socketWrapper.interestOps(intops);
         }
 
+        /**
+         * (Re-)schedule the timeout for the given socket based on its current
+         * interest ops. Must only be called by the poller thread. Reads and
+         * writes that happen after this call do not re-schedule the timeout.
+         * Instead, when the scheduled deadline is reached, the deadline is
+         * re-calculated and the timeout re-scheduled if it has moved.
+         *
+         * @param socketWrapper The socket for which to schedule the timeout
+         */
+        protected void scheduleTimeout(NioSocketWrapper socketWrapper) {
+            long deadline = socketWrapper.getTimeoutDeadline();
+            if (socketWrapper.closed || deadline == Long.MAX_VALUE) {
+                timeouts.cancel(socketWrapper.timeoutEntry);
+            } else {
+                timeouts.schedule(socketWrapper.timeoutEntry, deadline);
+            }
+        }
+
+        /**
+         * Request that the poller thread (re-)schedules the timeout for the
+         * given socket. Used when the socket is closed or its timeouts are
+         * reduced by a thread other than the poller thread.
+         *
+         * @param socketWrapper The socket for which to schedule the timeout
+         */
+        protected void rescheduleTimeout(NioSocketWrapper socketWrapper) {
+            PollerEvent r = eventCache.pop();
+            if (r == null) {
+                r = new PollerEvent(null, socketWrapper, OP_TIMEOUT);
+            } else {
+                r.reset(null, socketWrapper, OP_TIMEOUT);
+            }
+            addEvent(r);
+        }
+
         protected void timeout(int keyCount, boolean hasEvents) {
             long now = System.currentTimeMillis();
             // This method is called on every loop of the Poller. Don't process
@@ -1065,48 +1379,36 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 return;
             }
             int keycount = 0;
-            try {
-                for (SelectionKey key : selector.keys()) {
-                    keycount++;
-                    try {
-                        NioSocketWrapper ka = (NioSocketWrapper) key.attachment();
-                        if ( ka == null ) {
-                            cancelledKey(key); //we don't support any keys without attachments
-                        } else if (close) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate stop calls
-                            processKey(key,ka);
-                        } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                                  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                            boolean isTimedOut = false;
-                            // Check for read timeout
-                            if ((ka.interestOps() & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
-                                long delta = now - ka.getLastRead();
-                                long timeout = ka.getReadTimeout();
-                                isTimedOut = timeout > 0 && delta > timeout;
-                            }
-                            // Check for write timeout
-                            if (!isTimedOut && (ka.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                                long delta = now - ka.getLastWrite();
-                                long timeout = ka.getWriteTimeout();
-                                isTimedOut = timeout > 0 && delta > timeout;
-                            }
-                            if (isTimedOut) {
+            if (close) {
+                try {
+                    for (SelectionKey key : selector.keys()) {
+                        keycount++;
+                        try {
+                            NioSocketWrapper ka = (NioSocketWrapper) key.attachment();
+                            if ( ka == null ) {
+                                cancelledKey(key); //we don't support any keys without attachments
+                            } else {
                                 key.interestOps(0);
-                                ka.interestOps(0); //avoid duplicate timeout calls
-                                ka.setError(new SocketTimeoutException());
-                                if (!processSocket(ka, SocketEvent.ERROR, true)) {
-                                    cancelledKey(key);
-                                }
+                                ka.interestOps(0); //avoid duplicate stop calls
+                                processKey(key,ka);
                             }
+                        } catch (CancelledKeyException ckx) {
+                            cancelledKey(key);
                         }
-                    } catch (CancelledKeyException ckx) {
-                        cancelledKey(key);
                     }
+                } catch (ConcurrentModificationException cme) {
+                    // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
+                    log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
+                }
+            } else {
+                // Only the sockets whose scheduled deadline has passed are
+                // examined
+                timeouts.expire(now, expired);
+                for (int i = 0; i < expired.size(); i++) {
+                    keycount++;
+                    timeout(expired.get(i), now);
                 }
-            } catch (ConcurrentModificationException cme) {
-                // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
-                log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
+                expired.clear();
             }
             // For logging purposes only
             long prevExp = nextExpiration;
@@ -1120,6 +1422,37 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             }
 
         }
+
+        private void timeout(NioSocketWrapper ka, long now) {
+            if (ka.closed) {
+                return;
+            }
+            SelectionKey key = ka.getSocket().getIOChannel().keyFor(selector);
+            if (key == null || key.attachment() != ka) {
+                // The socket has been closed (and the channel possibly re-used)
+                // since the timeout was scheduled
+                return;
+            }
+            try {
+                long deadline = ka.getTimeoutDeadline();
+                if (deadline >= now) {
+                    // There has been activity or the interest ops have changed
+                    // since the timeout was scheduled
+                    if (deadline != Long.MAX_VALUE) {
+                        timeouts.schedule(ka.timeoutEntry, deadline);
+                    }
+                    return;
+                }
+                key.interestOps(0);
+                ka.interestOps(0); //avoid duplicate timeout calls
+                ka.setError(new SocketTimeoutException());
+                if (!processSocket(ka, SocketEvent.ERROR, true)) {
+                    cancelledKey(key);
+                }
+            } catch (CancelledKeyException ckx) {
+                cancelledKey(key);
+            }
+        }
     }
 
     // ---------------------------------------------------- Key Attachment Class
@@ -1143,6 +1476,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         private volatile long lastRead = System.currentTimeMillis();
         private volatile long lastWrite = lastRead;
         private volatile boolean closed = false;
+        private final TimeoutWheel.Entry<NioSocketWrapper> timeoutEntry = new TimeoutWheel.Entry<>(this);
 
         public NioSocketWrapper(NioChannel channel, NioEndpoint endpoint) {
             super(channel, endpoint);
@@ -1152,6 +1486,30 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         public Poller getPoller() { return poller; }
         public void setPoller(Poller poller){this.poller = poller;}
+
+        @Override
+        public void setReadTimeout(long readTimeout) {
+            long oldTimeout = getReadTimeout();
+            super.setReadTimeout(readTimeout);
+            timeoutChanged(oldTimeout, getReadTimeout());
+        }
+
+        @Override
+        public void setWriteTimeout(long writeTimeout) {
+            long oldTimeout = getWriteTimeout();
+            super.setWriteTimeout(writeTimeout);
+            timeoutChanged(oldTimeout, getWriteTimeout());
+        }
+
+        private void timeoutChanged(long oldTimeout, long newTimeout) {
+            // A longer timeout is picked up when the currently scheduled
+            // deadline is reached but a shorter one has to be scheduled now
+            Poller poller = this.poller;
+            if (poller != null && !closed && newTimeout > 0 &&
+                    (oldTimeout <= 0 || newTimeout < oldTimeout)) {
+                poller.rescheduleTimeout(this);
+            }
+        }
         public int interestOps() { return interestOps; }
         public int interestOps(int ops) { this.interestOps  = ops; return ops; }
         public CountDownLatch getReadLatch() { return readLatch; }
@@ -1190,6 +1548,29 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         public void updateLastRead() { lastRead = System.currentTimeMillis(); }
         public long getLastRead() { return lastRead; }
 
+        /**
+         * @return The time at which this socket will time out given the
+         *         current interest ops, last read/write times and timeouts or
+         *         {@link Long#MAX_VALUE} if no timeout applies
+         */
+        protected long getTimeoutDeadline() {
+            long deadline = Long.MAX_VALUE;
+            int ops = interestOps;
+            if ((ops & SelectionKey.OP_READ) == SelectionKey.OP_READ) {
+                long timeout = getReadTimeout();
+                if (timeout > 0) {
+                    deadline = getLastRead() + timeout;
+                }
+            }
+            if ((ops & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                long timeout = getWriteTimeout();
+                if (timeout > 0) {
+                    deadline = Math.min(deadline, getLastWrite() + timeout);
+                }
+            }
+            return deadline;
+        }
+
         @Override
         public boolean isReadyForRead() throws IOException {
             socketBufferHandler.configureReadBufferForRead();
@@ -1358,6 +1739,33 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        @Override
+        protected boolean hasGatheringWrite() {
+            return true;
+        }
+
+
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+            NioChannel socket = getSocket();
+            // A single non-blocking gathering write will usually write
+            // everything. Anything that remains for a blocking write is
+            // written one buffer at a time using the selector pool.
+            if (socket.write(from, 0, from.length) > 0) {
+                updateLastWrite();
+            }
+            if (block) {
+                for (int i = 0; i < from.length; i++) {
+                    // Always pass the last buffer so that any remaining
+                    // (e.g. TLS) data is flushed
+                    if (from[i].hasRemaining() || i == from.length - 1) {
+                        doWrite(true, from[i]);
+                    }
+                }
+            }
+        }
+
+
         @Override
         public void registerReadInterest() {
             if (log.isDebugEnabled()) {
@@ -1592,6 +2000,13 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    @Override
+    protected boolean isHandshakeComplete(SocketWrapperBase<NioChannel> socketWrapper) {
+        NioChannel socket = socketWrapper.getSocket();
+        return socket == null || socket.isHandshakeComplete();
+    }
+
+
     // ---------------------------------------------- SocketProcessor Inner Class
 
     /**
@@ -1611,6 +2026,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
             try {
                 int handshake = -1;
+                boolean handshaking = false;
 
                 try {
                     if (key != null) {
@@ -1622,8 +2038,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                                 event == SocketEvent.ERROR) {
                             // Unable to complete the TLS handshake. Treat it as
                             // if the handshake failed.
+                            handshaking = true;
                             handshake = -1;
                         } else {
+                            handshaking = true;
                             handshake = socket.handshake(key.isReadable(), key.isWritable());
                             // The handshake process reads/writes from/to the
                             // socket. status may therefore be OPEN_WRITE once
@@ -1641,6 +2059,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 } catch (CancelledKeyException ckx) {
                     handshake = -1;
                 }
+                if (handshaking && handshake == 0 && getHandshakeExecutor() != null) {
+                    // This is a handshake thread. Hand the connection back to
+                    // the worker threads to process the first request.
+                    if (processSocket(socketWrapper, event, true)) {
+                        return;
+                    }
+                    handshaking = false;
+                    handshake = -1;
+                }
                 if (handshake == 0) {
                     SocketState state = SocketState.OPEN;
                     // Process the request from this socket
@@ -1653,6 +2080,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         close(socket, key);
                     }
                 } else if (handshake == -1 ) {
+                    if (handshaking) {
+                        handshakeFailed();
+                    }
                     getHandler().process(socketWrapper, SocketEvent.CONNECT_FAIL);
                     close(socket, key);
                 } else if (handshake == SelectionKey.OP_READ){
@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.security.KeyStore;
 import java.security.UnrecoverableKeyException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -30,12 +32,14 @@ import java.util.Set;
 
 import javax.management.ObjectName;
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.openssl.OpenSSLConf;
+import org.apache.tomcat.util.net.openssl.OpenSSLSessionContext;
 import org.apache.tomcat.util.net.openssl.ciphers.Cipher;
 import org.apache.tomcat.util.net.openssl.ciphers.OpenSSLCipherConfigurationParser;
 import org.apache.tomcat.util.res.StringManager;
@@ -106,6 +110,7 @@ public class SSLHostConfig implements Serializable {
     // Values <0 mean use the implementation default
     private int sessionCacheSize = -1;
     private int sessionTimeout = 86400;
+    private transient SSLSessionStore sessionStore = null;
     // JSSE
     private String keyManagerAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
     private boolean revocationEnabled = false;
@@ -538,6 +543,102 @@ public class SSLHostConfig implements Serializable {
     }
 
 
+    /**
+     * Set the store used to share TLS session resumption state for this host
+     * beyond the SSL contexts of this connector. Any existing SSL contexts are
+     * unregistered from the previous store, if any, and registered with the new
+     * store.
+     *
+     * @param sessionStore The store to use or <code>null</code> if session
+     *                     resumption state should not be shared
+     */
+    public void setSessionStore(SSLSessionStore sessionStore) {
+        unregisterSessionContexts();
+        this.sessionStore = sessionStore;
+        registerSessionContexts();
+    }
+
+
+    public SSLSessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+
+    /**
+     * @return the number of sessions that were successfully resumed across all
+     *         the SSL contexts of this host or -1 if the SSL implementation
+     *         does not provide session cache statistics
+     */
+    public long getSessionHitCount() {
+        long result = -1;
+        for (SSLSessionContext sessionContext : getSessionContexts()) {
+            if (sessionContext instanceof OpenSSLSessionContext) {
+                result = Math.max(result, 0) +
+                        ((OpenSSLSessionContext) sessionContext).stats().hits();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return the number of sessions that a client requested to resume but
+     *         that were not found in the cache across all the SSL contexts of
+     *         this host or -1 if the SSL implementation does not provide
+     *         session cache statistics
+     */
+    public long getSessionMissCount() {
+        long result = -1;
+        for (SSLSessionContext sessionContext : getSessionContexts()) {
+            if (sessionContext instanceof OpenSSLSessionContext) {
+                result = Math.max(result, 0) +
+                        ((OpenSSLSessionContext) sessionContext).stats().misses();
+            }
+        }
+        return result;
+    }
+
+
+    void registerSessionContexts() {
+        SSLSessionStore sessionStore = this.sessionStore;
+        if (sessionStore != null) {
+            for (SSLSessionContext sessionContext : getSessionContexts()) {
+                sessionStore.register(this, sessionContext);
+            }
+        }
+    }
+
+
+    void unregisterSessionContexts() {
+        SSLSessionStore sessionStore = this.sessionStore;
+        if (sessionStore != null) {
+            for (SSLSessionContext sessionContext : getSessionContexts()) {
+                sessionStore.unregister(sessionContext);
+            }
+        }
+    }
+
+
+    /*
+     * Multiple certificates may share a single SSLContext (e.g. with APR) so
+     * de-duplicate the session contexts.
+     */
+    private Set<SSLSessionContext> getSessionContexts() {
+        Set<SSLSessionContext> result =
+                Collections.newSetFromMap(new IdentityHashMap<SSLSessionContext,Boolean>());
+        for (SSLHostConfigCertificate certificate : getCertificates()) {
+            SSLContext sslContext = certificate.getSslContext();
+            if (sslContext != null) {
+                SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+                if (sessionContext != null) {
+                    result.add(sessionContext);
+                }
+            }
+        }
+        return result;
+    }
+
+
     // ---------------------------------- JSSE specific configuration properties
 
     // TODO: These certificate setters can be removed once it is no longer
@@ -0,0 +1,56 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * A store of TLS session resumption state that may be shared beyond a single
+ * {@link SSLContext}, for example between all the nodes in a cluster, so that
+ * a client that has previously connected to one node can complete an
+ * abbreviated handshake with any of them.
+ * <p>
+ * A store is associated with an {@link SSLHostConfig}. The session context of
+ * every SSL context created for that host is registered with the store when the
+ * context is created (or when the store is set if the contexts already exist)
+ * and unregistered when the context is released. What state the store is able
+ * to share depends on the SSL implementation. For example, OpenSSL allows the
+ * session ticket keys to be set whereas JSSE provides no means to share either
+ * session tickets or cached sessions.
+ */
+public interface SSLSessionStore {
+
+    /**
+     * Register a session context with this store. The store should apply any
+     * shared state it holds to the context and keep the context up to date if
+     * that state changes.
+     *
+     * @param sslHostConfig     The host configuration the context was created
+     *                          for
+     * @param sessionContext    The session context to register
+     */
+    void register(SSLHostConfig sslHostConfig, SSLSessionContext sessionContext);
+
+
+    /**
+     * Unregister a session context that was previously registered with this
+     * store. This is a NO-OP if the context is not registered.
+     *
+     * @param sessionContext    The session context to unregister
+     */
+    void unregister(SSLSessionContext sessionContext);
+}
@@ -68,6 +68,7 @@ public class SecureNio2Channel extends Nio2Channel  {
 
     private volatile boolean handshakeComplete;
     private volatile HandshakeStatus handshakeStatus; //gets set by handshake
+    private volatile long handshakeStartTime = 0;
 
     private volatile boolean unwrapBeforeRead;
 
@@ -101,12 +102,12 @@ public class SecureNio2Channel extends Nio2Channel  {
             if (result.intValue() < 0) {
                 failed(new EOFException(), attachment);
             } else {
-                endpoint.processSocket(attachment, SocketEvent.OPEN_READ, false);
+                processHandshake(attachment, SocketEvent.OPEN_READ);
             }
         }
         @Override
         public void failed(Throwable exc, SocketWrapperBase<Nio2Channel> attachment) {
-            endpoint.processSocket(attachment, SocketEvent.ERROR, false);
+            processHandshake(attachment, SocketEvent.ERROR);
         }
     }
 
@@ -118,12 +119,28 @@ public class SecureNio2Channel extends Nio2Channel  {
             if (result.intValue() < 0) {
                 failed(new EOFException(), attachment);
             } else {
-                endpoint.processSocket(attachment, SocketEvent.OPEN_WRITE, false);
+                processHandshake(attachment, SocketEvent.OPEN_WRITE);
             }
         }
         @Override
         public void failed(Throwable exc, SocketWrapperBase<Nio2Channel> attachment) {
-            endpoint.processSocket(attachment, SocketEvent.ERROR, false);
+            processHandshake(attachment, SocketEvent.ERROR);
+        }
+    }
+
+
+    /*
+     * The completion handlers run on the worker threads. If dedicated handshake
+     * threads are configured, continue the handshake on one of those instead.
+     */
+    private void processHandshake(SocketWrapperBase<Nio2Channel> socket, SocketEvent event) {
+        boolean dispatch = endpoint.getHandshakeExecutor() != null;
+        if (!endpoint.processSocket(socket, event, dispatch) && dispatch) {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // Ignore
+            }
         }
     }
 
@@ -135,6 +152,7 @@ public class SecureNio2Channel extends Nio2Channel  {
         sslEngine = null;
         sniComplete = false;
         handshakeComplete = false;
+        handshakeStartTime = 0;
         unwrapBeforeRead = true;
         closed = false;
         closing = false;
@@ -227,6 +245,10 @@ public class SecureNio2Channel extends Nio2Channel  {
             return 0; //we have done our initial handshake
         }
 
+        if (handshakeStartTime == 0) {
+            handshakeStartTime = System.nanoTime();
+        }
+
         if (!sniComplete) {
             int sniResult = processSNI();
             if (sniResult == 0) {
@@ -259,6 +281,8 @@ public class SecureNio2Channel extends Nio2Channel  {
                     handshakeComplete = !netOutBuffer.hasRemaining();
                     //return 0 if we are complete, otherwise we still have data to write
                     if (handshakeComplete) {
+                        endpoint.handshakeCompleted(handshakeStartTime);
+                        handshakeStartTime = 0;
                         return 0;
                     } else {
                         if (async) {
@@ -64,6 +64,7 @@ public class SecureNioChannel extends NioChannel  {
 
     protected boolean handshakeComplete = false;
     protected HandshakeStatus handshakeStatus; //gets set by handshake
+    private long handshakeStartTime = 0;
 
     protected boolean closed = false;
     protected boolean closing = false;
@@ -97,6 +98,7 @@ public class SecureNioChannel extends NioChannel  {
         sslEngine = null;
         sniComplete = false;
         handshakeComplete = false;
+        handshakeStartTime = 0;
         closed = false;
         closing = false;
         netInBuffer.clear();
@@ -175,6 +177,10 @@ public class SecureNioChannel extends NioChannel  {
             return 0; //we have done our initial handshake
         }
 
+        if (handshakeStartTime == 0) {
+            handshakeStartTime = System.nanoTime();
+        }
+
         if (!sniComplete) {
             int sniResult = processSNI();
             if (sniResult == 0) {
@@ -206,6 +212,10 @@ public class SecureNioChannel extends NioChannel  {
                     }
                     //we are complete if we have delivered the last package
                     handshakeComplete = !netOutBuffer.hasRemaining();
+                    if (handshakeComplete) {
+                        endpoint.handshakeCompleted(handshakeStartTime);
+                        handshakeStartTime = 0;
+                    }
                     //return 0 if we are complete, otherwise we still have data to write
                     return handshakeComplete?0:SelectionKey.OP_WRITE;
                 }
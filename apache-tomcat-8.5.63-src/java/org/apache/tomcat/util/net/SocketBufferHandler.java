@@ -30,9 +30,23 @@ public class SocketBufferHandler {
 
     private final boolean direct;
 
+    /*
+     * When pools are used, the buffers are only obtained from the pools when
+     * they are first needed and are returned to the pools whenever the
+     * connection is idle with empty buffers (see release()). Buffers that are
+     * not pooled (because the pool was exhausted or the buffer was expanded)
+     * are tracked so that they are never returned to a pool.
+     */
+    private final SocketBufferPool readBufferPool;
+    private volatile boolean readBufferPooled = false;
+    private final SocketBufferPool writeBufferPool;
+    private volatile boolean writeBufferPooled = false;
+
     public SocketBufferHandler(int readBufferSize, int writeBufferSize,
             boolean direct) {
         this.direct = direct;
+        this.readBufferPool = null;
+        this.writeBufferPool = null;
         if (direct) {
             readBuffer = ByteBuffer.allocateDirect(readBufferSize);
             writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
@@ -43,6 +57,21 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * Create a handler that obtains its buffers from the given pools when
+     * required.
+     *
+     * @param readBufferPool    The pool to use for the read buffer
+     * @param writeBufferPool   The pool to use for the write buffer
+     */
+    public SocketBufferHandler(SocketBufferPool readBufferPool,
+            SocketBufferPool writeBufferPool) {
+        this.direct = readBufferPool.isDirect();
+        this.readBufferPool = readBufferPool;
+        this.writeBufferPool = writeBufferPool;
+    }
+
+
     public void configureReadBufferForWrite() {
         setReadBufferConfiguredForWrite(true);
     }
@@ -58,6 +87,7 @@ public class SocketBufferHandler {
         if (this.readBufferConfiguredForWrite != readBufferConFiguredForWrite) {
             if (readBufferConFiguredForWrite) {
                 // Switching to write
+                ByteBuffer readBuffer = getReadBuffer();
                 int remaining = readBuffer.remaining();
                 if (remaining == 0) {
                     readBuffer.clear();
@@ -66,7 +96,7 @@ public class SocketBufferHandler {
                 }
             } else {
                 // Switching to read
-                readBuffer.flip();
+                getReadBuffer().flip();
             }
             this.readBufferConfiguredForWrite = readBufferConFiguredForWrite;
         }
@@ -74,11 +104,30 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getReadBuffer() {
-        return readBuffer;
+        ByteBuffer result = readBuffer;
+        if (result == null) {
+            synchronized (this) {
+                result = readBuffer;
+                if (result == null) {
+                    result = readBufferPool.borrow();
+                    readBufferPooled = (result != null);
+                    if (result == null) {
+                        result = readBufferPool.allocateUnpooled();
+                    }
+                    readBufferConfiguredForWrite = true;
+                    readBuffer = result;
+                }
+            }
+        }
+        return result;
     }
 
 
     public boolean isReadBufferEmpty() {
+        ByteBuffer readBuffer = this.readBuffer;
+        if (readBuffer == null) {
+            return true;
+        }
         if (readBufferConfiguredForWrite) {
             return readBuffer.position() == 0;
         } else {
@@ -102,6 +151,7 @@ public class SocketBufferHandler {
         if (this.writeBufferConfiguredForWrite != writeBufferConfiguredForWrite) {
             if (writeBufferConfiguredForWrite) {
                 // Switching to write
+                ByteBuffer writeBuffer = getWriteBuffer();
                 int remaining = writeBuffer.remaining();
                 if (remaining == 0) {
                     writeBuffer.clear();
@@ -112,7 +162,7 @@ public class SocketBufferHandler {
                 }
             } else {
                 // Switching to read
-                writeBuffer.flip();
+                getWriteBuffer().flip();
             }
             this.writeBufferConfiguredForWrite = writeBufferConfiguredForWrite;
         }
@@ -120,6 +170,7 @@ public class SocketBufferHandler {
 
 
     public boolean isWriteBufferWritable() {
+        ByteBuffer writeBuffer = getWriteBuffer();
         if (writeBufferConfiguredForWrite) {
             return writeBuffer.hasRemaining();
         } else {
@@ -129,11 +180,30 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getWriteBuffer() {
-        return writeBuffer;
+        ByteBuffer result = writeBuffer;
+        if (result == null) {
+            synchronized (this) {
+                result = writeBuffer;
+                if (result == null) {
+                    result = writeBufferPool.borrow();
+                    writeBufferPooled = (result != null);
+                    if (result == null) {
+                        result = writeBufferPool.allocateUnpooled();
+                    }
+                    writeBufferConfiguredForWrite = true;
+                    writeBuffer = result;
+                }
+            }
+        }
+        return result;
     }
 
 
     public boolean isWriteBufferEmpty() {
+        ByteBuffer writeBuffer = this.writeBuffer;
+        if (writeBuffer == null) {
+            return true;
+        }
         if (writeBufferConfiguredForWrite) {
             return writeBuffer.position() == 0;
         } else {
@@ -142,7 +212,34 @@ public class SocketBufferHandler {
     }
 
 
-    public void reset() {
+    /**
+     * Return any pooled buffers that are currently empty to their pools. They
+     * will be obtained again when next required. This is a NO-OP if this
+     * handler does not use pools. Callers must ensure that no other thread is
+     * using the buffers when this method is called.
+     */
+    public synchronized void release() {
+        if (readBufferPooled && isReadBufferEmpty()) {
+            readBufferPool.release(readBuffer);
+            readBuffer = null;
+            readBufferPooled = false;
+            readBufferConfiguredForWrite = true;
+        }
+        if (writeBufferPooled && isWriteBufferEmpty()) {
+            writeBufferPool.release(writeBuffer);
+            writeBuffer = null;
+            writeBufferPooled = false;
+            writeBufferConfiguredForWrite = true;
+        }
+    }
+
+
+    public synchronized void reset() {
+        if (readBufferPool != null) {
+            releaseReadBuffer();
+            releaseWriteBuffer();
+            return;
+        }
         readBuffer.clear();
         readBufferConfiguredForWrite = true;
         writeBuffer.clear();
@@ -150,18 +247,94 @@ public class SocketBufferHandler {
     }
 
 
-    public void expand(int newSize) {
+    public synchronized void expand(int newSize) {
         configureReadBufferForWrite();
-        readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
+        ByteBuffer in = getReadBuffer();
+        if (readBufferPooled && in.capacity() < newSize) {
+            // Slices of a pooled slab can't be cleaned so copy rather than use
+            // ByteBufferUtils.expand()
+            readBuffer = copy(in, newSize, readBufferPool);
+            readBufferPooled = false;
+        } else {
+            readBuffer = ByteBufferUtils.expand(in, newSize);
+        }
         configureWriteBufferForWrite();
-        writeBuffer = ByteBufferUtils.expand(writeBuffer, newSize);
+        in = getWriteBuffer();
+        if (writeBufferPooled && in.capacity() < newSize) {
+            writeBuffer = copy(in, newSize, writeBufferPool);
+            writeBufferPooled = false;
+        } else {
+            writeBuffer = ByteBufferUtils.expand(in, newSize);
+        }
     }
 
-    public void free() {
-        if (direct) {
+
+    public synchronized void free() {
+        if (readBufferPool != null) {
+            releaseReadBuffer();
+            releaseWriteBuffer();
+        } else if (direct) {
             ByteBufferUtils.cleanDirectBuffer(readBuffer);
             ByteBufferUtils.cleanDirectBuffer(writeBuffer);
         }
     }
 
+
+    /*
+     * Return the read buffer to the pool if it is pooled, else discard it.
+     * Caller must hold the lock on this object.
+     */
+    private void releaseReadBuffer() {
+        ByteBuffer buffer = readBuffer;
+        readBuffer = null;
+        readBufferConfiguredForWrite = true;
+        if (buffer == null) {
+            return;
+        }
+        if (readBufferPooled) {
+            readBufferPool.release(buffer);
+            readBufferPooled = false;
+        } else if (direct) {
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+        }
+    }
+
+
+    /*
+     * Return the write buffer to the pool if it is pooled, else discard it.
+     * Caller must hold the lock on this object.
+     */
+    private void releaseWriteBuffer() {
+        ByteBuffer buffer = writeBuffer;
+        writeBuffer = null;
+        writeBufferConfiguredForWrite = true;
+        if (buffer == null) {
+            return;
+        }
+        if (writeBufferPooled) {
+            writeBufferPool.release(buffer);
+            writeBufferPooled = false;
+        } else if (direct) {
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+        }
+    }
+
+
+    /*
+     * Copy the content of a pooled buffer (in write mode) into a new,
+     * unpooled buffer of the given size and return the pooled buffer to its
+     * pool.
+     */
+    private ByteBuffer copy(ByteBuffer in, int newSize, SocketBufferPool pool) {
+        ByteBuffer out;
+        if (direct) {
+            out = ByteBuffer.allocateDirect(newSize);
+        } else {
+            out = ByteBuffer.allocate(newSize);
+        }
+        in.flip();
+        out.put(in);
+        pool.release(in);
+        return out;
+    }
 }
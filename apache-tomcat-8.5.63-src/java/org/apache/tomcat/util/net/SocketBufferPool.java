@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.collections.ObjectCache;
+import org.apache.tomcat.util.collections.StripedStack;
+
+/**
+ * A pool of fixed size socket buffers. Buffers are carved out of larger slabs
+ * so that, particularly for direct buffers, the number of separate native
+ * allocations is kept low. Slabs are allocated on demand up to a configured
+ * maximum and are never released. Once the maximum is reached,
+ * {@link #borrow()} returns <code>null</code> and the caller is expected to
+ * allocate an unpooled buffer.
+ */
+public class SocketBufferPool {
+
+    private static final int BUFFERS_PER_SLAB = 64;
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final long maxSize;
+
+    private final ObjectCache<ByteBuffer> free = new StripedStack<>(-1);
+
+    private final AtomicLong allocatedSize = new AtomicLong(0);
+    private final AtomicInteger borrowedCount = new AtomicInteger(0);
+    private final AtomicLong exhaustedCount = new AtomicLong(0);
+
+
+    /**
+     * @param bufferSize    The size in bytes of each buffer
+     * @param direct        Should direct buffers be used
+     * @param maxSize       The maximum number of bytes to allocate for slabs
+     *                      or -1 for no limit
+     */
+    public SocketBufferPool(int bufferSize, boolean direct, long maxSize) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxSize = maxSize;
+    }
+
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * @return The total number of bytes allocated for slabs
+     */
+    public long getAllocatedSize() {
+        return allocatedSize.get();
+    }
+
+
+    /**
+     * @return The number of buffers currently borrowed from the pool
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+
+    /**
+     * @return The number of times a buffer was requested when the pool was
+     *         empty and had reached its maximum size
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+
+    /**
+     * Obtain a buffer from the pool. The buffer will be cleared.
+     *
+     * @return A buffer or <code>null</code> if the pool is exhausted
+     */
+    public ByteBuffer borrow() {
+        ByteBuffer result = free.pop();
+        if (result == null) {
+            result = grow();
+            if (result == null) {
+                exhaustedCount.incrementAndGet();
+                return null;
+            }
+        }
+        borrowedCount.incrementAndGet();
+        result.clear();
+        return result;
+    }
+
+
+    /**
+     * Return a buffer, previously obtained from {@link #borrow()}, to the pool.
+     *
+     * @param buffer The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        borrowedCount.decrementAndGet();
+        free.push(buffer);
+    }
+
+
+    /**
+     * Allocate a new buffer that is not part of the pool but has the same
+     * characteristics as pooled buffers.
+     *
+     * @return The new buffer
+     */
+    public ByteBuffer allocateUnpooled() {
+        return allocate(bufferSize);
+    }
+
+
+    private synchronized ByteBuffer grow() {
+        // Another thread may have grown the pool while this thread was waiting
+        ByteBuffer result = free.pop();
+        if (result != null) {
+            return result;
+        }
+        long slabSize = (long) bufferSize * BUFFERS_PER_SLAB;
+        if (maxSize >= 0 && allocatedSize.get() + slabSize > maxSize) {
+            return null;
+        }
+        ByteBuffer slab = allocate((int) slabSize);
+        allocatedSize.addAndGet(slabSize);
+        for (int i = 0; i < BUFFERS_PER_SLAB; i++) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            ByteBuffer buffer = slab.slice();
+            if (result == null) {
+                result = buffer;
+            } else {
+                free.push(buffer);
+            }
+        }
+        return result;
+    }
+
+
+    private ByteBuffer allocate(int size) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(size);
+        } else {
+            return ByteBuffer.allocate(size);
+        }
+    }
+}
@@ -22,6 +22,7 @@ public abstract class SocketProcessorBase<S> implements Runnable {
 
     protected SocketWrapperBase<S> socketWrapper;
     protected SocketEvent event;
+    private long queuedTime = 0;
 
     public SocketProcessorBase(SocketWrapperBase<S> socketWrapper, SocketEvent event) {
         reset(socketWrapper, event);
@@ -32,11 +33,33 @@ public abstract class SocketProcessorBase<S> implements Runnable {
         Objects.requireNonNull(event);
         this.socketWrapper = socketWrapper;
         this.event = event;
+        this.queuedTime = 0;
+    }
+
+
+    /**
+     * Record the time at which this processor was passed to an executor so
+     * that the time spent waiting for a thread can be measured.
+     *
+     * @param queuedTime The value of {@link System#nanoTime()} when this
+     *                   processor was dispatched
+     */
+    void setQueuedTime(long queuedTime) {
+        this.queuedTime = queuedTime;
     }
 
 
     @Override
     public final void run() {
+        // doRun() may clear socketWrapper and return this processor to the
+        // cache so keep a reference for running any deferred tasks
+        SocketWrapperBase<S> socketWrapper = this.socketWrapper;
+        long queuedTime = this.queuedTime;
+        if (queuedTime != 0) {
+            this.queuedTime = 0;
+            socketWrapper.getEndpoint().getAdmissionControl().dequeued(
+                    System.nanoTime() - queuedTime);
+        }
         synchronized (socketWrapper) {
             // It is possible that processing may be triggered for read and
             // write at the same time. The sync above makes sure that processing
@@ -48,6 +71,7 @@ public abstract class SocketProcessorBase<S> implements Runnable {
             }
             doRun();
         }
+        socketWrapper.runDeferredTasks();
     }
 
 
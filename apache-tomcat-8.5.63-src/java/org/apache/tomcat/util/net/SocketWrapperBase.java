@@ -24,6 +24,8 @@ import java.nio.channels.CompletionHandler;
 import java.nio.channels.InterruptedByTimeoutException;
 import java.nio.channels.ReadPendingException;
 import java.nio.channels.WritePendingException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
@@ -101,6 +103,12 @@ public abstract class SocketWrapperBase<E> {
     protected final Semaphore writePending;
     protected volatile OperationState<?> writeOperation = null;
 
+    /*
+     * Tasks to run on the processing thread once it has released the lock on
+     * this wrapper.
+     */
+    private final Queue<Runnable> deferredTasks = new ConcurrentLinkedQueue<>();
+
     public SocketWrapperBase(E socket, AbstractEndpoint<E> endpoint) {
         this.socket = socket;
         this.endpoint = endpoint;
@@ -136,6 +144,34 @@ public abstract class SocketWrapperBase<E> {
         executor.execute(runnable);
     }
 
+    /**
+     * Transfers processing to the current container thread once it has
+     * finished processing this socket and no longer holds the lock on this
+     * wrapper. This avoids the hand-off to the executor for processing that is
+     * triggered while the socket is locked but must not run while it is.
+     *
+     * @param runnable The actions to process once the socket is unlocked
+     */
+    public void executeDeferred(Runnable runnable) {
+        deferredTasks.offer(runnable);
+    }
+
+    /*
+     * Called by SocketProcessorBase once it has released the lock on this
+     * wrapper.
+     */
+    void runDeferredTasks() {
+        Runnable runnable;
+        while ((runnable = deferredTasks.poll()) != null) {
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.error(sm.getString("endpoint.process.fail"), t);
+            }
+        }
+    }
+
     public IOException getError() { return error; }
     public void setError(IOException error) {
         // Not perfectly thread-safe but good enough. Just needs to ensure that
@@ -276,6 +312,19 @@ public abstract class SocketWrapperBase<E> {
 
     public SocketBufferHandler getSocketBufferHandler() { return socketBufferHandler; }
 
+    /**
+     * Return the socket buffers to the endpoint's buffer pool if buffer
+     * pooling is in use and the buffers are empty. This is intended to be
+     * called when the connection is about to become idle and no other thread
+     * can access the buffers.
+     */
+    public void releaseBuffers() {
+        SocketBufferHandler socketBufferHandler = this.socketBufferHandler;
+        if (socketBufferHandler != null) {
+            socketBufferHandler.release();
+        }
+    }
+
     public boolean hasDataToRead() {
         // Return true because it is always safe to make a read attempt
         return true;
@@ -502,6 +551,10 @@ public abstract class SocketWrapperBase<E> {
     protected void writeBlocking(byte[] buf, int off, int len) throws IOException {
         if (len > 0) {
             socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteRequired(len)) {
+                writeGathering(true, ByteBuffer.wrap(buf, off, len));
+                return;
+            }
             int thisTime = transfer(buf, off, len, socketBufferHandler.getWriteBuffer());
             len -= thisTime;
             while (len > 0) {
@@ -531,6 +584,10 @@ public abstract class SocketWrapperBase<E> {
     protected void writeBlocking(ByteBuffer from) throws IOException {
         if (from.hasRemaining()) {
             socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteRequired(from.remaining())) {
+                writeGathering(true, from);
+                return;
+            }
             transfer(from, socketBufferHandler.getWriteBuffer());
             while (from.hasRemaining()) {
                 doWrite(true);
@@ -562,6 +619,14 @@ public abstract class SocketWrapperBase<E> {
         if (len > 0 && nonBlockingWriteBuffer.isEmpty()
                 && socketBufferHandler.isWriteBufferWritable()) {
             socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteRequired(len)) {
+                ByteBuffer from = ByteBuffer.wrap(buf, off, len);
+                writeGathering(false, from);
+                if (from.hasRemaining()) {
+                    nonBlockingWriteBuffer.add(from);
+                }
+                return;
+            }
             int thisTime = transfer(buf, off, len, socketBufferHandler.getWriteBuffer());
             len -= thisTime;
             while (len > 0) {
@@ -607,7 +672,12 @@ public abstract class SocketWrapperBase<E> {
 
         if (from.hasRemaining() && nonBlockingWriteBuffer.isEmpty()
                 && socketBufferHandler.isWriteBufferWritable()) {
-            writeNonBlockingInternal(from);
+            socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteRequired(from.remaining())) {
+                writeGathering(false, from);
+            } else {
+                writeNonBlockingInternal(from);
+            }
         }
 
         if (from.hasRemaining()) {
@@ -640,6 +710,49 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Should data of the given length be written with a gathering write,
+     * together with any data already in the socket write buffer, rather than
+     * being copied to the socket write buffer first? Must only be called when
+     * the socket write buffer is configured for write.
+     *
+     * @param len   The length of the data to be written
+     *
+     * @return <code>true</code> if gathering writes are supported and the data
+     *         will not fit in the remaining space in the socket write buffer
+     */
+    private boolean isGatheringWriteRequired(int len) {
+        return hasGatheringWrite() &&
+                len > socketBufferHandler.getWriteBuffer().remaining();
+    }
+
+
+    /**
+     * Writes the content of the socket write buffer followed by the provided
+     * data using a single gathering write. The provided data is not copied to
+     * the socket write buffer. For a blocking write, all the data will have
+     * been written when this method returns. For a non-blocking write, if all
+     * of the socket write buffer was written then as much of any remaining
+     * provided data as will fit is copied to the socket write buffer. Any data
+     * that still remains is left in <code>from</code> for the caller to
+     * buffer.
+     *
+     * @param block <code>true</code> if a blocking write should be used,
+     *                  otherwise a non-blocking write will be used
+     * @param from  The data to write
+     *
+     * @throws IOException If an IO error occurs during the write
+     */
+    protected void writeGathering(boolean block, ByteBuffer from) throws IOException {
+        socketBufferHandler.configureWriteBufferForRead();
+        doWrite(block, new ByteBuffer[] { socketBufferHandler.getWriteBuffer(), from });
+        if (from.hasRemaining() && socketBufferHandler.isWriteBufferWritable()) {
+            socketBufferHandler.configureWriteBufferForWrite();
+            transfer(from, socketBufferHandler.getWriteBuffer());
+        }
+    }
+
+
     /**
      * Writes as much data as possible from any that remains in the buffers.
      *
@@ -666,6 +779,12 @@ public abstract class SocketWrapperBase<E> {
 
 
     protected void flushBlocking() throws IOException {
+        if (hasGatheringWrite() && !nonBlockingWriteBuffer.isEmpty()) {
+            socketBufferHandler.configureWriteBufferForRead();
+            nonBlockingWriteBuffer.writeGathering(this, socketBufferHandler.getWriteBuffer(), true);
+            return;
+        }
+
         doWrite(true);
 
         if (!nonBlockingWriteBuffer.isEmpty()) {
@@ -680,6 +799,11 @@ public abstract class SocketWrapperBase<E> {
 
 
     protected boolean flushNonBlocking() throws IOException {
+        if (hasGatheringWrite() && !nonBlockingWriteBuffer.isEmpty()) {
+            socketBufferHandler.configureWriteBufferForRead();
+            return nonBlockingWriteBuffer.writeGathering(this, socketBufferHandler.getWriteBuffer(), false);
+        }
+
         boolean dataLeft = !socketBufferHandler.isWriteBufferEmpty();
 
         // Write to the socket, if there is anything to write
@@ -731,6 +855,48 @@ public abstract class SocketWrapperBase<E> {
     protected abstract void doWrite(boolean block, ByteBuffer from) throws IOException;
 
 
+    /**
+     * Does this socket wrapper implement {@link #doWrite(boolean, ByteBuffer[])}
+     * with a gathering write to the network? If it does, large writes are
+     * written directly from the provided buffers rather than being copied to
+     * the socket write buffer first.
+     *
+     * @return <code>true</code> if gathering writes are supported. This
+     *         implementation always returns <code>false</code>.
+     */
+    protected boolean hasGatheringWrite() {
+        return false;
+    }
+
+
+    /**
+     * Write the contents of the ByteBuffers, in order, to the socket. For
+     * blocking writes either the entire contents of the buffers will be
+     * written or an IOException will be thrown. Partial blocking writes will
+     * not occur. This implementation writes each buffer in turn using
+     * {@link #doWrite(boolean, ByteBuffer)}. Sub-classes that support
+     * gathering writes should override this method and
+     * {@link #hasGatheringWrite()}.
+     *
+     * @param block Should the write be blocking or not?
+     * @param from the ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+        for (ByteBuffer buffer : from) {
+            if (buffer.hasRemaining()) {
+                doWrite(block, buffer);
+                if (buffer.hasRemaining()) {
+                    // Non-blocking write that didn't write everything
+                    break;
+                }
+            }
+        }
+    }
+
+
     public void processSocket(SocketEvent socketStatus, boolean dispatch) {
         endpoint.processSocket(this, socketStatus, dispatch);
     }
@@ -119,6 +119,38 @@ public class WriteBuffer {
     }
 
 
+    /**
+     * Write the provided buffer followed by the buffered data to the socket
+     * using a single gathering write rather than copying the buffered data to
+     * the socket write buffer.
+     *
+     * @param socketWrapper The socket to write to
+     * @param prefix        The data to write before the buffered data,
+     *                      usually the socket write buffer
+     * @param blocking      Should a blocking write be used?
+     *
+     * @return <code>true</code> if data remains to be written
+     *
+     * @throws IOException If an I/O error occurs during the write
+     */
+    boolean writeGathering(SocketWrapperBase<?> socketWrapper, ByteBuffer prefix,
+            boolean blocking) throws IOException {
+        ByteBuffer[] srcs = new ByteBuffer[buffers.size() + 1];
+        srcs[0] = prefix;
+        int i = 1;
+        for (ByteBufferHolder buffer : buffers) {
+            buffer.flip();
+            srcs[i++] = buffer.getBuf();
+        }
+        socketWrapper.doWrite(blocking, srcs);
+        Iterator<ByteBufferHolder> bufIter = buffers.iterator();
+        while (bufIter.hasNext() && !bufIter.next().getBuf().hasRemaining()) {
+            bufIter.remove();
+        }
+        return prefix.hasRemaining() || !buffers.isEmpty();
+    }
+
+
     public boolean write(Sink sink, boolean blocking) throws IOException {
         Iterator<ByteBufferHolder> bufIter = buffers.iterator();
         boolean dataLeft = false;
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects timing statistics for the tasks run by an executor: how long tasks
+ * wait in the queue before a thread picks them up and how long they then take
+ * to run. Moving averages are maintained as exponentially weighted moving
+ * averages (EWMA) and queue wait times are also recorded in a histogram with
+ * exponentially sized buckets.
+ * <p>
+ * Bucket <code>0</code> of the histogram counts waits of less than one
+ * microsecond. Bucket <code>n</code> (for <code>n &gt; 0</code>) counts waits
+ * of at least <code>2^(n-1)</code> and less than <code>2^n</code>
+ * microseconds. The final bucket also counts all longer waits.
+ */
+public class ExecutionStatistics {
+
+    /**
+     * Weight given to each new sample in the moving averages.
+     */
+    private static final double ALPHA = 0.05;
+
+    public static final int HISTOGRAM_BUCKETS = 28;
+
+    private final AtomicLongArray queueWaitHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final AtomicLong completedCount = new AtomicLong(0);
+    private final AtomicLong startedCount = new AtomicLong(0);
+    private final AtomicLong queueWaitTotal = new AtomicLong(0);
+
+    /*
+     * Updated without synchronization. Under contention an occasional sample
+     * may be lost which is acceptable for a moving average and much cheaper
+     * than a CAS loop on every task.
+     */
+    private volatile double queueWaitAverage = 0;
+    private volatile double serviceTimeAverage = 0;
+
+
+    /**
+     * Record the time a task spent waiting in the queue.
+     *
+     * @param nanos The wait time in nanoseconds
+     */
+    public void recordQueueWait(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        queueWaitAverage += ALPHA * (nanos - queueWaitAverage);
+        queueWaitTotal.addAndGet(nanos);
+        startedCount.incrementAndGet();
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        if (bucket >= HISTOGRAM_BUCKETS) {
+            bucket = HISTOGRAM_BUCKETS - 1;
+        }
+        queueWaitHistogram.incrementAndGet(bucket);
+    }
+
+
+    /**
+     * Record the time taken to run a task.
+     *
+     * @param nanos The service time in nanoseconds
+     */
+    public void recordServiceTime(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        serviceTimeAverage += ALPHA * (nanos - serviceTimeAverage);
+        completedCount.incrementAndGet();
+    }
+
+
+    /**
+     * @return The moving average of the time tasks have waited in the queue in
+     *         milliseconds
+     */
+    public double getQueueWaitAverage() {
+        return queueWaitAverage / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    /**
+     * @return The moving average of the time taken to run tasks in
+     *         milliseconds
+     */
+    public double getServiceTimeAverage() {
+        return serviceTimeAverage / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    /**
+     * @return The number of tasks that have completed since the statistics
+     *         were created or last reset
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+
+    /**
+     * @return The number of tasks that have started execution since the
+     *         statistics were created or last reset
+     */
+    public long getStartedCount() {
+        return startedCount.get();
+    }
+
+
+    /**
+     * @return The total time in nanoseconds that tasks have waited in the
+     *         queue since the statistics were created or last reset
+     */
+    public long getQueueWaitTotal() {
+        return queueWaitTotal.get();
+    }
+
+
+    /**
+     * @return A snapshot of the queue wait time histogram
+     */
+    public long[] getQueueWaitHistogram() {
+        long[] result = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            result[i] = queueWaitHistogram.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The exclusive upper bound, in microseconds, of each bucket of
+     *         the queue wait time histogram. The final bucket has no upper
+     *         bound and is reported as {@link Long#MAX_VALUE}.
+     */
+    public static long[] getHistogramBounds() {
+        long[] result = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+            result[i] = 1L << i;
+        }
+        result[HISTOGRAM_BUCKETS - 1] = Long.MAX_VALUE;
+        return result;
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            queueWaitHistogram.set(i, 0);
+        }
+        completedCount.set(0);
+        startedCount.set(0);
+        queueWaitTotal.set(0);
+        queueWaitAverage = 0;
+        serviceTimeAverage = 0;
+    }
+}
@@ -92,6 +92,7 @@ public class TaskQueue extends LinkedBlockingQueue<Runnable> {
             // the poll timed out, it gives an opportunity to stop the current
             // thread if needed to avoid memory leaks.
             parent.stopCurrentThreadIfNeeded();
+            parent.adjustPoolSize();
         }
         return runnable;
     }
@@ -105,6 +106,18 @@ public class TaskQueue extends LinkedBlockingQueue<Runnable> {
             // does not occur with take()
             // but the ThreadPoolExecutor implementation allows this
         }
+        if (parent != null && parent.getTargetQueueDelay() > 0) {
+            // Wake periodically so adaptive sizing can shrink the pool while
+            // no tasks are being executed
+            long interval = Math.max(1, parent.getAdaptiveSizingInterval());
+            while (true) {
+                Runnable runnable = super.poll(interval, TimeUnit.MILLISECONDS);
+                if (runnable != null) {
+                    return runnable;
+                }
+                parent.adjustPoolSize();
+            }
+        }
         return super.take();
     }
 
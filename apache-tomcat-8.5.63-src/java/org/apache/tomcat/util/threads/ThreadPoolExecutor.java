@@ -61,6 +61,36 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      */
     private long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Timing statistics for executed tasks. <code>null</code> unless enabled
+     * since collecting them requires each task to be wrapped.
+     */
+    private volatile ExecutionStatistics statistics = null;
+
+    /**
+     * The target time, in milliseconds, that tasks should wait in the queue.
+     * If positive, the core pool size is adjusted periodically to try and
+     * achieve this target. Zero or negative disables adaptive sizing.
+     */
+    private volatile long targetQueueDelay = -1;
+
+    /**
+     * The lower limit for the core pool size when adaptive sizing is enabled.
+     */
+    private volatile int adaptiveMinPoolSize = 0;
+
+    /**
+     * The minimum time in milliseconds between adaptive sizing adjustments.
+     */
+    private volatile long adaptiveSizingInterval = 1000;
+
+    private final AtomicLong lastAdjustmentTime = new AtomicLong(System.nanoTime());
+    // Only accessed by the thread that wins the race to make an adjustment
+    private long lastAdjustmentCompletedCount = 0;
+    private long lastAdjustmentStartedCount = 0;
+    private long lastAdjustmentQueueWaitTotal = 0;
+    private double smoothedQueueWait = 0;
+
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
         prestartAllCoreThreads();
@@ -90,8 +120,92 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.threadRenewalDelay = threadRenewalDelay;
     }
 
+    public boolean isStatisticsEnabled() {
+        return statistics != null;
+    }
+
+    /**
+     * Enable or disable the collection of task timing statistics. Statistics
+     * are always collected while adaptive sizing is enabled.
+     *
+     * @param statisticsEnabled <code>true</code> to collect statistics
+     */
+    public void setStatisticsEnabled(boolean statisticsEnabled) {
+        if (statisticsEnabled) {
+            if (statistics == null) {
+                statistics = new ExecutionStatistics();
+            }
+        } else if (targetQueueDelay <= 0) {
+            statistics = null;
+        }
+    }
+
+    /**
+     * @return The task timing statistics or <code>null</code> if they are not
+     *         being collected
+     */
+    public ExecutionStatistics getStatistics() {
+        return statistics;
+    }
+
+    public long getTargetQueueDelay() {
+        return targetQueueDelay;
+    }
+
+    /**
+     * Set the target queue delay for adaptive sizing. When positive, the
+     * moving averages of queue wait time and task service time are used to
+     * periodically adjust the core pool size between
+     * {@link #getAdaptiveMinPoolSize()} and the maximum pool size so that
+     * enough threads are kept available for the observed load and idle
+     * threads are retired gradually rather than all at once.
+     *
+     * @param targetQueueDelay The target in milliseconds or zero or less to
+     *                         disable adaptive sizing
+     */
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        this.targetQueueDelay = targetQueueDelay;
+        if (targetQueueDelay > 0) {
+            setStatisticsEnabled(true);
+        }
+    }
+
+    public int getAdaptiveMinPoolSize() {
+        return adaptiveMinPoolSize;
+    }
+
+    public void setAdaptiveMinPoolSize(int adaptiveMinPoolSize) {
+        this.adaptiveMinPoolSize = adaptiveMinPoolSize;
+    }
+
+    public long getAdaptiveSizingInterval() {
+        return adaptiveSizingInterval;
+    }
+
+    public void setAdaptiveSizingInterval(long adaptiveSizingInterval) {
+        this.adaptiveSizingInterval = adaptiveSizingInterval;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            task.startTime = System.nanoTime();
+            task.statistics.recordQueueWait(task.startTime - task.submitTime);
+        }
+    }
+
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof TimedTask && !(t instanceof StopPooledThreadException)) {
+            TimedTask task = (TimedTask) r;
+            long now = System.nanoTime();
+            task.statistics.recordServiceTime(now - task.startTime);
+            if (targetQueueDelay > 0) {
+                adjustPoolSize(task.statistics, now);
+            }
+        }
+
         // Throwing StopPooledThreadException is likely to cause this method to
         // be called more than once for a given task based on the typical
         // implementations of the parent class. This test ensures that
@@ -168,6 +282,10 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      * @throws NullPointerException if command or unit is null
      */
     public void execute(Runnable command, long timeout, TimeUnit unit) {
+        ExecutionStatistics statistics = this.statistics;
+        if (statistics != null) {
+            command = new TimedTask(command, statistics);
+        }
         submittedCount.incrementAndGet();
         try {
             super.execute(command);
@@ -220,6 +338,109 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.setCorePoolSize(savedCorePoolSize);
     }
 
+    /*
+     * Called periodically by idle threads waiting in the TaskQueue so the
+     * core pool size continues to be adjusted when no tasks are completing.
+     */
+    void adjustPoolSize() {
+        ExecutionStatistics statistics = this.statistics;
+        if (targetQueueDelay > 0 && statistics != null) {
+            adjustPoolSize(statistics, System.nanoTime());
+        }
+    }
+
+    /*
+     * Adjust the core pool size towards the number of threads required to
+     * keep the queue delay at the target. The estimate of the required
+     * threads uses Little's law (arrival rate multiplied by service time).
+     * The pool grows quickly when the queue delay exceeds the target and
+     * shrinks slowly when the delay is well below it. An interval in which
+     * no tasks started with nothing queued counts as no queue delay so the
+     * pool shrinks towards the minimum while idle. The maximum pool size is
+     * left unchanged and acts as the upper limit.
+     */
+    private void adjustPoolSize(ExecutionStatistics statistics, long now) {
+        long last = lastAdjustmentTime.get();
+        long elapsed = now - last;
+        if (elapsed < TimeUnit.MILLISECONDS.toNanos(adaptiveSizingInterval) ||
+                !lastAdjustmentTime.compareAndSet(last, now)) {
+            return;
+        }
+
+        long completed = statistics.getCompletedCount();
+        long started = statistics.getStartedCount();
+        long waitTotal = statistics.getQueueWaitTotal();
+        long completedDelta = completed - lastAdjustmentCompletedCount;
+        long startedDelta = started - lastAdjustmentStartedCount;
+        long waitDelta = waitTotal - lastAdjustmentQueueWaitTotal;
+        lastAdjustmentCompletedCount = completed;
+        lastAdjustmentStartedCount = started;
+        lastAdjustmentQueueWaitTotal = waitTotal;
+        if (completedDelta < 0 || startedDelta < 0 || waitDelta < 0) {
+            // Statistics were reset
+            return;
+        }
+
+        // The per-task moving average lags badly when the arrival rate drops
+        // so decisions use the mean wait for this interval, smoothed across
+        // intervals.
+        double intervalQueueWait;
+        if (startedDelta > 0) {
+            intervalQueueWait = (double) waitDelta / startedDelta / TimeUnit.MILLISECONDS.toNanos(1);
+        } else if (getQueue().isEmpty()) {
+            // Idle
+            intervalQueueWait = 0;
+        } else {
+            // Every thread is busy with a long running task. Nothing can be
+            // learned about the queue delay until a task starts.
+            return;
+        }
+        smoothedQueueWait += 0.5 * (intervalQueueWait - smoothedQueueWait);
+        double queueWait = smoothedQueueWait;
+
+        double elapsedMillis = (double) elapsed / TimeUnit.MILLISECONDS.toNanos(1);
+        double arrivalRate = completedDelta / elapsedMillis;
+        int required = (int) Math.ceil(arrivalRate * statistics.getServiceTimeAverage());
+        long target = targetQueueDelay;
+
+        int core = getCorePoolSize();
+        int newCore = core;
+        if (queueWait > target) {
+            newCore = Math.max(core + Math.max(1, core / 4), required + 1);
+        } else if (queueWait < target / 2.0) {
+            newCore = Math.max(core - Math.max(1, core / 8), required + 1);
+        }
+        int max = getMaximumPoolSize();
+        newCore = Math.min(Math.max(newCore, Math.min(adaptiveMinPoolSize, max)), max);
+
+        if (newCore != core) {
+            setCorePoolSize(newCore);
+            if (newCore > core) {
+                prestartAllCoreThreads();
+            }
+        }
+    }
+
+    private static final class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final ExecutionStatistics statistics;
+        private final long submitTime;
+        // Only accessed by the thread running the task
+        private long startTime;
+
+        TimedTask(Runnable task, ExecutionStatistics statistics) {
+            this.task = task;
+            this.statistics = statistics;
+            this.submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
     private static class RejectHandler implements RejectedExecutionHandler {
         @Override
         public void rejectedExecution(Runnable r,
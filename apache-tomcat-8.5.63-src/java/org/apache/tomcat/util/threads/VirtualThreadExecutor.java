@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that runs every task on a new virtual thread. There is no limit
+ * on the number of concurrent tasks so callers are expected to provide any
+ * required limit (e.g. a connector's maxConnections). Requires Java 21 or
+ * later.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final StringManager sm = StringManager.getManager("org.apache.tomcat.util.threads.res");
+
+    private final ThreadFactory threadFactory;
+
+    private final Object terminationLock = new Object();
+    private volatile boolean shutdown = false;
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+
+    /**
+     * @param namePrefix    The prefix for the names of the virtual threads
+     *
+     * @throws UnsupportedOperationException If the JRE does not support
+     *         virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        threadFactory = JreCompat.getInstance().createVirtualThreadFactory(namePrefix);
+    }
+
+
+    public static boolean isSupported() {
+        return JreCompat.isJre21Available();
+    }
+
+
+    /**
+     * @return The number of tasks currently executing
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    /**
+     * @return The number of tasks that have completed execution
+     */
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("virtualThreadExecutor.shutdown"));
+        }
+        Thread t = threadFactory.newThread(new Task(command));
+        // Don't pin the class loader of whatever thread triggered the task
+        t.setContextClassLoader(getClass().getClassLoader());
+        activeCount.incrementAndGet();
+        try {
+            t.start();
+        } catch (RuntimeException | Error e) {
+            taskComplete();
+            throw e;
+        }
+    }
+
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        synchronized (terminationLock) {
+            terminationLock.notifyAll();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tasks are never queued and running virtual threads are not interrupted
+     * so this is equivalent to {@link #shutdown()}.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && activeCount.get() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+        }
+        return true;
+    }
+
+
+    private void taskComplete() {
+        if (activeCount.decrementAndGet() == 0 && shutdown) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    private class Task implements Runnable {
+
+        private final Runnable command;
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                completedTaskCount.incrementAndGet();
+                taskComplete();
+            }
+        }
+    }
+}